@@ -0,0 +1,29 @@
+package net.corda.benchmarks
+
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.DOLLARS
+import net.corda.core.contracts.sumOrThrow
+import org.openjdk.jmh.annotations.*
+import java.util.*
+
+@State(Scope.Benchmark)
+open class AmountBenchmark {
+    private val amount = 1234.DOLLARS
+    private val other = 56.DOLLARS
+    private val amounts = (1..100).map { it.DOLLARS }
+
+    @Benchmark
+    fun plus() = amount + other
+
+    @Benchmark
+    fun minus() = amount - other
+
+    @Benchmark
+    fun times() = amount * 3
+
+    @Benchmark
+    fun splitEvenly(): List<Amount<Currency>> = amount.splitEvenly(7)
+
+    @Benchmark
+    fun sumOrThrow() = amounts.sumOrThrow()
+}
@@ -0,0 +1,40 @@
+package net.corda.benchmarks
+
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.serialization.amqp.DeserializationInput
+import net.corda.core.serialization.amqp.SerializationOutput
+import net.corda.core.serialization.amqp.SerializerFactory
+import org.openjdk.jmh.annotations.*
+
+/**
+ * AMQP serialisation of the [Book]s of [AmqpObjectSerializerBenchmark], encoding and decoding straight to and from bytes
+ * and through a proton Data tree.
+ */
+@State(Scope.Benchmark)
+open class AmqpCodecBenchmark {
+    @Param("true", "false")
+    @JvmField
+    var streaming: Boolean = false
+
+    @Param("1", "100")
+    @JvmField
+    var trades: Int = 0
+
+    private val factory = SerializerFactory()
+    private lateinit var book: Book
+    private lateinit var serialized: SerializedBytes<Book>
+
+    @Setup
+    fun setUp() {
+        book = Book("Alice", (1..trades).map {
+            Trade("trade $it", it.toLong(), it * 1.5, it % 2 == 0, Counterparty("Bank ${it % 7}", it % 5, if (it % 3 == 0) null else it * 1000L))
+        })
+        serialized = SerializationOutput(factory, streaming = streaming).serialize(book)
+    }
+
+    @Benchmark
+    fun serialize() = SerializationOutput(factory, streaming = streaming).serialize(book)
+
+    @Benchmark
+    fun deserialize() = DeserializationInput(factory, streaming = streaming).deserialize(serialized, Book::class.java)
+}
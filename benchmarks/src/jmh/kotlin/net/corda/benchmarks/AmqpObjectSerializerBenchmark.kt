@@ -0,0 +1,47 @@
+package net.corda.benchmarks
+
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.serialization.amqp.DeserializationInput
+import net.corda.core.serialization.amqp.SerializationOutput
+import net.corda.core.serialization.amqp.SerializerFactory
+import org.openjdk.jmh.annotations.*
+
+data class Trade(val id: String, val quantity: Long, val price: Double, val buy: Boolean, val counterparty: Counterparty)
+
+data class Counterparty(val name: String, val rating: Int, val limit: Long?)
+
+data class Book(val owner: String, val trades: List<Trade>)
+
+/**
+ * AMQP serialisation of plain data classes, with the AMQP object serialisers calling the getters and constructors
+ * through generated code and through reflection.
+ */
+@State(Scope.Benchmark)
+open class AmqpObjectSerializerBenchmark {
+    @Param("true", "false")
+    @JvmField
+    var generateAccessors: Boolean = false
+
+    @Param("1", "100")
+    @JvmField
+    var trades: Int = 0
+
+    private lateinit var factory: SerializerFactory
+    private lateinit var book: Book
+    private lateinit var serialized: SerializedBytes<Book>
+
+    @Setup
+    fun setUp() {
+        factory = SerializerFactory(generateAccessors = generateAccessors)
+        book = Book("Alice", (1..trades).map {
+            Trade("trade $it", it.toLong(), it * 1.5, it % 2 == 0, Counterparty("Bank ${it % 7}", it % 5, if (it % 3 == 0) null else it * 1000L))
+        })
+        serialized = SerializationOutput(factory).serialize(book)
+    }
+
+    @Benchmark
+    fun serialize() = SerializationOutput(factory).serialize(book)
+
+    @Benchmark
+    fun deserialize() = DeserializationInput(factory).deserialize(serialized, Book::class.java)
+}
@@ -0,0 +1,58 @@
+package net.corda.benchmarks
+
+import net.corda.contracts.asset.Cash
+import net.corda.core.contracts.*
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.sign
+import net.corda.core.transactions.LedgerTransaction
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.WireTransaction
+import net.corda.testing.*
+
+/**
+ * Sets up serialisation the way the tests do. It's done once per JVM, as a benchmark may use more than one state which
+ * needs it.
+ */
+fun initialiseSerialization() = serialization
+
+private val serialization: Unit by lazy { initialiseTestSerialization() }
+
+/** [size] cash states of $100 each, issued by MEGA_CORP to itself. */
+fun cashStates(size: Int): List<Cash.State> {
+    return (1..size).map { Cash.State(MEGA_CORP.ref(1), 100.DOLLARS, MEGA_CORP) }
+}
+
+/** A transaction moving [size] cash states from MEGA_CORP to MINI_CORP. */
+fun cashMove(size: Int): WireTransaction {
+    return WireTransaction(
+            inputs = (0 until size).map { StateRef(SecureHash.randomSHA256(), it) },
+            attachments = emptyList(),
+            outputs = cashStates(size).map { TransactionState(it.copy(owner = MINI_CORP), DUMMY_NOTARY) },
+            commands = listOf(Command(Cash.Commands.Move(), MEGA_CORP_PUBKEY)),
+            notary = DUMMY_NOTARY,
+            signers = listOf(MEGA_CORP_PUBKEY, DUMMY_NOTARY.owningKey),
+            type = TransactionType.General,
+            timeWindow = null)
+}
+
+fun signedCashMove(size: Int): SignedTransaction {
+    val wtx = cashMove(size)
+    return SignedTransaction(wtx.serialized, listOf(MEGA_CORP_KEY.sign(wtx.id.bytes), DUMMY_NOTARY_KEY.sign(wtx.id.bytes)))
+}
+
+/** The resolved form of [cashMove], without the serialisation needed to calculate a real transaction ID. */
+fun cashMoveLedgerTransaction(size: Int): LedgerTransaction {
+    val inputs = cashStates(size).mapIndexed { i, state ->
+        StateAndRef(TransactionState(state, DUMMY_NOTARY), StateRef(SecureHash.randomSHA256(), i))
+    }
+    return LedgerTransaction(
+            inputs = inputs,
+            outputs = inputs.map { TransactionState(it.state.data.copy(owner = MINI_CORP), DUMMY_NOTARY) },
+            commands = listOf(AuthenticatedObject(listOf(MEGA_CORP_PUBKEY), listOf(MEGA_CORP), Cash.Commands.Move())),
+            attachments = emptyList(),
+            id = SecureHash.randomSHA256(),
+            notary = DUMMY_NOTARY,
+            signers = listOf(MEGA_CORP_PUBKEY, DUMMY_NOTARY.owningKey),
+            timeWindow = null,
+            type = TransactionType.General)
+}
@@ -0,0 +1,64 @@
+package net.corda.benchmarks
+
+import net.corda.core.crypto.composite.CompositeKey
+import net.corda.core.crypto.generateKeyPair
+import net.corda.core.crypto.isFulfilledBy
+import org.openjdk.jmh.annotations.*
+import java.security.PublicKey
+
+/**
+ * Checking a composite key of [members] keys, with a threshold of a majority of them, as for a notary cluster. With a
+ * [depth] of more than one each of the members is itself such a key, down to that many levels.
+ */
+@State(Scope.Benchmark)
+open class CompositeKeyBenchmark {
+    @Param("3", "7", "21")
+    @JvmField
+    var members: Int = 0
+
+    @Param("1", "3")
+    @JvmField
+    var depth: Int = 0
+
+    private lateinit var compositeKey: CompositeKey
+    private lateinit var encoded: ByteArray
+    private lateinit var majority: Set<PublicKey>
+    private lateinit var minority: Set<PublicKey>
+
+    private class Tree(val key: PublicKey, val fulfilledBy: Set<PublicKey>, val notFulfilledBy: Set<PublicKey>)
+
+    @Setup
+    fun setUp() {
+        val tree = tree(depth)
+        compositeKey = tree.key as CompositeKey
+        encoded = compositeKey.encoded
+        majority = tree.fulfilledBy
+        minority = tree.notFulfilledBy
+    }
+
+    // Only just fulfilled by a majority of the members at every level, and only just not fulfilled by a minority of
+    // them at the top.
+    private fun tree(level: Int): Tree {
+        if (level == 0) {
+            val key = generateKeyPair().public
+            return Tree(key, setOf(key), emptySet())
+        }
+        val children = (1..members).map { tree(level - 1) }
+        val threshold = members / 2 + 1
+        val key = CompositeKey.Builder().addKeys(children.map { it.key }).build(threshold)
+        val fulfilledBy = children.take(threshold).flatMap { it.fulfilledBy }.toSet()
+        val notFulfilledBy = children.take(threshold - 1).flatMap { it.fulfilledBy }.toSet() +
+                children.drop(threshold - 1).flatMap { it.notFulfilledBy }
+        return Tree(key, fulfilledBy, notFulfilledBy)
+    }
+
+    @Benchmark
+    fun isFulfilledBy() = compositeKey.isFulfilledBy(majority)
+
+    @Benchmark
+    fun isNotFulfilledBy() = compositeKey.isFulfilledBy(minority)
+
+    /** The first check of a key, as of one which has just been deserialised, validates the tree and flattens it. */
+    @Benchmark
+    fun decodeAndCheck() = CompositeKey.getInstance(encoded).isFulfilledBy(majority)
+}
@@ -0,0 +1,93 @@
+package net.corda.benchmarks
+
+import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.SignatureVerificationCache
+import org.openjdk.jmh.annotations.*
+import java.security.KeyPair
+
+/** Signing and verification with each of the supported signature schemes, other than composite keys, which can't sign. */
+@State(Scope.Benchmark)
+open class CryptoBenchmark {
+    @Param("RSA_SHA256", "ECDSA_SECP256K1_SHA256", "ECDSA_SECP256R1_SHA256", "EDDSA_ED25519_SHA512", "SPHINCS256_SHA256")
+    @JvmField
+    var scheme: String = ""
+
+    private val clearData = ByteArray(32) { it.toByte() }
+    private lateinit var keyPair: KeyPair
+    private lateinit var signature: ByteArray
+
+    @Setup
+    fun setUp() {
+        keyPair = Crypto.generateKeyPair(scheme)
+        signature = Crypto.doSign(scheme, keyPair.private, clearData)
+    }
+
+    @Benchmark
+    fun doSign() = Crypto.doSign(scheme, keyPair.private, clearData)
+
+    @Benchmark
+    fun doVerify() = Crypto.doVerify(scheme, keyPair.public, signature, clearData)
+}
+
+/**
+ * Verification of the signatures of a transaction with several signers, one at a time and with the batch verification
+ * of [Crypto.doVerify], which uses one pooled [java.security.Signature] of each scheme for the whole batch.
+ */
+@State(Scope.Benchmark)
+open class BatchVerificationBenchmark {
+    @Param("2", "8", "32")
+    @JvmField
+    var signers: Int = 0
+
+    private val clearData = ByteArray(32) { it.toByte() }
+    private lateinit var signatures: List<DigitalSignature.WithKey>
+
+    @Setup
+    fun setUp() {
+        // Alternate between the schemes the node uses for its own keys.
+        val schemes = listOf(Crypto.EDDSA_ED25519_SHA512, Crypto.ECDSA_SECP256R1_SHA256)
+        signatures = (0 until signers).map {
+            val keyPair = Crypto.generateKeyPair(schemes[it % schemes.size])
+            DigitalSignature.WithKey(keyPair.public, Crypto.doSign(keyPair.private, clearData))
+        }
+    }
+
+    @Benchmark
+    fun individually() = signatures.all { Crypto.doVerify(it.by, it.bytes, clearData) }
+
+    @Benchmark
+    fun batch() = Crypto.doVerify(signatures, clearData)
+}
+
+/**
+ * Checking the signatures of a transaction with several signers through [SignatureVerificationCache], once they've
+ * already been verified, against verifying them again without it.
+ */
+@State(Scope.Benchmark)
+open class SignatureVerificationCacheBenchmark {
+    @Param("2", "8", "32")
+    @JvmField
+    var signers: Int = 0
+
+    private val content = SecureHash.sha256("transaction")
+    private lateinit var signatures: List<DigitalSignature.WithKey>
+
+    @Setup
+    fun setUp() {
+        val schemes = listOf(Crypto.EDDSA_ED25519_SHA512, Crypto.ECDSA_SECP256R1_SHA256)
+        signatures = (0 until signers).map {
+            val keyPair = Crypto.generateKeyPair(schemes[it % schemes.size])
+            DigitalSignature.WithKey(keyPair.public, Crypto.doSign(keyPair.private, content.bytes))
+        }
+        SignatureVerificationCache.clear()
+        SignatureVerificationCache.verify(content, signatures)
+    }
+
+    @Benchmark
+    fun cached() = SignatureVerificationCache.verify(content, signatures)
+
+    @Benchmark
+    fun uncached() = Crypto.doVerify(signatures, content.bytes)
+}
@@ -0,0 +1,27 @@
+package net.corda.benchmarks
+
+import net.corda.contracts.asset.Cash
+import net.corda.core.transactions.LedgerTransaction
+import org.openjdk.jmh.annotations.*
+
+/** Contract verification of a cash move of [states] states, and the grouping of its states that is part of it. */
+@State(Scope.Benchmark)
+open class LedgerTransactionBenchmark {
+    @Param("1", "10", "100")
+    @JvmField
+    var states: Int = 0
+
+    private lateinit var ltx: LedgerTransaction
+    private val cash = Cash()
+
+    @Setup
+    fun setUp() {
+        ltx = cashMoveLedgerTransaction(states)
+    }
+
+    @Benchmark
+    fun groupStates() = ltx.groupStates(Cash.State::class.java) { it.amount.token }
+
+    @Benchmark
+    fun cashVerify() = cash.verify(ltx)
+}
@@ -0,0 +1,22 @@
+package net.corda.benchmarks
+
+import net.corda.core.crypto.MerkleTree
+import net.corda.core.crypto.SecureHash
+import org.openjdk.jmh.annotations.*
+
+@State(Scope.Benchmark)
+open class MerkleTreeBenchmark {
+    @Param("4", "64", "1024")
+    @JvmField
+    var leaves: Int = 0
+
+    private lateinit var hashes: List<SecureHash>
+
+    @Setup
+    fun setUp() {
+        hashes = (1..leaves).map { SecureHash.randomSHA256() }
+    }
+
+    @Benchmark
+    fun getMerkleTree() = MerkleTree.getMerkleTree(hashes)
+}
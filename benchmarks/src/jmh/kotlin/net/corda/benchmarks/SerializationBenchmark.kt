@@ -0,0 +1,72 @@
+package net.corda.benchmarks
+
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.serialization.amqp.DeserializationInput
+import net.corda.core.serialization.amqp.SerializationOutput
+import net.corda.core.serialization.amqp.SerializerFactory
+import net.corda.core.serialization.amqp.custom.*
+import net.corda.core.serialization.deserialize
+import net.corda.core.serialization.serialize
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.WireTransaction
+import org.openjdk.jmh.annotations.*
+
+/** Serialisation of transactions with Kryo, as the node does now, and with AMQP. */
+@State(Scope.Benchmark)
+open class SerializationBenchmark {
+    @Param("1", "10", "100")
+    @JvmField
+    var states: Int = 0
+
+    private lateinit var wtx: WireTransaction
+    private lateinit var stx: SignedTransaction
+    private lateinit var kryoWtx: SerializedBytes<WireTransaction>
+    private lateinit var kryoStx: SerializedBytes<SignedTransaction>
+    private lateinit var amqpWtx: SerializedBytes<WireTransaction>
+    private lateinit var amqpStx: SerializedBytes<SignedTransaction>
+    private val factory = SerializerFactory().apply {
+        register(PublicKeySerializer)
+        register(ThrowableSerializer(this))
+        register(X500NameSerializer)
+        register(BigDecimalSerializer)
+        register(CurrencySerializer)
+        register(InstantSerializer(this))
+    }
+
+    @Setup
+    fun setUp() {
+        initialiseSerialization()
+        stx = signedCashMove(states)
+        wtx = stx.tx
+        kryoWtx = wtx.serialize()
+        kryoStx = stx.serialize()
+        amqpWtx = SerializationOutput(factory).serialize(wtx)
+        amqpStx = SerializationOutput(factory).serialize(stx)
+    }
+
+    @Benchmark
+    fun kryoSerializeWireTransaction() = wtx.serialize()
+
+    @Benchmark
+    fun kryoDeserializeWireTransaction() = kryoWtx.deserialize()
+
+    @Benchmark
+    fun kryoSerializeSignedTransaction() = stx.serialize()
+
+    @Benchmark
+    fun kryoDeserializeSignedTransaction() = kryoStx.deserialize()
+
+    // The factory caches the serialisers it has built, as the node's would, but the output and input are per object.
+
+    @Benchmark
+    fun amqpSerializeWireTransaction() = SerializationOutput(factory).serialize(wtx)
+
+    @Benchmark
+    fun amqpDeserializeWireTransaction() = DeserializationInput(factory).deserialize(amqpWtx, WireTransaction::class.java)
+
+    @Benchmark
+    fun amqpSerializeSignedTransaction() = SerializationOutput(factory).serialize(stx)
+
+    @Benchmark
+    fun amqpDeserializeSignedTransaction() = DeserializationInput(factory).deserialize(amqpStx, SignedTransaction::class.java)
+}
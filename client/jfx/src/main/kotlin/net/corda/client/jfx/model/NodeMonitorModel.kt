@@ -8,6 +8,7 @@ import net.corda.core.messaging.CordaRPCOps
 import net.corda.core.messaging.StateMachineInfo
 import net.corda.core.messaging.StateMachineTransactionMapping
 import net.corda.core.messaging.StateMachineUpdate
+import net.corda.core.messaging.verifiedTransactionsPagedFeed
 import net.corda.core.node.services.NetworkMapCache.MapChange
 import net.corda.core.node.services.Vault
 import net.corda.core.utilities.seconds
@@ -88,8 +89,8 @@ class NodeMonitorModel {
         val initialVaultUpdate = Vault.Update(setOf(), vault.toSet())
         vaultUpdates.startWith(initialVaultUpdate).subscribe(vaultUpdatesSubject)
 
-        // Transactions
-        val (transactions, newTransactions) = proxy.verifiedTransactions()
+        // Transactions, streamed a page at a time rather than all sent in one reply
+        val (transactions, newTransactions) = proxy.verifiedTransactionsPagedFeed()
         newTransactions.startWith(transactions).subscribe(transactionsSubject)
 
         // SM -> TX mapping
@@ -4,6 +4,7 @@ import net.corda.core.crypto.composite.CompositeKey
 import net.corda.core.crypto.composite.CompositeSignature
 import net.corda.core.crypto.provider.CordaObjectIdentifier
 import net.corda.core.crypto.provider.CordaSecurityProvider
+import net.corda.core.internal.LazyPool
 import net.i2p.crypto.eddsa.EdDSAEngine
 import net.i2p.crypto.eddsa.EdDSAPrivateKey
 import net.i2p.crypto.eddsa.EdDSAPublicKey
@@ -53,6 +54,7 @@ import java.security.spec.InvalidKeySpecException
 import java.security.spec.PKCS8EncodedKeySpec
 import java.security.spec.X509EncodedKeySpec
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import javax.crypto.Mac
 import javax.crypto.spec.SecretKeySpec
 
@@ -200,6 +202,26 @@ object Crypto {
             CordaSecurityProvider.PROVIDER_NAME to CordaSecurityProvider(),
             "BCPQC" to BouncyCastlePQCProvider()) // unfortunately, provider's name is not final in BouncyCastlePQCProvider, so we explicitly set it.
 
+    // Creating a JCA Signature means a provider lookup and some allocation each time, which is a noticeable part of the
+    // cost of checking a small signature. Instances are therefore pooled per scheme and reinitialised for each use,
+    // which resets them however the previous use ended. They're borrowed only for the duration of a call, rather than
+    // kept per thread, as thread locals are fiber locals in flows and would be checkpointed with them. Composite
+    // signatures are the exception, as verifying one involves verifying signatures from its leaf keys, and are cheap to
+    // create anyway.
+    private val signatureInstances = ConcurrentHashMap<String, LazyPool<Signature>>()
+
+    private inline fun <R> withSignatureInstance(signatureScheme: SignatureScheme, block: (Signature) -> R): R {
+        if (signatureScheme == COMPOSITE_KEY) return block(newSignatureInstance(signatureScheme))
+        val pool = signatureInstances.computeIfAbsent(signatureScheme.schemeCodeName) {
+            LazyPool { newSignatureInstance(signatureScheme) }
+        }
+        return pool.run(block)
+    }
+
+    private fun newSignatureInstance(signatureScheme: SignatureScheme): Signature {
+        return Signature.getInstance(signatureScheme.signatureName, providerMap[signatureScheme.providerName])
+    }
+
     private fun getBouncyCastleProvider() = BouncyCastleProvider().apply {
         putAll(EdDSASecurityProvider())
         addKeyInfoConverter(EDDSA_ED25519_SHA512.signatureOID.algorithm, KeyInfoConverter(EDDSA_ED25519_SHA512))
@@ -393,11 +415,12 @@ object Crypto {
     @Throws(IllegalArgumentException::class, InvalidKeyException::class, SignatureException::class)
     fun doSign(signatureScheme: SignatureScheme, privateKey: PrivateKey, clearData: ByteArray): ByteArray {
         require(isSupportedSignatureScheme(signatureScheme)) { "Unsupported key/algorithm for schemeCodeName: ${signatureScheme.schemeCodeName}" }
-        val signature = Signature.getInstance(signatureScheme.signatureName, providerMap[signatureScheme.providerName])
         if (clearData.isEmpty()) throw Exception("Signing of an empty array is not permitted!")
-        signature.initSign(privateKey)
-        signature.update(clearData)
-        return signature.sign()
+        return withSignatureInstance(signatureScheme) { signature ->
+            signature.initSign(privateKey)
+            signature.update(clearData)
+            signature.sign()
+        }
     }
 
     /**
@@ -500,6 +523,34 @@ object Crypto {
         return Crypto.doVerify(publicKey, transactionSignature.signatureData, transactionSignature.metaData.bytes())
     }
 
+    /**
+     * Method to verify several digital signatures over the same clear data, such as the signatures on a transaction.
+     * It returns true if they all succeed, but it always throws an exception if any verification fails.
+     * The signatures are grouped by signature scheme and each group is verified with the one [Signature] instance.
+     * @param signatures the signatures, each with the [PublicKey] of its signer.
+     * @param clearData the clear data/message that was signed (usually the Merkle root).
+     * @return true if verification passes or throws an exception if verification fails.
+     * @throws InvalidKeyException if a key is invalid.
+     * @throws SignatureException if a signature is improperly encoded or of the wrong type,
+     * or if the verification is not possible.
+     * @throws IllegalArgumentException if a signature scheme is not supported or if the clear data is empty.
+     */
+    @Throws(InvalidKeyException::class, SignatureException::class, IllegalArgumentException::class)
+    fun doVerify(signatures: Iterable<DigitalSignature.WithKey>, clearData: ByteArray): Boolean {
+        if (clearData.isEmpty()) throw IllegalArgumentException("Clear data is empty, nothing to verify!")
+        for ((signatureScheme, group) in signatures.groupBy { findSignatureScheme(it.by) }) {
+            require(isSupportedSignatureScheme(signatureScheme)) { "Unsupported key/algorithm for schemeCodeName: ${signatureScheme.schemeCodeName}" }
+            withSignatureInstance(signatureScheme) { signature ->
+                for (sig in group) {
+                    if (!isValid(signature, sig.by, sig.bytes, clearData)) {
+                        throw SignatureException("Signature Verification failed for key ${sig.by.toStringShort()}!")
+                    }
+                }
+            }
+        }
+        return true
+    }
+
     /**
      * Utility to simplify the act of verifying a digital signature by identifying the signature scheme used from the input public key's type.
      * It returns true if it succeeds and false if not. In comparison to [doVerify] if the key and signature
@@ -534,7 +585,10 @@ object Crypto {
     @Throws(SignatureException::class, IllegalArgumentException::class)
     fun isValid(signatureScheme: SignatureScheme, publicKey: PublicKey, signatureData: ByteArray, clearData: ByteArray): Boolean {
         require(isSupportedSignatureScheme(signatureScheme)) { "Unsupported key/algorithm for schemeCodeName: ${signatureScheme.schemeCodeName}" }
-        val signature = Signature.getInstance(signatureScheme.signatureName, providerMap[signatureScheme.providerName])
+        return withSignatureInstance(signatureScheme) { isValid(it, publicKey, signatureData, clearData) }
+    }
+
+    private fun isValid(signature: Signature, publicKey: PublicKey, signatureData: ByteArray, clearData: ByteArray): Boolean {
         signature.initVerify(publicKey)
         signature.update(clearData)
         return signature.verify(signatureData)
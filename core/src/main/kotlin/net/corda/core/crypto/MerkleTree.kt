@@ -1,7 +1,5 @@
 package net.corda.core.crypto
 
-import java.util.*
-
 /**
  * Creation and verification of a Merkle Tree for a Wire Transaction.
  *
@@ -18,51 +16,30 @@ sealed class MerkleTree {
     data class Node(override val hash: SecureHash, val left: MerkleTree, val right: MerkleTree) : MerkleTree()
 
     companion object {
-        private fun isPow2(num: Int): Boolean = num and (num - 1) == 0
-
         /**
          * Merkle tree building using hashes, with zero hash padding to full power of 2.
          */
         @Throws(IllegalArgumentException::class)
         fun getMerkleTree(allLeavesHashes: List<SecureHash>): MerkleTree {
-            val leaves = padWithZeros(allLeavesHashes).map { Leaf(it) }
-            return buildMerkleTree(leaves)
-        }
-
-        // If number of leaves in the tree is not a power of 2, we need to pad it with zero hashes.
-        private fun padWithZeros(allLeavesHashes: List<SecureHash>): List<SecureHash> {
-            var n = allLeavesHashes.size
-            if (isPow2(n)) return allLeavesHashes
-            val paddedHashes = ArrayList<SecureHash>(allLeavesHashes)
-            while (!isPow2(n++)) {
-                paddedHashes.add(SecureHash.zeroHash)
-            }
-            return paddedHashes
-        }
-
-        /**
-         * Tailrecursive function for building a tree bottom up.
-         * @param lastNodesList MerkleTree nodes from previous level.
-         * @return Tree root.
-         */
-        private tailrec fun buildMerkleTree(lastNodesList: List<MerkleTree>): MerkleTree {
-            if (lastNodesList.isEmpty())
+            if (allLeavesHashes.isEmpty())
                 throw MerkleTreeException("Cannot calculate Merkle root on empty hash list.")
-            if (lastNodesList.size == 1) {
-                return lastNodesList[0] //Root reached.
-            } else {
-                val newLevelHashes: MutableList<MerkleTree> = ArrayList()
-                val n = lastNodesList.size
-                require((n and 1) == 0) { "Sanity check: number of nodes should be even." }
-                for (i in 0..n - 2 step 2) {
-                    val left = lastNodesList[i]
-                    val right = lastNodesList[i + 1]
-                    val newHash = left.hash.hashConcat(right.hash)
-                    val combined = Node(newHash, left, right)
-                    newLevelHashes.add(combined)
+            // If number of leaves in the tree is not a power of 2, we need to pad it with zero hashes.
+            var width = Integer.highestOneBit(allLeavesHashes.size)
+            if (width < allLeavesHashes.size) width = width shl 1
+            val nodes = arrayOfNulls<MerkleTree>(width)
+            for (i in 0 until width) {
+                nodes[i] = Leaf(if (i < allLeavesHashes.size) allLeavesHashes[i] else SecureHash.zeroHash)
+            }
+            // Build the tree bottom up, each level overwriting the start of the level below it, until the root is reached.
+            while (width > 1) {
+                width /= 2
+                for (i in 0 until width) {
+                    val left = nodes[2 * i]!!
+                    val right = nodes[2 * i + 1]!!
+                    nodes[i] = Node(left.hash.hashConcat(right.hash), left, right)
                 }
-                return buildMerkleTree(newLevelHashes)
             }
+            return nodes[0]!!
         }
     }
-}
\ No newline at end of file
+}
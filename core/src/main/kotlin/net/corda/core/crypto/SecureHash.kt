@@ -1,6 +1,7 @@
 package net.corda.core.crypto
 
 import com.google.common.io.BaseEncoding
+import net.corda.core.internal.LazyPool
 import net.corda.core.serialization.CordaSerializable
 import net.corda.core.utilities.OpaqueBytes
 import java.security.MessageDigest
@@ -21,7 +22,13 @@ sealed class SecureHash(bytes: ByteArray) : OpaqueBytes(bytes) {
     override fun toString(): String = BaseEncoding.base16().encode(bytes)
 
     fun prefixChars(prefixLen: Int = 6) = toString().substring(0, prefixLen)
-    fun hashConcat(other: SecureHash) = (this.bytes + other.bytes).sha256()
+    fun hashConcat(other: SecureHash): SecureHash.SHA256 {
+        return sha256Digests.run { digest ->
+            digest.update(this.bytes)
+            digest.update(other.bytes)
+            SHA256(digest.digest())
+        }
+    }
 
     // Like static methods in Java, except the 'companion' is a singleton that can have state.
     companion object {
@@ -33,7 +40,12 @@ sealed class SecureHash(bytes: ByteArray) : OpaqueBytes(bytes) {
             }
         }
 
-        @JvmStatic fun sha256(bytes: ByteArray) = SHA256(MessageDigest.getInstance("SHA-256").digest(bytes))
+        // Looking up a MessageDigest is as expensive as hashing a short input, such as a pair of Merkle tree nodes, so
+        // they're pooled. They're borrowed only for each hash, rather than kept per thread, as thread locals are fiber
+        // locals in flows and would be checkpointed with them. Calculating a digest resets it for the next use.
+        private val sha256Digests = LazyPool(clear = MessageDigest::reset) { MessageDigest.getInstance("SHA-256") }
+
+        @JvmStatic fun sha256(bytes: ByteArray) = SHA256(sha256Digests.run { it.digest(bytes) })
         @JvmStatic fun sha256Twice(bytes: ByteArray) = sha256(sha256(bytes).bytes)
         @JvmStatic fun sha256(str: String) = sha256(str.toByteArray())
 
@@ -0,0 +1,44 @@
+package net.corda.core.crypto
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import net.corda.core.utilities.OpaqueBytes
+import java.security.PublicKey
+import java.security.SignatureException
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * A bounded, process wide record of the signatures which have been found to be valid for some content, identified by
+ * its hash. The same transaction tends to have its signatures checked several times over as it goes through a node,
+ * for example when it's resolved, notarised, finalised and recorded, and this saves repeating the verification.
+ *
+ * Only successful verifications are remembered. An invalid signature is rejected every time it's checked, so that a
+ * counterparty sending garbage can't fill the cache with it.
+ */
+@ThreadSafe
+object SignatureVerificationCache {
+    const val MAX_ENTRIES = 50000L
+
+    private data class Entry(val content: SecureHash, val by: PublicKey, val signature: OpaqueBytes)
+
+    private val verified: Cache<Entry, Unit> = CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build()
+
+    /**
+     * Verifies the signatures over [content], skipping those which have already been verified over it. Those which
+     * haven't are verified together with [Crypto.doVerify] and remembered if they're all valid.
+     *
+     * @throws SignatureException if a signature fails to verify.
+     */
+    @Throws(SignatureException::class)
+    fun verify(content: SecureHash, signatures: List<DigitalSignature.WithKey>) {
+        val unverified = signatures.filter { verified.getIfPresent(it.toEntry(content)) == null }
+        if (unverified.isEmpty()) return
+        Crypto.doVerify(unverified, content.bytes)
+        unverified.forEach { verified.put(it.toEntry(content), Unit) }
+    }
+
+    /** Forgets all the signatures verified so far. */
+    fun clear() = verified.invalidateAll()
+
+    private fun DigitalSignature.WithKey.toEntry(content: SecureHash) = Entry(content, by, OpaqueBytes(bytes))
+}
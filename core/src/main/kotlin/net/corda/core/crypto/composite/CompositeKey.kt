@@ -65,8 +65,10 @@ class CompositeKey private constructor(val threshold: Int, children: List<NodeAn
         checkConstraints()
     }
 
+    // Built the first time the key is checked for fulfilment, which is when the tree is validated.
     @Transient
-    private var validated = false
+    @Volatile
+    private var fulfilmentIndex: FulfilmentIndex? = null
 
     // Check for key duplication, threshold and weight constraints and test for aggregated weight integer overflow.
     private fun checkConstraints() {
@@ -104,6 +106,7 @@ class CompositeKey private constructor(val threshold: Int, children: List<NodeAn
      * requirements are met, while it tests for aggregated-weight integer overflow.
      * In practice, this method should be always invoked on the root [CompositeKey], as it inherently
      * validates the child nodes (all the way till the leaves).
+     * Each call does the full check. [isFulfilledBy] only does it the first time it's called on the instance.
      * TODO: Always call this method when deserialising [CompositeKey]s.
      */
     fun checkValidity() {
@@ -117,7 +120,6 @@ class CompositeKey private constructor(val threshold: Int, children: List<NodeAn
                 node.checkConstraints()
             }
         }
-        validated = true
     }
 
     // Method to check if the total (aggregated) weight of child nodes overflows.
@@ -181,19 +183,6 @@ class CompositeKey private constructor(val threshold: Int, children: List<NodeAn
 
     override fun getFormat() = ASN1Encoding.DER
 
-    // Extracted method from isFulfilledBy.
-    private fun checkFulfilledBy(keysToCheck: Iterable<PublicKey>): Boolean {
-        if (keysToCheck.any { it is CompositeKey }) return false
-        val totalWeight = children.map { (node, weight) ->
-            if (node is CompositeKey) {
-                if (node.checkFulfilledBy(keysToCheck)) weight else 0
-            } else {
-                if (keysToCheck.contains(node)) weight else 0
-            }
-        }.sum()
-        return totalWeight >= threshold
-    }
-
     /**
      * Function checks if the public keys corresponding to the signatures are matched against the leaves of the composite
      * key tree in question, and the total combined weight of all children is calculated for every intermediary node.
@@ -202,9 +191,74 @@ class CompositeKey private constructor(val threshold: Int, children: List<NodeAn
     fun isFulfilledBy(keysToCheck: Iterable<PublicKey>): Boolean {
         // We validate keys only when checking if they're matched, as this checks subkeys as a result.
         // Doing these checks at deserialization/construction time would result in duplicate checks.
-        if (!validated)
+        // The tree is only validated the first time, when it's flattened.
+        val index = fulfilmentIndex ?: run {
             checkValidity() // TODO: remove when checkValidity() will be eventually invoked during/after deserialization.
-        return checkFulfilledBy(keysToCheck)
+            FulfilmentIndex(this).also { fulfilmentIndex = it }
+        }
+        return index.isFulfilledBy(keysToCheck)
+    }
+
+    /**
+     * The tree flattened so that checking it for fulfilment is one pass over the keys to check, followed by one over
+     * its composite nodes, rather than a walk of the whole tree. The composite nodes are numbered in post-order, so
+     * that each comes after its composite children and the root is last. Each leaf key maps to the nodes it's a child
+     * of, along with its weight in each. A subtree which appears more than once in the tree is flattened each time.
+     */
+    private class FulfilmentIndex(root: CompositeKey) {
+        private val thresholds: IntArray
+        private val parents: IntArray
+        private val weightsInParents: IntArray
+        // For each leaf key, the nodes it's a child of and its weight in them, in pairs.
+        private val leaves: Map<PublicKey, IntArray>
+
+        init {
+            val thresholds = ArrayList<Int>()
+            val parents = ArrayList<Int>()
+            val weightsInParents = ArrayList<Int>()
+            val leaves = HashMap<PublicKey, MutableList<Int>>()
+            fun visit(key: CompositeKey): Int {
+                val compositeChildren = key.children
+                        .filter { it.node is CompositeKey }
+                        .map { (node, weight) -> visit(node as CompositeKey) to weight }
+                val index = thresholds.size
+                thresholds += key.threshold
+                parents += -1
+                weightsInParents += 0
+                for ((child, weight) in compositeChildren) {
+                    parents[child] = index
+                    weightsInParents[child] = weight
+                }
+                for ((node, weight) in key.children) {
+                    if (node !is CompositeKey) leaves.getOrPut(node) { ArrayList() } += listOf(index, weight)
+                }
+                return index
+            }
+            visit(root)
+            this.thresholds = thresholds.toIntArray()
+            this.parents = parents.toIntArray()
+            this.weightsInParents = weightsInParents.toIntArray()
+            this.leaves = leaves.mapValues { it.value.toIntArray() }
+        }
+
+        fun isFulfilledBy(keysToCheck: Iterable<PublicKey>): Boolean {
+            // Each key only counts once, however many times it's given.
+            val keys = keysToCheck as? Set<PublicKey> ?: keysToCheck.toSet()
+            if (keys.any { it is CompositeKey }) return false
+            val totalWeights = IntArray(thresholds.size)
+            for (key in keys) {
+                val nodesAndWeights = leaves[key] ?: continue
+                for (i in nodesAndWeights.indices step 2) {
+                    totalWeights[nodesAndWeights[i]] += nodesAndWeights[i + 1]
+                }
+            }
+            // No total can overflow, as none is more than the aggregated weight of the node's children.
+            val root = thresholds.size - 1
+            for (node in 0 until root) {
+                if (totalWeights[node] >= thresholds[node]) totalWeights[parents[node]] += weightsInParents[node]
+            }
+            return totalWeights[root] >= thresholds[root]
+        }
     }
 
     /**
@@ -6,6 +6,7 @@ import net.corda.core.crypto.isFulfilledBy
 import net.corda.core.crypto.toBase58String
 import net.corda.core.identity.Party
 import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.KeyManagementService
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.transactions.WireTransaction
 import net.corda.core.utilities.ProgressTracker
@@ -209,7 +210,9 @@ abstract class SignTransactionFlow(val otherParty: Party,
 
         // Sign and send back our signature to the Initiator.
         progressTracker.currentStep = SIGNING
-        val mySignature = serviceHub.createSignature(checkedProposal)
+        // The key management service may sign on another thread, leaving this one free to run other flows meanwhile.
+        val signingRequest = KeyManagementService.SigningRequest(checkedProposal.id.bytes, serviceHub.legalIdentityKey)
+        val mySignature = signSuspending(listOf(signingRequest)).single()
         send(otherParty, mySignature)
 
         // Return the fully signed transaction once it has been committed.
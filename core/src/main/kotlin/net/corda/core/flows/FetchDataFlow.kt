@@ -7,6 +7,7 @@ import net.corda.core.flows.FetchDataFlow.DownloadedVsRequestedDataMismatch
 import net.corda.core.flows.FetchDataFlow.HashNotFound
 import net.corda.core.identity.Party
 import net.corda.core.serialization.CordaSerializable
+import net.corda.core.serialization.deserialize
 import net.corda.core.utilities.UntrustworthyData
 import net.corda.core.utilities.unwrap
 import java.util.*
@@ -40,9 +41,47 @@ abstract class FetchDataFlow<T : NamedByHash, W : Any>(
 
     class HashNotFound(val requested: SecureHash) : FlowException()
 
+    companion object {
+        /** The most bytes of serialised items a [Chunk] may carry, which keeps messages well under the Artemis limit. */
+        const val MAX_CHUNK_SIZE = 1024 * 1024
+        /** The number of chunks the peer may send ahead of those we've processed. */
+        const val CHUNK_WINDOW = 4
+        /** The first platform version whose nodes answer a [StreamRequest]. Earlier ones only understand a [Request]. */
+        const val STREAMING_PLATFORM_VERSION = 2
+    }
+
+    /**
+     * Asks for the items with the given hashes, which are sent back in order one per message, each of which must fit
+     * within the Artemis message size limit. This is used with peers older than [STREAMING_PLATFORM_VERSION].
+     */
     @CordaSerializable
     data class Request(val hashes: List<SecureHash>)
 
+    /**
+     * Asks for the items with the given hashes, which are sent back in order as a stream of [Chunk]s. The peer may send
+     * [window] chunks straight away, and then one more for each [Credit] it receives.
+     */
+    @CordaSerializable
+    data class StreamRequest(val hashes: List<SecureHash>, val window: Int)
+
+    /**
+     * A piece of the response to a [StreamRequest]. The serialised items are split into [Fragment]s, so that a large item can
+     * span chunks while small ones share a chunk, and [last] marks the end of the response.
+     */
+    @CordaSerializable
+    class Chunk(val fragments: List<Fragment>, val last: Boolean)
+
+    /** Part of a serialised item, the final part if [endOfItem] is set. */
+    @CordaSerializable
+    class Fragment(val bytes: ByteArray, val endOfItem: Boolean)
+
+    /**
+     * Lets the peer send another chunk. One is sent for every chunk received other than the last, all of which the
+     * peer takes before ending the session.
+     */
+    @CordaSerializable
+    data class Credit(val chunks: Int)
+
     @CordaSerializable
     data class Result<out T : NamedByHash>(val fromDisk: List<T>, val downloaded: List<T>)
 
@@ -56,29 +95,49 @@ abstract class FetchDataFlow<T : NamedByHash, W : Any>(
             Result(fromDisk, emptyList())
         } else {
             logger.info("Requesting ${toFetch.size} dependency(s) for verification from ${otherSide.name}")
-
-            // TODO: Support "large message" response streaming so response sizes are not limited by RAM.
-            // We can then switch to requesting items in large batches to minimise the latency penalty.
-            // This is blocked by bugs ARTEMIS-1278 and ARTEMIS-1279. For now we limit attachments and txns to 10mb each
-            // and don't request items in batch, which is a performance loss, but works around the issue. We have
-            // configured Artemis to not fragment messages up to 10mb so we can send 10mb messages without problems.
-            // Above that, we start losing authentication data on the message fragments and take exceptions in the
-            // network layer.
-            val maybeItems = ArrayList<W>(toFetch.size)
-            send(otherSide, Request(toFetch))
-            for (hash in toFetch) {
-                // We skip the validation here (with unwrap { it }) because we will do it below in validateFetchResponse.
-                // The only thing checked is the object type. It is a protocol violation to send results out of order.
-                maybeItems += receive(wrapperType, otherSide).unwrap { it }
-            }
-            // Check for a buggy/malicious peer answering with something that we didn't ask for.
-            val downloaded = validateFetchResponse(UntrustworthyData(maybeItems), toFetch)
+            // A peer we don't know the version of is treated as an old one, which any peer can answer.
+            val peerVersion = serviceHub.networkMapCache.getNodeByLegalIdentity(otherSide)?.platformVersion ?: 1
+            val downloaded = if (peerVersion >= STREAMING_PLATFORM_VERSION) fetchStreamed(toFetch) else fetchOnePerMessage(toFetch)
             logger.info("Fetched ${downloaded.size} elements from ${otherSide.name}")
             maybeWriteToDisk(downloaded)
             Result(fromDisk, downloaded)
         }
     }
 
+    @Suspendable
+    private fun fetchStreamed(toFetch: List<SecureHash>): List<T> {
+        // All the items are requested at once and streamed back in chunks, with the number of chunks in flight limited
+        // by the credit we give the peer. Each item is checked as soon as its last fragment arrives, so a buggy or
+        // malicious peer answering with something we didn't ask for is caught without waiting for the rest.
+        send(otherSide, StreamRequest(toFetch, CHUNK_WINDOW))
+        val downloaded = ArrayList<T>(toFetch.size)
+        val itemFragments = ArrayList<ByteArray>()
+        do {
+            val chunk = receive<Chunk>(otherSide).unwrap { it }
+            if (chunk.fragments.sumBy { it.bytes.size } > MAX_CHUNK_SIZE) throw FlowException("Chunk too large")
+            for (fragment in chunk.fragments) {
+                if (downloaded.size == toFetch.size) throw DownloadedVsRequestedSizeMismatch(toFetch.size, toFetch.size + 1)
+                itemFragments += fragment.bytes
+                if (fragment.endOfItem) {
+                    downloaded += validateItem(UntrustworthyData(concatenate(itemFragments)), toFetch[downloaded.size])
+                    itemFragments.clear()
+                }
+            }
+            if (!chunk.last) send(otherSide, Credit(1))
+        } while (!chunk.last)
+        if (downloaded.size != toFetch.size || itemFragments.isNotEmpty()) {
+            throw DownloadedVsRequestedSizeMismatch(toFetch.size, downloaded.size)
+        }
+        return downloaded
+    }
+
+    @Suspendable
+    private fun fetchOnePerMessage(toFetch: List<SecureHash>): List<T> {
+        send(otherSide, Request(toFetch))
+        // It is a protocol violation to send results out of order.
+        return toFetch.map { requested -> receive(wrapperType, otherSide).unwrap { checkItem(it, requested) } }
+    }
+
     protected open fun maybeWriteToDisk(downloaded: List<T>) {
         // Do nothing by default.
     }
@@ -101,19 +160,32 @@ abstract class FetchDataFlow<T : NamedByHash, W : Any>(
     @Suppress("UNCHECKED_CAST")
     protected open fun convert(wire: W): T = wire as T
 
-    private fun validateFetchResponse(maybeItems: UntrustworthyData<ArrayList<W>>,
-                                      requests: List<SecureHash>): List<T> {
-        return maybeItems.unwrap { response ->
-            if (response.size != requests.size)
-                throw DownloadedVsRequestedSizeMismatch(requests.size, response.size)
-            val answers = response.map { convert(it) }
-            // Check transactions actually hash to what we requested, if this fails the remote node
-            // is a malicious flow violator or buggy.
-            for ((index, item) in answers.withIndex()) {
-                if (item.id != requests[index])
-                    throw DownloadedVsRequestedDataMismatch(requests[index], item.id)
+    private fun validateItem(maybeItem: UntrustworthyData<ByteArray>, requested: SecureHash): T {
+        return maybeItem.unwrap { bytes ->
+            val wire = bytes.deserialize<Any>()
+            if (!wrapperType.isInstance(wire)) {
+                throw FlowException("Expected a ${wrapperType.name} but received a ${wire.javaClass.name}")
             }
-            answers
+            checkItem(wrapperType.cast(wire), requested)
+        }
+    }
+
+    private fun checkItem(wire: W, requested: SecureHash): T {
+        val item = convert(wire)
+        // Check the item actually hashes to what we requested, if this fails the remote node is a malicious flow
+        // violator or buggy.
+        if (item.id != requested) throw DownloadedVsRequestedDataMismatch(requested, item.id)
+        return item
+    }
+
+    private fun concatenate(fragments: List<ByteArray>): ByteArray {
+        if (fragments.size == 1) return fragments[0]
+        val bytes = ByteArray(fragments.sumBy { it.size })
+        var offset = 0
+        for (fragment in fragments) {
+            System.arraycopy(fragment, 0, bytes, offset, fragment.size)
+            offset += fragment.size
         }
+        return bytes
     }
 }
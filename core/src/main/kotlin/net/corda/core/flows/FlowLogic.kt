@@ -2,16 +2,20 @@ package net.corda.core.flows
 
 import co.paralleluniverse.fibers.Suspendable
 import net.corda.core.abbreviate
+import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.SecureHash
 import net.corda.core.identity.Party
 import net.corda.core.internal.FlowStateMachine
 import net.corda.core.messaging.DataFeed
 import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.KeyManagementService
 import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
 import net.corda.core.utilities.ProgressTracker
 import net.corda.core.utilities.UntrustworthyData
 import net.corda.core.utilities.debug
 import org.slf4j.Logger
+import java.security.PublicKey
 
 /**
  * A sub-class of [FlowLogic<T>] implements a flow using direct, straight line blocking code. Thus you
@@ -231,6 +235,30 @@ abstract class FlowLogic<out T> {
     @Suspendable
     fun waitForLedgerCommit(hash: SecureHash): SignedTransaction = stateMachine.waitForLedgerCommit(hash, this)
 
+    /**
+     * Signs each of the [requests] with [KeyManagementService.signAsync], returning the signatures in the order of the
+     * requests. If the signing isn't done by the time they're requested, the flow is suspended until it is, as with any
+     * other suspension, so neither the thread nor a database connection is held while it waits.
+     *
+     * @throws IllegalArgumentException if a key is not one of this node's keys.
+     */
+    @Suspendable
+    fun signSuspending(requests: List<KeyManagementService.SigningRequest>): List<DigitalSignature.WithKey> {
+        return stateMachine.waitForFuture { serviceHub.keyManagementService.signAsync(requests) }
+    }
+
+    /**
+     * Signs the transaction being built with each of [signingPubKeys], as [ServiceHub.signInitialTransaction] does, but
+     * with the keys signing as one batch with [signSuspending].
+     */
+    @Suspendable
+    fun signInitialTransactionSuspending(builder: TransactionBuilder, signingPubKeys: Iterable<PublicKey>): SignedTransaction {
+        val id = builder.toWireTransaction().id
+        val signatures = signSuspending(signingPubKeys.map { KeyManagementService.SigningRequest(id.bytes, it) })
+        signatures.forEach { builder.addSignatureUnchecked(it) }
+        return builder.toSignedTransaction(false)
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     private var _stateMachine: FlowStateMachine<*>? = null
@@ -98,7 +98,7 @@ object NotaryFlow {
         override fun call(): Void? {
             val (id, inputs, timeWindow) = receiveAndVerifyTx()
             service.validateTimeWindow(timeWindow)
-            service.commitInputStates(inputs, id, otherSide)
+            service.commitInputStates(inputs, id, otherSide, this)
             signAndSendResponse(id)
             return null
         }
@@ -26,7 +26,7 @@ import java.util.*
  * then this isn't enough to put into the local database, so only the dependencies are checked and inserted. This way
  * to use the flow is helpful when resolving and verifying a finished but partially signed transaction.
  *
- * The flow returns a list of verified [LedgerTransaction] objects, in a depth-first order.
+ * The flow returns a list of verified [LedgerTransaction] objects, with dependencies listed before their dependers.
  */
 class ResolveTransactionsFlow(private val txHashes: Set<SecureHash>,
                               private val otherSide: Party) : FlowLogic<List<LedgerTransaction>>() {
@@ -65,6 +65,26 @@ class ResolveTransactionsFlow(private val txHashes: Set<SecureHash>,
             return result
         }
 
+        /**
+         * Groups topologically sorted transactions by their depth in the dependency graph. The transactions of a level
+         * only depend on those of the levels before it (or on transactions outside the list), so they can all be
+         * verified at the same time once the levels before it have been.
+         */
+        @JvmStatic
+        fun dependencyLevels(sorted: List<SignedTransaction>): List<List<SignedTransaction>> {
+            val levelOf = HashMap<SecureHash, Int>(sorted.size)
+            val levels = ArrayList<MutableList<SignedTransaction>>()
+            for (stx in sorted) {
+                val level = stx.tx.inputs.mapNotNull { levelOf[it.txhash] }.max()?.plus(1) ?: 0
+                levelOf[stx.id] = level
+                if (level == levels.size) levels += ArrayList<SignedTransaction>()
+                levels[level] += stx
+            }
+            return levels
+        }
+
+        /** The number of verified transactions to record together. */
+        private const val RECORD_BATCH_SIZE = 100
     }
 
     @CordaSerializable
@@ -95,23 +115,35 @@ class ResolveTransactionsFlow(private val txHashes: Set<SecureHash>,
     @Suspendable
     @Throws(FetchDataFlow.HashNotFound::class)
     override fun call(): List<LedgerTransaction> {
-        val newTxns: Iterable<SignedTransaction> = topologicalSort(downloadDependencies(txHashes))
+        val newTxns = topologicalSort(downloadDependencies(txHashes))
 
-        // For each transaction, verify it and insert it into the database. As we are iterating over them in a
-        // depth-first order, we should not encounter any verification failures due to missing data. If we fail
-        // half way through, it's no big deal, although it might result in us attempting to re-download data
-        // redundantly next time we attempt verification.
+        // Verify the transactions level by level, all those of a level at once, as they only depend on transactions
+        // already verified. The inputs of a transaction are resolved from the verified transactions still to be
+        // recorded before falling back on storage, so that transactions can be recorded in batches. If we fail half
+        // way through, it's no big deal, although it might result in us attempting to re-download data redundantly
+        // next time we attempt verification.
         val result = ArrayList<LedgerTransaction>()
-
-        for (stx in newTxns) {
-            // Resolve to a LedgerTransaction and then run all contracts.
-            val ltx = stx.toLedgerTransaction(serviceHub)
-            // Block on each verification request.
-            // TODO We could recover some parallelism from the dependency graph.
-            serviceHub.transactionVerifierService.verify(ltx).getOrThrow()
-            serviceHub.recordTransactions(stx)
-            result += ltx
+        val verified = LinkedHashMap<SecureHash, SignedTransaction>()
+
+        for (level in dependencyLevels(newTxns)) {
+            val ltxs = level.map { stx ->
+                stx.checkSignaturesAreValid()
+                stx.verifyRequiredSignatures()
+                stx.tx.toLedgerTransaction(
+                        resolveIdentity = { serviceHub.identityService.partyFromKey(it) },
+                        resolveAttachment = { serviceHub.attachments.openAttachment(it) },
+                        resolveStateRef = { ref -> verified[ref.txhash]?.tx?.outputs?.get(ref.index) ?: serviceHub.loadState(ref) })
+            }
+            // Submit the whole level before waiting, so the verifier can work on the transactions in parallel.
+            ltxs.map { serviceHub.transactionVerifierService.verify(it) }.forEach { it.getOrThrow() }
+            level.associateByTo(verified) { it.id }
+            result += ltxs
+            if (verified.size >= RECORD_BATCH_SIZE) {
+                serviceHub.recordTransactions(verified.values.toList())
+                verified.clear()
+            }
         }
+        if (verified.isNotEmpty()) serviceHub.recordTransactions(verified.values.toList())
 
         // If this flow is resolving a specific transaction, make sure we have its attachments and then verify
         // it as well, but don't insert to the database. Note that when we were given a SignedTransaction (stx != null)
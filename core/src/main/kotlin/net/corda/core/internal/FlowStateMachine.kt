@@ -30,6 +30,15 @@ interface FlowStateMachine<R> {
     @Suspendable
     fun waitForLedgerCommit(hash: SecureHash, sessionFlow: FlowLogic<*>): SignedTransaction
 
+    /**
+     * Suspends the flow until the future returned by [request] completes, returning its value or throwing its exception.
+     * As with any other suspension, the flow's database transaction is committed and a checkpoint taken first, so
+     * neither a thread nor a database connection is held while it waits. If the flow is restored from that checkpoint,
+     * [request] is made again, so it should be repeatable. If the future has already completed the flow doesn't suspend.
+     */
+    @Suspendable
+    fun <V> waitForFuture(request: () -> ListenableFuture<V>): V
+
     fun checkFlowPermission(permissionName: String, extraAuditData: Map<String,String>)
 
     fun recordAuditEvent(eventType: String, comment: String, extraAuditData: Map<String,String>)
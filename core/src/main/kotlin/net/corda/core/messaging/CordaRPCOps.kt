@@ -13,8 +13,10 @@ import net.corda.core.identity.AbstractParty
 import net.corda.core.identity.Party
 import net.corda.core.node.NodeInfo
 import net.corda.core.node.services.NetworkMapCache
+import net.corda.core.node.services.TransactionStorage
 import net.corda.core.node.services.Vault
 import net.corda.core.node.services.VaultQueryException
+import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
 import net.corda.core.node.services.vault.DEFAULT_PAGE_SIZE
 import net.corda.core.node.services.vault.PageSpecification
 import net.corda.core.node.services.vault.QueryCriteria
@@ -175,6 +177,23 @@ interface CordaRPCOps : RPCOps {
     @Deprecated("This function will be removed in a future milestone", ReplaceWith("verifiedTransactionFeed()"))
     fun verifiedTransactions() = verifiedTransactionsFeed()
 
+    /**
+     * Returns a page of the recorded transactions, in the order they were recorded. If [since] is non-null, only the
+     * transactions recorded after the one with that ID are paged through, and if [upTo] is non-null only those up to
+     * that [TransactionStorage.Page.recordedUpTo].
+     *
+     * Unlike [verifiedTransactionsFeed], which sends all the transactions in one reply, this lets a client read through
+     * them a page at a time. See [TransactionStorage.queryBy].
+     */
+    fun verifiedTransactionsQueryBy(paging: PageSpecification, since: SecureHash?, upTo: Long?): TransactionStorage.Page
+
+    /**
+     * Returns a page of the recorded transactions, as per [verifiedTransactionsQueryBy], and an observable of future
+     * recorded ones.
+     */
+    @RPCReturnsObservables
+    fun verifiedTransactionsTrackBy(paging: PageSpecification, since: SecureHash?): DataFeed<TransactionStorage.Page, SignedTransaction>
+
 
     /**
      * Returns a snapshot list of existing state machine id - recorded transaction hash mappings, and a stream of future
@@ -325,6 +344,30 @@ inline fun <reified T : ContractState> CordaRPCOps.vaultTrackBy(criteria: QueryC
     return vaultTrackBy(criteria, paging, sorting, T::class.java)
 }
 
+/**
+ * Returns the transactions recorded so far and an observable of those recorded from then on, like
+ * [CordaRPCOps.verifiedTransactionsFeed]. The transactions recorded so far are streamed from the node, [pageSize] at a
+ * time, as the snapshot observable is consumed, so neither the node nor the client has to hold all of them at once.
+ */
+fun CordaRPCOps.verifiedTransactionsPagedFeed(pageSize: Int = DEFAULT_PAGE_SIZE): DataFeed<Observable<SignedTransaction>, SignedTransaction> {
+    val paging = PageSpecification(DEFAULT_PAGE_NUM, pageSize)
+    val (firstPage, updates) = verifiedTransactionsTrackBy(paging, null)
+    val snapshot = Observable.defer {
+        // Each further page is read on from the last transaction of the previous one. Only the transactions recorded
+        // when the feed was started are read, as those recorded since are in the updates. They're bounded by position
+        // rather than counted, as transactions needn't be committed in the order they're recorded in.
+        val pages = generateSequence(firstPage.transactions) { previous ->
+            if (previous.size < pageSize) {
+                null
+            } else {
+                verifiedTransactionsQueryBy(paging, previous.last().id, firstPage.recordedUpTo).transactions
+            }
+        }
+        Observable.from(pages.flatten().asIterable())
+    }
+    return DataFeed(snapshot, updates)
+}
+
 /**
  * These allow type safe invocations of flows from Kotlin, e.g.:
  *
@@ -2,6 +2,7 @@ package net.corda.core.node.services
 
 import net.corda.core.contracts.Attachment
 import net.corda.core.crypto.SecureHash
+import net.corda.core.serialization.AttachmentsClassLoaderCache
 import java.io.IOException
 import java.io.InputStream
 import java.nio.file.FileAlreadyExistsException
@@ -29,5 +30,11 @@ interface AttachmentStorage {
      */
     @Throws(FileAlreadyExistsException::class, IOException::class)
     fun importAttachment(jar: InputStream): SecureHash
+
+    /**
+     * The cache of class loaders for the attachments in this store, used when deserialising the transactions which
+     * refer to them, or null if a class loader is built for each transaction.
+     */
+    val classLoaderCache: AttachmentsClassLoaderCache? get() = null
 }
 
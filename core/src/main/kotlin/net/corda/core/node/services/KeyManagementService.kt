@@ -1,6 +1,8 @@
 package net.corda.core.node.services
 
 import co.paralleluniverse.fibers.Suspendable
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.identity.AnonymousPartyAndPath
 import net.corda.core.identity.PartyAndCertificate
@@ -53,4 +55,20 @@ interface KeyManagementService {
      */
     @Suspendable
     fun sign(bytes: ByteArray, publicKey: PublicKey): DigitalSignature.WithKey
+
+    /** The data to sign over and the key to sign it with, as passed to [sign]. */
+    class SigningRequest(val bytes: ByteArray, val publicKey: PublicKey)
+
+    /**
+     * Signs each of the [requests], as per [sign], returning a future of the signatures in the order of the requests.
+     * Implementations may sign on other threads, so that the signing doesn't hold up the caller. A flow can wait for the
+     * signatures with [net.corda.core.flows.FlowLogic.signSuspending] without holding up other flows either.
+     *
+     * This implementation signs on the calling thread.
+     *
+     * @throws IllegalArgumentException if a key is not a member of [keys].
+     */
+    fun signAsync(requests: List<SigningRequest>): ListenableFuture<List<DigitalSignature.WithKey>> {
+        return Futures.immediateFuture(requests.map { sign(it.bytes, it.publicKey) })
+    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package net.corda.core.node.services
 
+import co.paralleluniverse.fibers.Suspendable
 import net.corda.core.contracts.StateRef
 import net.corda.core.contracts.TimeWindow
 import net.corda.core.crypto.DigitalSignature
@@ -48,21 +49,39 @@ abstract class TrustedAuthorityNotaryService : NotaryService() {
 
     /**
      * A NotaryException is thrown if any of the states have been consumed by a different transaction. Note that
-     * this method does not throw an exception when input states are present multiple times within the transaction.
+     * this method does not throw an exception when input states are present multiple times within the transaction, or
+     * have already been committed by the same transaction, as when a request is retried.
      */
     fun commitInputStates(inputs: List<StateRef>, txId: SecureHash, caller: Party) {
         try {
             uniquenessProvider.commit(inputs, txId, caller)
         } catch (e: UniquenessException) {
-            val conflicts = inputs.filterIndexed { i, stateRef ->
-                val consumingTx = e.error.stateHistory[stateRef]
-                consumingTx != null && consumingTx != UniquenessProvider.ConsumingTx(txId, i, caller)
-            }
-            if (conflicts.isNotEmpty()) {
-                // TODO: Create a new UniquenessException that only contains the conflicts filtered above.
-                log.warn("Notary conflicts for $txId: $conflicts")
-                throw notaryException(txId, e)
-            }
+            checkConflicts(inputs, txId, caller, e)
+        }
+    }
+
+    /**
+     * Commits the input states as per the other overload, but suspends [flow] while the [uniquenessProvider] commits
+     * them, if it does so asynchronously, rather than blocking its thread.
+     */
+    @Suspendable
+    fun commitInputStates(inputs: List<StateRef>, txId: SecureHash, caller: Party, flow: FlowLogic<*>) {
+        try {
+            flow.stateMachine.waitForFuture { uniquenessProvider.commitAsync(inputs, txId, caller) }
+        } catch (e: UniquenessException) {
+            checkConflicts(inputs, txId, caller, e)
+        }
+    }
+
+    private fun checkConflicts(inputs: List<StateRef>, txId: SecureHash, caller: Party, e: UniquenessException) {
+        val conflicts = inputs.filterIndexed { i, stateRef ->
+            val consumingTx = e.error.stateHistory[stateRef]
+            consumingTx != null && consumingTx != UniquenessProvider.ConsumingTx(txId, i, caller)
+        }
+        if (conflicts.isNotEmpty()) {
+            // TODO: Create a new UniquenessException that only contains the conflicts filtered above.
+            log.warn("Notary conflicts for $txId: $conflicts")
+            throw notaryException(txId, e)
         }
     }
 
@@ -2,6 +2,10 @@ package net.corda.core.node.services
 
 import net.corda.core.crypto.SecureHash
 import net.corda.core.messaging.DataFeed
+import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
+import net.corda.core.node.services.vault.DEFAULT_PAGE_SIZE
+import net.corda.core.node.services.vault.PageSpecification
+import net.corda.core.serialization.CordaSerializable
 import net.corda.core.transactions.SignedTransaction
 import rx.Observable
 
@@ -9,6 +13,18 @@ import rx.Observable
  * Thread-safe storage of transactions.
  */
 interface TransactionStorage {
+    /**
+     * A page of the stored transactions, in the order they were recorded.
+     *
+     * @property transactions the transactions on the page.
+     * @property totalTransactionsAvailable the number of transactions on all the pages, that is all those recorded, or
+     * all those recorded after the transaction the pages were requested since.
+     * @property recordedUpTo the position in the store of the last transaction recorded when the page was read. Passing
+     * it as the upTo of later queries pages through just the transactions which had been recorded by then.
+     */
+    @CordaSerializable
+    data class Page(val transactions: List<SignedTransaction>, val totalTransactionsAvailable: Long, val recordedUpTo: Long)
+
     /**
      * Return the transaction with the given [id], or null if no such transaction exists.
      */
@@ -21,7 +37,26 @@ interface TransactionStorage {
     val updates: Observable<SignedTransaction>
 
     /**
-     * Returns all currently stored transactions and further fresh ones.
+     * Returns all currently stored transactions and further fresh ones. All of them are read into memory, so for a large
+     * store prefer [trackBy], which returns them a page at a time.
      */
     fun track(): DataFeed<List<SignedTransaction>, SignedTransaction>
-}
\ No newline at end of file
+
+    /**
+     * Returns a page of the stored transactions, in the order they were recorded.
+     *
+     * Page numbers start from [DEFAULT_PAGE_NUM]. The default [PageSpecification] returns the first page of
+     * [DEFAULT_PAGE_SIZE] transactions.
+     *
+     * @param since if non-null, only the transactions recorded after the one with this ID are paged through. Passing
+     * the ID of the last transaction read carries on from there, without the cost of skipping over the earlier pages.
+     * @param upTo if non-null, only the transactions up to this [Page.recordedUpTo] of an earlier page are paged through.
+     * @throws IllegalArgumentException if the page specification is invalid or there is no transaction [since].
+     */
+    fun queryBy(paging: PageSpecification, since: SecureHash? = null, upTo: Long? = null): Page
+
+    /**
+     * Returns a page of the stored transactions, as per [queryBy], and the transactions recorded from then on.
+     */
+    fun trackBy(paging: PageSpecification, since: SecureHash? = null): DataFeed<Page, SignedTransaction>
+}
@@ -1,5 +1,8 @@
 package net.corda.core.node.services
 
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import net.corda.core.catch
 import net.corda.core.contracts.StateRef
 import net.corda.core.crypto.SecureHash
 import net.corda.core.identity.Party
@@ -15,6 +18,17 @@ interface UniquenessProvider {
     /** Commits all input states of the given transaction */
     fun commit(states: List<StateRef>, txId: SecureHash, callerIdentity: Party)
 
+    /**
+     * Commits all input states of the given transaction as per [commit], returning a future which completes once they
+     * have been committed, or fails with a [UniquenessException] if any of them have already been used. A flow can wait
+     * for it with [net.corda.core.internal.FlowStateMachine.waitForFuture] without holding up other flows.
+     *
+     * This implementation commits on the calling thread.
+     */
+    fun commitAsync(states: List<StateRef>, txId: SecureHash, callerIdentity: Party): ListenableFuture<Unit> {
+        return SettableFuture.create<Unit>().apply { catch { commit(states, txId, callerIdentity) } }
+    }
+
     /** Specifies the consuming transaction for every conflicting state */
     @CordaSerializable
     data class Conflict(val stateHistory: Map<StateRef, ConsumingTx>)
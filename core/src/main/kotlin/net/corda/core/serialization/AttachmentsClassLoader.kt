@@ -1,5 +1,7 @@
 package net.corda.core.serialization
 
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import net.corda.core.contracts.Attachment
 import net.corda.core.crypto.SecureHash
 import java.io.ByteArrayInputStream
@@ -16,21 +18,26 @@ import java.util.*
 
 /**
  * A custom ClassLoader that knows how to load classes from a set of attachments. The attachments themselves only
- * need to provide JAR streams, and so could be fetched from a database, local disk, etc. Constructing an
- * AttachmentsClassLoader is somewhat expensive, as every attachment is scanned to ensure that there are no overlapping
- * file paths.
+ * need to provide JAR streams, and so could be fetched from a database, local disk, etc. Every attachment is checked
+ * to ensure that there are no overlapping file paths. Scanning an attachment for its file paths is somewhat expensive,
+ * so the paths of each attachment are indexed once, by its ID, and the index is shared by all the class loaders.
+ * Constructing one is still not free, and nor is loading classes afresh with it, so the class loaders for transactions
+ * are cached by [AttachmentsClassLoaderCache].
  */
 class AttachmentsClassLoader(attachments: List<Attachment>, parent: ClassLoader = ClassLoader.getSystemClassLoader()) : SecureClassLoader(parent) {
-    private val pathsToAttachments = HashMap<String, Attachment>()
-    private val idsToAttachments = HashMap<SecureHash, Attachment>()
+    companion object {
+        /** The maximum total number of file paths in the shared index of the attachments' entries. */
+        const val MAX_INDEXED_PATHS = 1000000L
 
-    @CordaSerializable
-    class OverlappingAttachments(val path: String) : Exception() {
-        override fun toString() = "Multiple attachments define a file at path $path"
-    }
+        private val entryIndex: Cache<SecureHash, List<String>> = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_INDEXED_PATHS)
+                .weigher<SecureHash, List<String>> { _, paths -> paths.size }
+                .build()
 
-    init {
-        for (attachment in attachments) {
+        // The attachment's ID is the hash of its content, so its paths are the same whichever storage it's read from.
+        private fun pathsOf(attachment: Attachment): List<String> {
+            entryIndex.getIfPresent(attachment.id)?.let { return it }
+            val paths = ArrayList<String>()
             attachment.openAsJAR().use { jar ->
                 while (true) {
                     val entry = jar.nextJarEntry ?: break
@@ -42,12 +49,29 @@ class AttachmentsClassLoader(attachments: List<Attachment>, parent: ClassLoader
                     // filesystem tries to be case insensitive. This may break developers who attempt to use ProGuard.
                     //
                     // Also convert to Unix path separators as all resource/class lookups will expect this.
-                    val path = entry.name.toLowerCase().replace('\\', '/')
-                    if (path in pathsToAttachments)
-                        throw OverlappingAttachments(path)
-                    pathsToAttachments[path] = attachment
+                    paths += entry.name.toLowerCase().replace('\\', '/')
                 }
             }
+            entryIndex.put(attachment.id, paths)
+            return paths
+        }
+    }
+
+    private val pathsToAttachments = HashMap<String, Attachment>()
+    private val idsToAttachments = HashMap<SecureHash, Attachment>()
+
+    @CordaSerializable
+    class OverlappingAttachments(val path: String) : Exception() {
+        override fun toString() = "Multiple attachments define a file at path $path"
+    }
+
+    init {
+        for (attachment in attachments) {
+            for (path in pathsOf(attachment)) {
+                if (path in pathsToAttachments)
+                    throw OverlappingAttachments(path)
+                pathsToAttachments[path] = attachment
+            }
             idsToAttachments[attachment.id] = attachment
         }
     }
@@ -0,0 +1,100 @@
+package net.corda.core.serialization
+
+import net.corda.core.contracts.Attachment
+import net.corda.core.crypto.SecureHash
+import net.corda.core.node.services.AttachmentStorage
+import net.corda.core.utilities.ByteSequence
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.concurrent.GuardedBy
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * A bounded cache of [AttachmentsClassLoader]s for the attachments in [storage], keyed by the attachments they load
+ * from, so that the transactions which use the same contract JARs share the classes loaded from them rather than each
+ * defining its own. Building a class loader for a new set of attachments is cheap anyway once their JARs have been
+ * indexed, as the index of each attachment's entries is shared, but a new class loader has to load and link every class
+ * afresh.
+ *
+ * A storage which offers a cache holds it as its [AttachmentStorage.classLoaderCache], so the cache lives and dies with
+ * the storage, and the class loaders in it read from that storage alone. Once there are more than [maxClassLoaders]
+ * class loaders the least recently used is evicted. That only drops it from the cache: it keeps working for any classes
+ * it has loaded and objects of them, such as the states of a transaction still being verified.
+ */
+@ThreadSafe
+class AttachmentsClassLoaderCache(private val storage: AttachmentStorage,
+                                  private val maxClassLoaders: Int = DEFAULT_MAX_CLASS_LOADERS) {
+    companion object {
+        const val DEFAULT_MAX_CLASS_LOADERS = 64
+    }
+
+    init {
+        require(maxClassLoaders > 0) { "The maximum number of class loaders must be positive" }
+    }
+
+    @GuardedBy("this")
+    private val classLoaders = object : LinkedHashMap<List<SecureHash>, AttachmentsClassLoader>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<List<SecureHash>, AttachmentsClassLoader>?): Boolean {
+            return (size > maxClassLoaders).also { if (it) _evicted.incrementAndGet() }
+        }
+    }
+
+    private val _created = AtomicLong()
+    private val _evicted = AtomicLong()
+    private val _hits = AtomicLong()
+
+    /** The number of class loaders built so far. */
+    val created: Long get() = _created.get()
+    /** The number of class loaders evicted so far. */
+    val evicted: Long get() = _evicted.get()
+    /** The number of times a class loader has been found in the cache. */
+    val hits: Long get() = _hits.get()
+    /** The number of class loaders in the cache. */
+    val size: Int
+        @Synchronized get() = classLoaders.size
+
+    /**
+     * Returns the class loader for the attachments with the given IDs, building it if it isn't cached. The order of the
+     * IDs doesn't matter.
+     *
+     * @throws MissingAttachmentsException if any of the attachments isn't in the storage.
+     * @throws AttachmentsClassLoader.OverlappingAttachments if two of the attachments contain the same file.
+     */
+    fun get(ids: List<SecureHash>): ClassLoader {
+        val key = ids.sortedWith(naturalOrder<ByteSequence>())
+        synchronized(this) {
+            classLoaders[key]?.let {
+                _hits.incrementAndGet()
+                return it
+            }
+        }
+        // The attachments are indexed outside the lock. If another thread has cached a class loader for them in the
+        // meantime, that one's used instead.
+        val classLoader = AttachmentsClassLoader(storage.openAttachments(key))
+        _created.incrementAndGet()
+        synchronized(this) {
+            return classLoaders.getOrPut(key) { classLoader }
+        }
+    }
+
+    /** Drops all the class loaders. */
+    @Synchronized
+    fun clear() {
+        _evicted.addAndGet(classLoaders.size.toLong())
+        classLoaders.clear()
+    }
+}
+
+/**
+ * Opens the attachments with the given IDs.
+ *
+ * @throws MissingAttachmentsException if any of them isn't in the storage.
+ */
+internal fun AttachmentStorage.openAttachments(ids: List<SecureHash>): List<Attachment> {
+    val missing = ArrayList<SecureHash>()
+    val attachments = ArrayList<Attachment>()
+    ids.forEach { id ->
+        openAttachment(id)?.let { attachments += it } ?: run { missing += id }
+    }
+    missing.isNotEmpty() && throw MissingAttachmentsException(missing)
+    return attachments
+}
@@ -246,16 +246,13 @@ object WireTransactionSerializer : Serializer<WireTransaction>() {
         kryo.writeClassAndObject(output, obj.timeWindow)
     }
 
+    // Where the storage caches class loaders, the transactions which use the same attachments share the classes loaded
+    // from them.
     private fun attachmentsClassLoader(kryo: Kryo, attachmentHashes: List<SecureHash>): ClassLoader? {
         kryo.context[attachmentsClassLoaderEnabled] as? Boolean ?: false || return null
         val serializationContext = kryo.serializationContext() ?: return null // Some tests don't set one.
-        val missing = ArrayList<SecureHash>()
-        val attachments = ArrayList<Attachment>()
-        attachmentHashes.forEach { id ->
-            serializationContext.serviceHub.attachments.openAttachment(id)?.let { attachments += it } ?: run { missing += id }
-        }
-        missing.isNotEmpty() && throw MissingAttachmentsException(missing)
-        return AttachmentsClassLoader(attachments)
+        val storage = serializationContext.serviceHub.attachments
+        return storage.classLoaderCache?.get(attachmentHashes) ?: AttachmentsClassLoader(storage.openAttachments(attachmentHashes))
     }
 
     @Suppress("UNCHECKED_CAST")
@@ -5,6 +5,7 @@ import com.esotericsoftware.kryo.Serializer
 import com.esotericsoftware.kryo.io.Input
 import com.esotericsoftware.kryo.io.Output
 import net.corda.core.serialization.amqp.DeserializationInput
+import net.corda.core.serialization.amqp.SchemaCache
 import net.corda.core.serialization.amqp.SerializationOutput
 import net.corda.core.serialization.amqp.SerializerFactory
 
@@ -13,6 +14,9 @@ import net.corda.core.serialization.amqp.SerializerFactory
  * to using the AMQP serialization wire format, and simply writes that out as bytes to the wire.
  *
  * There is no need to write out the length, since this can be peeked out of the first few bytes of the stream.
+ *
+ * If the serialization context has a [SchemaCache], set with [withSchemaCache], schemas already in it are written as
+ * references to them, and those read are added to it.
  */
 object KryoAMQPSerializer : Serializer<Any>() {
     internal fun registerCustomSerializers(factory: SerializerFactory) {
@@ -33,14 +37,14 @@ object KryoAMQPSerializer : Serializer<Any>() {
     }
 
     override fun write(kryo: Kryo, output: Output, obj: Any) {
-        val amqpOutput = SerializationOutput(serializerFactory)
+        val amqpOutput = SerializationOutput(serializerFactory, kryo.schemaCache())
         val bytes = amqpOutput.serialize(obj).bytes
         // No need to write out the size since it's encoded within the AMQP.
         output.write(bytes)
     }
 
     override fun read(kryo: Kryo, input: Input, type: Class<Any>): Any {
-        val amqpInput = DeserializationInput(serializerFactory)
+        val amqpInput = DeserializationInput(serializerFactory, kryo.schemaCache())
         // Use our helper functions to peek the size of the serialized object out of the AMQP byte stream.
         val peekedBytes = input.readBytes(DeserializationInput.BYTES_NEEDED_TO_PEEK)
         val size = DeserializationInput.peekSize(peekedBytes)
@@ -48,4 +52,15 @@ object KryoAMQPSerializer : Serializer<Any>() {
         input.readBytes(allBytes, peekedBytes.size, size - peekedBytes.size)
         return amqpInput.deserialize(SerializedBytes<Any>(allBytes), type)
     }
-}
\ No newline at end of file
+}
+
+private val schemaCacheKey = SchemaCache::class.java
+
+/**
+ * Returns a context which uses [schemaCache] for the AMQP schemas sent or received over a session. Each end of the
+ * session must use its own cache, and every message serialized with the sender's must be deserialized, in order, with
+ * the receiver's.
+ */
+fun SerializationContext.withSchemaCache(schemaCache: SchemaCache): SerializationContext = this.withProperty(schemaCacheKey, schemaCache)
+
+fun Kryo.schemaCache(): SchemaCache? = context.get(schemaCacheKey) as? SchemaCache
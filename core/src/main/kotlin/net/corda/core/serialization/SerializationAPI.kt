@@ -9,6 +9,7 @@ import net.corda.core.transactions.WireTransaction
 import net.corda.core.utilities.ByteSequence
 import net.corda.core.utilities.OpaqueBytes
 import net.corda.core.utilities.sequence
+import java.io.OutputStream
 
 /**
  * An abstraction for serializing and deserializing objects, with support for versioning of the wire format via
@@ -31,6 +32,20 @@ interface SerializationFactory {
      * @param context A context that configures various parameters to serialization, including the serialization format version.
      */
     fun <T : Any> serialize(obj: T, context: SerializationContext): SerializedBytes<T>
+
+    /**
+     * Serialize an object straight into [sink], such as the body of a message, rather than into a new byte array which
+     * then has to be copied into it. The bytes written are the same as those [serialize] would return. The sink is
+     * flushed but not closed.
+     *
+     * @param obj The object to be serialized.
+     * @param sink Where to write the serialized bytes.
+     * @param context A context that configures various parameters to serialization, including the serialization format version.
+     */
+    fun <T : Any> serializeTo(obj: T, sink: OutputStream, context: SerializationContext) {
+        sink.write(serialize(obj, context).bytes)
+        sink.flush()
+    }
 }
 
 /**
@@ -126,6 +141,13 @@ fun <T : Any> T.serialize(serializationFactory: SerializationFactory = SERIALIZA
     return serializationFactory.serialize(this, context)
 }
 
+/**
+ * Convenience extension method for serializing an object of type T straight into [sink], utilising the defaults.
+ */
+fun <T : Any> T.serializeTo(sink: OutputStream, serializationFactory: SerializationFactory = SERIALIZATION_FACTORY, context: SerializationContext = P2P_CONTEXT) {
+    serializationFactory.serializeTo(this, sink, context)
+}
+
 /**
  * A type safe wrapper around a byte array that contains a serialised object. You can call [SerializedBytes.deserialize]
  * to get the original object back.
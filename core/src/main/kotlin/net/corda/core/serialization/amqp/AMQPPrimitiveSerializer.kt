@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp
 
 import org.apache.qpid.proton.amqp.Binary
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Type
 
 /**
@@ -17,7 +16,7 @@ class AMQPPrimitiveSerializer(clazz: Class<*>) : AMQPSerializer<Any> {
     override fun writeClassInfo(output: SerializationOutput) {
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         if (obj is ByteArray) {
             data.putObject(Binary(obj))
         } else {
@@ -1,6 +1,5 @@
 package net.corda.core.serialization.amqp
 
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Type
 
 /**
@@ -29,7 +28,7 @@ interface AMQPSerializer<out T> {
     /**
      * Write the given object, with declared type, to the output.
      */
-    fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput)
+    fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput)
 
     /**
      * Read the given object from the input. The envelope is provided in case the schema is required.
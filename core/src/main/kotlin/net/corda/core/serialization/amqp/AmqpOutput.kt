@@ -0,0 +1,51 @@
+package net.corda.core.serialization.amqp
+
+import org.apache.qpid.proton.codec.Data
+
+/**
+ * What the [AMQPSerializer]s write to: either an [AmqpWriter], which encodes straight into bytes, or a proton [Data]
+ * tree through a [DataOutput]. It is only the part of [Data] the serializers need, so that both support all of it.
+ */
+interface AmqpOutput {
+    fun putNull()
+
+    fun putBoolean(b: Boolean)
+
+    fun putChar(c: Int)
+
+    fun putList()
+
+    fun putMap()
+
+    fun putDescribed()
+
+    /** Enters the list, map or described type just put, so that what's put next goes inside it. */
+    fun enter(): Boolean
+
+    /** Exits the list, map or described type last entered. */
+    fun exit(): Boolean
+
+    /** Writes any of the values a [Data] can put. */
+    fun putObject(o: Any?)
+}
+
+/** Writes to a proton [Data] tree. */
+internal class DataOutput(private val data: Data) : AmqpOutput {
+    override fun putNull() = data.putNull()
+
+    override fun putBoolean(b: Boolean) = data.putBoolean(b)
+
+    override fun putChar(c: Int) = data.putChar(c)
+
+    override fun putList() = data.putList()
+
+    override fun putMap() = data.putMap()
+
+    override fun putDescribed() = data.putDescribed()
+
+    override fun enter(): Boolean = data.enter()
+
+    override fun exit(): Boolean = data.exit()
+
+    override fun putObject(o: Any?) = data.putObject(o)
+}
@@ -0,0 +1,173 @@
+package net.corda.core.serialization.amqp
+
+import org.apache.qpid.proton.amqp.*
+import java.io.NotSerializableException
+import java.util.*
+
+/**
+ * Decodes AMQP straight from bytes into the values the [AMQPSerializer]s read, rather than decoding it into a proton
+ * [org.apache.qpid.proton.codec.Data] tree first and then getting the values from that. Lists become [List]s, maps
+ * [LinkedHashMap]s in the order they were encoded, and described types [DescribedType]s, as they do from a proton Data.
+ *
+ * @param end The index after the last byte to decode.
+ */
+class AmqpReader(private val bytes: ByteArray, offset: Int = 0, private val end: Int = bytes.size) {
+    companion object {
+        /**
+         * How deeply lists, maps, arrays and described types may be nested, so that decoding bytes nested more deeply
+         * than any serializer writes them fails with a [NotSerializableException] rather than a [StackOverflowError].
+         */
+        const val MAX_DEPTH = 1000
+    }
+
+    private class Described(private val descriptor: Any?, private val described: Any?) : DescribedType {
+        override fun getDescriptor(): Any? = descriptor
+
+        override fun getDescribed(): Any? = described
+
+        override fun toString(): String = "Described($descriptor, $described)"
+    }
+
+    init {
+        require(offset in 0..end && end <= bytes.size) { "Offset $offset and end $end out of range" }
+    }
+
+    /** The index of the next byte to decode. */
+    var position: Int = offset
+        private set
+
+    /** Whether all the bytes have been decoded. */
+    val isAtEnd: Boolean get() = position == end
+
+    // The number of values being read, each within the one before.
+    private var depth = 0
+
+    @Throws(NotSerializableException::class)
+    fun readObject(): Any? {
+        if (depth == MAX_DEPTH) throw NotSerializableException("Values nested more than $MAX_DEPTH deep at $position")
+        depth++
+        try {
+            return readValue(readByte())
+        } finally {
+            depth--
+        }
+    }
+
+    private fun readValue(code: Int): Any? {
+        return when (code) {
+            0x00 -> Described(readObject(), readObject())
+            0x40 -> null
+            0x41 -> true
+            0x42 -> false
+            0x56 -> readByte() != 0
+            0x50 -> UnsignedByte.valueOf(readByte().toByte())
+            0x51 -> readByte().toByte()
+            0x60 -> UnsignedShort.valueOf(readShort().toShort())
+            0x61 -> readShort().toShort()
+            0x43 -> UnsignedInteger.valueOf(0L)
+            0x52 -> UnsignedInteger.valueOf(readByte().toLong())
+            0x70 -> UnsignedInteger.valueOf(readInt().toLong() and 0xFFFFFFFFL)
+            0x54 -> readByte().toByte().toInt()
+            0x71 -> readInt()
+            0x44 -> UnsignedLong.valueOf(0L)
+            0x53 -> UnsignedLong.valueOf(readByte().toLong())
+            0x80 -> UnsignedLong.valueOf(readLong())
+            0x55 -> readByte().toByte().toLong()
+            0x81 -> readLong()
+            0x72 -> java.lang.Float.intBitsToFloat(readInt())
+            0x82 -> java.lang.Double.longBitsToDouble(readLong())
+            0x74 -> Decimal32(readInt())
+            0x84 -> Decimal64(readLong())
+            0x94 -> Decimal128(readLong(), readLong())
+            0x73 -> readInt()
+            0x83 -> Date(readLong())
+            0x98 -> UUID(readLong(), readLong())
+            0xa0 -> Binary(readBytes(readByte()))
+            0xb0 -> Binary(readBytes(readInt()))
+            0xa1 -> String(readBytes(readByte()), Charsets.UTF_8)
+            0xb1 -> String(readBytes(readInt()), Charsets.UTF_8)
+            0xa3 -> Symbol.valueOf(String(readBytes(readByte()), Charsets.US_ASCII))
+            0xb3 -> Symbol.valueOf(String(readBytes(readInt()), Charsets.US_ASCII))
+            0x45 -> ArrayList<Any?>(0)
+            0xc0 -> readList(small = true)
+            0xd0 -> readList(small = false)
+            0xc1 -> readMap(small = true)
+            0xd1 -> readMap(small = false)
+            0xe0 -> readArray(small = true)
+            0xf0 -> readArray(small = false)
+            else -> throw NotSerializableException("Unexpected AMQP format code 0x${Integer.toHexString(code)} at ${position - 1}")
+        }
+    }
+
+    // A list, map or array has a size and then a count, each of a byte if it's small and of four bytes otherwise. The
+    // size is that of the count and the elements.
+    private inline fun <T> readCompound(small: Boolean, readElements: (count: Int) -> T): T {
+        val size = if (small) readByte() else readInt()
+        val start = position
+        ensureRemaining(size)
+        val count = if (small) readByte() else readInt()
+        if (count < 0) throw NotSerializableException("Count $count out of range")
+        val result = readElements(count)
+        if (position != start + size) throw NotSerializableException("Contents do not match the size of their list, map or array")
+        return result
+    }
+
+    private fun readList(small: Boolean): List<Any?> = readCompound(small) { count ->
+        // Each element takes at least a byte, so the count can't be trusted for more than that.
+        val list = ArrayList<Any?>(minOf(count, end - position))
+        for (i in 0 until count) {
+            list += readObject()
+        }
+        list
+    }
+
+    private fun readMap(small: Boolean): Map<Any?, Any?> = readCompound(small) { count ->
+        if (count % 2 != 0) throw NotSerializableException("A map must have a value for each key")
+        val map = LinkedHashMap<Any?, Any?>()
+        for (i in 0 until count / 2) {
+            val key = readObject()
+            map[key] = readObject()
+        }
+        map
+    }
+
+    // The elements of an array share a constructor, which is written once before them. Nothing is encoded as an array
+    // by the serializers, so this is only for completeness, and an array is read as a list.
+    private fun readArray(small: Boolean): List<Any?> = readCompound(small) { count ->
+        val code = readByte()
+        if (code == 0x00) throw NotSerializableException("Arrays of described types are not supported")
+        val array = ArrayList<Any?>(minOf(count, end - position))
+        for (i in 0 until count) {
+            array += readValue(code)
+        }
+        array
+    }
+
+    private fun ensureRemaining(n: Int) {
+        if (n < 0 || n > end - position) throw NotSerializableException("Unexpected end of data")
+    }
+
+    private fun readByte(): Int {
+        ensureRemaining(1)
+        return bytes[position++].toInt() and 0xFF
+    }
+
+    private fun readShort(): Int {
+        ensureRemaining(2)
+        return (readByte() shl 8) or readByte()
+    }
+
+    private fun readInt(): Int {
+        ensureRemaining(4)
+        return (readByte() shl 24) or (readByte() shl 16) or (readByte() shl 8) or readByte()
+    }
+
+    private fun readLong(): Long = (readInt().toLong() shl 32) or (readInt().toLong() and 0xFFFFFFFFL)
+
+    private fun readBytes(length: Int): ByteArray {
+        ensureRemaining(length)
+        val result = bytes.copyOfRange(position, position + length)
+        position += length
+        return result
+    }
+}
@@ -0,0 +1,317 @@
+package net.corda.core.serialization.amqp
+
+import org.apache.qpid.proton.amqp.*
+import org.apache.qpid.proton.codec.Data
+import java.util.*
+
+/**
+ * Encodes AMQP straight into a growable buffer as it's written, rather than building a tree of elements to encode
+ * afterwards as a proton [Data] does. The [AMQPSerializer]s write to either through [AmqpOutput].
+ *
+ * The encoding is the same as that of a [Data], which picks the smallest of the encodings of each value. The header of a
+ * list or map is written with room for the largest encoding, and rewritten once its contents are known, moving the
+ * contents back over any room not needed. That can only be a small list or map, of no more than 254 bytes, so no more
+ * than that is moved.
+ */
+class AmqpWriter(initialCapacity: Int = 256) : AmqpOutput {
+    private companion object {
+        private const val LIST = 0
+        private const val MAP = 1
+        private const val DESCRIBED = 2
+
+        // The code, and four bytes each for the size and the count.
+        private const val LARGE_HEADER_SIZE = 9
+        // The code, and a byte each for the size and the count.
+        private const val SMALL_HEADER_SIZE = 3
+    }
+
+    private class Container(val start: Int, val kind: Int) {
+        var count = 0
+    }
+
+    private var buffer = ByteArray(initialCapacity)
+    private var position = 0
+    // The containers entered, innermost last.
+    private val containers = ArrayList<Container>()
+    // The container just written, which can be entered.
+    private var last: Container? = null
+
+    /** The number of bytes written so far. */
+    val size: Int get() = position
+
+    /** Writes bytes which aren't AMQP, such as a header, as they are. */
+    fun writeRaw(bytes: ByteArray) {
+        check(containers.isEmpty() && last == null) { "Raw bytes can only be written at the top level" }
+        write(bytes, 0, bytes.size)
+    }
+
+    /** Returns a copy of the bytes written. */
+    fun toByteArray(): ByteArray {
+        check(containers.isEmpty()) { "Still within ${containers.size} list(s), map(s) or described type(s)" }
+        last?.let { finish(it) }
+        last = null
+        return buffer.copyOf(position)
+    }
+
+    override fun putNull() {
+        element()
+        writeByte(0x40)
+    }
+
+    override fun putBoolean(b: Boolean) {
+        element()
+        writeByte(if (b) 0x41 else 0x42)
+    }
+
+    override fun putChar(c: Int) {
+        element()
+        writeByte(0x73)
+        writeInt(c)
+    }
+
+    fun putInt(i: Int) {
+        element()
+        if (i in -128..127) {
+            writeByte(0x54)
+            writeByte(i)
+        } else {
+            writeByte(0x71)
+            writeInt(i)
+        }
+    }
+
+    fun putLong(l: Long) {
+        element()
+        if (l in -128L..127L) {
+            writeByte(0x55)
+            writeByte(l.toInt())
+        } else {
+            writeByte(0x81)
+            writeLong(l)
+        }
+    }
+
+    fun putUnsignedInteger(ui: UnsignedInteger) {
+        element()
+        val i = ui.toInt()
+        if (i == 0) {
+            writeByte(0x43)
+        } else if (i and 0xFF.inv() == 0) {
+            writeByte(0x52)
+            writeByte(i)
+        } else {
+            writeByte(0x70)
+            writeInt(i)
+        }
+    }
+
+    fun putUnsignedLong(ul: UnsignedLong) {
+        element()
+        val l = ul.toLong()
+        if (l == 0L) {
+            writeByte(0x44)
+        } else if (l and 0xFFL.inv() == 0L) {
+            writeByte(0x53)
+            writeByte(l.toInt())
+        } else {
+            writeByte(0x80)
+            writeLong(l)
+        }
+    }
+
+    fun putBinary(bytes: Binary) {
+        element()
+        writeVariable(0xa0, 0xb0, bytes.array, bytes.arrayOffset, bytes.length)
+    }
+
+    fun putString(string: String) {
+        element()
+        val bytes = string.toByteArray(Charsets.UTF_8)
+        writeVariable(0xa1, 0xb1, bytes, 0, bytes.size)
+    }
+
+    fun putSymbol(symbol: Symbol) {
+        element()
+        val bytes = symbol.toString().toByteArray(Charsets.US_ASCII)
+        writeVariable(0xa3, 0xb3, bytes, 0, bytes.size)
+    }
+
+    override fun putList() = putContainer(LIST)
+
+    override fun putMap() = putContainer(MAP)
+
+    override fun putDescribed() = putContainer(DESCRIBED)
+
+    override fun enter(): Boolean {
+        val container = last ?: throw IllegalStateException("There is no list, map or described type to enter")
+        containers += container
+        last = null
+        return true
+    }
+
+    override fun exit(): Boolean {
+        last?.let { finish(it) }
+        last = null
+        check(containers.isNotEmpty()) { "There is no list, map or described type to exit" }
+        finish(containers.removeAt(containers.lastIndex))
+        return true
+    }
+
+    /** Writes any of the values a [Data] can put. */
+    override fun putObject(o: Any?) {
+        when (o) {
+            null -> putNull()
+            is Boolean -> putBoolean(o)
+            is UnsignedByte -> fixed(0x50) { writeByte(o.toInt()) }
+            is Byte -> fixed(0x51) { writeByte(o.toInt()) }
+            is UnsignedShort -> fixed(0x60) { writeShort(o.toInt()) }
+            is Short -> fixed(0x61) { writeShort(o.toInt()) }
+            is UnsignedInteger -> putUnsignedInteger(o)
+            is Int -> putInt(o)
+            is UnsignedLong -> putUnsignedLong(o)
+            is Long -> putLong(o)
+            is Date -> fixed(0x83) { writeLong(o.time) }
+            is Float -> fixed(0x72) { writeInt(java.lang.Float.floatToRawIntBits(o)) }
+            is Double -> fixed(0x82) { writeLong(java.lang.Double.doubleToRawLongBits(o)) }
+            is Decimal32 -> fixed(0x74) { writeInt(o.bits) }
+            is Decimal64 -> fixed(0x84) { writeLong(o.bits) }
+            is Decimal128 -> fixed(0x94) {
+                writeLong(o.mostSignificantBits)
+                writeLong(o.leastSignificantBits)
+            }
+            is Char -> putChar(o.toInt())
+            is UUID -> fixed(0x98) {
+                writeLong(o.mostSignificantBits)
+                writeLong(o.leastSignificantBits)
+            }
+            is Binary -> putBinary(o)
+            is String -> putString(o)
+            is Symbol -> putSymbol(o)
+            is DescribedType -> {
+                putDescribed()
+                enter()
+                putObject(o.descriptor)
+                putObject(o.described)
+                exit()
+            }
+            is List<*> -> {
+                putList()
+                enter()
+                o.forEach { putObject(it) }
+                exit()
+            }
+            is Map<*, *> -> {
+                putMap()
+                enter()
+                o.forEach { (key, value) ->
+                    putObject(key)
+                    putObject(value)
+                }
+                exit()
+            }
+            else -> throw IllegalArgumentException("Unknown type ${o.javaClass.simpleName}")
+        }
+    }
+
+    // Counts an element of the enclosing container, closing any container written before it which wasn't entered.
+    private fun element() {
+        last?.let { finish(it) }
+        last = null
+        containers.lastOrNull()?.let { it.count++ }
+    }
+
+    private inline fun fixed(code: Int, value: () -> Unit) {
+        element()
+        writeByte(code)
+        value()
+    }
+
+    private fun putContainer(kind: Int) {
+        element()
+        val start = position
+        if (kind == DESCRIBED) {
+            writeByte(0x00)
+        } else {
+            ensureCapacity(LARGE_HEADER_SIZE)
+            position += LARGE_HEADER_SIZE
+        }
+        last = Container(start, kind)
+    }
+
+    private fun finish(container: Container) {
+        if (container.kind == DESCRIBED) {
+            check(container.count == 2) { "A described type must have a descriptor and a value" }
+            return
+        }
+        val contentStart = container.start + LARGE_HEADER_SIZE
+        val contentSize = position - contentStart
+        if (container.kind == LIST && container.count == 0) {
+            // list0
+            buffer[container.start] = 0x45
+            position = container.start + 1
+        } else if (container.count <= 255 && contentSize <= 254) {
+            // list8 or map8, whose size includes the count
+            buffer[container.start] = (if (container.kind == LIST) 0xc0 else 0xc1).toByte()
+            buffer[container.start + 1] = (contentSize + 1).toByte()
+            buffer[container.start + 2] = container.count.toByte()
+            System.arraycopy(buffer, contentStart, buffer, container.start + SMALL_HEADER_SIZE, contentSize)
+            position -= LARGE_HEADER_SIZE - SMALL_HEADER_SIZE
+        } else {
+            // list32 or map32
+            buffer[container.start] = (if (container.kind == LIST) 0xd0 else 0xd1).toByte()
+            setInt(container.start + 1, contentSize + 4)
+            setInt(container.start + 5, container.count)
+        }
+    }
+
+    private fun writeVariable(smallCode: Int, largeCode: Int, bytes: ByteArray, offset: Int, length: Int) {
+        if (length > 255) {
+            writeByte(largeCode)
+            writeInt(length)
+        } else {
+            writeByte(smallCode)
+            writeByte(length)
+        }
+        write(bytes, offset, length)
+    }
+
+    private fun ensureCapacity(extra: Int) {
+        if (position + extra > buffer.size) {
+            buffer = buffer.copyOf(maxOf(buffer.size * 2, position + extra))
+        }
+    }
+
+    private fun write(bytes: ByteArray, offset: Int, length: Int) {
+        ensureCapacity(length)
+        System.arraycopy(bytes, offset, buffer, position, length)
+        position += length
+    }
+
+    private fun writeByte(b: Int) {
+        ensureCapacity(1)
+        buffer[position++] = b.toByte()
+    }
+
+    private fun writeShort(s: Int) {
+        writeByte(s shr 8)
+        writeByte(s)
+    }
+
+    private fun writeInt(i: Int) {
+        ensureCapacity(4)
+        setInt(position, i)
+        position += 4
+    }
+
+    private fun writeLong(l: Long) {
+        writeInt((l shr 32).toInt())
+        writeInt(l.toInt())
+    }
+
+    private fun setInt(at: Int, i: Int) {
+        buffer[at] = (i shr 24).toByte()
+        buffer[at + 1] = (i shr 16).toByte()
+        buffer[at + 2] = (i shr 8).toByte()
+        buffer[at + 3] = i.toByte()
+    }
+}
@@ -1,6 +1,5 @@
 package net.corda.core.serialization.amqp
 
-import org.apache.qpid.proton.codec.Data
 import java.io.NotSerializableException
 import java.lang.reflect.Type
 
@@ -20,7 +19,7 @@ class ArraySerializer(override val type: Type, factory: SerializerFactory) : AMQ
         }
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         // Write described
         data.withDescribed(typeNotation.descriptor) {
             withList {
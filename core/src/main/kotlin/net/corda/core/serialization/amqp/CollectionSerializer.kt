@@ -1,6 +1,5 @@
 package net.corda.core.serialization.amqp
 
-import org.apache.qpid.proton.codec.Data
 import java.io.NotSerializableException
 import java.lang.reflect.ParameterizedType
 import java.lang.reflect.Type
@@ -40,7 +39,7 @@ class CollectionSerializer(val declaredType: ParameterizedType, factory: Seriali
         }
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         // Write described
         data.withDescribed(typeNotation.descriptor) {
             withList {
@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp
 
 import net.corda.core.serialization.amqp.SerializerFactory.Companion.nameForType
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Type
 
 /**
@@ -28,14 +27,14 @@ abstract class CustomSerializer<T> : AMQPSerializer<T> {
      */
     abstract val schemaForDocumentation: Schema
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         data.withDescribed(descriptor) {
             @Suppress("UNCHECKED_CAST")
             writeDescribedObject(obj as T, data, type, output)
         }
     }
 
-    abstract fun writeDescribedObject(obj: T, data: Data, type: Type, output: SerializationOutput)
+    abstract fun writeDescribedObject(obj: T, data: AmqpOutput, type: Type, output: SerializationOutput)
 
     /**
      * This custom serializer represents a sort of symbolic link from a subclass to a super class, where the super
@@ -58,7 +57,7 @@ abstract class CustomSerializer<T> : AMQPSerializer<T> {
 
         override val descriptor: Descriptor = Descriptor(typeDescriptor)
 
-        override fun writeDescribedObject(obj: T, data: Data, type: Type, output: SerializationOutput) {
+        override fun writeDescribedObject(obj: T, data: AmqpOutput, type: Type, output: SerializationOutput) {
             superClassSerializer.writeDescribedObject(obj, data, type, output)
         }
 
@@ -123,7 +122,7 @@ abstract class CustomSerializer<T> : AMQPSerializer<T> {
 
         protected abstract fun fromProxy(proxy: P): T
 
-        override fun writeDescribedObject(obj: T, data: Data, type: Type, output: SerializationOutput) {
+        override fun writeDescribedObject(obj: T, data: AmqpOutput, type: Type, output: SerializationOutput) {
             val proxy = toProxy(obj)
             data.withList {
                 for (property in proxySerializer.propertySerializers) {
@@ -162,7 +161,7 @@ abstract class CustomSerializer<T> : AMQPSerializer<T> {
 
         override fun fromProxy(proxy: String): T = maker(proxy)
 
-        override fun writeDescribedObject(obj: T, data: Data, type: Type, output: SerializationOutput) {
+        override fun writeDescribedObject(obj: T, data: AmqpOutput, type: Type, output: SerializationOutput) {
             val proxy = toProxy(obj)
             data.putObject(proxy)
         }
@@ -18,8 +18,14 @@ data class objectAndEnvelope<T>(val obj: T, val envelope: Envelope)
  *
  * @param serializerFactory This is the factory for [AMQPSerializer] instances and can be shared across multiple
  * instances and threads.
+ * @param schemaCache The schemas already received over the session the serialized objects are from, if any, which are
+ * needed to resolve any [SchemaReference]s.
+ * @param streaming Whether to decode straight from the bytes with an [AmqpReader], rather than decoding them into a
+ * proton [Data] tree first.
  */
-class DeserializationInput(internal val serializerFactory: SerializerFactory = SerializerFactory()) {
+class DeserializationInput(internal val serializerFactory: SerializerFactory = SerializerFactory(),
+                           private val schemaCache: SchemaCache? = null,
+                           private val streaming: Boolean = true) {
     // TODO: we're not supporting object refs yet
     private val objectHistory: MutableList<Any> = ArrayList()
 
@@ -75,13 +81,22 @@ class DeserializationInput(internal val serializerFactory: SerializerFactory = S
             throw NotSerializableException("Serialization header does not match.")
         }
 
+        if (streaming) {
+            val reader = AmqpReader(bytes.bytes, 8, bytes.size)
+            val obj = reader.readObject()
+            if (!reader.isAtEnd) {
+                throw NotSerializableException("Unexpected size of data")
+            }
+            return Envelope.get(obj, schemaCache)
+        }
+
         val data = Data.Factory.create()
         val size = data.decode(ByteBuffer.wrap(bytes.bytes, 8, bytes.size - 8))
         if (size.toInt() != bytes.size - 8) {
             throw NotSerializableException("Unexpected size of data")
         }
 
-        return Envelope.get(data)
+        return Envelope.get(data, schemaCache)
     }
 
 
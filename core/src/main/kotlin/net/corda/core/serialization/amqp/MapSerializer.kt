@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp
 
 import net.corda.core.checkNotUnorderedHashMap
-import org.apache.qpid.proton.codec.Data
 import java.io.NotSerializableException
 import java.lang.reflect.ParameterizedType
 import java.lang.reflect.Type
@@ -40,7 +39,7 @@ class MapSerializer(val declaredType: ParameterizedType, factory: SerializerFact
         }
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         obj.javaClass.checkNotUnorderedHashMap()
         // Write described
         data.withDescribed(typeNotation.descriptor) {
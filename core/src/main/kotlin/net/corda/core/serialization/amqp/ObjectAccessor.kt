@@ -0,0 +1,175 @@
+package net.corda.core.serialization.amqp
+
+import net.corda.core.utilities.loggerFor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes.*
+import org.objectweb.asm.Type
+import java.lang.reflect.Constructor
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Reads the properties of objects of one particular class, and constructs them, for an [ObjectSerializer], by calling
+ * the getters and the constructor directly rather than through reflection. The implementations are generated by
+ * [ObjectAccessorGenerator].
+ */
+interface ObjectAccessor {
+    /** Returns the value of the property at [index] of [obj], boxed if it's primitive. */
+    fun get(obj: Any, index: Int): Any?
+
+    /** Constructs an object from the values of its properties, boxed if they're primitive. */
+    fun construct(properties: Array<Any?>): Any
+}
+
+/**
+ * Generates the bytecode of an [ObjectAccessor] for a class, which calls its getters with a switch on the index of the
+ * property and its constructor with the unboxed property values. The accessor is loaded into a class loader of its own,
+ * below that of the class, and so can only call public members of public classes. For other classes no accessor is
+ * generated and the [ObjectSerializer] falls back to reflection.
+ */
+internal object ObjectAccessorGenerator {
+    private val log = loggerFor<ObjectAccessorGenerator>()
+    private val packageName = "${ObjectAccessor::class.java.`package`.name}.generated"
+    private val accessorCount = AtomicInteger()
+
+    private class AccessorClassLoader(parent: ClassLoader) : ClassLoader(parent) {
+        fun load(name: String, bytes: ByteArray): Class<*> = defineClass(name, bytes, 0, bytes.size)
+
+        // The class loader of the class needn't be able to see the interface the accessor implements.
+        override fun findClass(name: String): Class<*> {
+            return if (name == ObjectAccessor::class.java.name) ObjectAccessor::class.java else super.findClass(name)
+        }
+    }
+
+    /**
+     * Returns an accessor for [clazz] which calls [getters], in order, and [constructor], which takes the values of the
+     * properties in the same order, or null if they can't be called from generated code.
+     */
+    fun generate(clazz: Class<*>, getters: List<Method>, constructor: Constructor<*>): ObjectAccessor? {
+        val classLoader = clazz.classLoader ?: return null
+        if (!canCall(clazz, getters, constructor)) return null
+        val name = "$packageName.${clazz.simpleName}Accessor${accessorCount.incrementAndGet()}"
+        return try {
+            val bytes = generateClass(name.replace('.', '/'), clazz, getters, constructor)
+            AccessorClassLoader(classLoader).load(name, bytes).newInstance() as ObjectAccessor
+        } catch (e: Exception) {
+            log.warn("Unable to generate an accessor for $clazz, falling back to reflection", e)
+            null
+        } catch (e: LinkageError) {
+            log.warn("Unable to generate an accessor for $clazz, falling back to reflection", e)
+            null
+        }
+    }
+
+    private fun canCall(clazz: Class<*>, getters: List<Method>, constructor: Constructor<*>): Boolean {
+        return isPublic(clazz) &&
+                !Modifier.isAbstract(clazz.modifiers) &&
+                constructor.parameterCount == getters.size &&
+                Modifier.isPublic(constructor.modifiers) &&
+                constructor.parameterTypes.all { isPublic(it) } &&
+                getters.all { Modifier.isPublic(it.modifiers) && !Modifier.isStatic(it.modifiers) && isPublic(it.declaringClass) }
+    }
+
+    private fun isPublic(clazz: Class<*>): Boolean {
+        return when {
+            clazz.isPrimitive -> true
+            clazz.isArray -> isPublic(clazz.componentType)
+            else -> Modifier.isPublic(clazz.modifiers) && clazz.enclosingClass.let { it == null || isPublic(it) }
+        }
+    }
+
+    private fun generateClass(jvmName: String, clazz: Class<*>, getters: List<Method>, constructor: Constructor<*>): ByteArray {
+        val cw = object : ClassWriter(ClassWriter.COMPUTE_FRAMES or ClassWriter.COMPUTE_MAXS) {
+            // No two paths through the generated code meet with different types, so this isn't needed to compute the
+            // frames, and the default implementation would try to load the classes with ASM's own class loader.
+            override fun getCommonSuperClass(type1: String, type2: String): String = "java/lang/Object"
+        }
+        with(cw) {
+            visit(V1_8, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, jvmName, null, "java/lang/Object", arrayOf(Type.getInternalName(ObjectAccessor::class.java)))
+            generateConstructor()
+            generateGet(getters)
+            generateConstruct(clazz, constructor)
+            visitEnd()
+        }
+        return cw.toByteArray()
+    }
+
+    private fun ClassWriter.generateConstructor() {
+        with(visitMethod(ACC_PUBLIC, "<init>", "()V", null, null)) {
+            visitCode()
+            visitVarInsn(ALOAD, 0)
+            visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+            visitInsn(RETURN)
+            visitMaxs(0, 0)
+            visitEnd()
+        }
+    }
+
+    private fun ClassWriter.generateGet(getters: List<Method>) {
+        with(visitMethod(ACC_PUBLIC, "get", "(Ljava/lang/Object;I)Ljava/lang/Object;", null, null)) {
+            visitCode()
+            val outOfRange = Label()
+            if (getters.isNotEmpty()) {
+                val labels = Array(getters.size) { Label() }
+                visitVarInsn(ILOAD, 2)  // Load the index
+                visitTableSwitchInsn(0, getters.size - 1, outOfRange, *labels)
+                getters.forEachIndexed { index, getter ->
+                    visitLabel(labels[index])
+                    val owner = getter.declaringClass
+                    visitVarInsn(ALOAD, 1)  // Load the object
+                    visitTypeInsn(CHECKCAST, Type.getInternalName(owner))
+                    val opcode = if (owner.isInterface) INVOKEINTERFACE else INVOKEVIRTUAL
+                    visitMethodInsn(opcode, Type.getInternalName(owner), getter.name, Type.getMethodDescriptor(getter), owner.isInterface)
+                    box(getter.returnType)
+                    visitInsn(ARETURN)
+                }
+            }
+            visitLabel(outOfRange)
+            visitTypeInsn(NEW, "java/lang/IndexOutOfBoundsException")
+            visitInsn(DUP)
+            visitMethodInsn(INVOKESPECIAL, "java/lang/IndexOutOfBoundsException", "<init>", "()V", false)
+            visitInsn(ATHROW)
+            visitMaxs(0, 0)
+            visitEnd()
+        }
+    }
+
+    private fun ClassWriter.generateConstruct(clazz: Class<*>, constructor: Constructor<*>) {
+        with(visitMethod(ACC_PUBLIC, "construct", "([Ljava/lang/Object;)Ljava/lang/Object;", null, null)) {
+            visitCode()
+            val owner = Type.getInternalName(clazz)
+            visitTypeInsn(NEW, owner)
+            visitInsn(DUP)
+            constructor.parameterTypes.forEachIndexed { index, type ->
+                visitVarInsn(ALOAD, 1)  // Load the array of property values
+                visitLdcInsn(index)
+                visitInsn(AALOAD)
+                unbox(type)
+            }
+            visitMethodInsn(INVOKESPECIAL, owner, "<init>", Type.getConstructorDescriptor(constructor), false)
+            visitInsn(ARETURN)
+            visitMaxs(0, 0)
+            visitEnd()
+        }
+    }
+
+    private fun MethodVisitor.box(type: Class<*>) {
+        if (type.isPrimitive) {
+            val boxed = Type.getInternalName(type.kotlin.javaObjectType)
+            visitMethodInsn(INVOKESTATIC, boxed, "valueOf", "(${Type.getDescriptor(type)})L$boxed;", false)
+        }
+    }
+
+    private fun MethodVisitor.unbox(type: Class<*>) {
+        if (type.isPrimitive) {
+            val boxed = Type.getInternalName(type.kotlin.javaObjectType)
+            visitTypeInsn(CHECKCAST, boxed)
+            visitMethodInsn(INVOKEVIRTUAL, boxed, "${type.name}Value", "()${Type.getDescriptor(type)}", false)
+        } else {
+            visitTypeInsn(CHECKCAST, Type.getInternalName(type))
+        }
+    }
+}
@@ -2,7 +2,6 @@ package net.corda.core.serialization.amqp
 
 import net.corda.core.serialization.amqp.SerializerFactory.Companion.nameForType
 import org.apache.qpid.proton.amqp.UnsignedInteger
-import org.apache.qpid.proton.codec.Data
 import java.io.NotSerializableException
 import java.lang.reflect.Constructor
 import java.lang.reflect.Type
@@ -22,6 +21,13 @@ class ObjectSerializer(val clazz: Type, factory: SerializerFactory) : AMQPSerial
         propertySerializers = propertiesForSerialization(kotlinConstructor, clazz, factory)
     }
 
+    // Calls the getters and the constructor through generated code where it can, and through reflection otherwise.
+    private val accessor: ObjectAccessor? = if (javaConstructor != null && factory.generateAccessors) {
+        ObjectAccessorGenerator.generate(javaConstructor.declaringClass, propertySerializers.map { it.readMethod }, javaConstructor)
+    } else {
+        null
+    }
+
     private val typeName = nameForType(clazz)
 
     override val typeDescriptor = "$DESCRIPTOR_DOMAIN:${fingerprintForType(type, factory)}"
@@ -40,13 +46,19 @@ class ObjectSerializer(val clazz: Type, factory: SerializerFactory) : AMQPSerial
         }
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         // Write described
         data.withDescribed(typeNotation.descriptor) {
             // Write list
             withList {
-                for (property in propertySerializers) {
-                    property.writeProperty(obj, this, output)
+                if (accessor != null) {
+                    propertySerializers.forEachIndexed { index, property ->
+                        property.writeValue(accessor.get(obj, index), this, output)
+                    }
+                } else {
+                    for (property in propertySerializers) {
+                        property.writeProperty(obj, this, output)
+                    }
                 }
             }
         }
@@ -76,6 +88,6 @@ class ObjectSerializer(val clazz: Type, factory: SerializerFactory) : AMQPSerial
         if (javaConstructor == null) {
             throw NotSerializableException("Attempt to deserialize an interface: $clazz. Serialized form is invalid.")
         }
-        return javaConstructor.newInstance(*properties.toTypedArray())
+        return accessor?.construct(properties.toTypedArray()) ?: javaConstructor.newInstance(*properties.toTypedArray())
     }
 }
\ No newline at end of file
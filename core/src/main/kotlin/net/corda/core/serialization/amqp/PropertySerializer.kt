@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp
 
 import org.apache.qpid.proton.amqp.Binary
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Method
 import java.lang.reflect.Type
 import kotlin.reflect.full.memberProperties
@@ -12,9 +11,12 @@ import kotlin.reflect.jvm.javaGetter
  */
 sealed class PropertySerializer(val name: String, val readMethod: Method, val resolvedType: Type) {
     abstract fun writeClassInfo(output: SerializationOutput)
-    abstract fun writeProperty(obj: Any?, data: Data, output: SerializationOutput)
+    abstract fun writeValue(value: Any?, data: AmqpOutput, output: SerializationOutput)
     abstract fun readProperty(obj: Any?, schema: Schema, input: DeserializationInput): Any?
 
+    /** Writes the value of the property of [obj], read through reflection. */
+    fun writeProperty(obj: Any?, data: AmqpOutput, output: SerializationOutput) = writeValue(readMethod.invoke(obj), data, output)
+
     val type: String = generateType()
     val requires: List<String> = generateRequires()
     val default: String? = generateDefault()
@@ -82,8 +84,8 @@ sealed class PropertySerializer(val name: String, val readMethod: Method, val re
             return input.readObjectOrNull(obj, schema, resolvedType)
         }
 
-        override fun writeProperty(obj: Any?, data: Data, output: SerializationOutput) {
-            output.writeObjectOrNull(readMethod.invoke(obj), data, resolvedType)
+        override fun writeValue(value: Any?, data: AmqpOutput, output: SerializationOutput) {
+            output.writeObjectOrNull(value, data, resolvedType)
         }
     }
 
@@ -97,8 +99,7 @@ sealed class PropertySerializer(val name: String, val readMethod: Method, val re
             return if (obj is Binary) obj.array else obj
         }
 
-        override fun writeProperty(obj: Any?, data: Data, output: SerializationOutput) {
-            val value = readMethod.invoke(obj)
+        override fun writeValue(value: Any?, data: AmqpOutput, output: SerializationOutput) {
             if (value is ByteArray) {
                 data.putObject(Binary(value))
             } else {
@@ -118,8 +119,8 @@ sealed class PropertySerializer(val name: String, val readMethod: Method, val re
 
         override fun readProperty(obj: Any?, schema: Schema, input: DeserializationInput) = (obj as Int).toChar()
 
-        override fun writeProperty(obj: Any?, data: Data, output: SerializationOutput) {
-            data.putChar((readMethod.invoke(obj) as Char).toInt())
+        override fun writeValue(value: Any?, data: AmqpOutput, output: SerializationOutput) {
+            data.putChar((value as Char).toInt())
         }
     }
 }
@@ -2,6 +2,7 @@ package net.corda.core.serialization.amqp
 
 import com.google.common.hash.Hasher
 import com.google.common.hash.Hashing
+import net.corda.core.crypto.sha256
 import net.corda.core.crypto.toBase64
 import net.corda.core.utilities.OpaqueBytes
 import org.apache.qpid.proton.amqp.DescribedType
@@ -31,19 +32,34 @@ val AmqpHeaderV1_0: OpaqueBytes = OpaqueBytes("corda\u0001\u0000\u0000".toByteAr
  * to decompose and recompose with/without schema etc so that e.g. we can store objects with a (relationally) normalised out schema to
  * avoid excessive duplication.
  */
-// TODO: make the schema parsing lazy since mostly schemas will have been seen before and we only need it if we don't recognise a type descriptor.
 data class Envelope(val obj: Any?, val schema: Schema) : DescribedType {
     companion object : DescribedTypeConstructor<Envelope> {
         val DESCRIPTOR = UnsignedLong(1L or DESCRIPTOR_TOP_32BITS)
         val DESCRIPTOR_OBJECT = Descriptor(null, DESCRIPTOR)
 
-        fun get(data: Data): Envelope {
-            val describedType = data.`object` as DescribedType
+        /**
+         * Reads an envelope, whose schema may be a [SchemaReference] to one already received over the session of
+         * [schemaCache]. Any schema it carries in full is added to [schemaCache].
+         */
+        fun get(data: Data, schemaCache: SchemaCache? = null): Envelope = get(data.`object`, schemaCache)
+
+        /** Reads an envelope from its decoded value, as [get] does from a [Data]. */
+        fun get(obj: Any?, schemaCache: SchemaCache? = null): Envelope {
+            val describedType = obj as DescribedType
             if (describedType.descriptor != DESCRIPTOR) {
                 throw NotSerializableException("Unexpected descriptor ${describedType.descriptor}.")
             }
             val list = describedType.described as List<*>
-            return newInstance(listOf(list[0], Schema.get(list[1]!!)))
+            val schema = (list[1] as? DescribedType)?.let {
+                if (it.descriptor == SchemaReference.DESCRIPTOR) {
+                    val reference = SchemaReference.get(it)
+                    schemaCache ?: throw NotSerializableException("Schema reference ${reference.fingerprint} found without a schema cache.")
+                    schemaCache[reference.fingerprint] ?: throw NotSerializableException("Schema ${reference.fingerprint} has not been received.")
+                } else {
+                    Schema.get(it).apply { schemaCache?.add(this) }
+                }
+            }
+            return newInstance(listOf(list[0], schema ?: throw NotSerializableException("Envelope has no schema.")))
         }
 
         override fun getTypeClass(): Class<*> = Envelope::class.java
@@ -73,7 +89,7 @@ data class Schema(val types: List<TypeNotation>) : DescribedType {
                 throw NotSerializableException("Unexpected descriptor ${describedType.descriptor}.")
             }
             val list = describedType.described as List<*>
-            return newInstance(listOf((list[0] as List<*>).map { TypeNotation.get(it!!) }))
+            return Schema(DecodingTypeNotations(list[0] as List<*>))
         }
 
         override fun getTypeClass(): Class<*> = Schema::class.java
@@ -90,6 +106,62 @@ data class Schema(val types: List<TypeNotation>) : DescribedType {
     override fun getDescribed(): Any = listOf(types)
 
     override fun toString(): String = types.joinToString("\n")
+
+    /**
+     * Identifies the schema by a SHA-256 hash of its encoded types, whatever order they're in. As the whole of each type
+     * is hashed, a schema received from a peer can't stand in for one with different types under the same fingerprint.
+     * The types of a received schema are hashed as they were encoded, without decoding them.
+     */
+    val fingerprint: String by lazy {
+        val encodedTypes = (types as? DecodingTypeNotations)?.encoded ?: types
+        val typeHashes = encodedTypes.map { encode(it).sha256() }.sortedBy { it.toString() }
+        typeHashes.flatMap { it.bytes.asList() }.toByteArray().sha256().toString()
+    }
+
+    private fun encode(type: Any?): ByteArray = AmqpWriter().apply { putObject(type) }.toByteArray()
+}
+
+/**
+ * The type notations of a received [Schema], decoded only if they're used, as they're only needed for any descriptors
+ * the [SerializerFactory] hasn't seen before, and mostly it will have seen them all.
+ */
+private class DecodingTypeNotations(val encoded: List<*>) : kotlin.collections.AbstractList<TypeNotation>() {
+    private val decoded by lazy { encoded.map { TypeNotation.get(it!!) } }
+
+    override val size: Int get() = encoded.size
+
+    override fun get(index: Int): TypeNotation = decoded[index]
+}
+
+/**
+ * Carried by an [Envelope] in place of a [Schema] which has already been sent over the same session, as recorded in a
+ * [SchemaCache].
+ */
+data class SchemaReference(val fingerprint: String) : DescribedType {
+    companion object : DescribedTypeConstructor<SchemaReference> {
+        val DESCRIPTOR = UnsignedLong(8L or DESCRIPTOR_TOP_32BITS)
+
+        fun get(obj: Any): SchemaReference {
+            val describedType = obj as DescribedType
+            if (describedType.descriptor != DESCRIPTOR) {
+                throw NotSerializableException("Unexpected descriptor ${describedType.descriptor}.")
+            }
+            return newInstance(describedType.described)
+        }
+
+        override fun getTypeClass(): Class<*> = SchemaReference::class.java
+
+        override fun newInstance(described: Any?): SchemaReference {
+            val list = described as? List<*> ?: throw IllegalStateException("Was expecting a list")
+            return SchemaReference(list[0] as String)
+        }
+    }
+
+    override fun getDescriptor(): Any = DESCRIPTOR
+
+    override fun getDescribed(): Any = listOf(fingerprint)
+
+    override fun toString(): String = "<schema fingerprint=\"$fingerprint\"/>"
 }
 
 data class Descriptor(val name: String?, val code: UnsignedLong? = null) : DescribedType {
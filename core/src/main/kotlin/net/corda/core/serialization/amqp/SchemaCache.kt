@@ -0,0 +1,34 @@
+package net.corda.core.serialization.amqp
+
+import java.util.concurrent.ConcurrentHashMap
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * The schemas sent, or received, over one session with a peer, keyed by their [Schema.fingerprint]s.
+ *
+ * A [SerializationOutput] with a cache writes the schema of an [Envelope] in full only the first time, and after that
+ * just a [SchemaReference] to it. A [DeserializationInput] with a cache remembers each schema it reads, so that it can
+ * resolve those references. That relies on every envelope serialized with the sender's cache being deserialized, in
+ * the order it was serialized, with the receiver's, as it would be over a session, so each end needs a cache of its own
+ * for each session and must discard it when the session ends.
+ *
+ * A schema is identified by its fingerprint, a hash of its types, whichever session it arrives over, so a receiver may
+ * instead share one cache between its sessions, as long as it holds every schema any of them has received. A receiver
+ * which could forget schemas, by restarting for example, must keep them somewhere more durable, by overriding [get] and
+ * [add]. A receiver which drops schemas to bound its cache will fail to resolve any later references to them.
+ *
+ * The cache is passed to [KryoAMQPSerializer][net.corda.core.serialization.KryoAMQPSerializer] through the
+ * serialization context, with [withSchemaCache][net.corda.core.serialization.withSchemaCache].
+ */
+@ThreadSafe
+open class SchemaCache {
+    private val schemas = ConcurrentHashMap<String, Schema>()
+
+    /** The number of schemas sent, or received, so far. */
+    open val size: Int get() = schemas.size
+
+    open operator fun get(fingerprint: String): Schema? = schemas[fingerprint]
+
+    /** Adds [schema], returning false if one with the same fingerprint had already been added. */
+    open fun add(schema: Schema): Boolean = schemas.putIfAbsent(schema.fingerprint, schema) == null
+}
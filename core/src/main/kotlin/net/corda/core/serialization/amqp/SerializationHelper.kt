@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp
 
 import com.google.common.reflect.TypeToken
-import org.apache.qpid.proton.codec.Data
 import java.beans.Introspector
 import java.io.NotSerializableException
 import java.lang.reflect.*
@@ -126,7 +125,7 @@ private fun exploreType(type: Type?, interfaces: MutableSet<Type>) {
 /**
  * Extension helper for writing described objects.
  */
-fun Data.withDescribed(descriptor: Descriptor, block: Data.() -> Unit) {
+fun AmqpOutput.withDescribed(descriptor: Descriptor, block: AmqpOutput.() -> Unit) {
     // Write described
     putDescribed()
     enter()
@@ -139,7 +138,7 @@ fun Data.withDescribed(descriptor: Descriptor, block: Data.() -> Unit) {
 /**
  * Extension helper for writing lists.
  */
-fun Data.withList(block: Data.() -> Unit) {
+fun AmqpOutput.withList(block: AmqpOutput.() -> Unit) {
     // Write list
     putList()
     enter()
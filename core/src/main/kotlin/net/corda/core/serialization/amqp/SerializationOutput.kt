@@ -13,8 +13,14 @@ import kotlin.collections.LinkedHashSet
  *
  * @param serializerFactory This is the factory for [AMQPSerializer] instances and can be shared across multiple
  * instances and threads.
+ * @param schemaCache The schemas already sent over the session the serialized objects are for, if any, which are then
+ * replaced by a [SchemaReference].
+ * @param streaming Whether to encode straight into bytes with an [AmqpWriter], rather than building a proton [Data] tree
+ * and then encoding that. Both produce the same bytes.
  */
-open class SerializationOutput(internal val serializerFactory: SerializerFactory = SerializerFactory()) {
+open class SerializationOutput(internal val serializerFactory: SerializerFactory = SerializerFactory(),
+                               private val schemaCache: SchemaCache? = null,
+                               private val streaming: Boolean = true) {
     // TODO: we're not supporting object refs yet
     private val objectHistory: MutableMap<Any, Int> = IdentityHashMap()
     private val serializerHistory: MutableSet<AMQPSerializer<*>> = LinkedHashSet()
@@ -28,20 +34,20 @@ open class SerializationOutput(internal val serializerFactory: SerializerFactory
     @Throws(NotSerializableException::class)
     fun <T : Any> serialize(obj: T): SerializedBytes<T> {
         try {
-            val data = Data.Factory.create()
-            data.withDescribed(Envelope.DESCRIPTOR_OBJECT) {
-                withList {
-                    // Our object
-                    writeObject(obj, this)
-                    // The schema
-                    writeSchema(Schema(schemaHistory.toList()), this)
-                }
+            if (streaming) {
+                val writer = AmqpWriter()
+                writer.writeRaw(AmqpHeaderV1_0.bytes)
+                writeEnvelope(obj, writer)
+                return SerializedBytes(writer.toByteArray())
+            } else {
+                val data = Data.Factory.create()
+                writeEnvelope(obj, DataOutput(data))
+                val bytes = ByteArray(data.encodedSize().toInt() + 8)
+                val buf = ByteBuffer.wrap(bytes)
+                buf.put(AmqpHeaderV1_0.bytes)
+                data.encode(buf)
+                return SerializedBytes(bytes)
             }
-            val bytes = ByteArray(data.encodedSize().toInt() + 8)
-            val buf = ByteBuffer.wrap(bytes)
-            buf.put(AmqpHeaderV1_0.bytes)
-            data.encode(buf)
-            return SerializedBytes(bytes)
         } finally {
             objectHistory.clear()
             serializerHistory.clear()
@@ -49,15 +55,31 @@ open class SerializationOutput(internal val serializerFactory: SerializerFactory
         }
     }
 
-    internal fun writeObject(obj: Any, data: Data) {
+    private fun writeEnvelope(obj: Any, data: AmqpOutput) {
+        data.withDescribed(Envelope.DESCRIPTOR_OBJECT) {
+            withList {
+                // Our object
+                writeObject(obj, this)
+                // The schema, or a reference to it if the receiver already has it
+                val schema = Schema(schemaHistory.toList())
+                if (schemaCache == null || schemaCache.add(schema)) {
+                    writeSchema(schema, this)
+                } else {
+                    putObject(SchemaReference(schema.fingerprint))
+                }
+            }
+        }
+    }
+
+    internal fun writeObject(obj: Any, data: AmqpOutput) {
         writeObject(obj, data, obj.javaClass)
     }
 
-    open fun writeSchema(schema: Schema, data: Data) {
+    open fun writeSchema(schema: Schema, data: AmqpOutput) {
         data.putObject(schema)
     }
 
-    internal fun writeObjectOrNull(obj: Any?, data: Data, type: Type) {
+    internal fun writeObjectOrNull(obj: Any?, data: AmqpOutput, type: Type) {
         if (obj == null) {
             data.putNull()
         } else {
@@ -65,7 +87,7 @@ open class SerializationOutput(internal val serializerFactory: SerializerFactory
         }
     }
 
-    internal fun writeObject(obj: Any, data: Data, type: Type) {
+    internal fun writeObject(obj: Any, data: AmqpOutput, type: Type) {
         val serializer = serializerFactory.get(obj.javaClass, type)
         if (serializer !in serializerHistory) {
             serializerHistory.add(serializer)
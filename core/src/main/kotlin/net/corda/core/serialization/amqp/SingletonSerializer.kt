@@ -1,6 +1,5 @@
 package net.corda.core.serialization.amqp
 
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Type
 
 /**
@@ -20,7 +19,7 @@ class SingletonSerializer(override val type: Class<*>, val singleton: Any, facto
         output.writeTypeNotations(typeNotation)
     }
 
-    override fun writeObject(obj: Any, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeObject(obj: Any, data: AmqpOutput, type: Type, output: SerializationOutput) {
         data.withDescribed(typeNotation.descriptor) {
             data.putBoolean(false)
         }
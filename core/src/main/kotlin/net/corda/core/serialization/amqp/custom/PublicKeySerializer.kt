@@ -2,7 +2,6 @@ package net.corda.core.serialization.amqp.custom
 
 import net.corda.core.crypto.Crypto
 import net.corda.core.serialization.amqp.*
-import org.apache.qpid.proton.codec.Data
 import java.lang.reflect.Type
 import java.security.PublicKey
 
@@ -14,7 +13,7 @@ object PublicKeySerializer : CustomSerializer.Implements<PublicKey>(PublicKey::c
 
     override val schemaForDocumentation = Schema(listOf(RestrictedType(type.toString(), "", listOf(type.toString()), SerializerFactory.primitiveTypeName(ByteArray::class.java)!!, descriptor, emptyList())))
 
-    override fun writeDescribedObject(obj: PublicKey, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeDescribedObject(obj: PublicKey, data: AmqpOutput, type: Type, output: SerializationOutput) {
         // TODO: Instead of encoding to the default X509 format, we could have a custom per key type (space-efficient) serialiser.
         output.writeObject(obj.encoded, data, clazz)
     }
@@ -1,7 +1,6 @@
 package net.corda.core.serialization.amqp.custom
 
 import net.corda.core.serialization.amqp.*
-import org.apache.qpid.proton.codec.Data
 import org.bouncycastle.asn1.ASN1InputStream
 import org.bouncycastle.asn1.x500.X500Name
 import java.lang.reflect.Type
@@ -14,7 +13,7 @@ object X500NameSerializer : CustomSerializer.Implements<X500Name>(X500Name::clas
 
     override val schemaForDocumentation = Schema(listOf(RestrictedType(type.toString(), "", listOf(type.toString()), SerializerFactory.primitiveTypeName(ByteArray::class.java)!!, descriptor, emptyList())))
 
-    override fun writeDescribedObject(obj: X500Name, data: Data, type: Type, output: SerializationOutput) {
+    override fun writeDescribedObject(obj: X500Name, data: AmqpOutput, type: Type, output: SerializationOutput) {
         output.writeObject(obj.encoded, data, clazz)
     }
 
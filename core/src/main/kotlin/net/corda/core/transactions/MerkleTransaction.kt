@@ -10,12 +10,19 @@ import net.corda.core.serialization.CordaSerializable
 import net.corda.core.serialization.SerializationDefaults.P2P_CONTEXT
 import net.corda.core.serialization.serialize
 import java.security.PublicKey
+import java.util.*
 import java.util.function.Predicate
 
 fun <T : Any> serializedHash(x: T): SecureHash {
     return x.serialize(context = P2P_CONTEXT.withoutReferences()).hash
 }
 
+/**
+ * Calculates the [serializedHash]es of the components of a transaction. They're calculated on the calling thread, which
+ * has the serialization context, and may be a flow's fiber.
+ */
+internal fun componentHashes(components: List<Any>): List<SecureHash> = components.map { serializedHash(it) }
+
 /**
  * Implemented by [WireTransaction] and [FilteredLeaves]. A TraversableTransaction allows you to iterate
  * over the flattened components of the underlying transaction structure, taking into account that some
@@ -65,7 +72,7 @@ interface TraversableTransaction {
      * The root of the tree is the transaction identifier. The tree structure is helpful for privacy, please
      * see the user-guide section "Transaction tear-offs" to learn more about this topic.
      */
-    val availableComponentHashes: List<SecureHash> get() = availableComponents.map { serializedHash(it) }
+    val availableComponentHashes: List<SecureHash> get() = componentHashes(availableComponents)
 }
 
 /**
@@ -83,6 +90,12 @@ class FilteredLeaves(
         override val type: TransactionType?,
         override val timeWindow: TimeWindow?
 ) : TraversableTransaction {
+    // Set when the leaves are filtered from a WireTransaction, whose component hashes have already been calculated.
+    @Volatile @Transient internal var cachedComponentHashes: List<SecureHash>? = null
+
+    override val availableComponentHashes: List<SecureHash>
+        get() = cachedComponentHashes ?: componentHashes(availableComponents).apply { cachedComponentHashes = this }
+
     /**
      * Function that checks the whole filtered structure.
      * Force type checking on a structure that we obtained, so we don't sign more than expected.
@@ -122,6 +135,10 @@ class FilteredTransaction private constructor(
         ): FilteredTransaction {
             val filteredLeaves = wtx.filterWithFun(filtering)
             val merkleTree = wtx.merkleTree
+            // The filtered components are the very objects of the transaction, so their hashes are already known.
+            val hashes = IdentityHashMap<Any, SecureHash>()
+            wtx.availableComponents.forEachIndexed { i, component -> hashes[component] = wtx.availableComponentHashes[i] }
+            filteredLeaves.cachedComponentHashes = filteredLeaves.availableComponents.map { hashes[it] ?: serializedHash(it) }
             val pmt = PartialMerkleTree.build(merkleTree, filteredLeaves.availableComponentHashes)
             return FilteredTransaction(merkleTree.hash, filteredLeaves, pmt)
         }
@@ -6,6 +6,7 @@ import net.corda.core.contracts.TransactionResolutionException
 import net.corda.core.contracts.TransactionVerificationException
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.SignatureVerificationCache
 import net.corda.core.crypto.isFulfilledBy
 import net.corda.core.node.ServiceHub
 import net.corda.core.serialization.CordaSerializable
@@ -97,14 +98,13 @@ data class SignedTransaction(val txBits: SerializedBytes<WireTransaction>,
      * corrupt. If you use this function directly you'll need to do the other checks yourself. Probably you
      * want [verifySignaturesExcept] instead.
      *
+     * Signatures which have already been found valid for this transaction, by this or another copy of it, aren't
+     * checked again. See [SignatureVerificationCache].
+     *
      * @throws SignatureException if a signature fails to verify.
      */
     @Throws(SignatureException::class)
-    fun checkSignaturesAreValid() {
-        for (sig in sigs) {
-            sig.verify(id.bytes)
-        }
-    }
+    fun checkSignaturesAreValid() = SignatureVerificationCache.verify(id, sigs)
 
     private fun getMissingSignatures(): Set<PublicKey> {
         val sigKeys = sigs.map { it.by }.toSet()
@@ -101,6 +101,12 @@ class WireTransaction(
         return FilteredTransaction.buildMerkleTransaction(this, filtering)
     }
 
+    /**
+     * The hashes of the components of the transaction, calculated once and shared by the Merkle tree and any
+     * [FilteredTransaction]s built from the transaction.
+     */
+    override val availableComponentHashes: List<SecureHash> by lazy { componentHashes(availableComponents) }
+
     /**
      * Builds whole Merkle tree for a transaction.
      */
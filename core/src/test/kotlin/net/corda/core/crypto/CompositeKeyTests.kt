@@ -82,6 +82,30 @@ class CompositeKeyTests : TestDependencyInjectionBase() {
         assertTrue { aliceAndBobOrCharlie.isFulfilledBy(signatures.byKeys()) }
     }
 
+    @Test
+    fun `weighted multi-level tree with a repeated subtree is fulfilled`() {
+        val dave = generateKeyPair().public
+        val aliceAndBob = CompositeKey.Builder().addKeys(alicePublicKey, bobPublicKey).build()
+        val aliceAndBobOrCharlie = CompositeKey.Builder().addKeys(aliceAndBob, charliePublicKey).build(threshold = 1)
+        // Needs a weight of 3: either (Alice and Bob) twice over, or one of those and Dave, or Charlie and Dave.
+        val key = CompositeKey.Builder()
+                .addKey(aliceAndBob, 2)
+                .addKey(aliceAndBobOrCharlie, 1)
+                .addKey(dave, 2)
+                .build(threshold = 3) as CompositeKey
+
+        assertTrue { key.isFulfilledBy(listOf(alicePublicKey, bobPublicKey)) }
+        assertTrue { key.isFulfilledBy(listOf(charliePublicKey, dave)) }
+        assertTrue { key.isFulfilledBy(listOf(alicePublicKey, bobPublicKey, charliePublicKey, dave)) }
+        assertFalse { key.isFulfilledBy(listOf(alicePublicKey, charliePublicKey)) }
+        assertFalse { key.isFulfilledBy(dave) }
+        // A key given more than once only counts once.
+        assertFalse { key.isFulfilledBy(listOf(charliePublicKey, charliePublicKey, charliePublicKey)) }
+        // Composite keys can't fulfil a composite key, even one of its own subtrees.
+        assertFalse { key.isFulfilledBy(listOf(aliceAndBob, dave)) }
+        assertEquals(setOf(alicePublicKey, bobPublicKey, charliePublicKey, dave), key.leafKeys)
+    }
+
     @Test
     fun `kryo encoded tree decodes correctly`() {
         val aliceAndBob = CompositeKey.Builder().addKeys(alicePublicKey, bobPublicKey).build()
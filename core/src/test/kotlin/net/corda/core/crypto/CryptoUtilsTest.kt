@@ -19,6 +19,7 @@ import org.bouncycastle.pqc.jcajce.provider.sphincs.BCSphincs256PublicKey
 import org.junit.Assert.assertNotEquals
 import org.junit.Test
 import java.security.KeyPairGenerator
+import java.security.SignatureException
 import java.util.*
 import kotlin.test.*
 
@@ -340,6 +341,20 @@ class CryptoUtilsTest {
         }
     }
 
+    @Test
+    fun `batch verification of signatures of different schemes`() {
+        val signatures = listOf(Crypto.EDDSA_ED25519_SHA512, Crypto.ECDSA_SECP256K1_SHA256, Crypto.EDDSA_ED25519_SHA512, Crypto.RSA_SHA256).map {
+            val keyPair = Crypto.generateKeyPair(it)
+            DigitalSignature.WithKey(keyPair.public, Crypto.doSign(keyPair.private, testBytes))
+        }
+        assertTrue(Crypto.doVerify(signatures, testBytes))
+
+        // A signature by the wrong key fails the whole batch, even amongst valid signatures of the same scheme.
+        val wrongKey = DigitalSignature.WithKey(signatures[0].by, signatures[2].bytes)
+        assertFailsWith<SignatureException> { Crypto.doVerify(signatures + wrongKey, testBytes) }
+        assertFailsWith<IllegalArgumentException> { Crypto.doVerify(signatures, ByteArray(0)) }
+    }
+
     // test list of supported algorithms
     @Test
     fun `Check supported algorithms`() {
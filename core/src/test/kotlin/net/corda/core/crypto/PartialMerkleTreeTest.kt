@@ -6,8 +6,10 @@ import net.corda.contracts.asset.Cash
 import net.corda.core.contracts.*
 import net.corda.core.crypto.SecureHash.Companion.zeroHash
 import net.corda.core.identity.Party
+import net.corda.core.serialization.deserialize
 import net.corda.core.serialization.serialize
 import net.corda.core.transactions.WireTransaction
+import net.corda.core.transactions.serializedHash
 import net.corda.testing.*
 import org.junit.Test
 import java.security.PublicKey
@@ -123,6 +125,21 @@ class PartialMerkleTreeTest : TestDependencyInjectionBase() {
         assertTrue(mt.verify())
     }
 
+    @Test
+    fun `transaction with many components`() {
+        val outputs = (1..200).map { testTx.outputs[0].copy(data = (testTx.outputs[0].data as Cash.State).copy(amount = it.DOLLARS `issued by` MEGA_CORP.ref(1))) }
+        val wtx = makeSimpleCashWtx(DUMMY_NOTARY).let {
+            WireTransaction(it.inputs, it.attachments, outputs, it.commands, it.notary, it.mustSign, it.type, it.timeWindow)
+        }
+        // The hashes must be in the order of the components.
+        assertEquals(MerkleTree.getMerkleTree(wtx.availableComponents.map { serializedHash(it) }).hash, wtx.id)
+
+        val ftx = wtx.buildFilteredTransaction(Predicate { it is TransactionState<*> && (it.data as Cash.State).amount.quantity % 7 == 0L })
+        assertEquals(28, ftx.filteredLeaves.outputs.size)
+        assertTrue(ftx.verify())
+        assertTrue(ftx.serialize().deserialize().verify())
+    }
+
     @Test
     fun `same transactions with different notaries have different ids`() {
         val wtx1 = makeSimpleCashWtx(DUMMY_NOTARY)
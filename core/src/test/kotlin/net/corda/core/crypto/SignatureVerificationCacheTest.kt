@@ -0,0 +1,46 @@
+package net.corda.core.crypto
+
+import org.junit.After
+import org.junit.Test
+import java.security.SignatureException
+import kotlin.test.assertFailsWith
+
+class SignatureVerificationCacheTest {
+    private val content = SecureHash.sha256("Just a simple test string")
+    private val keyPair = generateKeyPair()
+    private val otherKeyPair = generateKeyPair()
+
+    @After
+    fun tearDown() {
+        SignatureVerificationCache.clear()
+    }
+
+    @Test
+    fun `valid signatures are verified`() {
+        SignatureVerificationCache.verify(content, listOf(keyPair.sign(content.bytes), otherKeyPair.sign(content.bytes)))
+        // And again, this time from the cache.
+        SignatureVerificationCache.verify(content, listOf(keyPair.sign(content.bytes), otherKeyPair.sign(content.bytes)))
+    }
+
+    @Test
+    fun `a signature verified over other content is not accepted`() {
+        val sig = keyPair.sign(content.bytes)
+        SignatureVerificationCache.verify(content, listOf(sig))
+        assertFailsWith<SignatureException> { SignatureVerificationCache.verify(SecureHash.sha256("Something else"), listOf(sig)) }
+    }
+
+    @Test
+    fun `a verified signature is not accepted for another key`() {
+        val sig = keyPair.sign(content.bytes)
+        SignatureVerificationCache.verify(content, listOf(sig))
+        val misattributed = DigitalSignature.WithKey(otherKeyPair.public, sig.bytes)
+        assertFailsWith<SignatureException> { SignatureVerificationCache.verify(content, listOf(misattributed)) }
+    }
+
+    @Test
+    fun `invalid signatures are rejected every time`() {
+        val sig = DigitalSignature.WithKey(keyPair.public, otherKeyPair.sign(content.bytes).bytes)
+        assertFailsWith<SignatureException> { SignatureVerificationCache.verify(content, listOf(sig)) }
+        assertFailsWith<SignatureException> { SignatureVerificationCache.verify(content, listOf(sig)) }
+    }
+}
@@ -131,6 +131,41 @@ class ResolveTransactionsFlowTest {
         future.getOrThrow()
     }
 
+    @Test
+    fun `transactions are grouped by dependency level`() {
+        val (stx1, stx2) = makeTransactions()
+        val stx3 = DummyContract.move(listOf(stx1.tx.outRef(0), stx2.tx.outRef(0)), MINI_CORP).run {
+            megaCorpServices.signInitialTransaction(this)
+        }
+        val stx4 = megaCorpServices.signInitialTransaction(DummyContract.generateInitial(1, notary, MEGA_CORP.ref(1)))
+
+        val levels = ResolveTransactionsFlow.dependencyLevels(ResolveTransactionsFlow.topologicalSort(listOf(stx3, stx2, stx4, stx1)))
+        assertEquals(listOf(setOf(stx1, stx4), setOf(stx2), setOf(stx3)), levels.map { it.toSet() })
+    }
+
+    @Test
+    fun `resolve a chain longer than a recording batch`() {
+        val stx2 = makeTransactions().second
+        var cursor = stx2
+        val chain = mutableListOf(stx2)
+        repeat(150) {
+            val builder = DummyContract.move(cursor.tx.outRef(0), MINI_CORP)
+            val stx = notaryServices.addSignature(megaCorpServices.signInitialTransaction(builder))
+            a.database.transaction {
+                a.services.recordTransactions(stx)
+            }
+            chain += stx
+            cursor = stx
+        }
+        val p = ResolveTransactionsFlow(setOf(cursor.id), a.info.legalIdentity)
+        val future = b.services.startFlow(p).resultFuture
+        mockNet.runNetwork()
+        assertEquals(cursor.id, future.getOrThrow().last().id)
+        b.database.transaction {
+            chain.forEach { assertEquals(it, b.services.validatedTransactions.getTransaction(it.id)) }
+        }
+    }
+
     @Test
     fun attachment() {
         fun makeJar(): InputStream {
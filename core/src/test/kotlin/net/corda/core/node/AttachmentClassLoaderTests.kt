@@ -324,4 +324,53 @@ class AttachmentClassLoaderTests : TestDependencyInjectionBase() {
         }
         assertEquals(attachmentRef, e.ids.single())
     }
+
+    @Test
+    fun `transactions using the same attachments share their classes`() {
+        val child = ClassLoaderForTests()
+        val contractClass = Class.forName("net.corda.contracts.isolated.AnotherDummyContract", true, child)
+        val contract = contractClass.newInstance() as DummyContractBackdoor
+        val storage = MockAttachmentStorage()
+        val context = P2P_CONTEXT.withWhitelisted(contract.javaClass)
+                .withWhitelisted(Class.forName("net.corda.contracts.isolated.AnotherDummyContract\$State", true, child))
+                .withWhitelisted(Class.forName("net.corda.contracts.isolated.AnotherDummyContract\$Commands\$Create", true, child))
+                .withAttachmentStorage(storage)
+        val attachmentRef = importJar(storage)
+        val other = storage.importAttachment(ByteArrayInputStream(fakeAttachment("file.txt", "some data")))
+
+        val (first, second) = listOf(listOf(attachmentRef, other), listOf(other, attachmentRef)).map { attachments ->
+            val tx = contract.generateInitial(MEGA_CORP.ref(0), 42, DUMMY_NOTARY)
+            attachments.forEach { tx.addAttachment(it) }
+            tx.toWireTransaction().serialize(context = context).deserialize(context = context)
+        }
+        assertTrue(first.getOutput(0).javaClass.classLoader is AttachmentsClassLoader)
+        assertTrue(first.getOutput(0).javaClass === second.getOutput(0).javaClass)
+    }
+
+    @Test
+    fun `class loader cache evicts the least recently used class loaders`() {
+        val storage = MockAttachmentStorage()
+        val (att0, att1, att2) = (0..2).map {
+            storage.importAttachment(ByteArrayInputStream(fakeAttachment("file$it.txt", "some data")))
+        }
+        val cache = AttachmentsClassLoaderCache(storage, 2)
+
+        val first = cache.get(listOf(att0, att1))
+        val second = cache.get(listOf(att1, att2))
+        assertTrue(cache.get(listOf(att2, att1)) === second)
+        assertTrue(cache.get(listOf(att1, att0)) === first)
+        assertEquals(2L, cache.hits)
+        // The class loader for att1 and att2 is now the least recently used, so it makes way for the new one.
+        cache.get(listOf(att0, att2))
+        assertEquals(3L, cache.created)
+        assertEquals(1L, cache.evicted)
+        assertEquals(2, cache.size)
+        assertTrue(cache.get(listOf(att0, att1)) === first)
+        assertTrue(cache.get(listOf(att1, att2)) !== second)
+
+        val e = assertFailsWith(MissingAttachmentsException::class) {
+            AttachmentsClassLoaderCache(MockAttachmentStorage()).get(listOf(att0))
+        }
+        assertEquals(att0, e.ids.single())
+    }
 }
@@ -7,6 +7,8 @@ import net.corda.core.flows.FlowLogic
 import net.corda.core.flows.InitiatingFlow
 import net.corda.core.getOrThrow
 import net.corda.core.identity.Party
+import net.corda.core.internal.div
+import net.corda.core.internal.write
 import net.corda.core.messaging.RPCOps
 import net.corda.core.messaging.SingleMessageRecipient
 import net.corda.core.node.services.ServiceInfo
@@ -16,7 +18,6 @@ import net.corda.node.internal.InitiatedFlowFactory
 import net.corda.node.services.config.NodeConfiguration
 import net.corda.node.services.network.NetworkMapService
 import net.corda.node.services.persistence.NodeAttachmentService
-import net.corda.node.services.persistence.schemas.requery.AttachmentEntity
 import net.corda.node.services.statemachine.SessionInit
 import net.corda.testing.node.MockNetwork
 import org.junit.After
@@ -52,14 +53,7 @@ private fun MockNetwork.MockNode.hackAttachment(attachmentId: SecureHash, conten
  * @see NodeAttachmentService.importAttachment
  */
 private fun NodeAttachmentService.updateAttachment(attachmentId: SecureHash, data: ByteArray) {
-    with(session) {
-        withTransaction {
-            update(AttachmentEntity().apply {
-                attId = attachmentId
-                content = data
-            })
-        }
-    }
+    (storePath / attachmentId.toString()).write { it.write(data) }
 }
 
 class AttachmentSerializationTest {
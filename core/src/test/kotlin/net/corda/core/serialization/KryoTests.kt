@@ -18,6 +18,7 @@ import org.junit.Before
 import org.junit.Test
 import org.slf4j.LoggerFactory
 import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 import java.io.InputStream
 import java.security.cert.CertPath
 import java.security.cert.CertificateFactory
@@ -142,7 +143,7 @@ class KryoTests {
     @Test
     fun `HashCheckingStream (de)serialize`() {
         val rubbish = ByteArray(12345, { (it * it * 0.12345).toByte() })
-        val readRubbishStream: InputStream = NodeAttachmentService.HashCheckingStream(SecureHash.sha256(rubbish), rubbish.size, ByteArrayInputStream(rubbish)).serialize(factory, context).deserialize(factory, context)
+        val readRubbishStream: InputStream = NodeAttachmentService.HashCheckingStream(SecureHash.sha256(rubbish), rubbish.size.toLong(), ByteArrayInputStream(rubbish)).serialize(factory, context).deserialize(factory, context)
         for (i in 0..12344) {
             assertEquals(rubbish[i], readRubbishStream.read().toByte())
         }
@@ -169,6 +170,34 @@ class KryoTests {
         assertEquals(expected, actual)
     }
 
+    @Test
+    fun `serializing into a stream writes the same bytes`() {
+        val mike = Person("mike", Instant.parse("1984-04-17T00:30:00.00Z"))
+        val stream = ByteArrayOutputStream()
+        mike.serializeTo(stream, factory, context)
+        assertThat(stream.toByteArray()).isEqualTo(mike.serialize(factory, context).bytes)
+    }
+
+    @Test
+    fun `objects larger than the pooled buffers round trip`() {
+        // Bigger than the initial buffer, so it has to grow, and bigger than a buffer which is kept in the pool.
+        val big = (1..200000).map { "item $it" }
+        repeat(2) {
+            assertThat(big.serialize(factory, context).deserialize(factory, context)).isEqualTo(big)
+            val stream = ByteArrayOutputStream()
+            big.serializeTo(stream, factory, context)
+            assertThat(stream.toByteArray().deserialize<List<String>>(factory, context)).isEqualTo(big)
+        }
+    }
+
+    @Test
+    fun `deserialize from a slice of a larger array`() {
+        val mike = Person("mike", null)
+        val bits = mike.serialize(factory, context).bytes
+        val padded = ByteArray(10) + bits + ByteArray(10)
+        assertThat(padded.sequence(10, bits.size).deserialize<Person>(factory, context)).isEqualTo(mike)
+    }
+
     @CordaSerializable
     private data class Person(val name: String, val birthday: Instant?)
 
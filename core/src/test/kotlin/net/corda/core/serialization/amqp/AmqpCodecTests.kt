@@ -0,0 +1,142 @@
+package net.corda.core.serialization.amqp
+
+import org.apache.qpid.proton.amqp.*
+import org.apache.qpid.proton.codec.Data
+import org.junit.Test
+import java.io.NotSerializableException
+import java.nio.ByteBuffer
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class AmqpCodecTests {
+    private val values = listOf<Any?>(
+            null, true, false,
+            UnsignedByte.valueOf(200.toByte()), 1.toByte(), (-1).toByte(),
+            UnsignedShort.valueOf(60000.toShort()), 1.toShort(), (-300).toShort(),
+            UnsignedInteger.valueOf(0), UnsignedInteger.valueOf(255), UnsignedInteger.valueOf(256), UnsignedInteger.valueOf(-1),
+            0, 127, 128, -128, -129, Int.MAX_VALUE, Int.MIN_VALUE,
+            UnsignedLong.valueOf(0), UnsignedLong.valueOf(255), UnsignedLong.valueOf(256), Envelope.DESCRIPTOR,
+            0L, 127L, 128L, -128L, -129L, Long.MAX_VALUE, Long.MIN_VALUE,
+            1.5F, -0.0F, 2.5, Double.NaN,
+            Decimal32(1), Decimal64(2L), Decimal128(3L, 4L),
+            'c', '€',
+            Date(1234567890L), UUID(5L, 6L),
+            Binary(ByteArray(10) { it.toByte() }), Binary(ByteArray(300) { it.toByte() }),
+            "", "Hello World!", "£€", "a".repeat(255), "a".repeat(256), "€".repeat(100),
+            Symbol.valueOf("symbol"), Symbol.valueOf("s".repeat(300)),
+            emptyList<Any>(), listOf(1, "two", null),
+            // The largest list and the smallest list which are too large for the small encoding.
+            listOf("a".repeat(252)), listOf("a".repeat(253)),
+            (1..300).toList(), listOf(emptyList<Any>(), listOf(listOf("nested"))),
+            emptyMap<Any, Any>(), linkedMapOf("one" to 1, "two" to null, 3 to listOf(4)),
+            linkedMapOf("a" to "b".repeat(300))
+    )
+
+    private fun treeEncoding(vararg values: Any?): ByteArray {
+        val data = Data.Factory.create()
+        values.forEach { data.putObject(it) }
+        val bytes = ByteArray(data.encodedSize().toInt())
+        data.encode(ByteBuffer.wrap(bytes))
+        return bytes
+    }
+
+    private fun streamingEncoding(vararg values: Any?): ByteArray {
+        val writer = AmqpWriter(1)
+        values.forEach { writer.putObject(it) }
+        return writer.toByteArray()
+    }
+
+    private fun treeDecoding(bytes: ByteArray): Any? {
+        val data = Data.Factory.create()
+        data.decode(ByteBuffer.wrap(bytes))
+        return data.`object`
+    }
+
+    @Test
+    fun `values are encoded as a proton Data encodes them`() {
+        for (value in values) {
+            assertEquals(treeEncoding(value).toList(), streamingEncoding(value).toList(), "Encoding of $value")
+        }
+        assertEquals(treeEncoding(*values.toTypedArray()).toList(), streamingEncoding(*values.toTypedArray()).toList())
+    }
+
+    @Test
+    fun `described types are encoded as a proton Data encodes them`() {
+        val schema = Schema(listOf(
+                CompositeType("Foo", null, listOf("Bar"), Descriptor("net.corda:foo"), listOf(Field("bar", "string", emptyList(), null, null, true, false))),
+                RestrictedType("List<Foo>", "label", emptyList(), "list", Descriptor("net.corda:list", UnsignedLong.valueOf(7)), emptyList())))
+        val envelope = Envelope(listOf("a".repeat(300), linkedMapOf(1 to 2)), schema)
+        assertEquals(treeEncoding(envelope).toList(), streamingEncoding(envelope).toList())
+        assertEquals(treeEncoding(SchemaReference("fingerprint")).toList(), streamingEncoding(SchemaReference("fingerprint")).toList())
+    }
+
+    @Test
+    fun `containers written with enter and exit are encoded as a proton Data encodes them`() {
+        fun AmqpOutput.write() {
+            withDescribed(Descriptor("net.corda:test")) {
+                withList {
+                    putList()  // Never entered, and so empty
+                    putMap()
+                    enter()
+                    putObject("key")
+                    putObject((1..100).map { "value $it" })
+                    exit()
+                    putBoolean(true)
+                    putChar('x'.toInt())
+                    putNull()
+                }
+            }
+        }
+        val data = Data.Factory.create()
+        DataOutput(data).write()
+        val expected = ByteArray(data.encodedSize().toInt())
+        data.encode(ByteBuffer.wrap(expected))
+        val writer = AmqpWriter()
+        writer.write()
+        assertEquals(expected.toList(), writer.toByteArray().toList())
+    }
+
+    @Test
+    fun `values are decoded as a proton Data decodes them`() {
+        for (value in values) {
+            val bytes = treeEncoding(value)
+            val reader = AmqpReader(bytes)
+            val decoded = reader.readObject()
+            assertTrue(reader.isAtEnd)
+            assertEquals(treeDecoding(bytes), decoded, "Decoding of $value")
+        }
+    }
+
+    @Test
+    fun `described types are decoded`() {
+        val reader = AmqpReader(treeEncoding(SchemaReference("fingerprint")))
+        val decoded = reader.readObject() as DescribedType
+        assertEquals(SchemaReference.DESCRIPTOR, decoded.descriptor)
+        assertEquals(listOf("fingerprint"), decoded.described)
+        assertEquals(SchemaReference("fingerprint"), SchemaReference.get(decoded))
+    }
+
+    @Test
+    fun `truncated data is not decoded`() {
+        val bytes = treeEncoding(listOf("Hello World!", 1, 2L))
+        for (size in 0 until bytes.size) {
+            assertFailsWith<NotSerializableException> { AmqpReader(bytes, 0, size).readObject() }
+        }
+    }
+
+    @Test
+    fun `contents which do not match the size of their list are not decoded`() {
+        val bytes = treeEncoding(listOf(1, 2, 3))
+        bytes[1]++  // The size of the list
+        assertFailsWith<NotSerializableException> { AmqpReader(bytes).readObject() }
+    }
+
+    @Test
+    fun `values nested too deeply are not decoded`() {
+        // Each zero starts a described type whose descriptor is the next, deeply enough to overflow the stack.
+        val bytes = ByteArray(100000)
+        assertFailsWith<NotSerializableException> { AmqpReader(bytes).readObject() }
+    }
+}
@@ -27,7 +27,10 @@ import java.nio.ByteBuffer
 import java.time.Instant
 import java.util.*
 import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.reflect.jvm.javaGetter
 import kotlin.test.assertNotNull
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
 class SerializationOutputTests {
@@ -134,6 +137,10 @@ class SerializationOutputTests {
 
     data class PolymorphicProperty(val foo: FooInterface?)
 
+    data class AllPrimitives(val b: Byte, val s: Short, val i: Int, val l: Long, val f: Float, val d: Double, val c: Char, val z: Boolean, val boxed: Int?)
+
+    private data class PrivateFoo(val bar: String, val pub: Int)
+
     private fun serdes(obj: Any,
                        factory: SerializerFactory = SerializerFactory(),
                        freshDeserializationFactory: SerializerFactory = SerializerFactory(),
@@ -141,6 +148,9 @@ class SerializationOutputTests {
                        expectDeserializedEqual: Boolean = true): Any {
         val ser = SerializationOutput(factory)
         val bytes = ser.serialize(obj)
+        // The streaming encoder must produce what encoding a proton Data tree does.
+        val treeBytes = SerializationOutput(factory, streaming = false).serialize(obj)
+        assertEquals(treeBytes.bytes.toList(), bytes.bytes.toList())
 
         val decoder = DecoderImpl().apply {
             this.register(Envelope.DESCRIPTOR, Envelope.Companion)
@@ -161,6 +171,8 @@ class SerializationOutputTests {
         val des = DeserializationInput(freshDeserializationFactory)
         val desObj = des.deserialize(bytes)
         assertTrue(Objects.deepEquals(obj, desObj) == expectedEqual)
+        val desTreeObj = DeserializationInput(freshDeserializationFactory, streaming = false).deserialize(bytes)
+        assertTrue(Objects.deepEquals(desObj, desTreeObj) == expectDeserializedEqual)
 
         // Now repeat with a re-used factory
         val ser2 = SerializationOutput(factory)
@@ -204,6 +216,71 @@ class SerializationOutputTests {
         serdes(obj)
     }
 
+    @Test
+    fun `generated accessors handle every primitive type`() {
+        val obj = AllPrimitives(1, 2, 3, 4, 5.0F, 6.0, '7', true, null)
+        serdes(obj)
+        serdes(obj, SerializerFactory(generateAccessors = false), SerializerFactory(generateAccessors = false))
+        // Written through reflection and read through generated code.
+        serdes(obj, SerializerFactory(generateAccessors = false), SerializerFactory())
+    }
+
+    @Test
+    fun `accessors are only generated for classes generated code can call`() {
+        val fooConstructor = Foo::class.java.constructors.single()
+        assertNotNull(ObjectAccessorGenerator.generate(Foo::class.java, listOf(Foo::bar.javaGetter!!, Foo::pub.javaGetter!!), fooConstructor))
+        val privateConstructor = PrivateFoo::class.java.declaredConstructors.single()
+        assertNull(ObjectAccessorGenerator.generate(PrivateFoo::class.java, listOf(PrivateFoo::bar.javaGetter!!, PrivateFoo::pub.javaGetter!!), privateConstructor))
+    }
+
+    @Test
+    fun `schemas are only sent once over a session`() {
+        val factory = SerializerFactory()
+        val sent = SchemaCache()
+        val received = SchemaCache()
+        val obj = WrapHashMap(mapOf("foo" to "bar"))
+        val first = SerializationOutput(factory, sent).serialize(obj)
+        val second = SerializationOutput(factory, sent).serialize(obj)
+        assertTrue(second.size < first.size)
+        assertEquals(1, sent.size)
+
+        // A fresh factory, which needs the schema sent with the first envelope to read the second.
+        val desFactory = SerializerFactory()
+        assertEquals(obj, DeserializationInput(desFactory, received).deserialize(first))
+        assertEquals(obj, DeserializationInput(desFactory, received).deserialize(second))
+        assertEquals(1, received.size)
+        val schema = DeserializationInput(desFactory, received).deserializeAndReturnEnvelope(second).envelope.schema
+        assertTrue(schema.types.any { it.name == WrapHashMap::class.java.name })
+    }
+
+    @Test(expected = NotSerializableException::class)
+    fun `a schema reference cannot be resolved without the schema`() {
+        val sent = SchemaCache()
+        val obj = Foo("Hello World!", 123)
+        SerializationOutput(SerializerFactory(), sent).serialize(obj)
+        val second = SerializationOutput(SerializerFactory(), sent).serialize(obj)
+        DeserializationInput(SerializerFactory(), SchemaCache()).deserialize(second)
+    }
+
+    @Test
+    fun `schema fingerprints do not depend on the order of the types`() {
+        val obj = DeserializationInput().deserializeAndReturnEnvelope(SerializationOutput().serialize(WrapHashMap(mapOf("foo" to "bar"))))
+        val types = obj.envelope.schema.types
+        assertTrue(types.size > 1)
+        // The fingerprint of the schema as received is hashed from the encoded types without decoding them.
+        assertEquals(Schema(types.toList()).fingerprint, obj.envelope.schema.fingerprint)
+        assertEquals(Schema(types).fingerprint, Schema(types.reversed()).fingerprint)
+        assertNotEquals(Schema(types).fingerprint, Schema(types.drop(1)).fingerprint)
+    }
+
+    @Test
+    fun `schemas with the same descriptors but different types have different fingerprints`() {
+        fun schema(field: Field) = Schema(listOf(CompositeType("Foo", null, emptyList(), Descriptor("net.corda:foo"), listOf(field))))
+        val genuine = schema(Field("bar", "string", emptyList(), null, null, true, false))
+        val forged = schema(Field("bar", "int", emptyList(), null, null, true, false))
+        assertNotEquals(genuine.fingerprint, forged.fingerprint)
+    }
+
     @Test
     fun `test float`() {
         val obj = testFloat(10.0F)
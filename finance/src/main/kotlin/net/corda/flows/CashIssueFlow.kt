@@ -54,7 +54,7 @@ class CashIssueFlow(val amount: Amount<Currency>,
         val issuer = serviceHub.myInfo.legalIdentity.ref(issueRef)
         val signers = Cash().generateIssue(builder, amount.issuedBy(issuer), anonymousRecipient, notary)
         progressTracker.currentStep = SIGNING_TX
-        val tx = serviceHub.signInitialTransaction(builder, signers)
+        val tx = signInitialTransactionSuspending(builder, signers)
         progressTracker.currentStep = FINALISING_TX
         subFlow(FinalityFlow(tx))
         return Result(tx, anonymousRecipient)
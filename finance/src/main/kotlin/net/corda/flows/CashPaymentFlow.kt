@@ -56,7 +56,7 @@ open class CashPaymentFlow(
         }
 
         progressTracker.currentStep = SIGNING_TX
-        val tx = serviceHub.signInitialTransaction(spendTX, keysForSigning)
+        val tx = signInitialTransactionSuspending(spendTX, keysForSigning)
 
         progressTracker.currentStep = FINALISING_TX
         finaliseTx(setOf(recipient), tx, "Unable to notarise spend")
@@ -171,9 +171,10 @@ object TwoPartyTradeFlow {
             }
         }
 
+        @Suspendable
         private fun signWithOurKeys(cashSigningPubKeys: List<PublicKey>, ptx: TransactionBuilder): SignedTransaction {
             // Now sign the transaction with whatever keys we need to move the cash.
-            return serviceHub.signInitialTransaction(ptx, cashSigningPubKeys)
+            return signInitialTransactionSuspending(ptx, cashSigningPubKeys)
         }
 
         @Suspendable
@@ -2,7 +2,6 @@ package net.corda.nodeapi
 
 import net.corda.core.serialization.SerializationContext
 import net.corda.core.serialization.deserialize
-import net.corda.core.serialization.serialize
 import net.corda.core.utilities.Try
 import net.corda.nodeapi.RPCApi.ClientToServer
 import net.corda.nodeapi.RPCApi.ObservableId
@@ -12,6 +11,7 @@ import net.corda.nodeapi.RPCApi.RPC_CLIENT_QUEUE_NAME_PREFIX
 import net.corda.nodeapi.RPCApi.RPC_SERVER_QUEUE_NAME
 import net.corda.nodeapi.RPCApi.RpcRequestId
 import net.corda.nodeapi.RPCApi.ServerToClient
+import net.corda.nodeapi.internal.writeBodySerialized
 import org.apache.activemq.artemis.api.core.SimpleString
 import org.apache.activemq.artemis.api.core.client.*
 import org.apache.activemq.artemis.api.core.management.CoreNotificationType
@@ -100,7 +100,7 @@ object RPCApi {
                 message.putIntProperty(TAG_FIELD_NAME, Tag.RPC_REQUEST.ordinal)
                 message.putLongProperty(RPC_ID_FIELD_NAME, id.toLong)
                 message.putStringProperty(METHOD_NAME_FIELD_NAME, methodName)
-                message.bodyBuffer.writeBytes(arguments.serialize(context = context).bytes)
+                message.writeBodySerialized(arguments, context)
             }
         }
 
@@ -156,7 +156,7 @@ object RPCApi {
             override fun writeToClientMessage(context: SerializationContext, message: ClientMessage) {
                 message.putIntProperty(TAG_FIELD_NAME, Tag.RPC_REPLY.ordinal)
                 message.putLongProperty(RPC_ID_FIELD_NAME, id.toLong)
-                message.bodyBuffer.writeBytes(result.serialize(context = context).bytes)
+                message.writeBodySerialized(result, context)
             }
         }
 
@@ -167,7 +167,7 @@ object RPCApi {
             override fun writeToClientMessage(context: SerializationContext, message: ClientMessage) {
                 message.putIntProperty(TAG_FIELD_NAME, Tag.OBSERVATION.ordinal)
                 message.putLongProperty(OBSERVABLE_ID_FIELD_NAME, id.toLong)
-                message.bodyBuffer.writeBytes(content.serialize(context = context).bytes)
+                message.writeBodySerialized(content, context)
             }
         }
 
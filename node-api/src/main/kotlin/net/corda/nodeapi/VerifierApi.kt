@@ -3,6 +3,7 @@ package net.corda.nodeapi
 import net.corda.core.serialization.deserialize
 import net.corda.core.serialization.serialize
 import net.corda.core.transactions.LedgerTransaction
+import net.corda.nodeapi.internal.writeBodySerialized
 import org.apache.activemq.artemis.api.core.SimpleString
 import org.apache.activemq.artemis.api.core.client.ClientMessage
 import org.apache.activemq.artemis.reader.MessageUtil
@@ -31,7 +32,7 @@ object VerifierApi {
 
         fun writeToClientMessage(message: ClientMessage) {
             message.putLongProperty(VERIFICATION_ID_FIELD_NAME, verificationId)
-            message.writeBodyBufferBytes(transaction.serialize().bytes)
+            message.writeBodySerialized(transaction)
             MessageUtil.setJMSReplyTo(message, responseAddress)
         }
     }
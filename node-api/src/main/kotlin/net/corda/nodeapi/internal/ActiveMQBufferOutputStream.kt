@@ -0,0 +1,23 @@
+package net.corda.nodeapi.internal
+
+import net.corda.core.serialization.SerializationContext
+import net.corda.core.serialization.SerializationDefaults
+import net.corda.core.serialization.serializeTo
+import org.apache.activemq.artemis.api.core.ActiveMQBuffer
+import org.apache.activemq.artemis.api.core.client.ClientMessage
+import java.io.OutputStream
+
+/** Writes into an Artemis buffer, such as the body of a message. */
+class ActiveMQBufferOutputStream(private val buffer: ActiveMQBuffer) : OutputStream() {
+    override fun write(b: Int) = buffer.writeByte(b.toByte())
+
+    override fun write(b: ByteArray, off: Int, len: Int) = buffer.writeBytes(b, off, len)
+}
+
+/**
+ * Serializes [obj] straight into the body of the message, rather than serializing it into a byte array and then copying
+ * that into the body.
+ */
+fun ClientMessage.writeBodySerialized(obj: Any, context: SerializationContext = SerializationDefaults.P2P_CONTEXT) {
+    obj.serializeTo(ActiveMQBufferOutputStream(bodyBuffer), context = context)
+}
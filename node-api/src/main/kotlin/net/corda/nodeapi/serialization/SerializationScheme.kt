@@ -13,8 +13,8 @@ import net.corda.core.internal.LazyPool
 import net.corda.core.serialization.*
 import net.corda.core.utilities.ByteSequence
 import net.corda.core.utilities.OpaqueBytes
-import java.io.ByteArrayOutputStream
 import java.io.NotSerializableException
+import java.io.OutputStream
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 
@@ -81,6 +81,10 @@ open class SerializationFactoryImpl : SerializationFactory {
         return schemeFor(context.preferedSerializationVersion, context.useCase).serialize(obj, context)
     }
 
+    override fun <T : Any> serializeTo(obj: T, sink: OutputStream, context: SerializationContext) {
+        schemeFor(context.preferedSerializationVersion, context.useCase).serializeTo(obj, sink, context)
+    }
+
     fun registerScheme(scheme: SerializationScheme) {
         check(schemes.isEmpty()) { "All serialization schemes must be registered before any scheme is used." }
         registeredSchemes += scheme
@@ -181,22 +185,31 @@ abstract class AbstractKryoSerializationScheme : SerializationScheme {
     }
 
     override fun <T : Any> serialize(obj: T, context: SerializationContext): SerializedBytes<T> {
-        val pool = getPool(context)
-        return pool.run { kryo ->
+        // The object is written into a pooled buffer, which grows as needed, and only copied out of it at the end.
+        return serializeOutputPool.run { output ->
+            writeObject(obj, output, context)
+            SerializedBytes<T>(output.toBytes())
+        }
+    }
+
+    override fun <T : Any> serializeTo(obj: T, sink: OutputStream, context: SerializationContext) {
+        serializeBufferPool.run { buffer ->
+            // The output isn't closed, as that would close the sink.
+            val output = Output(buffer)
+            output.outputStream = sink
+            writeObject(obj, output, context)
+            output.flush()
+        }
+    }
+
+    private fun writeObject(obj: Any, output: Output, context: SerializationContext) {
+        getPool(context).run { kryo ->
             withContext(kryo, context) {
-                serializeOutputStreamPool.run { stream ->
-                    serializeBufferPool.run { buffer ->
-                        Output(buffer).use {
-                            it.outputStream = stream
-                            it.writeBytes(KryoHeaderV0_1.bytes)
-                            if (context.objectReferencesEnabled) {
-                                kryo.writeClassAndObject(it, obj)
-                            } else {
-                                kryo.withoutReferences { kryo.writeClassAndObject(it, obj) }
-                            }
-                        }
-                        SerializedBytes(stream.toByteArray())
-                    }
+                output.writeBytes(KryoHeaderV0_1.bytes)
+                if (context.objectReferencesEnabled) {
+                    kryo.writeClassAndObject(output, obj)
+                } else {
+                    kryo.withoutReferences { kryo.writeClassAndObject(output, obj) }
                 }
             }
         }
@@ -206,10 +219,10 @@ abstract class AbstractKryoSerializationScheme : SerializationScheme {
 private val serializeBufferPool = LazyPool(
         newInstance = { ByteArray(64 * 1024) }
 )
-private val serializeOutputStreamPool = LazyPool(
-        clear = ByteArrayOutputStream::reset,
-        shouldReturnToPool = { it.size() < 256 * 1024 }, // Discard if it grew too large
-        newInstance = { ByteArrayOutputStream(64 * 1024) }
+private val serializeOutputPool = LazyPool(
+        clear = Output::clear,
+        shouldReturnToPool = { it.buffer.size <= 1024 * 1024 }, // Discard if it grew too large
+        newInstance = { Output(64 * 1024, -1) }
 )
 
 // "corda" + majorVersionByte + minorVersionMSB + minorVersionLSB
@@ -260,4 +273,11 @@ interface SerializationScheme {
 
     @Throws(NotSerializableException::class)
     fun <T : Any> serialize(obj: T, context: SerializationContext): SerializedBytes<T>
+
+    /** Writes the bytes [serialize] would return into [sink], which is flushed but not closed. */
+    @Throws(NotSerializableException::class)
+    fun <T : Any> serializeTo(obj: T, sink: OutputStream, context: SerializationContext) {
+        sink.write(serialize(obj, context).bytes)
+        sink.flush()
+    }
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package net.corda.node.services.persistence.schemas.requery
 
 import io.requery.*
 import net.corda.core.crypto.SecureHash
-import net.corda.core.schemas.requery.converters.BlobConverter
 
 @Table(name = "attachments")
 @Entity(model = "persistence")
@@ -12,7 +11,7 @@ interface Attachment : Persistable {
     @get:Column(name = "att_id", index = true)
     var attId: SecureHash
 
-    @get:Column(name = "content")
-    @get:Convert(BlobConverter::class)
-    var content: ByteArray
+    /** The size of the attachment in bytes. Its content is kept in a file named by its ID in the attachment store. */
+    @get:Column(name = "content_size")
+    var size: Long
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import co.paralleluniverse.fibers.Suspendable
 import com.google.common.base.Stopwatch
 import com.google.common.util.concurrent.Futures
 import net.corda.core.contracts.DOLLARS
+import net.corda.core.crypto.SecureHash
 import net.corda.core.flows.FlowLogic
 import net.corda.core.flows.StartableByRPC
 import net.corda.core.messaging.startFlow
@@ -28,6 +29,7 @@ import java.lang.management.ManagementFactory
 import java.util.*
 import java.util.concurrent.TimeUnit
 import kotlin.streams.toList
+import kotlin.test.assertTrue
 
 
 private fun checkQuasarAgent() {
@@ -45,6 +47,18 @@ class NodePerformanceTests {
         }
     }
 
+    @StartableByRPC
+    class HashingFlow(private val iterations: Int) : FlowLogic<SecureHash>() {
+        @Suspendable
+        override fun call(): SecureHash {
+            var hash = SecureHash.zeroHash
+            for (i in 1..iterations) {
+                hash = hash.hashConcat(hash)
+            }
+            return hash
+        }
+    }
+
     private data class FlowMeasurementResult(
             val flowPerSecond: Double,
             val averageMs: Double
@@ -85,6 +99,38 @@ class NodePerformanceTests {
         }
     }
 
+    @Test
+    fun `CPU bound flows per second by flow shard count`() {
+        val shardCounts = generateSequence(1) { it * 2 }.takeWhile { it <= Runtime.getRuntime().availableProcessors() }.toList()
+        val results = shardCounts.map { shardCount ->
+            driver(startNodesInProcess = true) {
+                val a = startNode(
+                        rpcUsers = listOf(User("A", "A", setOf(startFlowPermission<HashingFlow>()))),
+                        customOverrides = mapOf("flowShardCount" to shardCount)
+                ).get()
+
+                a.rpcClientToNode().use("A", "A") { connection ->
+                    val N = 2000
+                    val overallTiming = Stopwatch.createStarted().apply {
+                        startTightLoopInjector(
+                                parallelism = 16,
+                                numberOfInjections = N,
+                                queueBound = 100
+                        ) {
+                            connection.proxy.startFlow(::HashingFlow, 10000).returnValue.get()
+                        }
+                    }.stop().elapsed(TimeUnit.MICROSECONDS)
+                    shardCount to N / (overallTiming * 0.000001)
+                }
+            }
+        }
+        results.forEach { (shardCount, flowsPerSecond) -> println("$shardCount flow shard(s): $flowsPerSecond flows per second") }
+        // The flows are CPU bound, so with a core per shard doubling the shards should come close to doubling the rate.
+        results.zipWithNext { (fewerShards, lowerRate), (moreShards, higherRate) ->
+            assertTrue(higherRate > lowerRate * 1.5, "$moreShards flow shards only ran $higherRate flows per second, against $lowerRate with $fewerShards")
+        }
+    }
+
     @Test
     fun `empty flow rate`() {
         driver(startNodesInProcess = true) {
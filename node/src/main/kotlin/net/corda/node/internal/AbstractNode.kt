@@ -40,7 +40,10 @@ import net.corda.node.services.database.HibernateConfiguration
 import net.corda.node.services.events.NodeSchedulerService
 import net.corda.node.services.events.ScheduledActivityObserver
 import net.corda.node.services.identity.InMemoryIdentityService
+import net.corda.node.services.keys.InProcessSigningBackend
 import net.corda.node.services.keys.PersistentKeyManagementService
+import net.corda.node.services.keys.SigningBackend
+import net.corda.node.services.keys.SigningWorkers
 import net.corda.node.services.messaging.MessagingService
 import net.corda.node.services.messaging.sendRequest
 import net.corda.node.services.network.InMemoryNetworkMapCache
@@ -175,11 +178,13 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
         initialiseDatabasePersistence {
             val tokenizableServices = makeServices()
 
+            val flowShardExecutors = makeFlowShardExecutors()
             smm = StateMachineManager(services,
                     checkpointStorage,
                     serverThread,
                     database,
-                    busyNodeLatch)
+                    busyNodeLatch,
+                    flowShardExecutors)
 
             smm.tokenizableServices.addAll(tokenizableServices)
 
@@ -191,6 +196,9 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
                     MoreExecutors.shutdownAndAwaitTermination(serverThread as ExecutorService, 50, SECONDS)
                 }
             }
+            flowShardExecutors.filter { it !== serverThread }.forEach { shard ->
+                runOnStop += { MoreExecutors.shutdownAndAwaitTermination(shard as ExecutorService, 50, SECONDS) }
+            }
 
             makeVaultObservers()
 
@@ -427,7 +435,20 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
         return tokenizableServices
     }
 
-    protected open fun makeTransactionStorage(): WritableTransactionStorage = DBTransactionStorage()
+    protected open fun makeTransactionStorage(metrics: MetricRegistry): WritableTransactionStorage = DBTransactionStorage(metrics)
+
+    /**
+     * Creates the executors flows are run on. This is just the [serverThread] unless the node has been configured to
+     * split its flows across several single threaded shards.
+     */
+    protected open fun makeFlowShardExecutors(): List<AffinityExecutor> {
+        val shardCount = configuration.flowShardCount
+        return if (shardCount == 1) {
+            listOf(serverThread)
+        } else {
+            (0 until shardCount).map { AffinityExecutor.ServiceAffinityExecutor("Flow shard $it", 1) }
+        }
+    }
 
     private fun scanCordapps(): ScanResult? {
         val scanPackage = System.getProperty("net.corda.node.cordapp.scan.package")
@@ -490,7 +511,7 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
         VaultSoftLockManager(services.vaultService, smm)
         CashBalanceAsMetricsObserver(services, database)
         ScheduledActivityObserver(services)
-        HibernateObserver(services.vaultService.rawUpdates, HibernateConfiguration(services.schemaService))
+        HibernateObserver(services.vaultService.rawUpdates, HibernateConfiguration(services.schemaService), services.monitoringService.metrics)
     }
 
     private fun makeInfo(): NodeInfo {
@@ -634,9 +655,22 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
     }
 
     protected open fun makeKeyManagementService(identityService: IdentityService): KeyManagementService {
-        return PersistentKeyManagementService(identityService, partyKeys)
+        return PersistentKeyManagementService(identityService, partyKeys, makeSigningWorkers())
     }
 
+    /**
+     * Creates the workers the key management service signs on, which are the calling threads unless the node has been
+     * configured with signing threads.
+     */
+    protected fun makeSigningWorkers(): SigningWorkers {
+        val threads = configuration.signingThreadCount
+        if (threads == 0) return SigningWorkers.callingThread(makeSigningBackend())
+        return SigningWorkers.pool(threads, makeSigningBackend()).also { runOnStop += it::close }
+    }
+
+    /** Creates what makes the key management service's signatures, e.g. a stand-in for an HSM. */
+    protected open fun makeSigningBackend(): SigningBackend = InProcessSigningBackend
+
     open protected fun makeNetworkMapService() {
         inNodeNetworkMapService = PersistentNetworkMapService(services, configuration.minimumPlatformVersion)
     }
@@ -786,7 +820,7 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
         override val stateMachineRecordedTransactionMapping = DBTransactionMappingStorage()
         override val auditService = DummyAuditService()
         override val monitoringService = MonitoringService(MetricRegistry())
-        override val validatedTransactions = makeTransactionStorage()
+        override val validatedTransactions = makeTransactionStorage(monitoringService.metrics)
         override val transactionVerifierService by lazy { makeTransactionVerifierService() }
         override val networkMapCache by lazy { InMemoryNetworkMapCache(this) }
         override val vaultService by lazy { NodeVaultService(this, configuration.dataSourceProperties) }
@@ -820,7 +854,13 @@ abstract class AbstractNode(open val configuration: NodeConfiguration,
         }
 
         override fun <T> startFlow(logic: FlowLogic<T>, flowInitiator: FlowInitiator): FlowStateMachineImpl<T> {
-            return serverThread.fetchFrom { smm.add(logic, flowInitiator) }
+            // With flow shards a flow starting another flow is running on its shard's thread, and must not block on
+            // the server thread as that may itself be waiting on the shard to deliver a session message.
+            return if (configuration.flowShardCount > 1) {
+                smm.add(logic, flowInitiator)
+            } else {
+                serverThread.fetchFrom { smm.add(logic, flowInitiator) }
+            }
         }
 
         override fun getFlowFactory(initiatingFlowClass: Class<out FlowLogic<*>>): InitiatedFlowFactory<*>? {
@@ -13,6 +13,7 @@ import net.corda.core.identity.Party
 import net.corda.core.messaging.*
 import net.corda.core.node.NodeInfo
 import net.corda.core.node.services.NetworkMapCache
+import net.corda.core.node.services.TransactionStorage
 import net.corda.core.node.services.Vault
 import net.corda.core.node.services.vault.PageSpecification
 import net.corda.core.node.services.vault.QueryCriteria
@@ -79,6 +80,18 @@ class CordaRPCOpsImpl(
         }
     }
 
+    override fun verifiedTransactionsQueryBy(paging: PageSpecification, since: SecureHash?, upTo: Long?): TransactionStorage.Page {
+        return database.transaction {
+            services.validatedTransactions.queryBy(paging, since, upTo)
+        }
+    }
+
+    override fun verifiedTransactionsTrackBy(paging: PageSpecification, since: SecureHash?): DataFeed<TransactionStorage.Page, SignedTransaction> {
+        return database.transaction {
+            services.validatedTransactions.trackBy(paging, since)
+        }
+    }
+
     override fun stateMachinesFeed(): DataFeed<List<StateMachineInfo>, StateMachineUpdate> {
         return database.transaction {
             val (allStateMachines, changes) = smm.track()
@@ -9,6 +9,7 @@ import net.corda.core.crypto.SecureHash
 import net.corda.core.flows.*
 import net.corda.core.identity.AnonymousPartyAndPath
 import net.corda.core.identity.Party
+import net.corda.core.serialization.serialize
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.ProgressTracker
 import net.corda.core.utilities.unwrap
@@ -37,24 +38,81 @@ class FetchAttachmentsHandler(otherParty: Party) : FetchDataHandler<ByteArray>(o
     }
 }
 
-abstract class FetchDataHandler<out T>(val otherParty: Party) : FlowLogic<Unit>() {
+/**
+ * Answers a [FetchDataFlow.StreamRequest] by streaming the requested items back in order, serialised and split into
+ * [FetchDataFlow.Chunk]s of at most [FetchDataFlow.MAX_CHUNK_SIZE] bytes, only loading each item once the previous ones
+ * have been sent and never sending more chunks than the requesting flow has given credit for. A [FetchDataFlow.Request]
+ * from a node older than [FetchDataFlow.STREAMING_PLATFORM_VERSION] is answered with one item per message.
+ */
+abstract class FetchDataHandler<out T : Any>(val otherParty: Party) : FlowLogic<Unit>() {
     @Suspendable
     @Throws(FetchDataFlow.HashNotFound::class)
     override fun call() {
-        val request = receive<FetchDataFlow.Request>(otherParty).unwrap {
-            if (it.hashes.isEmpty()) throw FlowException("Empty hash list")
+        val request = receive<Any>(otherParty).unwrap {
+            when (it) {
+                is FetchDataFlow.StreamRequest -> {
+                    if (it.hashes.isEmpty()) throw FlowException("Empty hash list")
+                    if (it.window < 1) throw FlowException("Invalid window size ${it.window}")
+                }
+                is FetchDataFlow.Request -> if (it.hashes.isEmpty()) throw FlowException("Empty hash list")
+                else -> throw FlowException("Unexpected fetch request ${it.javaClass.name}")
+            }
             it
         }
-        // TODO: Use Artemis message streaming support here, called "large messages". This avoids the need to buffer.
-        // See the discussion in FetchDataFlow. We send each item individually here in a separate asynchronous send
-        // call, and the other side picks them up with a straight receive call, because we batching would push us over
-        // the (current) Artemis message size limit.
-        request.hashes.forEach {
-            send(otherParty, getData(it) ?: throw FetchDataFlow.HashNotFound(it))
+        when (request) {
+            is FetchDataFlow.StreamRequest -> stream(request)
+            is FetchDataFlow.Request -> request.hashes.forEach {
+                send(otherParty, getData(it) ?: throw FetchDataFlow.HashNotFound(it))
+            }
+        }
+    }
+
+    @Suspendable
+    private fun stream(request: FetchDataFlow.StreamRequest) {
+        val chunks = ChunkIterator(request.hashes)
+        var credit = request.window
+        var creditsToReceive = 0
+        while (chunks.hasNext()) {
+            if (credit == 0) {
+                credit += receive<FetchDataFlow.Credit>(otherParty).unwrap { it.chunks }
+                creditsToReceive--
+            }
+            val chunk = chunks.next()
+            send(otherParty, chunk)
+            credit--
+            if (!chunk.last) creditsToReceive++
         }
+        // The requesting flow sends a credit for every chunk but the last, which we have to take before ending the
+        // session so that none of them arrive for a session which no longer exists.
+        repeat(creditsToReceive) { receive<FetchDataFlow.Credit>(otherParty) }
     }
 
     protected abstract fun getData(id: SecureHash): T?
+
+    private inner class ChunkIterator(private val hashes: List<SecureHash>) : Iterator<FetchDataFlow.Chunk> {
+        private var nextItem = 0
+        private var item: ByteArray? = null
+        private var offset = 0
+
+        override fun hasNext(): Boolean = item != null || nextItem < hashes.size
+
+        override fun next(): FetchDataFlow.Chunk {
+            val fragments = ArrayList<FetchDataFlow.Fragment>()
+            var size = 0
+            while (size < FetchDataFlow.MAX_CHUNK_SIZE && hasNext()) {
+                val bytes = item ?: loadItem(hashes[nextItem++]).also { item = it; offset = 0 }
+                val length = minOf(bytes.size - offset, FetchDataFlow.MAX_CHUNK_SIZE - size)
+                val endOfItem = offset + length == bytes.size
+                fragments += FetchDataFlow.Fragment(bytes.copyOfRange(offset, offset + length), endOfItem)
+                size += length
+                offset += length
+                if (endOfItem) item = null
+            }
+            return FetchDataFlow.Chunk(fragments, !hasNext())
+        }
+
+        private fun loadItem(id: SecureHash): ByteArray = (getData(id) ?: throw FetchDataFlow.HashNotFound(id)).serialize().bytes
+    }
 }
 
 // TODO: We should have a whitelist of contracts we're willing to accept at all, and reject if the transaction
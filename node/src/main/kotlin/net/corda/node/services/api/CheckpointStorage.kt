@@ -20,6 +20,21 @@ interface CheckpointStorage {
      */
     fun removeCheckpoint(checkpoint: Checkpoint)
 
+    /**
+     * Replace an existing checkpoint, typically the previous one of the same flow, with a new one. It is an error to
+     * attempt to replace a checkpoint which doesn't exist in the store, in which case an [IllegalArgumentException] is
+     * thrown.
+     */
+    fun replaceCheckpoint(previous: Checkpoint, checkpoint: Checkpoint) {
+        removeCheckpoint(previous)
+        addCheckpoint(checkpoint)
+    }
+
+    /**
+     * Returns the checkpoint with the given ID, or null if there is no such checkpoint in the store.
+     */
+    fun getCheckpoint(id: SecureHash): Checkpoint?
+
     /**
      * Allows the caller to process safely in a thread safe fashion the set of all checkpoints.
      * The checkpoints are only valid during the lifetime of a single call to the block, to allow memory management.
@@ -5,6 +5,7 @@ import net.corda.core.utilities.NetworkHostAndPort
 import net.corda.node.internal.NetworkMapInfo
 import net.corda.node.services.messaging.CertificateChainCheckPolicy
 import net.corda.node.services.network.NetworkMapService
+import net.corda.node.services.statemachine.CheckpointEncoding
 import net.corda.nodeapi.User
 import net.corda.nodeapi.config.NodeSSLConfiguration
 import net.corda.nodeapi.config.OldConfig
@@ -26,6 +27,13 @@ interface NodeConfiguration : NodeSSLConfiguration {
     val certificateChainCheckPolicies: List<CertChainPolicyConfig>
     val verifierType: VerifierType
     val messageRedeliveryDelaySeconds: Int
+    val messageBatchSize: Int
+    val messageBatchTimeoutMillis: Long
+    val flowShardCount: Int
+    val flowEvictionIdleSeconds: Int
+    val signingThreadCount: Int
+    val checkpointEncoding: CheckpointEncoding
+    val notaryCommitBatchSize: Int
     val bftReplicaId: Int?
     val notaryNodeAddress: NetworkHostAndPort?
     val notaryClusterAddresses: List<NetworkHostAndPort>
@@ -48,6 +56,13 @@ data class FullNodeConfiguration(
         override val rpcUsers: List<User>,
         override val verifierType: VerifierType,
         override val messageRedeliveryDelaySeconds: Int = 30,
+        override val messageBatchSize: Int = 1,
+        override val messageBatchTimeoutMillis: Long = 0,
+        override val flowShardCount: Int = 1,
+        override val flowEvictionIdleSeconds: Int = 0,
+        override val signingThreadCount: Int = 0,
+        override val checkpointEncoding: CheckpointEncoding = CheckpointEncoding.None,
+        override val notaryCommitBatchSize: Int = 1,
         val useHTTPS: Boolean,
         @OldConfig("artemisAddress")
         val p2pAddress: NetworkHostAndPort,
@@ -72,6 +87,12 @@ data class FullNodeConfiguration(
     init {
         // This is a sanity feature do not remove.
         require(!useTestClock || devMode) { "Cannot use test clock outside of dev mode" }
+        require(messageBatchSize >= 1) { "messageBatchSize must be at least 1" }
+        require(messageBatchTimeoutMillis >= 0) { "messageBatchTimeoutMillis cannot be negative" }
+        require(flowShardCount >= 1) { "flowShardCount must be at least 1" }
+        require(flowEvictionIdleSeconds >= 0) { "flowEvictionIdleSeconds cannot be negative" }
+        require(signingThreadCount >= 0) { "signingThreadCount cannot be negative" }
+        require(notaryCommitBatchSize >= 1) { "notaryCommitBatchSize must be at least 1" }
         // TODO Move this to ArtemisMessagingServer
         rpcUsers.forEach {
             require(it.username.matches("\\w+".toRegex())) { "Username ${it.username} contains invalid characters" }
@@ -21,6 +21,9 @@ class HibernateConfiguration(val schemaService: SchemaService, val useDefaultLog
 
     companion object {
         val logger = loggerFor<HibernateConfiguration>()
+
+        /** The number of statements sent to the database at once when inserting or updating mapped objects. */
+        const val JDBC_BATCH_SIZE = 50
     }
 
     // TODO: make this a guava cache or similar to limit ability for this to grow forever.
@@ -59,6 +62,10 @@ class HibernateConfiguration(val schemaService: SchemaService, val useDefaultLog
                 .setProperty("hibernate.hbm2ddl.auto", "update")
                 .setProperty("hibernate.show_sql", "$useDefaultLogging")
                 .setProperty("hibernate.format_sql", "$useDefaultLogging")
+                .setProperty("hibernate.jdbc.batch_size", "$JDBC_BATCH_SIZE")
+                // Ordering the inserts and updates by entity lets consecutive statements for the same table be batched.
+                .setProperty("hibernate.order_inserts", "true")
+                .setProperty("hibernate.order_updates", "true")
         schemas.forEach { schema ->
             // TODO: require mechanism to set schemaOptions (databaseSchema, tablePrefix) which are not global to session
             schema.mappedTypes.forEach { config.addAnnotatedClass(it) }
@@ -1,10 +1,10 @@
 package net.corda.node.services.keys
 
+import com.google.common.util.concurrent.ListenableFuture
 import net.corda.core.internal.ThreadBox
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.generateKeyPair
 import net.corda.core.crypto.keys
-import net.corda.core.crypto.sign
 import net.corda.core.identity.AnonymousPartyAndPath
 import net.corda.core.identity.PartyAndCertificate
 import net.corda.core.node.services.IdentityService
@@ -30,7 +30,8 @@ import javax.annotation.concurrent.ThreadSafe
  */
 @ThreadSafe
 class E2ETestKeyManagementService(val identityService: IdentityService,
-                                  initialKeys: Set<KeyPair>) : SingletonSerializeAsToken(), KeyManagementService {
+                                  initialKeys: Set<KeyPair>,
+                                  private val signingWorkers: SigningWorkers = SigningWorkers.callingThread()) : SingletonSerializeAsToken(), KeyManagementService {
     private class InnerState {
         val keys = HashMap<PublicKey, PrivateKey>()
     }
@@ -74,8 +75,10 @@ class E2ETestKeyManagementService(val identityService: IdentityService,
     }
 
     override fun sign(bytes: ByteArray, publicKey: PublicKey): DigitalSignature.WithKey {
-        val keyPair = getSigningKeyPair(publicKey)
-        val signature = keyPair.sign(bytes)
-        return signature
+        return signingWorkers.signNow(getSigningKeyPair(publicKey), bytes)
+    }
+
+    override fun signAsync(requests: List<KeyManagementService.SigningRequest>): ListenableFuture<List<DigitalSignature.WithKey>> {
+        return signingWorkers.sign(requests.map { Pair(getSigningKeyPair(it.publicKey), it.bytes) })
     }
 }
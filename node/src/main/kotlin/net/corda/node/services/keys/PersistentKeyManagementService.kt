@@ -1,10 +1,10 @@
 package net.corda.node.services.keys
 
+import com.google.common.util.concurrent.ListenableFuture
 import net.corda.core.internal.ThreadBox
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.generateKeyPair
 import net.corda.core.crypto.keys
-import net.corda.core.crypto.sign
 import net.corda.core.identity.AnonymousPartyAndPath
 import net.corda.core.identity.PartyAndCertificate
 import net.corda.core.node.services.IdentityService
@@ -26,7 +26,8 @@ import java.security.PublicKey
  * This class needs database transactions to be in-flight during method calls and init.
  */
 class PersistentKeyManagementService(val identityService: IdentityService,
-                                     initialKeys: Set<KeyPair>) : SingletonSerializeAsToken(), KeyManagementService {
+                                     initialKeys: Set<KeyPair>,
+                                     private val signingWorkers: SigningWorkers = SigningWorkers.callingThread()) : SingletonSerializeAsToken(), KeyManagementService {
 
     private object Table : JDBCHashedTable("${NODE_DATABASE_PREFIX}our_key_pairs") {
         val publicKey = publicKey("public_key")
@@ -85,9 +86,12 @@ class PersistentKeyManagementService(val identityService: IdentityService,
     }
 
     override fun sign(bytes: ByteArray, publicKey: PublicKey): DigitalSignature.WithKey {
-        val keyPair = getSigningKeyPair(publicKey)
-        val signature = keyPair.sign(bytes)
-        return signature
+        return signingWorkers.signNow(getSigningKeyPair(publicKey), bytes)
+    }
+
+    override fun signAsync(requests: List<KeyManagementService.SigningRequest>): ListenableFuture<List<DigitalSignature.WithKey>> {
+        // The keys are looked up on the calling thread, which has the database transaction.
+        return signingWorkers.sign(requests.map { Pair(getSigningKeyPair(it.publicKey), it.bytes) })
     }
 
 }
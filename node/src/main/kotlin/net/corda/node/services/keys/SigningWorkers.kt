@@ -0,0 +1,61 @@
+package net.corda.node.services.keys
+
+import com.google.common.util.concurrent.*
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.crypto.sign
+import java.security.KeyPair
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.SECONDS
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * Makes the signatures for a key management service. This is the hook for signing somewhere other than in the node's
+ * own process, such as in a local stand-in for an HSM.
+ */
+interface SigningBackend {
+    fun sign(keyPair: KeyPair, bytes: ByteArray): DigitalSignature.WithKey
+}
+
+/** Signs in the node's process with the private key. */
+object InProcessSigningBackend : SigningBackend {
+    override fun sign(keyPair: KeyPair, bytes: ByteArray): DigitalSignature.WithKey = keyPair.sign(bytes)
+}
+
+/**
+ * Runs the signing of a key management service, which is CPU heavy, on a pool of worker threads, so that it doesn't hold
+ * up the threads asking for the signatures, such as those running flows. The requests of a batch are spread across the
+ * workers.
+ */
+@ThreadSafe
+class SigningWorkers private constructor(private val executor: ListeningExecutorService,
+                                         private val backend: SigningBackend) : AutoCloseable {
+    companion object {
+        /** Signs on the calling thread, as key management services did before there were workers. */
+        @JvmStatic
+        fun callingThread(backend: SigningBackend = InProcessSigningBackend): SigningWorkers {
+            return SigningWorkers(MoreExecutors.newDirectExecutorService(), backend)
+        }
+
+        /** Signs on [threads] daemon threads. */
+        @JvmStatic
+        fun pool(threads: Int, backend: SigningBackend = InProcessSigningBackend): SigningWorkers {
+            require(threads > 0) { "The number of signing threads must be positive" }
+            val threadFactory = ThreadFactoryBuilder().setNameFormat("signing-worker-%d").setDaemon(true).build()
+            return SigningWorkers(MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads, threadFactory)), backend)
+        }
+    }
+
+    /** Signs on the calling thread, for callers which can't wait for a future. */
+    fun signNow(keyPair: KeyPair, bytes: ByteArray): DigitalSignature.WithKey = backend.sign(keyPair, bytes)
+
+    /** Returns a future of the signatures, in the order of the [requests]. */
+    fun sign(requests: List<Pair<KeyPair, ByteArray>>): ListenableFuture<List<DigitalSignature.WithKey>> {
+        val signatures = requests.map { (keyPair, bytes) -> executor.submit(Callable { backend.sign(keyPair, bytes) }) }
+        return Futures.allAsList(signatures)
+    }
+
+    override fun close() {
+        MoreExecutors.shutdownAndAwaitTermination(executor, 10, SECONDS)
+    }
+}
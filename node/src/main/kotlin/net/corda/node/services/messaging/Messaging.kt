@@ -13,6 +13,7 @@ import net.corda.node.services.api.DEFAULT_SESSION_ID
 import org.bouncycastle.asn1.x500.X500Name
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.Executor
 import java.util.concurrent.atomic.AtomicBoolean
 import javax.annotation.concurrent.ThreadSafe
 
@@ -65,6 +66,15 @@ interface MessagingService {
      */
     fun removeMessageHandler(registration: MessageHandlerRegistration)
 
+    /**
+     * Passes the processing of [message] on to [executor] so that the delivering thread can go on to the next message
+     * in the meantime. [process] is run in a database transaction of its own, which also records the message as
+     * processed, so the message is either processed and recorded or neither. The message isn't acknowledged until then.
+     *
+     * This may only be called by a handler for the message it's been given, which then mustn't process it itself.
+     */
+    fun processAsync(message: ReceivedMessage, executor: Executor, process: () -> Unit)
+
     /**
      * Sends a message to the given receiver. The details of how receivers are identified is up to the messaging
      * implementation: the type system provides an opaque high level view, with more fine grained control being
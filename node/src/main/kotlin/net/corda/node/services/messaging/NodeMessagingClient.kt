@@ -1,10 +1,13 @@
 package net.corda.node.services.messaging
 
+import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
 import net.corda.core.andForget
 import net.corda.core.crypto.random63BitValue
 import net.corda.core.getOrThrow
 import net.corda.core.internal.ThreadBox
+import net.corda.core.map
 import net.corda.core.messaging.CordaRPCOps
 import net.corda.core.messaging.MessageRecipients
 import net.corda.core.messaging.RPCOps
@@ -40,9 +43,8 @@ import org.apache.activemq.artemis.api.core.client.*
 import org.apache.activemq.artemis.api.core.client.ActiveMQClient.DEFAULT_ACK_BATCH_SIZE
 import org.apache.activemq.artemis.api.core.management.ActiveMQServerControl
 import org.bouncycastle.asn1.x500.X500Name
-import org.jetbrains.exposed.sql.ResultRow
-import org.jetbrains.exposed.sql.statements.InsertStatement
 import java.security.PublicKey
+import java.time.Duration
 import java.time.Instant
 import java.util.*
 import java.util.concurrent.*
@@ -57,7 +59,8 @@ import javax.annotation.concurrent.ThreadSafe
  *
  * Message handlers are run on the provided [AffinityExecutor] synchronously, that is, the Artemis callback threads
  * are blocked until the handler is scheduled and completed. This allows backpressure to propagate from the given
- * executor through into Artemis and from there, back through to senders.
+ * executor through into Artemis and from there, back through to senders. Handlers can pass a message on to another
+ * thread with [processAsync], in which case it's only acknowledged once it has been processed there.
  *
  * An implementation of [CordaRPCOps] can be provided. If given, clients using the CordaMQClient RPC library can
  * invoke methods on the provided implementation. There is more documentation on this in the docsite and the
@@ -143,18 +146,22 @@ class NodeMessagingClient(override val config: NodeConfiguration,
     private val state = ThreadBox(InnerState())
     private val handlers = CopyOnWriteArrayList<Handler>()
 
-    private object Table : JDBCHashedTable("${NODE_DATABASE_PREFIX}message_ids") {
-        val uuid = uuidString("message_id")
+    private val batchSizeHistogram = monitoringService.metrics.histogram("P2P.DeliveryBatchSize")
+    private val batchCommitTimer = monitoringService.metrics.timer("P2P.DeliveryBatchCommit")
+
+    /**
+     * Artemis redelivers unacknowledged messages as soon as we reconnect, and senders give up after
+     * [messageMaxRetryCount] redelivery delays, so the IDs of processed messages need only be remembered for that long.
+     */
+    private val processedMessages = database.transaction {
+        ProcessedMessageStore(Duration.ofSeconds(config.messageRedeliveryDelaySeconds.toLong() * (messageMaxRetryCount + 1)))
     }
 
-    private val processedMessages: MutableSet<UUID> = Collections.synchronizedSet(
-            object : AbstractJDBCHashSet<UUID, Table>(Table, loadOnInit = true) {
-                override fun elementFromRow(row: ResultRow): UUID = row[table.uuid]
-                override fun addElementToInsert(insert: InsertStatement, entry: UUID, finalizables: MutableList<() -> Unit>) {
-                    insert[table.uuid] = entry
-                }
-            }
-    )
+    // The messages of the batch being delivered which handlers have passed on with processAsync, and the futures which
+    // complete once they have been processed. Only used on the node thread.
+    private val passedOnMessages = HashMap<UUID, ListenableFuture<Unit>>()
+    // Completes once all the messages received so far have been acknowledged. Only used by the thread consuming them.
+    private var acknowledged: ListenableFuture<*> = Futures.immediateFuture(Unit)
 
     fun start(rpcOps: RPCOps, userService: RPCUserService) {
         state.locked {
@@ -239,7 +246,7 @@ class NodeMessagingClient(override val config: NodeConfiguration,
 
     private val shutdownLatch = CountDownLatch(1)
 
-    private fun processMessage(consumer: ClientConsumer): Boolean {
+    private fun processMessages(consumer: ClientConsumer): Boolean {
         // Two possibilities here:
         //
         // 1. We block waiting for a message and the consumer is closed in another thread. In this case
@@ -248,17 +255,16 @@ class NodeMessagingClient(override val config: NodeConfiguration,
         //    calling receive will throw and we break out of the loop.
         //
         // It's safe to call into receive simultaneous with other threads calling send on a producer.
-        val artemisMessage: ClientMessage = try {
-            consumer.receive()
-        } catch(e: ActiveMQObjectClosedException) {
-            null
-        } ?: return false
+        val artemisMessages = ArrayList<ClientMessage>()
+        artemisMessages += consumer.receiveOrNull(-1) ?: return false
+        if (config.messageBatchSize > 1) {
+            drainBatch(consumer, artemisMessages)
+        }
 
-        val message: ReceivedMessage? = artemisToCordaMessage(artemisMessage)
-        if (message != null)
-            deliver(message)
+        val messages = artemisMessages.mapNotNull { artemisToCordaMessage(it) }
+        val passedOn = if (messages.isNotEmpty()) deliver(messages) else emptyList()
 
-        // Ack the message so it won't be redelivered. We should only really do this when there were no
+        // Ack the messages so they won't be redelivered. We should only really do this when there were no
         // transient failures. If we caught an exception in the handler, we could back off and retry delivery
         // a few times before giving up and redirecting the message to a dead-letter address for admin or
         // developer inspection. Artemis has the features to do this for us, we just need to enable them.
@@ -269,12 +275,62 @@ class NodeMessagingClient(override val config: NodeConfiguration,
         // doesn't collide with a send here. Note that stop() could have been called whilst we were
         // processing a message but if so, it'll be parked waiting for us to count down the latch, so
         // the session itself is still around and we can still ack messages as a result.
-        state.locked {
-            artemisMessage.acknowledge()
+        //
+        // Acknowledging a message also acknowledges every message received before it on the same consumer, so
+        // one ack covers the whole batch. For the same reason, if some messages are still being processed on other
+        // threads, the ack has to wait for them and for those of earlier batches.
+        val lastMessage = artemisMessages.last()
+        if (passedOn.isEmpty() && acknowledged.isDone) {
+            state.locked {
+                lastMessage.acknowledge()
+            }
+        } else {
+            acknowledged = Futures.successfulAsList(passedOn + acknowledged).map { acknowledge(lastMessage) }
         }
         return true
     }
 
+    private fun acknowledge(message: ClientMessage) {
+        state.locked {
+            try {
+                message.acknowledge()
+            } catch(e: ActiveMQObjectClosedException) {
+                // The consumer has been closed in the meantime, so the messages will be redelivered and then discarded
+                // as duplicates.
+            }
+        }
+    }
+
+    /**
+     * Adds further messages to [batch] until it holds [NodeConfiguration.messageBatchSize] messages, or no more arrive
+     * within [NodeConfiguration.messageBatchTimeoutMillis] of starting.
+     */
+    private fun drainBatch(consumer: ClientConsumer, batch: MutableList<ClientMessage>) {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.messageBatchTimeoutMillis)
+        while (batch.size < config.messageBatchSize) {
+            // Once the deadline has passed only the messages already waiting are taken, as a negative timeout would
+            // block until the next one arrives and hold up the batch until then.
+            val remainingMillis = maxOf(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 0L)
+            batch += consumer.receiveOrNull(remainingMillis) ?: break
+        }
+    }
+
+    /**
+     * Blocks until a message arrives if [timeoutMillis] is negative, otherwise waits at most that long. Returns null
+     * if no message arrived in time or the consumer has been closed.
+     */
+    private fun ClientConsumer.receiveOrNull(timeoutMillis: Long): ClientMessage? {
+        return try {
+            when {
+                timeoutMillis < 0 -> receive()
+                timeoutMillis == 0L -> receiveImmediate()
+                else -> receive(timeoutMillis)
+            }
+        } catch(e: ActiveMQObjectClosedException) {
+            null
+        }
+    }
+
     private fun runPreNetworkMap(serverControl: ActiveMQServerControl) {
         val consumer = state.locked {
             check(started) { "start must be called first" }
@@ -285,7 +341,7 @@ class NodeMessagingClient(override val config: NodeConfiguration,
             p2pConsumer!!
         }
 
-        while (!networkMapRegistrationFuture.isDone && processMessage(consumer)) {
+        while (!networkMapRegistrationFuture.isDone && processMessages(consumer)) {
         }
         with(networkMapRegistrationFuture) {
             if (isDone) getOrThrow() else andForget(log) // Trigger node shutdown here to avoid deadlock in shutdown hooks.
@@ -298,7 +354,7 @@ class NodeMessagingClient(override val config: NodeConfiguration,
             p2pConsumer ?: return
         }
 
-        while (processMessage(consumer)) {
+        while (processMessages(consumer)) {
         }
     }
 
@@ -352,11 +408,10 @@ class NodeMessagingClient(override val config: NodeConfiguration,
         override fun toString() = "${topicSession.topic}#${data.sequence()}"
     }
 
-    private fun deliver(msg: ReceivedMessage): Boolean {
+    /** Returns the futures of the messages passed on with [processAsync], which complete once they've been processed. */
+    private fun deliver(msgs: List<ReceivedMessage>): List<ListenableFuture<Unit>> {
         state.checkNotLocked()
-        // Because handlers is a COW list, the loop inside filter will operate on a snapshot. Handlers being added
-        // or removed whilst the filter is executing will not affect anything.
-        val deliverTo = handlers.filter { it.topicSession.isBlank() || it.topicSession == msg.topicSession }
+        var passedOn = emptyList<ListenableFuture<Unit>>()
         try {
             // This will perform a BLOCKING call onto the executor. Thus if the handlers are slow, we will
             // be slow, and Artemis can handle that case intelligently. We don't just invoke the handler
@@ -367,25 +422,84 @@ class NodeMessagingClient(override val config: NodeConfiguration,
             // Note that handlers may re-enter this class. We aren't holding any locks and methods like
             // start/run/stop have re-entrancy assertions at the top, so it is OK.
             nodeExecutor.fetchFrom {
+                batchSizeHistogram.update(msgs.size)
+                val commitTimer = batchCommitTimer.time()
+                try {
+                    deliverBatch(msgs)
+                } finally {
+                    passedOn = ArrayList(passedOnMessages.values)
+                    passedOnMessages.clear()
+                }
+                commitTimer.stop()
+            }
+        } catch(e: Exception) {
+            log.error("Caught exception whilst executing message handlers for ${msgs.map { it.topicSession }}", e)
+        }
+        return passedOn
+    }
+
+    private fun deliverBatch(msgs: List<ReceivedMessage>) {
+        database.transaction {
+            if (msgs.size == 1) {
+                deliverInTransaction(msgs.single())
+            } else {
+                // Each message gets its own savepoint so that a failing handler only undoes its own work,
+                // just as it would if the message had been delivered on its own.
+                for (msg in msgs) {
+                    val savepoint = connection.setSavepoint()
+                    try {
+                        deliverInTransaction(msg)
+                        connection.releaseSavepoint(savepoint)
+                    } catch(e: Exception) {
+                        connection.rollback(savepoint)
+                        log.error("Caught exception whilst executing message handler for ${msg.topicSession}", e)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun deliverInTransaction(msg: ReceivedMessage) {
+        if (msg.uniqueMessageId in processedMessages) {
+            log.trace { "Discard duplicate message ${msg.uniqueMessageId} for ${msg.topicSession}" }
+        } else {
+            // Because handlers is a COW list, the loop inside filter will operate on a snapshot. Handlers being added
+            // or removed whilst the filter is executing will not affect anything.
+            val deliverTo = handlers.filter { it.topicSession.isBlank() || it.topicSession == msg.topicSession }
+            if (deliverTo.isEmpty()) {
+                // TODO: Implement dead letter queue, and send it there.
+                log.warn("Received message ${msg.uniqueMessageId} for ${msg.topicSession} that doesn't have any registered handlers yet")
+            } else {
+                callHandlers(msg, deliverTo)
+            }
+            // A message passed on is recorded as processed by the transaction it's processed in.
+            if (msg.uniqueMessageId !in passedOnMessages) {
+                processedMessages.add(msg.uniqueMessageId)
+            }
+        }
+    }
+
+    override fun processAsync(message: ReceivedMessage, executor: Executor, process: () -> Unit) {
+        nodeExecutor.checkOnThread()
+        val processed = SettableFuture.create<Unit>()
+        check(passedOnMessages.put(message.uniqueMessageId, processed) == null) { "Message ${message.uniqueMessageId} has already been passed on" }
+        executor.execute {
+            try {
                 database.transaction {
-                    if (msg.uniqueMessageId in processedMessages) {
-                        log.trace { "Discard duplicate message ${msg.uniqueMessageId} for ${msg.topicSession}" }
+                    // A redelivered copy may have been passed on before this one was recorded.
+                    if (message.uniqueMessageId in processedMessages) {
+                        log.trace { "Discard duplicate message ${message.uniqueMessageId} for ${message.topicSession}" }
                     } else {
-                        if (deliverTo.isEmpty()) {
-                            // TODO: Implement dead letter queue, and send it there.
-                            log.warn("Received message ${msg.uniqueMessageId} for ${msg.topicSession} that doesn't have any registered handlers yet")
-                        } else {
-                            callHandlers(msg, deliverTo)
-                        }
-                        // TODO We will at some point need to decide a trimming policy for the id's
-                        processedMessages += msg.uniqueMessageId
+                        process()
+                        processedMessages.add(message.uniqueMessageId)
                     }
                 }
+            } catch(e: Exception) {
+                log.error("Caught exception whilst processing message for ${message.topicSession}", e)
+            } finally {
+                processed.set(Unit)
             }
-        } catch(e: Exception) {
-            log.error("Caught exception whilst executing message handler for ${msg.topicSession}", e)
         }
-        return true
     }
 
     private fun callHandlers(msg: ReceivedMessage, deliverTo: List<Handler>) {
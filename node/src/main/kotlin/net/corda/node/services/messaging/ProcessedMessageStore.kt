@@ -0,0 +1,148 @@
+package net.corda.node.services.messaging
+
+import com.google.common.cache.CacheBuilder
+import com.google.common.hash.BloomFilter
+import com.google.common.hash.Funnel
+import net.corda.core.internal.ThreadBox
+import net.corda.core.utilities.loggerFor
+import net.corda.node.utilities.*
+import org.jetbrains.exposed.sql.*
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.*
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * Remembers the unique IDs of P2P messages that have already been processed, so that messages redelivered by Artemis
+ * (for example because the node stopped between committing the handler's work and acknowledging the message) can be
+ * discarded.
+ *
+ * Only a bounded window of IDs is ever kept. Each ID is recorded in the database along with the time it was inserted,
+ * and the most recently seen IDs are additionally held in an LRU cache. IDs which have dropped out of the cache are
+ * tracked by two generations of Bloom filters, so that a lookup only goes to the database if the ID might actually
+ * have been seen. Once the current generation is older than [retention] it becomes the previous generation, and the
+ * one before it is discarded along with its rows in the database.
+ *
+ * Because rows are only purged on a generation change, nothing recorded before the node started is forgotten until
+ * the node has been running for at least [retention], by which point Artemis will have redelivered any message that
+ * was in flight when the node last stopped. Any IDs left in the table they were kept in before are moved into this one
+ * when it's created, and are likewise kept for at least [retention].
+ *
+ * All operations other than construction require a database transaction to be started.
+ *
+ * @param retention How long an ID must be remembered for. This should be at least the redelivery horizon of the
+ * messaging layer.
+ * @param recentWindowSize The number of IDs held in the LRU cache, and the expected number of insertions per
+ * Bloom filter generation.
+ */
+@ThreadSafe
+class ProcessedMessageStore(private val retention: Duration,
+                            private val recentWindowSize: Int = DEFAULT_RECENT_WINDOW_SIZE,
+                            private val clock: Clock = Clock.systemUTC()) {
+    companion object {
+        private val log = loggerFor<ProcessedMessageStore>()
+
+        const val DEFAULT_RECENT_WINDOW_SIZE = 100000
+        private const val BLOOM_FILTER_FPP = 0.01
+
+        private val uuidFunnel = Funnel<UUID> { from, into ->
+            into.putLong(from.mostSignificantBits).putLong(from.leastSignificantBits)
+        }
+    }
+
+    private object Table : org.jetbrains.exposed.sql.Table("${NODE_DATABASE_PREFIX}processed_messages") {
+        val messageId = uuidString("message_id").primaryKey()
+        val insertionTime = instant("insertion_time").index()
+    }
+
+    // Where the IDs were kept before, in a JDBCHashSet which was never purged.
+    private object LegacyTable : JDBCHashedTable("${NODE_DATABASE_PREFIX}message_ids") {
+        val messageId = uuidString("message_id")
+    }
+
+    private class Generation(val startedAt: Instant, expectedInsertions: Int) {
+        val filter: BloomFilter<UUID> = BloomFilter.create(uuidFunnel, expectedInsertions, BLOOM_FILTER_FPP)
+    }
+
+    private class InnerState(var current: Generation, var previous: Generation?)
+
+    private val recent = CacheBuilder.newBuilder().maximumSize(recentWindowSize.toLong()).build<UUID, Unit>()
+    private val state: ThreadBox<InnerState>
+
+    init {
+        require(!retention.isNegative && !retention.isZero) { "The retention period must be positive" }
+        require(recentWindowSize > 0) { "The recent window size must be positive" }
+        SchemaUtils.create(Table)
+        if (LegacyTable.exists()) {
+            migrateLegacyIds()
+        }
+        // Only the rows left over from the last run are loaded, and that is bounded by the retention period rather
+        // than by how long the node has been running.
+        val existingIds = Table.slice(Table.messageId).selectAll().map { it[Table.messageId] }
+        val initial = Generation(clock.instant(), maxOf(recentWindowSize, existingIds.size))
+        existingIds.forEach { initial.filter.put(it) }
+        log.info("Loaded ${existingIds.size} processed message IDs")
+        state = ThreadBox(InnerState(initial, null))
+    }
+
+    private fun migrateLegacyIds() {
+        val existingIds = Table.slice(Table.messageId).selectAll().mapTo(HashSet()) { it[Table.messageId] }
+        val now = clock.instant()
+        var migrated = 0
+        for (row in LegacyTable.slice(LegacyTable.messageId).selectAll()) {
+            val id = row[LegacyTable.messageId]
+            if (existingIds.add(id)) {
+                Table.insert {
+                    it[messageId] = id
+                    it[insertionTime] = now
+                }
+                migrated++
+            }
+        }
+        LegacyTable.dropTable()
+        log.info("Migrated $migrated processed message ID(s) from ${LegacyTable.tableName} to ${Table.tableName}")
+    }
+
+    /** Returns true if a message with the given ID has already been recorded as processed. */
+    operator fun contains(id: UUID): Boolean {
+        if (recent.getIfPresent(id) != null) return true
+        val mightContain = state.locked {
+            current.filter.mightContain(id) || previous?.filter?.mightContain(id) == true
+        }
+        return mightContain && Table.select { Table.messageId eq id }.any()
+    }
+
+    /**
+     * Records the message ID as processed. This should be called in the same database transaction as the one the
+     * message's handlers ran in, so that the message is either processed and recorded or neither.
+     */
+    fun add(id: UUID) {
+        val now = clock.instant()
+        Table.insert {
+            it[messageId] = id
+            it[insertionTime] = now
+        }
+        // If the transaction is rolled back the message will be redelivered, so it must only be held as recent, where it
+        // isn't looked up in the database, once it's committed. Its stray bit in a Bloom filter only costs a lookup.
+        val dbTxId = DatabaseTransactionManager.transactionId
+        DatabaseTransactionManager.transactionBoundaries.filter { it.txId == dbTxId }.first().subscribe {
+            if (it.committed) recent.put(id, Unit)
+        }
+        state.locked {
+            current.filter.put(id)
+            if (Duration.between(current.startedAt, now) >= retention) {
+                rotate(now)
+            }
+        }
+    }
+
+    private fun InnerState.rotate(now: Instant) {
+        // The rows tracked by the generation about to be dropped are all older than the one that becomes previous.
+        val cutoff = current.startedAt
+        previous = current
+        current = Generation(now, recentWindowSize)
+        val purged = Table.deleteWhere { Table.insertionTime less cutoff }
+        log.debug("Purged $purged processed message IDs recorded before $cutoff")
+    }
+}
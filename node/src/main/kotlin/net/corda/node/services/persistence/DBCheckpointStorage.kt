@@ -2,57 +2,105 @@ package net.corda.node.services.persistence
 
 import net.corda.core.crypto.SecureHash
 import net.corda.core.serialization.SerializationDefaults.CHECKPOINT_CONTEXT
-import net.corda.core.serialization.SerializedBytes
 import net.corda.core.serialization.deserialize
-import net.corda.core.serialization.serialize
+import net.corda.core.utilities.loggerFor
 import net.corda.node.services.api.Checkpoint
 import net.corda.node.services.api.CheckpointStorage
 import net.corda.node.utilities.*
-import org.jetbrains.exposed.sql.ResultRow
-import org.jetbrains.exposed.sql.statements.InsertStatement
-import java.util.Collections.synchronizedMap
+import org.jetbrains.exposed.sql.*
+import java.sql.Blob
+import javax.annotation.concurrent.ThreadSafe
 
 /**
- * Simple checkpoint key value storage in DB using the underlying JDBCHashMap and transactional context of the call sites.
+ * Checkpoint storage in a table of its own keyed by checkpoint ID, using the transactional context of the call sites.
+ *
+ * The serialised fiber is stored as is, without being wrapped in a further serialisation of the [Checkpoint]. Nothing
+ * is cached in memory, a suspending flow's new checkpoint replaces its previous one with a single update of the row,
+ * and [forEach] streams the rows rather than loading the whole table.
+ *
+ * Any checkpoints left in the table they were kept in before are moved into this one when it's created, so that their
+ * flows carry on after an upgrade.
  */
+@ThreadSafe
 class DBCheckpointStorage : CheckpointStorage {
+    companion object {
+        private val log = loggerFor<DBCheckpointStorage>()
+    }
 
-    private object Table : JDBCHashedTable("${NODE_DATABASE_PREFIX}checkpoints") {
-        val checkpointId = secureHash("checkpoint_id")
+    private object Table : org.jetbrains.exposed.sql.Table("${NODE_DATABASE_PREFIX}flow_checkpoints") {
+        val checkpointId = secureHash("checkpoint_id").primaryKey()
         val checkpoint = blob("checkpoint")
     }
 
-    private class CheckpointMap : AbstractJDBCHashMap<SecureHash, SerializedBytes<Checkpoint>, Table>(Table, loadOnInit = false) {
-        override fun keyFromRow(row: ResultRow): SecureHash = row[table.checkpointId]
-
-        override fun valueFromRow(row: ResultRow): SerializedBytes<Checkpoint> = bytesFromBlob(row[table.checkpoint])
+    // Where checkpoints were kept before, each serialised as a whole in a JDBCHashMap.
+    private object LegacyTable : JDBCHashedTable("${NODE_DATABASE_PREFIX}checkpoints") {
+        val checkpoint = blob("checkpoint")
+    }
 
-        override fun addKeyToInsert(insert: InsertStatement, entry: Map.Entry<SecureHash, SerializedBytes<Checkpoint>>, finalizables: MutableList<() -> Unit>) {
-            insert[table.checkpointId] = entry.key
+    init {
+        SchemaUtils.create(Table)
+        if (LegacyTable.exists()) {
+            migrateLegacyCheckpoints()
         }
+    }
 
-        override fun addValueToInsert(insert: InsertStatement, entry: Map.Entry<SecureHash, SerializedBytes<Checkpoint>>, finalizables: MutableList<() -> Unit>) {
-            insert[table.checkpoint] = bytesToBlob(entry.value, finalizables)
+    private fun migrateLegacyCheckpoints() {
+        var migrated = 0
+        for (row in LegacyTable.selectAll()) {
+            val checkpoint = bytesFromBlob<Checkpoint>(row[LegacyTable.checkpoint]).deserialize(context = CHECKPOINT_CONTEXT)
+            if (getCheckpoint(checkpoint.id) == null) {
+                addCheckpoint(checkpoint)
+                migrated++
+            }
         }
+        LegacyTable.dropTable()
+        log.info("Migrated $migrated checkpoint(s) from ${LegacyTable.tableName} to ${Table.tableName}")
     }
 
-    private val checkpointStorage = synchronizedMap(CheckpointMap())
-
     override fun addCheckpoint(checkpoint: Checkpoint) {
-        checkpointStorage.put(checkpoint.id, checkpoint.serialize(context = CHECKPOINT_CONTEXT))
+        withBlob(checkpoint) { blob ->
+            Table.insert {
+                it[Table.checkpointId] = checkpoint.id
+                it[Table.checkpoint] = blob
+            }
+        }
     }
 
     override fun removeCheckpoint(checkpoint: Checkpoint) {
-        checkpointStorage.remove(checkpoint.id) ?: throw IllegalArgumentException("Checkpoint not found")
+        val deleted = Table.deleteWhere { Table.checkpointId eq checkpoint.id }
+        if (deleted == 0) throw IllegalArgumentException("Checkpoint not found")
+    }
+
+    override fun replaceCheckpoint(previous: Checkpoint, checkpoint: Checkpoint) {
+        val updated = withBlob(checkpoint) { blob ->
+            Table.update({ Table.checkpointId eq previous.id }) {
+                it[Table.checkpointId] = checkpoint.id
+                it[Table.checkpoint] = blob
+            }
+        }
+        if (updated == 0) throw IllegalArgumentException("Checkpoint not found")
+    }
+
+    override fun getCheckpoint(id: SecureHash): Checkpoint? {
+        return Table.select { Table.checkpointId eq id }.map { checkpointFromRow(it) }.firstOrNull()
     }
 
     override fun forEach(block: (Checkpoint) -> Boolean) {
-        synchronized(checkpointStorage) {
-            for (checkpoint in checkpointStorage.values) {
-                if (!block(checkpoint.deserialize(context = CHECKPOINT_CONTEXT))) {
-                    break
-                }
+        for (row in Table.selectAll()) {
+            if (!block(checkpointFromRow(row))) {
+                break
             }
         }
     }
+
+    private fun checkpointFromRow(row: ResultRow) = Checkpoint(bytesFromBlob(row[Table.checkpoint]))
+
+    private fun <T> withBlob(checkpoint: Checkpoint, statement: (Blob) -> T): T {
+        val finalizables = mutableListOf<() -> Unit>()
+        try {
+            return statement(bytesToBlob(checkpoint.serializedFiber, finalizables))
+        } finally {
+            finalizables.forEach { it() }
+        }
+    }
 }
@@ -1,76 +1,161 @@
 package net.corda.node.services.persistence
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import net.corda.core.bufferUntilSubscribed
 import net.corda.core.crypto.SecureHash
 import net.corda.core.messaging.DataFeed
+import net.corda.core.node.services.TransactionStorage
+import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
+import net.corda.core.node.services.vault.PageSpecification
 import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.transactions.SignedTransaction
 import net.corda.node.services.api.WritableTransactionStorage
 import net.corda.node.utilities.*
-import org.jetbrains.exposed.sql.ResultRow
-import org.jetbrains.exposed.sql.exposedLogger
-import org.jetbrains.exposed.sql.statements.InsertStatement
+import org.jetbrains.exposed.sql.*
 import rx.Observable
 import rx.subjects.PublishSubject
-import java.util.Collections.synchronizedMap
+import java.util.concurrent.ConcurrentHashMap
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * Transaction storage in the table used by earlier versions of the node, in which transactions are keyed by the hash
+ * code of their ID.
+ *
+ * Nothing is locked. Reads go through a cache of deserialised transactions, bounded by the total size of their
+ * serialised forms, and only go to the database when they miss. A transaction is only cached once the database
+ * transaction which recorded it has finished, so that one which is rolled back can't linger in the cache.
+ */
+@ThreadSafe
+class DBTransactionStorage(metrics: MetricRegistry = MetricRegistry(),
+                           cacheSizeBytes: Long = DEFAULT_CACHE_SIZE_BYTES) : WritableTransactionStorage, SingletonSerializeAsToken() {
+    companion object {
+        const val DEFAULT_CACHE_SIZE_BYTES = 64L * 1024 * 1024
+    }
 
-class DBTransactionStorage : WritableTransactionStorage, SingletonSerializeAsToken() {
     private object Table : JDBCHashedTable("${NODE_DATABASE_PREFIX}transactions") {
         val txId = secureHash("tx_id")
         val transaction = blob("transaction")
     }
 
-    private class TransactionsMap : AbstractJDBCHashMap<SecureHash, SignedTransaction, Table>(Table, loadOnInit = false) {
-        override fun keyFromRow(row: ResultRow): SecureHash = row[table.txId]
+    private val txCache: Cache<SecureHash, SignedTransaction> = CacheBuilder.newBuilder()
+            .maximumWeight(cacheSizeBytes)
+            .weigher<SecureHash, SignedTransaction> { _, stx -> stx.txBits.size }
+            .recordStats()
+            .build()
 
-        override fun valueFromRow(row: ResultRow): SignedTransaction = deserializeFromBlob(row[table.transaction])
+    // The transactions being added by database transactions which haven't finished. They aren't cached until then, and
+    // adding one of them again counts as a duplicate without having to look in the database.
+    private val uncommitted: MutableSet<SecureHash> = ConcurrentHashMap.newKeySet()
 
-        override fun addKeyToInsert(insert: InsertStatement, entry: Map.Entry<SecureHash, SignedTransaction>, finalizables: MutableList<() -> Unit>) {
-            insert[table.txId] = entry.key
-        }
+    private val loadDuration = metrics.timer("TransactionStorage.LoadDuration")
 
-        override fun addValueToInsert(insert: InsertStatement, entry: Map.Entry<SecureHash, SignedTransaction>, finalizables: MutableList<() -> Unit>) {
-            insert[table.transaction] = serializeToBlob(entry.value, finalizables)
-        }
+    init {
+        SchemaUtils.create(Table)
+        metrics.register("TransactionStorage.CacheHitRate", Gauge { txCache.stats().hitRate() })
     }
 
-    private val txStorage = synchronizedMap(TransactionsMap())
-
     override fun addTransaction(transaction: SignedTransaction): Boolean {
-        val recorded = synchronized(txStorage) {
-            val old = txStorage[transaction.id]
-            if (old == null) {
-                txStorage.put(transaction.id, transaction)
-                updatesPublisher.bufferUntilDatabaseCommit().onNext(transaction)
-                true
-            } else {
-                false
-            }
-        }
-        if (!recorded) {
-            exposedLogger.warn("Duplicate recording of transaction ${transaction.id}")
-        }
-        return recorded
+        val id = transaction.id
+        if (id in txCache.asMap() || !uncommitted.add(id)) return duplicate(id)
+        val dbTxId = DatabaseTransactionManager.transactionId
+        DatabaseTransactionManager.transactionBoundaries.filter { it.txId == dbTxId }.first().subscribe { uncommitted.remove(id) }
+        // The key hash is indexed, and only the IDs of the transactions with the same hash code are read.
+        if (Table.slice(Table.txId).select { Table.keyHash eq id.hashCode() }.any { it[Table.txId] == id }) return duplicate(id)
+        insert(transaction)
+        updatesPublisher.bufferUntilDatabaseCommit().onNext(transaction)
+        return true
+    }
+
+    private fun duplicate(id: SecureHash): Boolean {
+        exposedLogger.warn("Duplicate recording of transaction $id")
+        return false
     }
 
     override fun getTransaction(id: SecureHash): SignedTransaction? {
-        synchronized(txStorage) {
-            return txStorage[id]
+        txCache.getIfPresent(id)?.let { return it }
+        val transaction = loadDuration.time().use {
+            Table.select { Table.keyHash eq id.hashCode() }
+                    .firstOrNull { it[Table.txId] == id }
+                    ?.let { transactionFromRow(it) }
         }
+        if (transaction != null && id !in uncommitted) {
+            txCache.put(id, transaction)
+        }
+        return transaction
     }
 
     private val updatesPublisher = PublishSubject.create<SignedTransaction>().toSerialized()
     override val updates: Observable<SignedTransaction> = updatesPublisher.wrapWithDatabaseTransaction()
 
     override fun track(): DataFeed<List<SignedTransaction>, SignedTransaction> {
-        synchronized(txStorage) {
-            return DataFeed(txStorage.values.toList(), updatesPublisher.bufferUntilSubscribed().wrapWithDatabaseTransaction())
+        // Subscribe first, so that no transaction recorded while the snapshot is being read can be missed.
+        val updates = updatesPublisher.bufferUntilSubscribed().wrapWithDatabaseTransaction()
+        return DataFeed(allTransactions(), updates)
+    }
+
+    override fun queryBy(paging: PageSpecification, since: SecureHash?, upTo: Long?): TransactionStorage.Page {
+        val pageNumber = if (paging.isDefault) DEFAULT_PAGE_NUM else paging.pageNumber
+        require(pageNumber >= DEFAULT_PAGE_NUM) { "Invalid page number $pageNumber, page numbers start from $DEFAULT_PAGE_NUM" }
+        require(paging.pageSize > 0) { "Invalid page size ${paging.pageSize}, it must be positive" }
+        // The sequence number orders the rows the way they were recorded, and is the primary key, so reading on from
+        // the transaction the pages are since is an index range scan. It's also the position the pages can be read up to.
+        val bounds = ArrayList<Op<Boolean>>()
+        if (since != null) {
+            val sinceSeqNo = seqNoOf(since) ?: throw IllegalArgumentException("Unknown transaction $since")
+            bounds += Table.seqNo greater sinceSeqNo
         }
+        if (upTo != null) {
+            bounds += Table.seqNo lessEq upTo.toInt()
+        }
+        val recordedUpTo = Table.slice(Table.seqNo).selectAll().orderBy(Table.seqNo, isAsc = false).limit(1).firstOrNull()?.get(Table.seqNo) ?: 0
+        val query = if (bounds.isEmpty()) Table.selectAll() else Table.select { bounds.reduce { a, b -> a and b } }
+        val total = query.count().toLong()
+        val offset = (pageNumber - 1).toLong() * paging.pageSize
+        val transactions = if (offset >= total) {
+            emptyList()
+        } else {
+            query.orderBy(Table.seqNo).limit(paging.pageSize, offset.toInt()).map { transactionFromRow(it) }
+        }
+        return TransactionStorage.Page(transactions, total, recordedUpTo.toLong())
+    }
+
+    override fun trackBy(paging: PageSpecification, since: SecureHash?): DataFeed<TransactionStorage.Page, SignedTransaction> {
+        val updates = updatesPublisher.bufferUntilSubscribed().wrapWithDatabaseTransaction()
+        return DataFeed(queryBy(paging, since), updates)
+    }
+
+    private fun seqNoOf(id: SecureHash): Int? {
+        return Table.slice(Table.seqNo, Table.txId)
+                .select { Table.keyHash eq id.hashCode() }
+                .firstOrNull { it[Table.txId] == id }
+                ?.get(Table.seqNo)
     }
 
     @VisibleForTesting
-    val transactions: Iterable<SignedTransaction> get() = synchronized(txStorage) {
-        txStorage.values.toList()
+    val transactions: Iterable<SignedTransaction> get() = allTransactions()
+
+    // Reads the rows straight from the database in the order they were recorded. They aren't put in the cache, where
+    // they would only push out the transactions actually in use.
+    private fun allTransactions(): List<SignedTransaction> {
+        return Table.selectAll().orderBy(Table.seqNo).map { transactionFromRow(it) }
+    }
+
+    private fun transactionFromRow(row: ResultRow): SignedTransaction = deserializeFromBlob(row[Table.transaction])
+
+    private fun insert(transaction: SignedTransaction) {
+        val finalizables = mutableListOf<() -> Unit>()
+        try {
+            Table.insert {
+                it[keyHash] = transaction.id.hashCode()
+                it[txId] = transaction.id
+                it[Table.transaction] = serializeToBlob(transaction, finalizables)
+            }
+        } finally {
+            finalizables.forEach { it() }
+        }
     }
 }
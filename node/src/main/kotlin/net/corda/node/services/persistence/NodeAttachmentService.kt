@@ -1,15 +1,22 @@
 package net.corda.node.services.persistence
 
+import com.codahale.metrics.Gauge
 import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import com.google.common.hash.HashCode
 import com.google.common.hash.Hashing
 import com.google.common.hash.HashingInputStream
+import com.google.common.io.ByteStreams
 import com.google.common.io.CountingInputStream
-import net.corda.core.contracts.AbstractAttachment
 import net.corda.core.contracts.Attachment
 import net.corda.core.crypto.SecureHash
+import net.corda.core.internal.deleteIfExists
+import net.corda.core.internal.div
 import net.corda.core.internal.isDirectory
+import net.corda.core.internal.moveTo
+import net.corda.core.internal.size
 import net.corda.core.node.services.AttachmentStorage
 import net.corda.core.serialization.*
 import net.corda.core.utilities.loggerFor
@@ -17,25 +24,40 @@ import net.corda.node.services.api.AcceptsFileUpload
 import net.corda.node.services.database.RequeryConfiguration
 import net.corda.node.services.persistence.schemas.requery.AttachmentEntity
 import net.corda.node.services.persistence.schemas.requery.Models
-import java.io.ByteArrayInputStream
 import java.io.FilterInputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
 import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
 import java.util.*
 import java.util.jar.JarInputStream
 import javax.annotation.concurrent.ThreadSafe
 
 /**
- * Stores attachments in H2 database.
+ * Stores attachments as files in [storePath], each named by its hash, and records which attachments there are in the
+ * database. Attachments are streamed in and out of the store, so they needn't fit in memory. The most recently used
+ * attachments are kept mapped into memory, up to a total of [cacheSizeBytes], as the same few tend to be opened over
+ * and over again, for example by the [AttachmentsClassLoader] looking for classes in them.
  */
 @ThreadSafe
-class NodeAttachmentService(val storePath: Path, dataSourceProperties: Properties, metrics: MetricRegistry)
+class NodeAttachmentService(val storePath: Path,
+                            dataSourceProperties: Properties,
+                            metrics: MetricRegistry,
+                            cacheSizeBytes: Long = DEFAULT_CACHE_SIZE_BYTES)
     : AttachmentStorage, AcceptsFileUpload, SingletonSerializeAsToken() {
     companion object {
         private val log = loggerFor<NodeAttachmentService>()
+
+        const val DEFAULT_CACHE_SIZE_BYTES = 512L * 1024 * 1024
     }
 
     val configuration = RequeryConfiguration(dataSourceProperties)
@@ -46,12 +68,26 @@ class NodeAttachmentService(val storePath: Path, dataSourceProperties: Propertie
 
     private val attachmentCount = metrics.counter("Attachments")
 
+    override val classLoaderCache = AttachmentsClassLoaderCache(this)
+
+    // Mapping a file doesn't take up heap, but the cache is bounded by the total size of the files so that the node
+    // doesn't hold on to the address space, and the pages, of every attachment it has ever opened.
+    private val mappedAttachments: Cache<SecureHash, MappedByteBuffer> = CacheBuilder.newBuilder()
+            .maximumWeight(cacheSizeBytes)
+            .weigher<SecureHash, MappedByteBuffer> { _, buffer -> buffer.capacity() }
+            .build()
+
     init {
         require(storePath.isDirectory()) { "$storePath must be a directory" }
 
+        migrateLegacyContent()
         session.withTransaction {
             attachmentCount.inc(session.count(AttachmentEntity::class).get().value().toLong())
         }
+        metrics.register("Attachments.ClassLoadersCached", Gauge { classLoaderCache.size })
+        metrics.register("Attachments.ClassLoadersCreated", Gauge { classLoaderCache.created })
+        metrics.register("Attachments.ClassLoadersEvicted", Gauge { classLoaderCache.evicted })
+        metrics.register("Attachments.ClassLoaderCacheHits", Gauge { classLoaderCache.hits })
     }
 
     @CordaSerializable
@@ -67,7 +103,7 @@ class NodeAttachmentService(val storePath: Path, dataSourceProperties: Propertie
      */
     @VisibleForTesting @CordaSerializable
     class HashCheckingStream(val expected: SecureHash.SHA256,
-                             val expectedSize: Int,
+                             val expectedSize: Long,
                              input: InputStream,
                              private val counter: CountingInputStream = CountingInputStream(input),
                              private val stream: HashingInputStream = HashingInputStream(Hashing.sha256(), counter)) : FilterInputStream(stream) {
@@ -98,7 +134,7 @@ class NodeAttachmentService(val storePath: Path, dataSourceProperties: Propertie
         }
 
         private fun validate() {
-            if (counter.count != expectedSize.toLong()) return
+            if (counter.count != expectedSize) return
 
             val actual = SecureHash.SHA256(hash.asBytes())
             if (actual != expected)
@@ -118,68 +154,219 @@ class NodeAttachmentService(val storePath: Path, dataSourceProperties: Propertie
         }
     }
 
-    private class AttachmentImpl(override val id: SecureHash, dataLoader: () -> ByteArray, private val checkOnLoad: Boolean) : AbstractAttachment(dataLoader), SerializeAsToken {
+    private class AttachmentImpl(override val id: SecureHash,
+                                 private val storage: NodeAttachmentService,
+                                 private val checkOnLoad: Boolean) : Attachment, SerializeAsToken {
         override fun open(): InputStream {
-            val stream = super.open()
+            val (stream, size) = storage.openContent(id)
             // This is just an optional safety check. If it slows things down too much it can be disabled.
-            return if (checkOnLoad && id is SecureHash.SHA256) HashCheckingStream(id, attachmentData.size, stream) else stream
+            return if (checkOnLoad && id is SecureHash.SHA256) HashCheckingStream(id, size, stream) else stream
         }
 
-        private class Token(private val id: SecureHash, private val checkOnLoad: Boolean) : SerializationToken {
-            override fun fromToken(context: SerializeAsTokenContext) = AttachmentImpl(id, context.attachmentDataLoader(id), checkOnLoad)
+        override fun equals(other: Any?) = other === this || other is Attachment && other.id == this.id
+        override fun hashCode() = id.hashCode()
+        override fun toString() = "${javaClass.simpleName}(id=$id)"
+
+        // The store is a singleton token itself, so a restored attachment reads from the store of the restoring node.
+        private class Token(private val id: SecureHash,
+                            private val storage: NodeAttachmentService,
+                            private val checkOnLoad: Boolean) : SerializationToken {
+            override fun fromToken(context: SerializeAsTokenContext) = AttachmentImpl(id, storage, checkOnLoad)
         }
 
-        override fun toToken(context: SerializeAsTokenContext) = Token(id, checkOnLoad)
+        override fun toToken(context: SerializeAsTokenContext) = Token(id, storage, checkOnLoad)
+    }
 
+    /**
+     * A stream over the mapped content of an attachment. The buffer is a duplicate of the cached one, so that each
+     * stream has its own position.
+     */
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            if (!buffer.hasRemaining()) return -1
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            val count = minOf(n, buffer.remaining().toLong()).coerceAtLeast(0)
+            buffer.position(buffer.position() + count.toInt())
+            return count
+        }
+
+        override fun available(): Int = buffer.remaining()
     }
 
-    override fun openAttachment(id: SecureHash): Attachment? = session.withTransaction {
-        try {
-            session.select(AttachmentEntity::class)
-                    .where(AttachmentEntity.ATT_ID.eq(id))
-                    .get()
-                    .single()
-        } catch (e: NoSuchElementException) {
-            null
+    /**
+     * Passes what's read from the stream through to the file being imported. Skipping reads the skipped bytes too, so
+     * that they aren't missed out of the file, or out of the hash calculated further down.
+     */
+    private class ImportingInputStream(input: InputStream, private val file: FileChannel) : FilterInputStream(input) {
+        override fun read(): Int {
+            val b = super.read()
+            if (b != -1) write(ByteBuffer.wrap(byteArrayOf(b.toByte())))
+            return b
         }
-    }?.run { AttachmentImpl(id, { content }, checkAttachmentsOnLoad) }
 
-    // TODO: PLT-147: The attachment should be randomised to prevent brute force guessing and thus privacy leaks.
-    override fun importAttachment(jar: InputStream): SecureHash {
-        require(jar !is JarInputStream)
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val count = super.read(b, off, len)
+            if (count > 0) write(ByteBuffer.wrap(b, off, count))
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            val buffer = ByteArray(minOf(n, 8192L).toInt())
+            val count = read(buffer, 0, buffer.size)
+            return if (count == -1) 0 else count.toLong()
+        }
+
+        override fun markSupported(): Boolean = false
+
+        private fun write(buffer: ByteBuffer) {
+            while (buffer.hasRemaining()) file.write(buffer)
+        }
+    }
+
+    private fun attachmentPath(id: SecureHash): Path = storePath / id.toString()
+
+    /**
+     * Earlier versions kept the content of each attachment in the database, in a column since replaced by its size. Any
+     * content still there is written to the store and its size recorded before the column is dropped. Each step can be
+     * repeated, so this picks up where it left off should the node stop part way through.
+     */
+    private fun migrateLegacyContent() {
+        val connection = configuration.jdbcSession()
+        // The database may have upper cased the names, as H2 does, or lower cased them.
+        val columns = HashSet<String>()
+        for (table in listOf("ATTACHMENTS", "attachments")) {
+            connection.metaData.getColumns(null, null, table, null).use { rows ->
+                while (rows.next()) {
+                    columns += rows.getString("COLUMN_NAME").toLowerCase()
+                }
+            }
+        }
+        if ("content" !in columns) return
 
-        // Read the file into RAM, hashing it to find the ID as we go. The attachment must fit into memory.
-        // TODO: Switch to a two-phase insert so we can handle attachments larger than RAM.
-        // To do this we must pipe stream into the database without knowing its hash, which we will learn only once
-        // the insert/upload is complete. We can then query to see if it's a duplicate and if so, erase, and if not
-        // set the hash field of the new attachment record.
-        val hs = HashingInputStream(Hashing.sha256(), jar)
-        val bytes = hs.readBytes()
-        checkIsAValidJAR(ByteArrayInputStream(bytes))
-        val id = SecureHash.SHA256(hs.hash().asBytes())
+        log.info("Moving the content of attachments from the database to $storePath")
+        connection.createStatement().use { statement ->
+            if ("content_size" !in columns) {
+                statement.execute("ALTER TABLE attachments ADD content_size BIGINT")
+            }
+            connection.prepareStatement("UPDATE attachments SET content_size = ? WHERE att_id = ?").use { update ->
+                statement.executeQuery("SELECT att_id, content FROM attachments").use { rows ->
+                    var migrated = 0
+                    while (rows.next()) {
+                        val id = SecureHash.parse(rows.getString("att_id"))
+                        val size = rows.getBinaryStream("content").use { writeLegacyContent(id, it) }
+                        update.setLong(1, size)
+                        update.setString(2, rows.getString("att_id"))
+                        update.executeUpdate()
+                        migrated++
+                    }
+                    log.info("Moved the content of $migrated attachment(s) to $storePath")
+                }
+            }
+            statement.execute("ALTER TABLE attachments DROP COLUMN content")
+        }
+    }
+
+    private fun writeLegacyContent(id: SecureHash, content: InputStream): Long {
+        val path = attachmentPath(id)
+        if (!Files.exists(path)) {
+            val tempFile = Files.createTempFile(storePath, "migrate", ".tmp")
+            try {
+                Files.copy(content, tempFile, StandardCopyOption.REPLACE_EXISTING)
+                tempFile.moveTo(path, ATOMIC_MOVE)
+            } finally {
+                tempFile.deleteIfExists()
+            }
+        }
+        return path.size
+    }
+
+    /** Opens the content of the attachment, returning the stream and the size of the content. */
+    private fun openContent(id: SecureHash): Pair<InputStream, Long> {
+        val path = attachmentPath(id)
+        val mapped = mappedAttachments.getIfPresent(id) ?: map(path)?.also { mappedAttachments.put(id, it) }
+        return if (mapped != null) {
+            Pair(ByteBufferInputStream(mapped.duplicate()), mapped.capacity().toLong())
+        } else {
+            Pair(Files.newInputStream(path), path.size)
+        }
+    }
+
+    private fun map(path: Path): MappedByteBuffer? {
+        return try {
+            FileChannel.open(path, READ).use { channel ->
+                // Files too large for a single buffer are streamed instead.
+                if (channel.size() > Int.MAX_VALUE) null else channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            }
+        } catch (e: UnsupportedOperationException) {
+            // Not every file system can map files, for example the in memory one used by tests.
+            null
+        }
+    }
 
+    override fun openAttachment(id: SecureHash): Attachment? {
         val count = session.withTransaction {
             session.count(AttachmentEntity::class)
                     .where(AttachmentEntity.ATT_ID.eq(id))
                     .get().value()
         }
+        return if (count > 0) AttachmentImpl(id, this, checkAttachmentsOnLoad) else null
+    }
 
-        if (count > 0) {
-            throw FileAlreadyExistsException(id.toString())
-        }
+    // TODO: PLT-147: The attachment should be randomised to prevent brute force guessing and thus privacy leaks.
+    override fun importAttachment(jar: InputStream): SecureHash {
+        require(jar !is JarInputStream)
 
-        session.withTransaction {
-            val attachment = AttachmentEntity()
-            attachment.attId = id
-            attachment.content = bytes
-            session.insert(attachment)
-        }
+        // The import is in two phases. First the stream is copied to a temporary file in the store, being hashed and
+        // checked to be a valid JAR as it goes past. Only then is the ID of the attachment known, and the file can be
+        // moved to its name in the store, which doesn't copy it again.
+        val tempFile = Files.createTempFile(storePath, "import", ".tmp")
+        try {
+            val hs = HashingInputStream(Hashing.sha256(), jar)
+            val size = FileChannel.open(tempFile, WRITE).use { file ->
+                val stream = ImportingInputStream(hs, file)
+                checkIsAValidJAR(stream)
+                // The JAR entries may not extend to the end of the stream, but the whole of it is the attachment.
+                ByteStreams.exhaust(stream)
+                file.size()
+            }
+            val id = SecureHash.SHA256(hs.hash().asBytes())
+
+            val count = session.withTransaction {
+                session.count(AttachmentEntity::class)
+                        .where(AttachmentEntity.ATT_ID.eq(id))
+                        .get().value()
+            }
+
+            if (count > 0) {
+                throw FileAlreadyExistsException(id.toString())
+            }
+
+            // Should an identical attachment be imported concurrently, its file has the same content, so it doesn't
+            // matter which one ends up in the store.
+            tempFile.moveTo(attachmentPath(id), ATOMIC_MOVE)
+            session.withTransaction {
+                val attachment = AttachmentEntity()
+                attachment.attId = id
+                attachment.size = size
+                session.insert(attachment)
+            }
 
-        attachmentCount.inc()
+            attachmentCount.inc()
 
-        log.info("Stored new attachment $id")
+            log.info("Stored new attachment $id")
 
-        return id
+            return id
+        } finally {
+            tempFile.deleteIfExists()
+        }
     }
 
     private fun checkIsAValidJAR(stream: InputStream) {
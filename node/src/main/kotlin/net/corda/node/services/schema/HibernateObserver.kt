@@ -1,5 +1,6 @@
 package net.corda.node.services.schema
 
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.contracts.ContractState
 import net.corda.core.contracts.StateAndRef
 import net.corda.core.contracts.StateRef
@@ -15,39 +16,64 @@ import rx.Observable
 
 /**
  * A vault observer that extracts Object Relational Mappings for contract states that support it, and persists them with Hibernate.
+ *
+ * The states produced by an update are grouped by schema, and those of each schema are persisted in a single session,
+ * flushed every [HibernateConfiguration.JDBC_BATCH_SIZE] states so that their inserts go out as JDBC batches.
  */
 // TODO: Manage version evolution of the schemas via additional tooling.
-class HibernateObserver(vaultUpdates: Observable<Vault.Update>, val config: HibernateConfiguration) {
+class HibernateObserver(vaultUpdates: Observable<Vault.Update>, val config: HibernateConfiguration, metrics: MetricRegistry = MetricRegistry()) {
 
     companion object {
         val logger = loggerFor<HibernateObserver>()
     }
 
+    private val persistDuration = metrics.timer("MappedSchemas.PersistDuration")
+    private val persistBatchSize = metrics.histogram("MappedSchemas.PersistBatchSize")
+
     init {
         vaultUpdates.subscribe { persist(it.produced) }
     }
 
     private fun persist(produced: Set<StateAndRef<ContractState>>) {
-        produced.forEach { persistState(it) }
+        val statesBySchema = LinkedHashMap<MappedSchema, MutableList<StateAndRef<ContractState>>>()
+        produced.forEach { stateAndRef ->
+            logger.debug { "Asked to persist state ${stateAndRef.ref}" }
+            config.schemaService.selectSchemas(stateAndRef.state.data).forEach {
+                statesBySchema.getOrPut(it) { ArrayList() } += stateAndRef
+            }
+        }
+        statesBySchema.forEach { (schema, states) -> persistStatesWithSchema(states, schema) }
+    }
+
+    fun persistStateWithSchema(state: ContractState, stateRef: StateRef, schema: MappedSchema) {
+        persistWithSchema(listOf(state to stateRef), schema)
     }
 
-    private fun persistState(stateAndRef: StateAndRef<ContractState>) {
-        val state = stateAndRef.state.data
-        logger.debug { "Asked to persist state ${stateAndRef.ref}" }
-        config.schemaService.selectSchemas(state).forEach { persistStateWithSchema(state, stateAndRef.ref, it) }
+    fun persistStatesWithSchema(states: List<StateAndRef<ContractState>>, schema: MappedSchema) {
+        persistWithSchema(states.map { it.state.data to it.ref }, schema)
     }
 
-    fun persistStateWithSchema(state: ContractState, stateRef: StateRef, schema: MappedSchema) {
+    private fun persistWithSchema(states: List<Pair<ContractState, StateRef>>, schema: MappedSchema) {
         val sessionFactory = config.sessionFactoryForSchema(schema)
         val session = sessionFactory.withOptions().
                 connection(TransactionManager.current().connection).
                 flushMode(FlushMode.MANUAL).
                 openSession()
-        session.use {
-            val mappedObject = config.schemaService.generateMappedObject(state, schema)
-            mappedObject.stateRef = PersistentStateRef(stateRef)
-            it.persist(mappedObject)
-            it.flush()
+        persistDuration.time().use { _ ->
+            session.use {
+                states.forEachIndexed { i, (state, stateRef) ->
+                    val mappedObject = config.schemaService.generateMappedObject(state, schema)
+                    mappedObject.stateRef = PersistentStateRef(stateRef)
+                    it.persist(mappedObject)
+                    // Flushing a full batch at a time sends it to the database while keeping the session small.
+                    if ((i + 1) % HibernateConfiguration.JDBC_BATCH_SIZE == 0) {
+                        it.flush()
+                        it.clear()
+                    }
+                }
+                it.flush()
+            }
         }
+        persistBatchSize.update(states.size)
     }
 }
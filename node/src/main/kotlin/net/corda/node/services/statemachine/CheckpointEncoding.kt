@@ -0,0 +1,64 @@
+package net.corda.node.services.statemachine
+
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.utilities.ByteSequence
+import net.corda.core.utilities.OpaqueBytes
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * How serialised fibers are encoded, for example compressed, before being stored as checkpoints. Encoded checkpoints
+ * start with the [magic] of their encoding, which is how [decode] knows what to do with them regardless of the encoding
+ * the node is currently configured with. So checkpoints written with another encoding, including unencoded checkpoints
+ * from before encodings were introduced, can still be restored.
+ *
+ * More encodings can be added as further entries, each with its own magic. None of them may start with the Kryo
+ * serialisation header.
+ */
+enum class CheckpointEncoding(val magic: OpaqueBytes?) {
+    /** The serialised fiber is stored as is. */
+    None(null),
+    /** Deflate compression at its fastest setting, which shrinks the largely repetitive Kryo output considerably. */
+    Deflate(OpaqueBytes("corda\u0000Z\u0001".toByteArray(Charsets.UTF_8))) {
+        override fun encodeBody(bytes: ByteSequence, output: OutputStream) {
+            val deflater = Deflater(Deflater.BEST_SPEED)
+            try {
+                DeflaterOutputStream(output, deflater).use { it.write(bytes.bytes, bytes.offset, bytes.size) }
+            } finally {
+                deflater.end()
+            }
+        }
+
+        override fun decodeBody(bytes: ByteSequence): ByteArray = InflaterInputStream(bytes.open()).use { it.readBytes() }
+    };
+
+    /** Writes the encoded form of [bytes], after the [magic]. By default they're written as they are. */
+    internal open fun encodeBody(bytes: ByteSequence, output: OutputStream) = output.write(bytes.bytes, bytes.offset, bytes.size)
+
+    /** Returns the serialised fiber from the body of a checkpoint, which follows the [magic]. */
+    internal open fun decodeBody(bytes: ByteSequence): ByteArray = bytes.bytes.copyOfRange(bytes.offset, bytes.offset + bytes.size)
+
+    fun <T : Any> encode(serialized: SerializedBytes<T>): SerializedBytes<T> {
+        if (magic == null) return serialized
+        val output = ByteArrayOutputStream(magic.size + serialized.size / 4)
+        output.write(magic.bytes)
+        encodeBody(serialized, output)
+        return SerializedBytes(output.toByteArray())
+    }
+
+    companion object {
+        /** Returns the serialised form of the checkpoint, whichever encoding it was written with. */
+        fun <T : Any> decode(encoded: SerializedBytes<T>): SerializedBytes<T> {
+            for (encoding in values()) {
+                val magic = encoding.magic ?: continue
+                if (encoded.size >= magic.size && encoded.take(magic.size) == magic) {
+                    return SerializedBytes(encoding.decodeBody(encoded.subSequence(magic.size, encoded.size - magic.size)))
+                }
+            }
+            return encoded
+        }
+    }
+}
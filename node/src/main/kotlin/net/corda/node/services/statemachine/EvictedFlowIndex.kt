@@ -0,0 +1,113 @@
+package net.corda.node.services.statemachine
+
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.StateMachineRunId
+import net.corda.node.utilities.NODE_DATABASE_PREFIX
+import net.corda.node.utilities.secureHash
+import net.corda.node.utilities.uuidString
+import org.jetbrains.exposed.sql.*
+import java.util.concurrent.ConcurrentHashMap
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * A suspended flow which has been dropped from memory, leaving only its checkpoint in the checkpoint storage.
+ *
+ * @property sessionIds Our IDs of the flow's open sessions, any of which can deliver a message that the flow needs.
+ * @property ledgerCommit The transaction the flow is waiting to be committed to the ledger, if any.
+ */
+internal data class EvictedFlow(val flowId: StateMachineRunId,
+                                val checkpointId: SecureHash,
+                                val sessionIds: List<Long>,
+                                val ledgerCommit: SecureHash?)
+
+/**
+ * Indexes the flows that the [StateMachineManager] has evicted from memory by the events which can wake them up, that
+ * is a message on one of their sessions or the commit of a transaction, so that the checkpoint of the flow to rehydrate
+ * can be found without deserialising anything. The index is also persisted, in the same transactions as the evictions,
+ * so that on restart evicted flows can be left as checkpoints rather than all being brought back into memory.
+ *
+ * All operations other than the lookups require a database transaction to be started.
+ */
+@ThreadSafe
+internal class EvictedFlowIndex {
+    // There is one row for each of the wake-up keys of an evicted flow, with exactly one of the key columns set.
+    private object Table : org.jetbrains.exposed.sql.Table("${NODE_DATABASE_PREFIX}evicted_flows") {
+        val checkpointId = secureHash("checkpoint_id").index()
+        val flowId = uuidString("flow_id")
+        val sessionId = long("session_id").nullable()
+        val txHash = secureHash("tx_hash").nullable()
+    }
+
+    private val byCheckpointId = ConcurrentHashMap<SecureHash, EvictedFlow>()
+    private val bySessionId = ConcurrentHashMap<Long, SecureHash>()
+    private val byTxHash = ConcurrentHashMap<SecureHash, Set<SecureHash>>()
+
+    init {
+        SchemaUtils.create(Table)
+    }
+
+    val size: Int get() = byCheckpointId.size
+
+    /** Reads the flows evicted before the last shutdown into the index and returns them keyed by checkpoint ID. */
+    fun load(): Map<SecureHash, EvictedFlow> {
+        val flows = Table.selectAll()
+                .groupBy { it[Table.checkpointId] }
+                .mapValues { (checkpointId, rows) ->
+                    EvictedFlow(
+                            StateMachineRunId(rows[0][Table.flowId]),
+                            checkpointId,
+                            rows.mapNotNull { it[Table.sessionId] },
+                            rows.mapNotNull { it[Table.txHash] }.firstOrNull())
+                }
+        flows.values.forEach { index(it) }
+        return flows
+    }
+
+    fun add(flow: EvictedFlow) {
+        index(flow)
+        flow.sessionIds.forEach { id ->
+            Table.insert {
+                it[checkpointId] = flow.checkpointId
+                it[flowId] = flow.flowId.uuid
+                it[sessionId] = id
+            }
+        }
+        if (flow.ledgerCommit != null) {
+            Table.insert {
+                it[checkpointId] = flow.checkpointId
+                it[flowId] = flow.flowId.uuid
+                it[txHash] = flow.ledgerCommit
+            }
+        }
+    }
+
+    /**
+     * Removes the flow with the given checkpoint from the index. Only one caller will get the flow back for a given
+     * checkpoint, which is what stops a flow being rehydrated twice.
+     */
+    fun remove(checkpointId: SecureHash): EvictedFlow? {
+        val flow = byCheckpointId.remove(checkpointId) ?: return null
+        flow.sessionIds.forEach { bySessionId.remove(it, checkpointId) }
+        if (flow.ledgerCommit != null) {
+            byTxHash.computeIfPresent(flow.ledgerCommit) { _, checkpointIds ->
+                (checkpointIds - checkpointId).takeIf { it.isNotEmpty() }
+            }
+        }
+        Table.deleteWhere { Table.checkpointId eq checkpointId }
+        return flow
+    }
+
+    fun forSession(sessionId: Long): EvictedFlow? = bySessionId[sessionId]?.let { byCheckpointId[it] }
+
+    fun waitingOnLedgerCommit(hash: SecureHash): List<EvictedFlow> {
+        return byTxHash[hash]?.mapNotNull { byCheckpointId[it] } ?: emptyList()
+    }
+
+    private fun index(flow: EvictedFlow) {
+        byCheckpointId[flow.checkpointId] = flow
+        flow.sessionIds.forEach { bySessionId[it] = flow.checkpointId }
+        if (flow.ledgerCommit != null) {
+            byTxHash.compute(flow.ledgerCommit) { _, checkpointIds -> (checkpointIds ?: emptySet()) + flow.checkpointId }
+        }
+    }
+}
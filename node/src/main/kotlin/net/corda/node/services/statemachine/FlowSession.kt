@@ -2,6 +2,7 @@ package net.corda.node.services.statemachine
 
 import net.corda.core.identity.Party
 import net.corda.core.flows.FlowLogic
+import net.corda.core.serialization.amqp.SchemaCache
 import net.corda.node.services.statemachine.FlowSessionState.Initiated
 import net.corda.node.services.statemachine.FlowSessionState.Initiating
 import java.util.concurrent.ConcurrentLinkedQueue
@@ -20,6 +21,16 @@ class FlowSession(
     val receivedMessages = ConcurrentLinkedQueue<ReceivedSessionMessage<*>>()
     val fiber: FlowStateMachineImpl<*> get() = flow.stateMachine as FlowStateMachineImpl<*>
 
+    // The AMQP schemas sent to the peer, which later messages need only refer to. This isn't checkpointed, so a flow
+    // restored from its checkpoint sends them in full again, which the peer's PersistentSchemaCache takes in its stride.
+    @Transient private var _sentSchemas: SchemaCache? = null
+    val sentSchemas: SchemaCache get() = _sentSchemas ?: SchemaCache().also { _sentSchemas = it }
+
+    /** Forgets the schemas sent, so that they're sent in full again, after a message may not have reached the peer. */
+    fun resetSentSchemas() {
+        _sentSchemas = null
+    }
+
     override fun toString(): String {
         return "${javaClass.simpleName}(flow=$flow, ourSessionId=$ourSessionId, initiatingParty=$initiatingParty, state=$state)"
     }
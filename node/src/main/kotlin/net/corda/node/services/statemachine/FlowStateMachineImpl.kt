@@ -9,6 +9,7 @@ import com.google.common.util.concurrent.SettableFuture
 import net.corda.core.abbreviate
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.random63BitValue
+import net.corda.core.getOrThrow
 import net.corda.core.flows.*
 import net.corda.core.identity.Party
 import net.corda.core.internal.FlowStateMachine
@@ -68,6 +69,8 @@ class FlowStateMachineImpl<R>(override val id: StateMachineRunId,
     @Transient internal lateinit var actionOnEnd: (Try<R>, Boolean) -> Unit
     @Transient internal var fromCheckpoint: Boolean = false
     @Transient private var txTrampoline: DatabaseTransaction? = null
+    // The future the fiber is waiting for in waitForFuture, which is lost if the fiber is restored from its checkpoint.
+    @Transient internal var awaitedFuture: ListenableFuture<*>? = null
 
     /**
      * Return the logger for this state machine. The logger name incorporates [id] and so including it in the log message
@@ -80,6 +83,15 @@ class FlowStateMachineImpl<R>(override val id: StateMachineRunId,
     override val resultFuture: ListenableFuture<R>
         get() = _resultFuture ?: SettableFuture.create<R>().also { _resultFuture = it }
 
+    /**
+     * Completes [future], which was handed out by the instance of this flow that was evicted from memory, instead of
+     * this instance's own future.
+     */
+    internal fun adoptResultFuture(future: ListenableFuture<*>) {
+        @Suppress("UNCHECKED_CAST")
+        _resultFuture = future as SettableFuture<R>
+    }
+
     // This state IS serialised, as we need it to know what the fiber is waiting for.
     internal val openSessions = HashMap<Pair<FlowLogic<*>, Party>, FlowSession>()
     internal var waitingForResponse: WaitingRequest? = null
@@ -216,6 +228,27 @@ class FlowStateMachineImpl<R>(override val id: StateMachineRunId,
         throw IllegalStateException("We were resumed after waiting for $hash but it wasn't found in our local storage")
     }
 
+    @Suspendable
+    override fun <V> waitForFuture(request: () -> ListenableFuture<V>): V {
+        while (true) {
+            // There's no need to checkpoint if the future has already completed, as it will have if signing is done on
+            // the calling thread, for example.
+            if (!requestFuture(request)) suspend(WaitForFuture(this))
+            // If there's no future the fiber has been restored from the checkpoint, so the request is made again.
+            val future = awaitedFuture ?: continue
+            awaitedFuture = null
+            @Suppress("UNCHECKED_CAST")
+            return (future as ListenableFuture<V>).getOrThrow()
+        }
+    }
+
+    // The future is kept out of the fiber's stack, which is checkpointed, returning whether it has already completed.
+    private fun requestFuture(request: () -> ListenableFuture<*>): Boolean {
+        val future = request()
+        awaitedFuture = future
+        return future.isDone
+    }
+
     // TODO Dummy implementation of access to application specific permission controls and audit logging
     override fun checkFlowPermission(permissionName: String, extraAuditData: Map<String, String>) {
         val permissionGranted = true // TODO define permission control service on ServiceHubInternal and actually check authorization.
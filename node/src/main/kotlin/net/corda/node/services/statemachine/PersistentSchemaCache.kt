@@ -0,0 +1,136 @@
+package net.corda.node.services.statemachine
+
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.serialization.amqp.AmqpReader
+import net.corda.core.serialization.amqp.AmqpWriter
+import net.corda.core.serialization.amqp.Schema
+import net.corda.core.serialization.amqp.SchemaCache
+import net.corda.node.utilities.NODE_DATABASE_PREFIX
+import net.corda.node.utilities.bytesFromBlob
+import net.corda.node.utilities.bytesToBlob
+import org.bouncycastle.asn1.x500.X500Name
+import org.jetbrains.exposed.sql.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * The AMQP schemas received in session messages from each peer, which the schema references in later messages from
+ * that peer are resolved against, through the [SchemaCache] returned by [forPeer].
+ *
+ * A peer sends a schema in full only once per session, so the schemas are kept in the database rather than just in
+ * memory: a flow restored from its checkpoint after a restart, or a message redelivered after one, can still refer to a
+ * schema which arrived before the restart. Each schema is recorded in the transaction the message carrying it is
+ * processed in, so if that's rolled back the message is redelivered with the schema still in it.
+ *
+ * A schema's fingerprint is a hash of its types, so a schema is always the one its fingerprint names. The schemas are
+ * still kept apart by peer, and at most [maxSchemasPerPeer] are kept for each, so that no peer can use up the space or
+ * push out the schemas of others. Those a peer last sent in full longest ago are dropped first. A reference to one of
+ * those can then no longer be resolved, which takes a session to have gone on while its peer sent [maxSchemasPerPeer]
+ * others in full.
+ *
+ * The table is only created once a schema is first looked up or added, which only happens where AMQP serialisation is
+ * enabled. Schemas are only added by the message delivery thread. All operations other than construction and [forPeer]
+ * require a database transaction to be started.
+ */
+@ThreadSafe
+class PersistentSchemaCache(private val maxSchemasPerPeer: Int = DEFAULT_MAX_SCHEMAS_PER_PEER) {
+    companion object {
+        const val DEFAULT_MAX_SCHEMAS_PER_PEER = 1000
+    }
+
+    private object Table : org.jetbrains.exposed.sql.Table("${NODE_DATABASE_PREFIX}received_amqp_schemas") {
+        val peer = varchar("peer", length = 255).index()
+        val fingerprint = varchar("fingerprint", length = 64)
+        // When the schema was last received in full, relative to the others, so that the oldest can be dropped.
+        val seqNo = long("seq_no")
+        val schema = blob("schema")
+    }
+
+    private val peers = ConcurrentHashMap<X500Name, PeerSchemas>()
+    private val nextSeqNo = AtomicLong()
+    @Volatile private var tableCreated = false
+
+    init {
+        require(maxSchemasPerPeer > 0) { "The number of schemas kept per peer must be positive" }
+    }
+
+    /** The schemas received from [peer]. */
+    fun forPeer(peer: X500Name): SchemaCache = peers.computeIfAbsent(peer) { PeerSchemas(it.toString()) }
+
+    private fun createTableIfNecessary() {
+        if (tableCreated) return
+        synchronized(this) {
+            if (tableCreated) return
+            SchemaUtils.create(Table)
+            val lastSeqNo = Table.slice(Table.seqNo).selectAll().orderBy(Table.seqNo, isAsc = false).limit(1).firstOrNull()?.get(Table.seqNo)
+            nextSeqNo.set(if (lastSeqNo != null) lastSeqNo + 1 else 0)
+            tableCreated = true
+        }
+    }
+
+    private inner class PeerSchemas(private val peer: String) : SchemaCache() {
+        // Those read from the database or added since the node started, the least recently used dropped first.
+        private val schemas = object : LinkedHashMap<String, Schema>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Schema>?): Boolean = size > maxSchemasPerPeer
+        }
+
+        override val size: Int get() = synchronized(schemas) { schemas.size }
+
+        override fun get(fingerprint: String): Schema? {
+            synchronized(schemas) { schemas[fingerprint] }?.let { return it }
+            createTableIfNecessary()
+            return Table.select { (Table.peer eq peer) and (Table.fingerprint eq fingerprint) }
+                    .map { decode(bytesFromBlob(it[Table.schema])) }
+                    .firstOrNull()
+                    ?.also { synchronized(schemas) { schemas[fingerprint] = it } }
+        }
+
+        override fun add(schema: Schema): Boolean {
+            createTableIfNecessary()
+            val fingerprint = schema.fingerprint
+            val seqNo = nextSeqNo.getAndIncrement()
+            synchronized(schemas) { schemas[fingerprint] = schema }
+            // It may be in memory from a transaction which was rolled back, so the database has the final say. Having
+            // been received in full again, it's the last to be dropped.
+            val updated = Table.update({ (Table.peer eq peer) and (Table.fingerprint eq fingerprint) }) {
+                it[Table.seqNo] = seqNo
+            }
+            if (updated > 0) return false
+            val finalizables = mutableListOf<() -> Unit>()
+            try {
+                Table.insert {
+                    it[Table.peer] = peer
+                    it[Table.fingerprint] = fingerprint
+                    it[Table.seqNo] = seqNo
+                    it[Table.schema] = bytesToBlob(encode(schema), finalizables)
+                }
+            } finally {
+                finalizables.forEach { it() }
+            }
+            dropOldest()
+            return true
+        }
+
+        private fun dropOldest() {
+            val excess = Table.select { Table.peer eq peer }.count() - maxSchemasPerPeer
+            if (excess <= 0) return
+            val dropped = Table.slice(Table.fingerprint, Table.seqNo)
+                    .select { Table.peer eq peer }
+                    .orderBy(Table.seqNo)
+                    .limit(excess)
+                    .map { it[Table.fingerprint] to it[Table.seqNo] }
+            Table.deleteWhere { (Table.peer eq peer) and (Table.seqNo lessEq dropped.last().second) }
+            synchronized(schemas) { dropped.forEach { schemas.remove(it.first) } }
+        }
+    }
+
+    private fun encode(schema: Schema): SerializedBytes<Schema> {
+        val writer = AmqpWriter()
+        writer.putObject(schema)
+        return SerializedBytes(writer.toByteArray())
+    }
+
+    private fun decode(bytes: SerializedBytes<Schema>): Schema = Schema.get(AmqpReader(bytes.bytes).readObject()!!)
+}
@@ -5,7 +5,6 @@ import co.paralleluniverse.fibers.FiberExecutorScheduler
 import co.paralleluniverse.strands.Strand
 import com.codahale.metrics.Gauge
 import com.esotericsoftware.kryo.KryoException
-import com.google.common.collect.HashMultimap
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
 import net.corda.core.internal.ThreadBox
@@ -20,6 +19,7 @@ import net.corda.core.identity.Party
 import net.corda.core.messaging.DataFeed
 import net.corda.core.serialization.*
 import net.corda.core.serialization.SerializationDefaults.CHECKPOINT_CONTEXT
+import net.corda.core.serialization.SerializationDefaults.P2P_CONTEXT
 import net.corda.core.serialization.SerializationDefaults.SERIALIZATION_FACTORY
 import net.corda.core.then
 import net.corda.core.utilities.Try
@@ -40,9 +40,11 @@ import org.apache.activemq.artemis.utils.ReusableLatch
 import org.slf4j.Logger
 import rx.Observable
 import rx.subjects.PublishSubject
+import java.time.Duration
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.NANOSECONDS
 import java.util.concurrent.TimeUnit.SECONDS
 import javax.annotation.concurrent.ThreadSafe
 import kotlin.collections.ArrayList
@@ -59,7 +61,14 @@ import kotlin.collections.ArrayList
  * a bytecode rewriting engine called Quasar, to ensure the code can be suspended and resumed at any point.
  *
  * The SMM will always invoke the flow fibers on the given [AffinityExecutor], regardless of which thread actually
- * starts them via [add].
+ * starts them via [add]. Alternatively the flows can be partitioned across several single threaded flow shards, each
+ * with its own executor. A flow is pinned to one shard for its whole life, and everything the SMM does to that flow and
+ * its sessions happens on that shard's thread, so individual flows still never run concurrently with themselves.
+ *
+ * If the node is configured with a flowEvictionIdleSeconds then flows which have been suspended, waiting for a session
+ * message or a ledger commit, for longer than that are evicted from memory and only their checkpoint is kept. They are
+ * rehydrated from the [CheckpointStorage] when the message or commit arrives, found through an [EvictedFlowIndex].
+ * Evicted flows are not returned by [allStateMachines] or [track] until then.
  *
  * TODO: Consider the issue of continuation identity more deeply: is it a safe assumption that a serialised
  *       continuation is always unique?
@@ -67,16 +76,19 @@ import kotlin.collections.ArrayList
  * TODO: Timeouts
  * TODO: Surfacing of exceptions via an API and/or management UI
  * TODO: Ability to control checkpointing explicitly, for cases where you know replaying a message can't hurt
- * TODO: Don't store all active flows in memory, load from the database on demand.
  */
 @ThreadSafe
 class StateMachineManager(val serviceHub: ServiceHubInternal,
                           val checkpointStorage: CheckpointStorage,
                           val executor: AffinityExecutor,
                           val database: CordaPersistence,
-                          private val unfinishedFibers: ReusableLatch = ReusableLatch()) {
+                          private val unfinishedFibers: ReusableLatch = ReusableLatch(),
+                          flowShardExecutors: List<AffinityExecutor> = listOf(executor)) {
 
-    inner class FiberScheduler : FiberExecutorScheduler("Same thread scheduler", executor)
+    /** A partition of the flows, all of which are only ever run on its single threaded [executor]. */
+    private class FlowShard(val executor: AffinityExecutor) {
+        val scheduler = FiberExecutorScheduler("Same thread scheduler", executor)
+    }
 
     companion object {
         private val logger = loggerFor<StateMachineManager>()
@@ -96,21 +108,31 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
         data class Removed(override val logic: FlowLogic<*>, val result: Try<*>) : Change()
     }
 
-    // A list of all the state machines being managed by this class. We expose snapshots of it via the stateMachines
-    // property.
     private class InnerState {
         var started = false
-        val stateMachines = LinkedHashMap<FlowStateMachineImpl<*>, Checkpoint>()
         val changesPublisher = PublishSubject.create<Change>()!!
-        val fibersWaitingForLedgerCommit = HashMultimap.create<SecureHash, FlowStateMachineImpl<*>>()!!
 
         fun notifyChangeObservers(change: Change) {
             changesPublisher.bufferUntilDatabaseCommit().onNext(change)
         }
     }
 
-    private val scheduler = FiberScheduler()
+    private val shards = flowShardExecutors.map(::FlowShard)
     private val mutex = ThreadBox(InnerState())
+    // All the state machines being managed by this class, and those waiting for a transaction to be committed. These
+    // are updated from every flow shard, so are kept in concurrent maps rather than behind the mutex.
+    private val stateMachines = ConcurrentHashMap<FlowStateMachineImpl<*>, Checkpoint>()
+    private val fibersWaitingForLedgerCommit = ConcurrentHashMap<SecureHash, Set<FlowStateMachineImpl<*>>>()
+    // Flows which have been evicted from memory while suspended, and the result futures handed out for them.
+    private val evictedFlows = EvictedFlowIndex()
+    private val evictedResultFutures = ConcurrentHashMap<StateMachineRunId, ListenableFuture<*>>()
+    // When each of the fibers waiting for a response was suspended, only tracked if eviction is enabled.
+    private val evictionIdleTime = serviceHub.configuration.flowEvictionIdleSeconds.let {
+        if (it > 0) Duration.ofSeconds(it.toLong()) else null
+    }
+    private val suspendedSince = ConcurrentHashMap<FlowStateMachineImpl<*>, Long>()
+    private val evictionTimer = evictionIdleTime?.let { Executors.newSingleThreadScheduledExecutor() }
+    private val checkpointEncoding = serviceHub.configuration.checkpointEncoding
     // This thread (only enabled in dev mode) deserialises checkpoints in the background to shake out bugs in checkpoint restore.
     private val checkpointCheckerThread = if (serviceHub.configuration.devMode) Executors.newSingleThreadExecutor() else null
 
@@ -125,15 +147,21 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     private val metrics = serviceHub.monitoringService.metrics
 
     init {
-        metrics.register("Flows.InFlight", Gauge<Int> { mutex.content.stateMachines.size })
+        require(shards.isNotEmpty()) { "At least one flow shard executor is required" }
+        metrics.register("Flows.InFlight", Gauge<Int> { stateMachines.size + evictedFlows.size })
+        metrics.register("Flows.Evicted", Gauge<Int> { evictedFlows.size })
     }
 
     private val checkpointingMeter = metrics.meter("Flows.Checkpointing Rate")
+    private val evictionMeter = metrics.meter("Flows.Eviction Rate")
+    private val rehydrationMeter = metrics.meter("Flows.Rehydration Rate")
     private val totalStartedFlows = metrics.counter("Flows.Started")
     private val totalFinishedFlows = metrics.counter("Flows.Finished")
 
     private val openSessions = ConcurrentHashMap<Long, FlowSession>()
     private val recentlyClosedSessions = ConcurrentHashMap<Long, Party>()
+    // The schemas received from each peer, shared by its sessions since a schema is the same whichever one it arrives over.
+    private val receivedSchemas = PersistentSchemaCache()
 
     internal val tokenizableServices = ArrayList<Any>()
     // Context for tokenized services in checkpoints
@@ -144,16 +172,14 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     /** Returns a list of all state machines executing the given flow logic at the top level (subflows do not count) */
     fun <P : FlowLogic<T>, T> findStateMachines(flowClass: Class<P>): List<Pair<P, ListenableFuture<T>>> {
         @Suppress("UNCHECKED_CAST")
-        return mutex.locked {
-            stateMachines.keys
-                    .map { it.logic }
-                    .filterIsInstance(flowClass)
-                    .map { it to (it.stateMachine as FlowStateMachineImpl<T>).resultFuture }
-        }
+        return stateMachines.keys
+                .map { it.logic }
+                .filterIsInstance(flowClass)
+                .map { it to (it.stateMachine as FlowStateMachineImpl<T>).resultFuture }
     }
 
     val allStateMachines: List<FlowLogic<*>>
-        get() = mutex.locked { stateMachines.keys.map { it.logic } }
+        get() = stateMachines.keys.map { it.logic }
 
     /**
      * An observable that emits triples of the changing flow, the type of change, and a process-specific ID number
@@ -167,25 +193,69 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
         restoreFibersFromCheckpoints()
         listenToLedgerTransactions()
         serviceHub.networkMapCache.mapServiceRegistered.then { executor.execute(this::resumeRestoredFibers) }
+        if (evictionTimer != null && evictionIdleTime != null) {
+            val period = evictionIdleTime.seconds
+            evictionTimer.scheduleWithFixedDelay({
+                try {
+                    evictIdleFlows(evictionIdleTime)
+                } catch (e: Exception) {
+                    logger.error("Unable to evict idle flows", e)
+                }
+            }, period, period, SECONDS)
+        }
     }
 
     private fun listenToLedgerTransactions() {
         // Observe the stream of committed, validated transactions and resume fibers that are waiting for them.
         serviceHub.validatedTransactions.updates.subscribe { stx ->
             val hash = stx.id
-            val fibers: Set<FlowStateMachineImpl<*>> = mutex.locked { fibersWaitingForLedgerCommit.removeAll(hash) }
-            if (fibers.isNotEmpty()) {
-                executor.executeASAP {
-                    for (fiber in fibers) {
-                        fiber.logger.trace { "Transaction $hash has committed to the ledger, resuming" }
-                        fiber.waitingForResponse = null
-                        resumeFiber(fiber)
-                    }
+            fibersWaitingForLedgerCommit.remove(hash)?.forEach { fiber ->
+                fiber.shard.executor.executeASAP {
+                    fiber.logger.trace { "Transaction $hash has committed to the ledger, resuming" }
+                    fiber.waitingForResponse = null
+                    resumeFiber(fiber)
+                }
+            }
+            // This must come after the in-memory waiters, see evictIfIdle.
+            evictedFlows.waitingOnLedgerCommit(hash).forEach { evicted ->
+                shardFor(evicted.flowId).executor.executeASAP {
+                    val fiber = database.transaction { rehydrate(evicted.checkpointId) } ?: return@executeASAP
+                    fiber.logger.trace { "Transaction $hash has committed to the ledger, resuming" }
+                    fiber.waitingForResponse = null
+                    resumeFiber(fiber)
                 }
             }
         }
     }
 
+    /**
+     * Resumes the fiber once the given transaction has been committed to the ledger. The fiber is registered as a
+     * waiter before the database is checked, so a transaction committed concurrently by a flow on another shard will
+     * either be seen here or will resume the fiber from the [listenToLedgerTransactions] observer, but not both.
+     */
+    private fun resumeOnLedgerCommit(hash: SecureHash, fiber: FlowStateMachineImpl<*>) {
+        fibersWaitingForLedgerCommit.compute(hash) { _, fibers -> (fibers ?: emptySet()) + fiber }
+        val stx = database.transaction {
+            serviceHub.validatedTransactions.getTransaction(hash)
+        }
+        if (stx == null) {
+            fiber.logger.trace { "Pending on ledger commit of $hash" }
+        } else if (removeLedgerCommitWaiter(hash, fiber)) {
+            fiber.logger.trace { "Transaction $hash has already committed, resuming" }
+            fiber.waitingForResponse = null
+            resumeFiber(fiber)
+        }
+    }
+
+    private fun removeLedgerCommitWaiter(hash: SecureHash, fiber: FlowStateMachineImpl<*>): Boolean {
+        var removed = false
+        fibersWaitingForLedgerCommit.computeIfPresent(hash) { _, fibers ->
+            removed = fiber in fibers
+            (fibers - fiber).takeIf { it.isNotEmpty() }
+        }
+        return removed
+    }
+
     private fun decrementLiveFibers() {
         liveFibers.countDown()
     }
@@ -206,6 +276,7 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
             if (stopping) throw IllegalStateException("Already stopping!")
             stopping = true
         }
+        evictionTimer?.let { MoreExecutors.shutdownAndAwaitTermination(it, 5, SECONDS) }
         // Account for any expected Fibers in a test scenario.
         liveFibers.countDown(allowedUnsuspendedFiberCount)
         liveFibers.await()
@@ -225,9 +296,14 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
 
     private fun restoreFibersFromCheckpoints() {
         mutex.locked {
+            val evicted = loadEvictedFlows()
             checkpointStorage.forEach { checkpoint ->
-                // If a flow is added before start() then don't attempt to restore it
-                if (!stateMachines.containsValue(checkpoint)) {
+                if (evicted.remove(checkpoint.id) != null) {
+                    // Left as a checkpoint until something arrives for it.
+                    totalStartedFlows.inc()
+                    unfinishedFibers.countUp()
+                } else if (!stateMachines.containsValue(checkpoint)) {
+                    // If a flow is added before start() then don't attempt to restore it
                     deserializeFiber(checkpoint, logger)?.let {
                         initFiber(it)
                         stateMachines[it] = checkpoint
@@ -235,9 +311,28 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
                 }
                 true
             }
+            evicted.keys.forEach {
+                logger.warn("Checkpoint $it of an evicted flow no longer exists")
+                evictedFlows.remove(it)
+            }
         }
     }
 
+    /**
+     * Returns the flows which were evicted before the node last stopped. Those waiting for a transaction which has since
+     * been committed are left out, to be restored in the normal way, as the commit notification has already been missed.
+     */
+    private fun loadEvictedFlows(): MutableMap<SecureHash, EvictedFlow> {
+        val evicted = evictedFlows.load().toMutableMap()
+        evicted.values.removeIf { flow ->
+            val committed = flow.ledgerCommit?.let { serviceHub.validatedTransactions.getTransaction(it) } != null
+            if (committed) evictedFlows.remove(flow.checkpointId)
+            committed
+        }
+        logger.info("${evicted.size} evicted flows will be restored on demand")
+        return evicted
+    }
+
     private fun resumeRestoredFibers() {
         mutex.locked {
             started = true
@@ -253,18 +348,10 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
         fiber.openSessions.values.forEach { openSessions[it.ourSessionId] = it }
         val waitingForResponse = fiber.waitingForResponse
         if (waitingForResponse != null) {
+            if (evictionIdleTime != null) suspendedSince[fiber] = System.nanoTime()
             if (waitingForResponse is WaitForLedgerCommit) {
-                val stx = database.transaction {
-                    serviceHub.validatedTransactions.getTransaction(waitingForResponse.hash)
-                }
-                if (stx != null) {
-                    fiber.logger.info("Resuming fiber as tx ${waitingForResponse.hash} has committed")
-                    fiber.waitingForResponse = null
-                    resumeFiber(fiber)
-                } else {
-                    fiber.logger.info("Restored, pending on ledger commit of ${waitingForResponse.hash}")
-                    mutex.locked { fibersWaitingForLedgerCommit.put(waitingForResponse.hash, fiber) }
-                }
+                fiber.logger.info("Restored, waiting for ledger commit of ${waitingForResponse.hash}")
+                resumeOnLedgerCommit(waitingForResponse.hash, fiber)
             } else {
                 fiber.logger.info("Restored, pending on receive")
             }
@@ -274,11 +361,11 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     }
 
     private fun onSessionMessage(message: ReceivedMessage) {
-        val sessionMessage = message.data.deserialize<SessionMessage>()
+        val sessionMessage = message.data.deserialize<SessionMessage>(context = P2P_CONTEXT.withSchemaCache(receivedSchemas.forPeer(message.peer)))
         val sender = serviceHub.networkMapCache.getNodeByLegalName(message.peer)?.legalIdentity
         if (sender != null) {
             when (sessionMessage) {
-                is ExistingSessionMessage -> onExistingSessionMessage(sessionMessage, sender)
+                is ExistingSessionMessage -> onExistingSessionMessage(sessionMessage, message, sender)
                 is SessionInit -> onSessionInit(sessionMessage, message, sender)
             }
         } else {
@@ -286,43 +373,67 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
         }
     }
 
-    private fun onExistingSessionMessage(message: ExistingSessionMessage, sender: Party) {
-        val session = openSessions[message.recipientSessionId]
+    private fun onExistingSessionMessage(message: ExistingSessionMessage, receivedMessage: ReceivedMessage, sender: Party) {
+        val sessionId = message.recipientSessionId
+        // A flow's session is always either open or in the eviction index, so we'll find the flow's shard here even if
+        // the flow is evicted or rehydrated concurrently. Once on the shard thread that can no longer happen.
+        val shard = openSessions[sessionId]?.fiber?.shard ?: evictedFlows.forSession(sessionId)?.let { shardFor(it.flowId) }
+        when {
+            shard == null -> onUnknownSessionMessage(message, sender)
+            shard.executor.isOnThread -> onShardSessionMessage(message, sender)
+            // The message is handed to the shard rather than waited for, so that the delivering thread can go on to
+            // messages for flows on other shards. The shard processes it in a database transaction of its own, which
+            // also records the message as processed.
+            else -> serviceHub.networkService.processAsync(receivedMessage, shard.executor) { onShardSessionMessage(message, sender) }
+        }
+    }
+
+    /** This must be called on the shard thread of the session's flow, inside a database transaction. */
+    private fun onShardSessionMessage(message: ExistingSessionMessage, sender: Party) {
+        val session = openSessions[message.recipientSessionId] ?: rehydrateForSession(message.recipientSessionId)
         if (session != null) {
-            session.fiber.logger.trace { "Received $message on $session from $sender" }
-            if (session.retryable) {
-                if (message is SessionConfirm && session.state is FlowSessionState.Initiated) {
-                    session.fiber.logger.trace { "Ignoring duplicate confirmation for session ${session.ourSessionId} – session is idempotent" }
-                    return
-                }
-                if (message !is SessionConfirm) {
-                    serviceHub.networkService.cancelRedelivery(session.ourSessionId)
-                }
-            }
-            if (message is SessionEnd) {
-                openSessions.remove(message.recipientSessionId)
-            }
-            session.receivedMessages += ReceivedSessionMessage(sender, message)
-            if (resumeOnMessage(message, session)) {
-                // It's important that we reset here and not after the fiber's resumed, in case we receive another message
-                // before then.
-                session.fiber.waitingForResponse = null
-                updateCheckpoint(session.fiber)
-                session.fiber.logger.trace { "Resuming due to $message" }
-                resumeFiber(session.fiber)
-            }
+            onExistingSessionMessage(message, session, sender)
         } else {
-            val peerParty = recentlyClosedSessions.remove(message.recipientSessionId)
-            if (peerParty != null) {
-                if (message is SessionConfirm) {
-                    logger.trace { "Received session confirmation but associated fiber has already terminated, so sending session end" }
-                    sendSessionMessage(peerParty, NormalSessionEnd(message.initiatedSessionId))
-                } else {
-                    logger.trace { "Ignoring session end message for already closed session: $message" }
-                }
+            onUnknownSessionMessage(message, sender)
+        }
+    }
+
+    private fun onUnknownSessionMessage(message: ExistingSessionMessage, sender: Party) {
+        val peerParty = recentlyClosedSessions.remove(message.recipientSessionId)
+        if (peerParty != null) {
+            if (message is SessionConfirm) {
+                logger.trace { "Received session confirmation but associated fiber has already terminated, so sending session end" }
+                sendSessionMessage(peerParty, NormalSessionEnd(message.initiatedSessionId))
             } else {
-                logger.warn("Received a session message for unknown session: $message, from $sender")
+                logger.trace { "Ignoring session end message for already closed session: $message" }
+            }
+        } else {
+            logger.warn("Received a session message for unknown session: $message, from $sender")
+        }
+    }
+
+    private fun onExistingSessionMessage(message: ExistingSessionMessage, session: FlowSession, sender: Party) {
+        session.fiber.logger.trace { "Received $message on $session from $sender" }
+        if (session.retryable) {
+            if (message is SessionConfirm && session.state is FlowSessionState.Initiated) {
+                session.fiber.logger.trace { "Ignoring duplicate confirmation for session ${session.ourSessionId} – session is idempotent" }
+                return
             }
+            if (message !is SessionConfirm) {
+                serviceHub.networkService.cancelRedelivery(session.ourSessionId)
+            }
+        }
+        if (message is SessionEnd) {
+            openSessions.remove(message.recipientSessionId)
+        }
+        session.receivedMessages += ReceivedSessionMessage(sender, message)
+        if (resumeOnMessage(message, session)) {
+            // It's important that we reset here and not after the fiber's resumed, in case we receive another message
+            // before then.
+            session.fiber.waitingForResponse = null
+            updateCheckpoint(session.fiber)
+            session.fiber.logger.trace { "Resuming due to $message" }
+            resumeFiber(session.fiber)
         }
     }
 
@@ -375,12 +486,19 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     }
 
     private fun serializeFiber(fiber: FlowStateMachineImpl<*>): SerializedBytes<FlowStateMachineImpl<*>> {
-        return fiber.serialize(context = CHECKPOINT_CONTEXT.withTokenContext(serializationContext))
+        val startTime = System.nanoTime()
+        val serialized = checkpointEncoding.encode(fiber.serialize(context = CHECKPOINT_CONTEXT.withTokenContext(serializationContext)))
+        // Broken down by flow so that it's possible to tell which flows are responsible for large checkpoints.
+        val flowClass = fiber.logic.javaClass.name
+        metrics.timer("Checkpoint.SerialisationTime.$flowClass").update(System.nanoTime() - startTime, NANOSECONDS)
+        metrics.histogram("Checkpoint.Size.$flowClass").update(serialized.size)
+        return serialized
     }
 
     private fun deserializeFiber(checkpoint: Checkpoint, logger: Logger): FlowStateMachineImpl<*>? {
         return try {
-            checkpoint.serializedFiber.deserialize<FlowStateMachineImpl<*>>(context = CHECKPOINT_CONTEXT.withTokenContext(serializationContext)).apply { fromCheckpoint = true }
+            val serializedFiber = CheckpointEncoding.decode(checkpoint.serializedFiber)
+            serializedFiber.deserialize<FlowStateMachineImpl<*>>(context = CHECKPOINT_CONTEXT.withTokenContext(serializationContext)).apply { fromCheckpoint = true }
         } catch (t: Throwable) {
             logger.error("Encountered unrestorable checkpoint!", t)
             null
@@ -389,10 +507,23 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
 
     private fun <T> createFiber(logic: FlowLogic<T>, flowInitiator: FlowInitiator): FlowStateMachineImpl<T> {
         val id = StateMachineRunId.createRandom()
-        return FlowStateMachineImpl(id, logic, scheduler, flowInitiator).apply { initFiber(this) }
+        return FlowStateMachineImpl(id, logic, shardFor(id).scheduler, flowInitiator).apply { initFiber(this) }
     }
 
+    private fun shardFor(id: StateMachineRunId): FlowShard = shards[Math.floorMod(id.uuid.hashCode(), shards.size)]
+
+    private val FlowStateMachineImpl<*>.shard: FlowShard get() = shardFor(id)
+
     private fun initFiber(fiber: FlowStateMachineImpl<*>) {
+        prepareFiber(fiber)
+        mutex.locked {
+            totalStartedFlows.inc()
+            unfinishedFibers.countUp()
+            notifyChangeObservers(Change.Add(fiber.logic))
+        }
+    }
+
+    private fun prepareFiber(fiber: FlowStateMachineImpl<*>) {
         fiber.database = database
         fiber.serviceHub = serviceHub
         fiber.actionOnSuspend = { ioRequest ->
@@ -400,11 +531,13 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
             // We commit on the fibers transaction that was copied across ThreadLocals during suspend
             // This will free up the ThreadLocal so on return the caller can carry on with other transactions
             fiber.commitTransaction()
-            processIORequest(ioRequest)
+            if (evictionIdleTime != null && ioRequest is WaitingRequest) suspendedSince[fiber] = System.nanoTime()
+            processIORequest(fiber, ioRequest)
             decrementLiveFibers()
         }
         fiber.actionOnEnd = { result, propagated ->
             try {
+                suspendedSince.remove(fiber)
                 mutex.locked {
                     stateMachines.remove(fiber)?.let { checkpointStorage.removeCheckpoint(it) }
                     notifyChangeObservers(Change.Removed(fiber.logic, result))
@@ -417,13 +550,93 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
                 unfinishedFibers.countDown()
             }
         }
-        mutex.locked {
-            totalStartedFlows.inc()
-            unfinishedFibers.countUp()
-            notifyChangeObservers(Change.Add(fiber.logic))
+    }
+
+    /**
+     * Evicts the flows which have been waiting for a session message or a ledger commit for at least [idleFor],
+     * returning how many were evicted.
+     */
+    internal fun evictIdleFlows(idleFor: Duration): Int {
+        val cutoff = System.nanoTime() - idleFor.toNanos()
+        return suspendedSince.entries
+                .filter { it.value - cutoff <= 0 }
+                .groupBy({ it.key.shard }, { it.key })
+                .entries
+                .sumBy { (shard, fibers) -> shard.executor.fetchFrom { fibers.count { evictIfIdle(it, cutoff) } } }
+    }
+
+    /**
+     * Drops the fiber, which must still be suspended since before [cutoff], from memory. Everything that could resume
+     * the fiber happens on its shard thread, except for a ledger commit. The fiber is therefore added to the eviction
+     * index before it's removed as a ledger commit waiter, and the ledger commit observer checks the waiters before the
+     * index, so it will always find the fiber in one of the two. If it finds it in both then the eviction is abandoned
+     * and the rehydration from the index is a no-op.
+     */
+    private fun evictIfIdle(fiber: FlowStateMachineImpl<*>, cutoff: Long): Boolean {
+        fiber.shard.executor.checkOnThread()
+        val since = suspendedSince[fiber] ?: return false
+        val waitingForResponse = fiber.waitingForResponse
+        val checkpoint = stateMachines[fiber]
+        if (since - cutoff > 0 || waitingForResponse == null || checkpoint == null) return false
+        val sessions = fiber.openSessions.values.filter { openSessions[it.ourSessionId] === it }
+        // Messages which have been received but not yet consumed are only held in memory.
+        if (sessions.any { it.receivedMessages.isNotEmpty() }) return false
+        val ledgerCommit = (waitingForResponse as? WaitForLedgerCommit)?.hash
+        // Nothing would ever wake the flow up again.
+        if (sessions.isEmpty() && ledgerCommit == null) return false
+        val evicted = EvictedFlow(fiber.id, checkpoint.id, sessions.map { it.ourSessionId }, ledgerCommit)
+        return database.transaction {
+            evictedFlows.add(evicted)
+            if (ledgerCommit != null && !removeLedgerCommitWaiter(ledgerCommit, fiber)) {
+                // The transaction has just been committed and the fiber is about to be resumed.
+                evictedFlows.remove(checkpoint.id)
+                false
+            } else {
+                suspendedSince.remove(fiber)
+                stateMachines.remove(fiber)
+                sessions.forEach { openSessions.remove(it.ourSessionId) }
+                evictedResultFutures[fiber.id] = fiber.resultFuture
+                evictionMeter.mark()
+                fiber.logger.debug { "Evicted from memory while waiting for $waitingForResponse" }
+                true
+            }
         }
     }
 
+    /**
+     * Brings an evicted flow back into memory from its checkpoint, returning null if it has already been rehydrated.
+     * This must be called on the flow's shard thread, inside a database transaction.
+     */
+    private fun rehydrate(checkpointId: SecureHash): FlowStateMachineImpl<*>? {
+        val evicted = evictedFlows.remove(checkpointId) ?: return null
+        shardFor(evicted.flowId).executor.checkOnThread()
+        val checkpoint = checkpointStorage.getCheckpoint(checkpointId)
+        if (checkpoint == null) {
+            logger.error("Checkpoint $checkpointId of evicted flow ${evicted.flowId} no longer exists")
+            return null
+        }
+        val fiber = deserializeFiber(checkpoint, logger) ?: return null
+        prepareFiber(fiber)
+        evictedResultFutures.remove(fiber.id)?.let { fiber.adoptResultFuture(it) }
+        stateMachines[fiber] = checkpoint
+        fiber.openSessions.values
+                .filter { it.ourSessionId in evicted.sessionIds }
+                .forEach { openSessions[it.ourSessionId] = it }
+        // Still suspended, so it can be evicted again if what arrived doesn't resume it.
+        if (evictionIdleTime != null) suspendedSince[fiber] = System.nanoTime()
+        rehydrationMeter.mark()
+        fiber.logger.debug { "Rehydrated from checkpoint $checkpointId" }
+        return fiber
+    }
+
+    private fun rehydrateForSession(sessionId: Long): FlowSession? {
+        val evicted = evictedFlows.forSession(sessionId) ?: return null
+        val fiber = rehydrate(evicted.checkpointId) ?: return null
+        // It's no longer in the index for the ledger commit, so it has to wait for it in memory again.
+        (fiber.waitingForResponse as? WaitForLedgerCommit)?.let { resumeOnLedgerCommit(it.hash, fiber) }
+        return openSessions[sessionId]
+    }
+
     private fun endAllFiberSessions(fiber: FlowStateMachineImpl<*>, result: Try<*>, propagated: Boolean) {
         openSessions.values.removeIf { session ->
             if (session.fiber == fiber) {
@@ -449,7 +662,7 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
             }
             ErrorSessionEnd(initiatedState.peerSessionId, errorResponse)
         }
-        sendSessionMessage(initiatedState.peerParty, sessionEnd, fiber)
+        sendSessionMessage(initiatedState.peerParty, sessionEnd, fiber, session = this)
         recentlyClosedSessions[ourSessionId] = initiatedState.peerParty
     }
 
@@ -458,11 +671,10 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
      * The state machine will be persisted when it suspends, with automated restart if the StateMachineManager is
      * restarted with checkpointed state machines in the storage service.
      *
-     * Note that you must be on the [executor] thread.
+     * This may be called from any thread, the flow itself will be run on the executor of its shard.
      */
     fun <T> add(logic: FlowLogic<T>, flowInitiator: FlowInitiator): FlowStateMachineImpl<T> {
         // TODO: Check that logic has @Suspendable on its call method.
-        executor.checkOnThread()
         // We swap out the parent transaction context as using this frequently leads to a deadlock as we wait
         // on the flow completion future inside that context. The problem is that any progress checkpoints are
         // unable to acquire the table lock and move forward till the calling transaction finishes.
@@ -484,11 +696,12 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     private fun updateCheckpoint(fiber: FlowStateMachineImpl<*>) {
         check(fiber.state != Strand.State.RUNNING) { "Fiber cannot be running when checkpointing" }
         val newCheckpoint = Checkpoint(serializeFiber(fiber))
-        val previousCheckpoint = mutex.locked { stateMachines.put(fiber, newCheckpoint) }
+        val previousCheckpoint = stateMachines.put(fiber, newCheckpoint)
         if (previousCheckpoint != null) {
-            checkpointStorage.removeCheckpoint(previousCheckpoint)
+            checkpointStorage.replaceCheckpoint(previousCheckpoint, newCheckpoint)
+        } else {
+            checkpointStorage.addCheckpoint(newCheckpoint)
         }
-        checkpointStorage.addCheckpoint(newCheckpoint)
         checkpointingMeter.mark()
 
         checkpointCheckerThread?.execute {
@@ -501,11 +714,13 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
     }
 
     private fun resumeFiber(fiber: FlowStateMachineImpl<*>) {
+        suspendedSince.remove(fiber)
         // Avoid race condition when setting stopping to true and then checking liveFibers
         incrementLiveFibers()
         if (!stopping) {
-            executor.executeASAP {
-                fiber.resume(scheduler)
+            val shard = fiber.shard
+            shard.executor.executeASAP {
+                fiber.resume(shard.scheduler)
             }
         } else {
             fiber.logger.trace("Not resuming as SMM is stopping.")
@@ -513,11 +728,12 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
         }
     }
 
-    private fun processIORequest(ioRequest: FlowIORequest) {
-        executor.checkOnThread()
+    private fun processIORequest(fiber: FlowStateMachineImpl<*>, ioRequest: FlowIORequest) {
+        fiber.shard.executor.checkOnThread()
         when (ioRequest) {
             is SendRequest -> processSendRequest(ioRequest)
-            is WaitForLedgerCommit -> processWaitForCommitRequest(ioRequest)
+            is WaitForLedgerCommit -> resumeOnLedgerCommit(ioRequest.hash, ioRequest.fiber)
+            is WaitForFuture -> ioRequest.fiber.awaitedFuture!!.then { resumeFiber(ioRequest.fiber) }
         }
     }
 
@@ -528,53 +744,54 @@ class StateMachineManager(val serviceHub: ServiceHubInternal,
                 if (retryable) ourSessionId else null
             }
         } else null
-        sendSessionMessage(ioRequest.session.state.sendToParty, ioRequest.message, ioRequest.session.fiber, retryId)
+        sendSessionMessage(ioRequest.session.state.sendToParty, ioRequest.message, ioRequest.session.fiber, retryId, ioRequest.session)
         if (ioRequest !is ReceiveRequest<*>) {
             // We sent a message, but don't expect a response, so re-enter the continuation to let it keep going.
             resumeFiber(ioRequest.session.fiber)
         }
     }
 
-    private fun processWaitForCommitRequest(ioRequest: WaitForLedgerCommit) {
-        // Is it already committed?
-        val stx = database.transaction {
-            serviceHub.validatedTransactions.getTransaction(ioRequest.hash)
-        }
-        if (stx != null) {
-            resumeFiber(ioRequest.fiber)
-        } else {
-            // No, then register to wait.
-            //
-            // We assume this code runs on the server thread, which is the only place transactions are committed
-            // currently. When we liberalise our threading somewhat, handing of wait requests will need to be
-            // reworked to make the wait atomic in another way. Otherwise there is a race between checking the
-            // database and updating the waiting list.
-            mutex.locked {
-                fibersWaitingForLedgerCommit[ioRequest.hash] += ioRequest.fiber
-            }
-        }
-    }
-
-    private fun sendSessionMessage(party: Party, message: SessionMessage, fiber: FlowStateMachineImpl<*>? = null, retryId: Long? = null) {
+    /**
+     * @param session The session the message is sent over, if any. Once the session is initiated, and so has a single
+     * peer, schemas already sent over it are only referred to.
+     */
+    private fun sendSessionMessage(party: Party,
+                                   message: SessionMessage,
+                                   fiber: FlowStateMachineImpl<*>? = null,
+                                   retryId: Long? = null,
+                                   session: FlowSession? = null) {
         val partyInfo = serviceHub.networkMapCache.getPartyInfo(party)
                 ?: throw IllegalArgumentException("Don't know about party $party")
         val address = serviceHub.networkService.getAddressOfParty(partyInfo)
         val logger = fiber?.logger ?: logger
         logger.trace { "Sending $message to party $party @ $address" + if (retryId != null) " with retry $retryId" else "" }
 
-        val serialized = try {
-            message.serialize()
-        } catch (e: KryoException) {
-            if (message !is ErrorSessionEnd || message.errorResponse == null) throw e
-            logger.warn("Something in ${message.errorResponse.javaClass.name} is not serialisable. " +
-                    "Instead sending back an exception which is serialisable to ensure session end occurs properly.", e)
-            // The subclass may have overridden toString so we use that
-            val exMessage = message.errorResponse.let { if (it.javaClass != FlowException::class.java) it.toString() else it.message }
-            message.copy(errorResponse = FlowException(exMessage)).serialize()
+        val context = if (session != null && session.state is FlowSessionState.Initiated) {
+            P2P_CONTEXT.withSchemaCache(session.sentSchemas)
+        } else {
+            P2P_CONTEXT
         }
+        try {
+            val serialized = try {
+                message.serialize(context = context)
+            } catch (e: KryoException) {
+                if (message !is ErrorSessionEnd || message.errorResponse == null) throw e
+                logger.warn("Something in ${message.errorResponse.javaClass.name} is not serialisable. " +
+                        "Instead sending back an exception which is serialisable to ensure session end occurs properly.", e)
+                // The subclass may have overridden toString so we use that
+                val exMessage = message.errorResponse.let { if (it.javaClass != FlowException::class.java) it.toString() else it.message }
+                // Without the session's schemas, as some may have been added to them which won't now be sent.
+                session?.resetSentSchemas()
+                message.copy(errorResponse = FlowException(exMessage)).serialize()
+            }
 
-        serviceHub.networkService.apply {
-            send(createMessage(sessionTopic, serialized.bytes), address, retryId = retryId)
+            serviceHub.networkService.apply {
+                send(createMessage(sessionTopic, serialized.bytes), address, retryId = retryId)
+            }
+        } catch (e: Exception) {
+            // Schemas added to the session's cache for a message which wasn't sent would never reach the peer.
+            session?.resetSentSchemas()
+            throw e
         }
     }
 }
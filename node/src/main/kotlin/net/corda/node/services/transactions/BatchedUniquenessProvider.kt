@@ -0,0 +1,189 @@
+package net.corda.node.services.transactions
+
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import com.google.common.util.concurrent.Striped
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.getOrThrow
+import net.corda.core.identity.Party
+import net.corda.core.node.services.UniquenessException
+import net.corda.core.node.services.UniquenessProvider
+import net.corda.core.serialization.SingletonSerializeAsToken
+import net.corda.core.then
+import net.corda.core.utilities.debug
+import net.corda.core.utilities.loggerFor
+import net.corda.node.utilities.*
+import org.bouncycastle.asn1.x500.X500Name
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.insert
+import org.jetbrains.exposed.sql.select
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.locks.Lock
+import javax.annotation.concurrent.ThreadSafe
+import kotlin.concurrent.thread
+
+/**
+ * A RDBMS backed uniqueness provider for notaries handling many requests concurrently. It uses the same commit log as
+ * [PersistentUniquenessProvider], so a notary can be switched from one to the other.
+ *
+ * Rather than serialising every request through one lock, requests only exclude those with which they share an input
+ * state, by locking the stripes the states hash to. Holding those, a request looks up all its input states with a
+ * single query and, if none have been consumed, hands them to a committer thread. The committer writes the input
+ * states of all the requests waiting for it in one database transaction, so that concurrent requests share the cost of
+ * the commit. Until that has completed the states are kept in memory as in flight, and a later request for any of them
+ * waits for the commit and then tries again, so that it sees the states as consumed if the commit succeeded.
+ *
+ * [commitAsync] returns as soon as the states have been handed over, so a notary flow waiting for the commit with
+ * [net.corda.core.internal.FlowStateMachine.waitForFuture] doesn't hold up its thread, and requests from as many flows as are waiting can be
+ * committed together, however few threads run them.
+ *
+ * The commits happen in their own database transactions, independently of the caller's, so if the notary flow then
+ * fails the states stay consumed. A retry of the request then finds them consumed by the same transaction, which
+ * [net.corda.core.node.services.TrustedAuthorityNotaryService.commitInputStates] doesn't count as a conflict. This only
+ * pays off when requests arrive concurrently, so a notary only uses it if
+ * [net.corda.node.services.config.NodeConfiguration.notaryCommitBatchSize] is greater than 1.
+ */
+@ThreadSafe
+class BatchedUniquenessProvider(private val database: CordaPersistence,
+                                lockStripes: Int = DEFAULT_LOCK_STRIPES,
+                                private val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE) : UniquenessProvider, SingletonSerializeAsToken() {
+    companion object {
+        private val TABLE_NAME = "${NODE_DATABASE_PREFIX}notary_commit_log"
+        private val log = loggerFor<BatchedUniquenessProvider>()
+
+        const val DEFAULT_LOCK_STRIPES = 1024
+        const val DEFAULT_MAX_BATCH_SIZE = 500
+    }
+
+    /** The table of [PersistentUniquenessProvider], whose key hash is the hash code of the input state. */
+    private object Table : JDBCHashedTable(TABLE_NAME) {
+        val output = stateRef("transaction_id", "output_index")
+        val consumingTxHash = secureHash("consuming_transaction_id")
+        val consumingIndex = integer("consuming_input_index")
+        val requestingParty = party("requesting_party_name", "requesting_party_key")
+    }
+
+    private class PendingCommit(val states: List<StateRef>, val txId: SecureHash, val callerIdentity: Party) {
+        val done: SettableFuture<Unit> = SettableFuture.create()
+    }
+
+    private val stripes = Striped.lock(lockStripes)
+    // The states of the requests handed to the committer which it has yet to finish with, added and checked holding the
+    // stripes of the states.
+    private val inFlight = ConcurrentHashMap<StateRef, PendingCommit>()
+    private val pendingCommits = LinkedBlockingQueue<PendingCommit>()
+    @Volatile private var stopped = false
+    private val committer = thread(name = "Notary committer", isDaemon = true) { commitPending() }
+
+    init {
+        require(maxBatchSize > 0) { "The maximum batch size must be positive" }
+        database.transaction { SchemaUtils.create(Table) }
+    }
+
+    override fun commit(states: List<StateRef>, txId: SecureHash, callerIdentity: Party) {
+        commitAsync(states, txId, callerIdentity).getOrThrow()
+    }
+
+    override fun commitAsync(states: List<StateRef>, txId: SecureHash, callerIdentity: Party): ListenableFuture<Unit> {
+        check(!stopped) { "Uniqueness provider has been stopped" }
+        // The locks are returned in a consistent order, so acquiring them can't deadlock.
+        val locks: List<Lock> = stripes.bulkGet(states).toList()
+        locks.forEach { it.lock() }
+        try {
+            val inFlightCommit = states.mapNotNull { inFlight[it] }.firstOrNull()
+            if (inFlightCommit != null) return retryAfter(inFlightCommit, states, txId, callerIdentity)
+            val conflictingStates = database.isolatedTransaction { findConsumingTransactions(states) }
+            if (conflictingStates.isNotEmpty()) {
+                log.debug("Failure, input states already committed: ${conflictingStates.keys}")
+                return Futures.immediateFailedFuture(UniquenessException(UniquenessProvider.Conflict(conflictingStates)))
+            }
+            val pending = PendingCommit(states, txId, callerIdentity)
+            // Checked again under the lock stop takes, so that nothing can be queued after the committer has finished.
+            synchronized(pendingCommits) {
+                check(!stopped) { "Uniqueness provider has been stopped" }
+                states.forEach { inFlight[it] = pending }
+                pendingCommits.put(pending)
+            }
+            return pending.done
+        } finally {
+            locks.forEach { it.unlock() }
+        }
+    }
+
+    // Whether or not the commit in flight succeeds, it's out of the way once it's done.
+    private fun retryAfter(inFlightCommit: PendingCommit, states: List<StateRef>, txId: SecureHash, callerIdentity: Party): ListenableFuture<Unit> {
+        val retried = SettableFuture.create<Unit>()
+        inFlightCommit.done.then {
+            try {
+                retried.setFuture(commitAsync(states, txId, callerIdentity))
+            } catch (e: Exception) {
+                retried.setException(e)
+            }
+        }
+        return retried
+    }
+
+    /** Stops the committer once it has finished with the requests it has already been given. */
+    fun stop() {
+        synchronized(pendingCommits) { stopped = true }
+        committer.join()
+    }
+
+    private fun findConsumingTransactions(states: List<StateRef>): Map<StateRef, UniquenessProvider.ConsumingTx> {
+        val wanted = states.toSet()
+        val consumed = LinkedHashMap<StateRef, UniquenessProvider.ConsumingTx>()
+        // The key hash is indexed, and a hash collision only costs the return of a row which is then filtered out.
+        Table.select { Table.keyHash inList wanted.map { it.hashCode() } }.forEach { row ->
+            val stateRef = StateRef(row[Table.output.txId], row[Table.output.index])
+            if (stateRef in wanted) {
+                consumed[stateRef] = UniquenessProvider.ConsumingTx(
+                        row[Table.consumingTxHash],
+                        row[Table.consumingIndex],
+                        Party(X500Name(row[Table.requestingParty.name]), row[Table.requestingParty.owningKey]))
+            }
+        }
+        // Keep the order of the request, as the single lookup per state did.
+        return states.filter { it in consumed }.associate { it to consumed[it]!! }
+    }
+
+    private fun commitPending() {
+        val batch = ArrayList<PendingCommit>(maxBatchSize)
+        while (!(stopped && pendingCommits.isEmpty())) {
+            batch += pendingCommits.poll(100, MILLISECONDS) ?: continue
+            pendingCommits.drainTo(batch, maxBatchSize - 1)
+            try {
+                database.transaction { batch.forEach { insertStates(it) } }
+                log.debug { "Successfully committed the input states of ${batch.size} transactions" }
+                batch.forEach { finish(it) { done.set(Unit) } }
+            } catch (e: Exception) {
+                log.error("Unable to commit the input states of ${batch.size} transactions", e)
+                batch.forEach { finish(it) { done.setException(e) } }
+            }
+            batch.clear()
+        }
+    }
+
+    private inline fun finish(pending: PendingCommit, complete: PendingCommit.() -> Unit) {
+        pending.states.forEach { inFlight.remove(it, pending) }
+        pending.complete()
+    }
+
+    private fun insertStates(pending: PendingCommit) {
+        pending.states.forEachIndexed { i, stateRef ->
+            Table.insert {
+                it[keyHash] = stateRef.hashCode()
+                it[output.txId] = stateRef.txhash
+                it[output.index] = stateRef.index
+                it[consumingTxHash] = pending.txId
+                it[consumingIndex] = i
+                it[requestingParty.name] = pending.callerIdentity.name.toString()
+                it[requestingParty.owningKey] = pending.callerIdentity.owningKey
+            }
+        }
+    }
+}
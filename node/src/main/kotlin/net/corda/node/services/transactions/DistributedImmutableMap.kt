@@ -19,10 +19,23 @@ import java.util.*
  * The map contents are backed by a JDBC table. State re-synchronisation is achieved by periodically persisting snapshots
  * to disk, and sharing them across the cluster. A new node joining the cluster will have to obtain and install a snapshot
  * containing the entire JDBC table contents.
+ *
+ * @param migrateKey converts a key written by an earlier version, in a [Commands.PutAll] replayed from the Raft log or
+ * in a snapshot, to the key type used now. Keys of the current type are returned as they are.
  */
-class DistributedImmutableMap<K : Any, V : Any>(val db: CordaPersistence, tableName: String) : StateMachine(), Snapshottable {
+class DistributedImmutableMap<K : Any, V : Any>(val db: CordaPersistence,
+                                                tableName: String,
+                                                @Suppress("UNCHECKED_CAST")
+                                                private val migrateKey: (Any) -> K = { it as K }) : StateMachine(), Snapshottable {
     companion object {
         private val log = loggerFor<DistributedImmutableMap<*, *>>()
+        /** The number of entries read from a snapshot before they're written to the table. */
+        private const val SNAPSHOT_INSTALL_BATCH_SIZE = 1000
+        /**
+         * Written at the start of a snapshot in place of the size which earlier versions started with. As a size is
+         * never negative, it tells the two formats apart, and earlier snapshots can still be installed.
+         */
+        private const val SNAPSHOT_FORMAT = -1
     }
 
     object Commands {
@@ -34,6 +47,14 @@ class DistributedImmutableMap<K : Any, V : Any>(val db: CordaPersistence, tableN
             }
         }
 
+        /**
+         * Several independent [PutAll]s submitted as a single command, so that they're replicated as one Raft log
+         * entry. Each group of entries is stored, or not, on its own, as if the [PutAll]s were applied in order.
+         */
+        class PutAllBatch<K, V>(val batches: List<Map<K, V>>) : Command<Map<Int, Map<K, V>>> {
+            override fun compaction(): Command.CompactionMode = Command.CompactionMode.SNAPSHOT
+        }
+
         class Size : Query<Int>
         class Get<out K, V>(val key: K) : Query<V?>
     }
@@ -55,17 +76,39 @@ class DistributedImmutableMap<K : Any, V : Any>(val db: CordaPersistence, tableN
      */
     fun put(commit: Commit<Commands.PutAll<K, V>>): Map<K, V> {
         commit.use { commit ->
-            val conflicts = LinkedHashMap<K, V>()
+            // Commands submitted before an upgrade may be replayed from the log with keys of the earlier type.
+            val entries = commit.operation().entries.mapKeys { migrateKey(it.key) }
+            return db.transaction { putIfNoConflicts(entries) }
+        }
+    }
+
+    /**
+     * Stores each of the given [Commands.PutAllBatch.batches] if none of its keys already exists, including keys stored
+     * by the batches before it. All the batches are stored in a single database transaction.
+     *
+     * @return the conflicting entries of the batches which couldn't be stored, keyed by the position of the batch.
+     */
+    fun putBatch(commit: Commit<Commands.PutAllBatch<K, V>>): Map<Int, Map<K, V>> {
+        commit.use { commit ->
+            val conflicts = LinkedHashMap<Int, Map<K, V>>()
             db.transaction {
-                val entries = commit.operation().entries
-                log.debug("State machine commit: storing entries with keys (${entries.keys.joinToString()})")
-                for (key in entries.keys) map[key]?.let { conflicts[key] = it }
-                if (conflicts.isEmpty()) map.putAll(entries)
+                commit.operation().batches.forEachIndexed { i, entries ->
+                    val batchConflicts = putIfNoConflicts(entries)
+                    if (batchConflicts.isNotEmpty()) conflicts[i] = batchConflicts
+                }
             }
             return conflicts
         }
     }
 
+    private fun putIfNoConflicts(entries: Map<K, V>): Map<K, V> {
+        log.debug("State machine commit: storing entries with keys (${entries.keys.joinToString()})")
+        val conflicts = LinkedHashMap<K, V>()
+        for (key in entries.keys) map[key]?.let { conflicts[key] = it }
+        if (conflicts.isEmpty()) map.putAll(entries)
+        return conflicts
+    }
+
     fun size(commit: Commit<Commands.Size>): Int {
         commit.use { _ ->
             return db.transaction { map.size }
@@ -74,25 +117,48 @@ class DistributedImmutableMap<K : Any, V : Any>(val db: CordaPersistence, tableN
 
     /**
      * Writes out all [map] entries to disk. Note that this operation does not load all entries into memory, as the
-     * [SnapshotWriter] is using a disk-backed buffer internally, and iterating map entries results in only a
-     * fixed number of recently accessed entries to ever be kept in memory.
+     * [SnapshotWriter] is using a disk-backed buffer internally, and iterating map entries streams them from a single
+     * query with only a fixed number of recently accessed entries ever kept in memory. Keys and values are written
+     * one after the other rather than wrapped in pairs, which saves an object per entry on both sides, following
+     * [SNAPSHOT_FORMAT].
      */
     override fun snapshot(writer: SnapshotWriter) {
         db.transaction {
+            writer.writeInt(SNAPSHOT_FORMAT)
             writer.writeInt(map.size)
-            map.entries.forEach { writer.writeObject(it.key to it.value) }
+            for ((key, value) in map.entries) {
+                writer.writeObject(key)
+                writer.writeObject(value)
+            }
         }
     }
 
-    /** Reads entries from disk and adds them to [map]. */
+    /**
+     * Reads entries from disk and adds them to [map], [SNAPSHOT_INSTALL_BATCH_SIZE] at a time. As the map is cleared
+     * first, the entries are inserted without looking each of their keys up.
+     *
+     * Snapshots taken by earlier versions, which start with the size and hold the entries as pairs, are installed too,
+     * with their keys converted by [migrateKey].
+     */
     override fun install(reader: SnapshotReader) {
-        val size = reader.readInt()
+        val format = reader.readInt()
+        val legacy = format >= 0
+        check(legacy || format == SNAPSHOT_FORMAT) { "Unknown snapshot format $format" }
+        val size = if (legacy) format else reader.readInt()
         db.transaction {
             map.clear()
-            // TODO: read & put entries in batches
+            val batch = LinkedHashMap<K, V>()
             for (i in 1..size) {
-                val (key, value) = reader.readObject<Pair<K, V>>()
-                map.put(key, value)
+                if (legacy) {
+                    val (key, value) = reader.readObject<Pair<Any, V>>()
+                    batch.put(migrateKey(key), value)
+                } else {
+                    batch.put(reader.readObject<K>(), reader.readObject<V>())
+                }
+                if (batch.size == SNAPSHOT_INSTALL_BATCH_SIZE || i == size) {
+                    map.putAllAbsent(batch)
+                    batch.clear()
+                }
             }
         }
     }
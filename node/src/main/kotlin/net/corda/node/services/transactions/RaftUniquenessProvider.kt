@@ -15,16 +15,21 @@ import io.atomix.copycat.server.storage.Storage
 import io.atomix.copycat.server.storage.StorageLevel
 import net.corda.core.contracts.StateRef
 import net.corda.core.crypto.SecureHash
+import net.corda.core.getOrThrow
 import net.corda.core.identity.Party
 import net.corda.core.node.services.UniquenessException
 import net.corda.core.node.services.UniquenessProvider
 import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.serialization.deserialize
 import net.corda.core.serialization.serialize
+import net.corda.core.utilities.OpaqueBytes
 import net.corda.core.utilities.loggerFor
 import net.corda.node.services.api.ServiceHubInternal
 import net.corda.node.utilities.CordaPersistence
+import net.corda.node.utilities.JDBCHashMap
+import net.corda.node.utilities.dropTable
 import net.corda.nodeapi.config.SSLConfiguration
+import java.nio.ByteBuffer
 import java.nio.file.Path
 import java.util.concurrent.CompletableFuture
 import javax.annotation.concurrent.ThreadSafe
@@ -41,7 +46,32 @@ import javax.annotation.concurrent.ThreadSafe
 class RaftUniquenessProvider(services: ServiceHubInternal) : UniquenessProvider, SingletonSerializeAsToken() {
     companion object {
         private val log = loggerFor<RaftUniquenessProvider>()
-        private val DB_TABLE_NAME = "notary_committed_states"
+        // The state references are keyed by their binary encoding, rather than the string used before, so the table
+        // has been renamed to keep the two apart.
+        private val DB_TABLE_NAME = "notary_committed_state_refs"
+        /** The table earlier versions stored committed states in, keyed by "$txhash:$index". */
+        private val LEGACY_DB_TABLE_NAME = "notary_committed_states"
+        /** The most commit requests coalesced into a single Copycat command. */
+        private const val MAX_BATCH_SIZE = 500
+        /** The number of committed states copied from the legacy table at a time. */
+        private const val MIGRATION_BATCH_SIZE = 1000
+
+        /**
+         * A state reference is encoded as the bytes of its transaction hash followed by its index, which is about half
+         * the size of its string form.
+         */
+        private fun StateRef.encoded() = OpaqueBytes(ByteBuffer.allocate(txhash.size + 4).put(txhash.bytes).putInt(index).array())
+
+        /** Converts a key in the "$txhash:$index" form of earlier versions, leaving encoded keys as they are. */
+        private fun migrateKey(key: Any): OpaqueBytes = when (key) {
+            is OpaqueBytes -> key
+            is String -> key.split(":").let { StateRef(SecureHash.parse(it[0]), it[1].toInt()) }.encoded()
+            else -> throw IllegalArgumentException("Unexpected key type ${key.javaClass.name}")
+        }
+    }
+
+    private class PendingCommit(val entries: Map<OpaqueBytes, ByteArray>) {
+        val conflicts = CompletableFuture<Map<OpaqueBytes, ByteArray>>()
     }
 
     /** Directory storing the Raft log and state machine snapshots */
@@ -68,9 +98,20 @@ class RaftUniquenessProvider(services: ServiceHubInternal) : UniquenessProvider,
     private val client: CopycatClient
         get() = _clientFuture.get()
 
+    /**
+     * Commit requests waiting for the command in flight to complete. They're submitted together as the next command,
+     * so that concurrent requests share a Raft log entry and round trip instead of each paying for its own.
+     */
+    private val pendingCommits = ArrayList<PendingCommit>()
+    /** Whether a command is in flight, guarded by the lock of [pendingCommits]. */
+    private var submitting = false
+
     fun start() {
+        db.transaction {
+            if (JDBCHashMap.BlobMapTable(LEGACY_DB_TABLE_NAME).exists()) migrateLegacyStates()
+        }
         log.info("Creating Copycat server, log stored in: ${storagePath.toFile()}")
-        val stateMachineFactory = { DistributedImmutableMap<String, ByteArray>(db, DB_TABLE_NAME) }
+        val stateMachineFactory = { DistributedImmutableMap<OpaqueBytes, ByteArray>(db, DB_TABLE_NAME) { migrateKey(it) } }
         val address = Address(myAddress.host, myAddress.port)
         val storage = buildStorage(storagePath)
         val transport = buildTransport(transportConfiguration)
@@ -90,6 +131,32 @@ class RaftUniquenessProvider(services: ServiceHubInternal) : UniquenessProvider,
                     }
                 }
             }
+            register(DistributedImmutableMap.Commands.PutAllBatch::class.java) {
+                object : TypeSerializer<DistributedImmutableMap.Commands.PutAllBatch<*, *>> {
+                    override fun write(obj: DistributedImmutableMap.Commands.PutAllBatch<*, *>,
+                                       buffer: BufferOutput<out BufferOutput<*>>,
+                                       serializer: Serializer) {
+                        buffer.writeInt(obj.batches.size)
+                        obj.batches.forEach { writeMap(it, buffer, serializer) }
+                    }
+                    override fun read(type: Class<DistributedImmutableMap.Commands.PutAllBatch<*, *>>,
+                                      buffer: BufferInput<out BufferInput<*>>,
+                                      serializer: Serializer): DistributedImmutableMap.Commands.PutAllBatch<Any, Any> {
+                        return DistributedImmutableMap.Commands.PutAllBatch(List(buffer.readInt()) { readMap(buffer, serializer) })
+                    }
+                }
+            }
+            register(OpaqueBytes::class.java) {
+                object : TypeSerializer<OpaqueBytes> {
+                    override fun write(obj: OpaqueBytes, buffer: BufferOutput<out BufferOutput<*>>, serializer: Serializer) {
+                        buffer.writeInt(obj.size)
+                        buffer.write(obj.bytes)
+                    }
+                    override fun read(type: Class<OpaqueBytes>, buffer: BufferInput<out BufferInput<*>>, serializer: Serializer): OpaqueBytes {
+                        return OpaqueBytes(ByteArray(buffer.readInt()).also { buffer.read(it) })
+                    }
+                }
+            }
             register(LinkedHashMap::class.java) {
                 object : TypeSerializer<LinkedHashMap<*, *>> {
                     override fun write(obj: LinkedHashMap<*, *>, buffer: BufferOutput<out BufferOutput<*>>, serializer: Serializer) = writeMap(obj, buffer, serializer)
@@ -122,6 +189,31 @@ class RaftUniquenessProvider(services: ServiceHubInternal) : UniquenessProvider,
         _clientFuture = serverFuture.thenCompose { client.connect(address) }
     }
 
+    /**
+     * Copies the states committed by an earlier version into the current table, and drops the legacy one. The Raft log
+     * and snapshots of the earlier version are converted as they're read, by [DistributedImmutableMap].
+     */
+    private fun migrateLegacyStates() {
+        val legacyMap = JDBCHashMap<String, ByteArray>(LEGACY_DB_TABLE_NAME)
+        val map = JDBCHashMap<OpaqueBytes, ByteArray>(DB_TABLE_NAME)
+        var migrated = 0
+        val batch = LinkedHashMap<OpaqueBytes, ByteArray>()
+        fun flush() {
+            // The table may hold some of them already, if a cluster member installed a snapshot before this one upgraded.
+            batch.keys.retainAll { it !in map }
+            map.putAllAbsent(batch)
+            migrated += batch.size
+            batch.clear()
+        }
+        for ((key, value) in legacyMap) {
+            batch.put(migrateKey(key), value)
+            if (batch.size == MIGRATION_BATCH_SIZE) flush()
+        }
+        flush()
+        legacyMap.table.dropTable()
+        log.info("Migrated $migrated committed state(s) from $LEGACY_DB_TABLE_NAME to $DB_TABLE_NAME")
+    }
+
     fun stop() {
         server.shutdown()
     }
@@ -148,24 +240,67 @@ class RaftUniquenessProvider(services: ServiceHubInternal) : UniquenessProvider,
         val entries = states.mapIndexed { i, stateRef -> stateRef to UniquenessProvider.ConsumingTx(txId, i, callerIdentity) }
 
         log.debug("Attempting to commit input states: ${states.joinToString()}")
-        val commitCommand = DistributedImmutableMap.Commands.PutAll(encode(entries))
-        val conflicts = client.submit(commitCommand).get()
+        val pending = PendingCommit(encode(entries))
+        val batch = synchronized(pendingCommits) {
+            pendingCommits += pending
+            if (submitting) null else takeBatch()
+        }
+        batch?.let { submit(it) }
+        val conflicts = pending.conflicts.getOrThrow()
 
         if (conflicts.isNotEmpty()) throw UniquenessException(UniquenessProvider.Conflict(decode(conflicts)))
         log.debug("All input states of transaction $txId have been committed")
     }
 
+    /** Takes the next batch of pending commits to submit. Must be called holding the lock of [pendingCommits]. */
+    private fun takeBatch(): List<PendingCommit>? {
+        if (pendingCommits.isEmpty()) {
+            submitting = false
+            return null
+        }
+        submitting = true
+        val batchSize = minOf(pendingCommits.size, MAX_BATCH_SIZE)
+        return ArrayList(pendingCommits.subList(0, batchSize)).also { pendingCommits.subList(0, batchSize).clear() }
+    }
+
     /**
-     * Copycat uses its own serialization framework so we convert and store entries as String -> ByteArray
-     * here to avoid having to define additional serializers for our custom types.
+     * Submits the batch as a single command. Once it completes, the commits which have queued up in the meantime are
+     * submitted in turn, so there's only ever one command in flight and the batches grow with the load.
      */
-    private fun encode(items: List<Pair<StateRef, UniquenessProvider.ConsumingTx>>): Map<String, ByteArray> {
-        fun StateRef.encoded() = "$txhash:$index"
+    private fun submit(batch: List<PendingCommit>) {
+        val command = DistributedImmutableMap.Commands.PutAllBatch(batch.map { it.entries })
+        try {
+            client.submit(command).whenComplete { conflicts, error -> complete(batch, conflicts, error) }
+        } catch (e: Exception) {
+            // Otherwise nothing would ever take the next batch, and every later commit would wait forever.
+            complete(batch, null, e)
+        }
+    }
+
+    private fun complete(batch: List<PendingCommit>, conflicts: Map<Int, Map<OpaqueBytes, ByteArray>>?, error: Throwable?) {
+        batch.forEachIndexed { i, pending ->
+            if (error != null) {
+                pending.conflicts.completeExceptionally(error)
+            } else {
+                pending.conflicts.complete(conflicts!![i] ?: emptyMap())
+            }
+        }
+        synchronized(pendingCommits) { takeBatch() }?.let { submit(it) }
+    }
+
+    /**
+     * Copycat uses its own serialization framework so we convert and store entries as OpaqueBytes -> ByteArray here to
+     * avoid having to define additional serializers for our custom types.
+     */
+    private fun encode(items: List<Pair<StateRef, UniquenessProvider.ConsumingTx>>): Map<OpaqueBytes, ByteArray> {
         return items.map { it.first.encoded() to it.second.serialize().bytes }.toMap()
     }
 
-    private fun decode(items: Map<String, ByteArray>): Map<StateRef, UniquenessProvider.ConsumingTx> {
-        fun String.toStateRef() = split(":").let { StateRef(SecureHash.parse(it[0]), it[1].toInt()) }
+    private fun decode(items: Map<OpaqueBytes, ByteArray>): Map<StateRef, UniquenessProvider.ConsumingTx> {
+        fun OpaqueBytes.toStateRef(): StateRef {
+            val hashSize = size - 4
+            return StateRef(SecureHash.SHA256(bytes.copyOf(hashSize)), ByteBuffer.wrap(bytes, hashSize, 4).int)
+        }
         return items.map { it.key.toStateRef() to it.value.deserialize<UniquenessProvider.ConsumingTx>() }.toMap()
     }
 }
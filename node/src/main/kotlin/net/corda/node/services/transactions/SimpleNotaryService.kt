@@ -5,6 +5,7 @@ import net.corda.core.identity.Party
 import net.corda.core.node.services.ServiceType
 import net.corda.core.node.services.TimeWindowChecker
 import net.corda.core.node.services.TrustedAuthorityNotaryService
+import net.corda.core.node.services.UniquenessProvider
 import net.corda.node.services.api.ServiceHubInternal
 
 /** A simple Notary service that does not perform transaction validation */
@@ -14,12 +15,16 @@ class SimpleNotaryService(override val services: ServiceHubInternal) : TrustedAu
     }
 
     override val timeWindowChecker = TimeWindowChecker(services.clock)
-    override val uniquenessProvider = PersistentUniquenessProvider()
+    override val uniquenessProvider: UniquenessProvider = services.configuration.notaryCommitBatchSize.let {
+        if (it > 1) BatchedUniquenessProvider(services.database, maxBatchSize = it) else PersistentUniquenessProvider()
+    }
 
     override fun createServiceFlow(otherParty: Party, platformVersion: Int): NotaryFlow.Service {
         return NonValidatingNotaryFlow(otherParty, this)
     }
 
     override fun start() {}
-    override fun stop() {}
+    override fun stop() {
+        (uniquenessProvider as? BatchedUniquenessProvider)?.stop()
+    }
 }
\ No newline at end of file
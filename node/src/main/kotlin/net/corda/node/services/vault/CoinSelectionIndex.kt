@@ -0,0 +1,176 @@
+package net.corda.node.services.vault
+
+import net.corda.contracts.asset.Cash
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.PartyAndReference
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.identity.Party
+import net.corda.core.node.services.Vault
+import net.corda.core.utilities.OpaqueBytes
+import java.security.PublicKey
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * An in-memory index of the unconsumed cash states in the vault, for selecting the coins to spend without going to the
+ * database. Coins are grouped by currency, issuer and notary, and kept in the order they were added. Each coin carries
+ * a claim, the ID of the soft lock it's reserved under if any. Coins are reserved by atomically claiming them, so that
+ * concurrent selections never hand out the same coin and don't have to be serialised.
+ *
+ * The index only knows what the [NodeVaultService] tells it, that is the vault updates once they've been committed and
+ * the soft locks it reserves and releases, so it can lag behind the database. Selections therefore still have to be
+ * confirmed by reserving their soft locks in the database, and the claims made in a database transaction have to be
+ * released if it's rolled back.
+ */
+@ThreadSafe
+internal class CoinSelectionIndex {
+    private data class BucketKey(val currency: Currency, val issuer: PartyAndReference, val notary: Party)
+
+    private class Coin(val stateAndRef: StateAndRef<Cash.State>, val seqNo: Long, lockId: UUID?) {
+        val claim = AtomicReference<UUID?>(lockId)
+        val quantity: Long get() = stateAndRef.state.data.amount.quantity
+    }
+
+    /**
+     * The coins claimed by a selection. [newlyClaimed] are the ones which weren't already reserved under the lock ID of
+     * the selection, and so are the ones to [release] if the selection is abandoned.
+     */
+    class Selection(val states: List<StateAndRef<Cash.State>>, val newlyClaimed: List<StateRef>)
+
+    private val nextSeqNo = AtomicLong()
+    private val coins = ConcurrentHashMap<StateRef, Coin>()
+    private val buckets = ConcurrentHashMap<BucketKey, ConcurrentSkipListMap<Long, Coin>>()
+    private val claimsByLock = ConcurrentHashMap<UUID, MutableSet<StateRef>>()
+
+    @Volatile private var loaded = false
+    // States removed before the index was loaded, which the load may still have seen as unconsumed. Guarded by this.
+    private val removedBeforeLoad = HashSet<StateRef>()
+
+    /** Fills the index with the given unconsumed cash states and their soft lock IDs, the first time it's called. */
+    fun loadIfNecessary(loader: () -> Iterable<Pair<StateAndRef<Cash.State>, UUID?>>) {
+        if (loaded) return
+        synchronized(this) {
+            if (loaded) return
+            for ((stateAndRef, lockId) in loader()) {
+                if (stateAndRef.ref !in removedBeforeLoad) add(stateAndRef, lockId)
+            }
+            removedBeforeLoad.clear()
+            loaded = true
+        }
+    }
+
+    @Synchronized
+    fun update(update: Vault.Update) {
+        update.consumed.forEach { remove(it.ref) }
+        @Suppress("UNCHECKED_CAST")
+        update.produced.filter { it.state.data is Cash.State }.forEach { add(it as StateAndRef<Cash.State>, null) }
+    }
+
+    /** Drops the given states, which have been found to have been consumed. */
+    @Synchronized
+    fun removeAll(stateRefs: Iterable<StateRef>) = stateRefs.forEach { remove(it) }
+
+    /**
+     * Claims coins of the currency of [amount] for [lockId], including those already claimed for it, until they add up
+     * to at least [amount]. If there aren't enough, nothing is claimed.
+     *
+     * @param notary if non-null, only coins with this notary are considered.
+     * @param issuerKeys if non-null, only coins issued by one of these keys are considered.
+     * @param issuerRefs if non-null, only coins with one of these issuer references are considered.
+     * @return the claimed coins, or null if there weren't enough.
+     */
+    fun claim(lockId: UUID,
+              amount: Amount<Currency>,
+              notary: Party?,
+              issuerKeys: Set<PublicKey>?,
+              issuerRefs: Set<OpaqueBytes>?): Selection? {
+        val states = ArrayList<StateAndRef<Cash.State>>()
+        val newlyClaimed = ArrayList<StateRef>()
+        var total = 0L
+        val candidates = buckets.entries
+                .filter { (key, _) ->
+                    key.currency == amount.token &&
+                            (notary == null || key.notary.owningKey == notary.owningKey) &&
+                            (issuerKeys == null || key.issuer.party.owningKey in issuerKeys) &&
+                            (issuerRefs == null || key.issuer.reference in issuerRefs)
+                }
+                .sortedBy { (_, bucket) -> bucket.firstEntry()?.key ?: Long.MAX_VALUE }
+        loop@ for ((_, bucket) in candidates) {
+            for (coin in bucket.values) {
+                if (total >= amount.quantity) break@loop
+                val ref = coin.stateAndRef.ref
+                if (coin.claim.compareAndSet(null, lockId)) {
+                    claimsByLock.computeIfAbsent(lockId) { ConcurrentHashMap.newKeySet() } += ref
+                    newlyClaimed += ref
+                } else if (coin.claim.get() != lockId) {
+                    continue
+                }
+                states += coin.stateAndRef
+                total += coin.quantity
+            }
+        }
+        if (total < amount.quantity || states.isEmpty()) {
+            release(lockId, newlyClaimed)
+            return null
+        }
+        return Selection(states, newlyClaimed)
+    }
+
+    /**
+     * Records that the given states have been reserved under [lockId] in the database.
+     *
+     * @return the states which weren't already claimed for [lockId].
+     */
+    fun lock(lockId: UUID, stateRefs: Iterable<StateRef>): List<StateRef> {
+        val newlyClaimed = ArrayList<StateRef>()
+        for (ref in stateRefs) {
+            val coin = coins[ref] ?: continue
+            val previous = coin.claim.getAndSet(lockId)
+            if (previous != lockId) {
+                previous?.let { claimsByLock[it]?.remove(ref) }
+                claimsByLock.computeIfAbsent(lockId) { ConcurrentHashMap.newKeySet() } += ref
+                newlyClaimed += ref
+            }
+        }
+        return newlyClaimed
+    }
+
+    /** Releases the claims of [lockId] on the given states, or on all its states if [stateRefs] is null. */
+    fun release(lockId: UUID, stateRefs: Iterable<StateRef>? = null) {
+        val claimed = claimsByLock[lockId] ?: return
+        for (ref in stateRefs ?: claimed.toList()) {
+            claimed.remove(ref)
+            coins[ref]?.claim?.compareAndSet(lockId, null)
+        }
+        if (claimed.isEmpty()) claimsByLock.remove(lockId, claimed)
+    }
+
+    /** Whether the state is known to be reserved under a lock other than [lockId]. */
+    fun isClaimedByOther(stateRef: StateRef, lockId: UUID): Boolean {
+        val claim = coins[stateRef]?.claim?.get()
+        return claim != null && claim != lockId
+    }
+
+    private fun add(stateAndRef: StateAndRef<Cash.State>, lockId: UUID?) {
+        if (stateAndRef.ref in coins) return
+        val coin = Coin(stateAndRef, nextSeqNo.getAndIncrement(), lockId)
+        val token = stateAndRef.state.data.amount.token
+        val key = BucketKey(token.product, token.issuer, stateAndRef.state.notary)
+        coins[stateAndRef.ref] = coin
+        buckets.computeIfAbsent(key) { ConcurrentSkipListMap() }[coin.seqNo] = coin
+        lockId?.let { claimsByLock.computeIfAbsent(it) { ConcurrentHashMap.newKeySet() } += stateAndRef.ref }
+    }
+
+    private fun remove(stateRef: StateRef) {
+        if (!loaded) removedBeforeLoad += stateRef
+        val coin = coins.remove(stateRef) ?: return
+        val token = coin.stateAndRef.state.data.amount.token
+        buckets[BucketKey(token.product, token.issuer, coin.stateAndRef.state.notary)]?.remove(coin.seqNo)
+        coin.claim.getAndSet(null)?.let { claimsByLock[it]?.remove(stateRef) }
+    }
+}
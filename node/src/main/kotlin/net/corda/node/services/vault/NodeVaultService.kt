@@ -38,12 +38,12 @@ import net.corda.node.services.database.RequeryConfiguration
 import net.corda.node.services.statemachine.FlowStateMachineImpl
 import net.corda.node.services.vault.schemas.requery.*
 import net.corda.node.services.vault.schemas.requery.VaultSchema
+import net.corda.node.utilities.DatabaseTransactionManager
 import net.corda.node.utilities.bufferUntilDatabaseCommit
 import net.corda.node.utilities.wrapWithDatabaseTransaction
 import rx.Observable
 import rx.subjects.PublishSubject
 import java.security.PublicKey
-import java.sql.SQLException
 import java.util.*
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
@@ -229,7 +229,13 @@ class NodeVaultService(private val services: ServiceHub, dataSourceProperties: P
 
     override fun notifyAll(txns: Iterable<WireTransaction>) {
         val ourKeys = services.keyManagementService.keys
-        val netDelta = txns.fold(Vault.NoUpdate) { netDelta, txn -> netDelta + makeUpdate(txn, ourKeys) }
+        val netDelta = txns.fold(Vault.NoUpdate) { netDelta, txn ->
+            val update = makeUpdate(txn, ourKeys)
+            // States produced by earlier transactions of the batch aren't in the vault yet for makeUpdate to find.
+            val inputs = txn.inputs.toSet()
+            val consumedFromBatch = netDelta.produced.filter { it.ref in inputs }
+            netDelta + if (consumedFromBatch.isEmpty()) update else update.copy(consumed = update.consumed + consumedFromBatch)
+        }
         if (netDelta != Vault.NoUpdate) {
             recordUpdate(netDelta)
             maybeUpdateCashBalances(netDelta)
@@ -271,6 +277,7 @@ class NodeVaultService(private val services: ServiceHub, dataSourceProperties: P
                         .and(stateRefCompositeColumn.`in`(stateRefArgs)).get().value()
                 if (updatedRows > 0 && updatedRows == stateRefs.size) {
                     log.trace("Reserving soft lock states for $lockId: $stateRefs")
+                    releaseClaimsOnRollback(lockId, coinSelectionIndex.lock(lockId, stateRefs))
                     FlowStateMachineImpl.currentStateMachine()?.hasSoftLockedStates = true
                 } else {
                     // revert partial soft locks
@@ -305,6 +312,7 @@ class NodeVaultService(private val services: ServiceHub, dataSourceProperties: P
                     log.trace("Releasing ${update.value()} soft locked states for $lockId")
                 }
             }
+            coinSelectionIndex.release(lockId)
         } else {
             try {
                 session.withTransaction(TransactionIsolation.REPEATABLE_READ) {
@@ -318,6 +326,7 @@ class NodeVaultService(private val services: ServiceHub, dataSourceProperties: P
                         log.trace("Releasing $updatedRows soft locked states for $lockId and stateRefs $stateRefs")
                     }
                 }
+                coinSelectionIndex.release(lockId, stateRefs)
             } catch (e: PersistenceException) {
                 log.error("""soft lock update error attempting to release states for $lockId and $stateRefs")
                     $e.
@@ -326,102 +335,150 @@ class NodeVaultService(private val services: ServiceHub, dataSourceProperties: P
         }
     }
 
-    // coin selection retry loop counter, sleep (msecs) and lock for selecting states
+    // Serialises the selections which fall back on the database, so that they don't pick the same states.
+    private val spendLock: ReentrantLock = ReentrantLock()
+    private val coinSelectionIndex = CoinSelectionIndex()
+
+    init {
+        // The index only takes updates once they've been committed.
+        mutex.locked { _updatesPublisher }.subscribe { coinSelectionIndex.update(it) }
+    }
+
+    // coin selection retry loop counter and sleep (msecs)
     val MAX_RETRIES = 5
     val RETRY_SLEEP = 100
-    val spendLock: ReentrantLock = ReentrantLock()
 
+    /**
+     * Coins are first selected from the [CoinSelectionIndex], which claims them without taking any locks or querying
+     * the database, and then reserved with [softLockReserve]. If the index can't satisfy the request, because it doesn't
+     * yet know about states produced by uncommitted transactions or some of its coins have gone, the states are instead
+     * selected by a database query, which works with any database and only deserialises the states it selects. If
+     * neither can, for example because other flows hold the coins, the selection is retried a few times with a backoff
+     * in case they're released.
+     */
     @Suspendable
     override fun <T : ContractState> unconsumedStatesForSpending(amount: Amount<Currency>, onlyFromIssuerParties: Set<AbstractParty>?, notary: Party?, lockId: UUID, withIssuerRefs: Set<OpaqueBytes>?): List<StateAndRef<T>> {
-
-        val issuerKeysStr = onlyFromIssuerParties?.fold("") { left, right -> left + "('${right.owningKey.toBase58String()}')," }?.dropLast(1)
-        val issuerRefsStr = withIssuerRefs?.fold("") { left, right -> left + "('${right.bytes.toHexString()}')," }?.dropLast(1)
-
-        val stateAndRefs = mutableListOf<StateAndRef<T>>()
-
-        // TODO: Need to provide a database provider independent means of performing this function.
-        //       We are using an H2 specific means of selecting a minimum set of rows that match a request amount of coins:
-        //       1) There is no standard SQL mechanism of calculating a cumulative total on a field and restricting row selection on the
-        //          running total of such an accumulator
-        //       2) H2 uses session variables to perform this accumulator function:
-        //          http://www.h2database.com/html/functions.html#set
-        //       3) H2 does not support JOIN's in FOR UPDATE (hence we are forced to execute 2 queries)
-
+        val issuerKeys = onlyFromIssuerParties?.map { it.owningKey }?.toSet()
+        coinSelectionIndex.loadIfNecessary { loadUnconsumedCash() }
+        var stateAndRefs = emptyList<StateAndRef<T>>()
         for (retryCount in 1..MAX_RETRIES) {
-
+            selectFromIndex<T>(amount, issuerKeys, notary, lockId, withIssuerRefs)?.let { return it }
             spendLock.withLock {
-                val statement = configuration.jdbcSession().createStatement()
-                try {
-                    statement.execute("CALL SET(@t, 0);")
-
-                    // we select spendable states irrespective of lock but prioritised by unlocked ones (Eg. null)
-                    // the softLockReserve update will detect whether we try to lock states locked by others
-                    val selectJoin = """
-                        SELECT vs.transaction_id, vs.output_index, vs.contract_state, ccs.pennies, SET(@t, ifnull(@t,0)+ccs.pennies) total_pennies, vs.lock_id
-                        FROM vault_states AS vs, contract_cash_states AS ccs
-                        WHERE vs.transaction_id = ccs.transaction_id AND vs.output_index = ccs.output_index
-                        AND vs.state_status = 0
-                        AND ccs.ccy_code = '${amount.token}' and @t < ${amount.quantity}
-                        AND (vs.lock_id = '$lockId' OR vs.lock_id is null)
-                        """ +
-                            (if (notary != null)
-                                " AND vs.notary_key = '${notary.owningKey.toBase58String()}'" else "") +
-                            (if (issuerKeysStr != null)
-                                " AND ccs.issuer_key IN ($issuerKeysStr)" else "") +
-                            (if (issuerRefsStr != null)
-                                " AND ccs.issuer_ref IN ($issuerRefsStr)" else "")
-
-                    // Retrieve spendable state refs
-                    val rs = statement.executeQuery(selectJoin)
-                    stateAndRefs.clear()
-                    log.debug(selectJoin)
-                    var totalPennies = 0L
-                    while (rs.next()) {
-                        val txHash = SecureHash.parse(rs.getString(1))
-                        val index = rs.getInt(2)
-                        val stateRef = StateRef(txHash, index)
-                        val state = rs.getBytes(3).deserialize<TransactionState<T>>(context = STORAGE_CONTEXT)
-                        val pennies = rs.getLong(4)
-                        totalPennies = rs.getLong(5)
-                        val rowLockId = rs.getString(6)
-                        stateAndRefs.add(StateAndRef(state, stateRef))
-                        log.trace { "ROW: $rowLockId ($lockId): $stateRef : $pennies ($totalPennies)" }
-                    }
-
-                    if (stateAndRefs.isNotEmpty() && totalPennies >= amount.quantity) {
-                        // we should have a minimum number of states to satisfy our selection `amount` criteria
-                        log.trace("Coin selection for $amount retrieved ${stateAndRefs.count()} states totalling $totalPennies pennies: $stateAndRefs")
-
-                        // update database
-                        softLockReserve(lockId, (stateAndRefs.map { it.ref }).toNonEmptySet())
+                val (stateRefs, totalPennies) = selectFromDatabase(amount, issuerKeys, notary, lockId, withIssuerRefs)
+                val states = statesForRefs(stateRefs)
+                @Suppress("UNCHECKED_CAST")
+                stateAndRefs = stateRefs.mapNotNull { ref -> states[ref]?.let { StateAndRef(it as TransactionState<T>, ref) } }
+                if (stateAndRefs.isNotEmpty() && totalPennies >= amount.quantity) {
+                    log.trace("Coin selection for $amount retrieved ${stateAndRefs.count()} states totalling $totalPennies pennies: $stateAndRefs")
+                    try {
+                        softLockReserve(lockId, stateRefs.toNonEmptySet())
                         return stateAndRefs
+                    } catch (e: StatesNotAvailableException) {
+                        stateAndRefs = emptyList()
+                        log.warn(e.message)
                     }
-                    log.trace("Coin selection requested $amount but retrieved $totalPennies pennies with state refs: ${stateAndRefs.map { it.ref }}")
-                    // retry as more states may become available
-                } catch (e: SQLException) {
-                    log.error("""Failed retrieving unconsumed states for: amount [$amount], onlyFromIssuerParties [$onlyFromIssuerParties], notary [$notary], lockId [$lockId]
-                            $e.
-                        """)
-                } catch (e: StatesNotAvailableException) {
-                    stateAndRefs.clear()
-                    log.warn(e.message)
-                    // retry only if there are locked states that may become available again (or consumed with change)
-                } finally {
-                    statement.close()
+                } else {
+                    log.trace("Coin selection requested $amount but retrieved $totalPennies pennies with state refs: $stateRefs")
                 }
             }
-
             log.warn("Coin selection failed on attempt $retryCount")
             // TODO: revisit the back off strategy for contended spending.
             if (retryCount != MAX_RETRIES) {
                 FlowStateMachineImpl.sleep(RETRY_SLEEP * retryCount.toLong())
             }
         }
-
         log.warn("Insufficient spendable states identified for $amount")
         return stateAndRefs
     }
 
+    private fun <T : ContractState> selectFromIndex(amount: Amount<Currency>, issuerKeys: Set<PublicKey>?, notary: Party?, lockId: UUID, withIssuerRefs: Set<OpaqueBytes>?): List<StateAndRef<T>>? {
+        val selection = coinSelectionIndex.claim(lockId, amount, notary, issuerKeys, withIssuerRefs) ?: return null
+        val stateRefs = selection.states.map { it.ref }
+        try {
+            softLockReserve(lockId, stateRefs.toNonEmptySet())
+        } catch (e: StatesNotAvailableException) {
+            log.debug { "Indexed coin selection for $amount couldn't be reserved: ${e.message}" }
+            coinSelectionIndex.release(lockId, selection.newlyClaimed)
+            coinSelectionIndex.removeAll(stateRefs - statesForRefs(stateRefs).keys)
+            return null
+        }
+        releaseClaimsOnRollback(lockId, selection.newlyClaimed)
+        log.trace { "Coin selection for $amount claimed ${selection.states.size} indexed states: $stateRefs" }
+        @Suppress("UNCHECKED_CAST")
+        return selection.states as List<StateAndRef<T>>
+    }
+
+    /**
+     * Picks unconsumed cash states which are unlocked or already locked by us from the cash schema's table, in a query
+     * which any database can run, until they add up to [amount]. Only the amounts are read, leaving the states to be
+     * deserialised once chosen, and the soft lock reservation catches any states taken since.
+     *
+     * @return the chosen states and their total.
+     */
+    private fun selectFromDatabase(amount: Amount<Currency>, issuerKeys: Set<PublicKey>?, notary: Party?, lockId: UUID, withIssuerRefs: Set<OpaqueBytes>?): Pair<List<StateRef>, Long> {
+        val stateRefs = ArrayList<StateRef>()
+        var totalPennies = 0L
+        if (issuerKeys?.isEmpty() == true || withIssuerRefs?.isEmpty() == true) return Pair(stateRefs, totalPennies)
+        val params = mutableListOf(amount.token.currencyCode, lockId.toString())
+        var query = """
+                SELECT vs.transaction_id, vs.output_index, ccs.pennies
+                FROM vault_states AS vs, contract_cash_states AS ccs
+                WHERE vs.transaction_id = ccs.transaction_id AND vs.output_index = ccs.output_index
+                AND vs.state_status = ${Vault.StateStatus.UNCONSUMED.ordinal}
+                AND ccs.ccy_code = ?
+                AND (vs.lock_id = ? OR vs.lock_id IS NULL)
+                """
+        if (notary != null) {
+            query += " AND vs.notary_key = ?"
+            params += notary.owningKey.toBase58String()
+        }
+        if (issuerKeys != null) {
+            query += " AND ccs.issuer_key IN (${issuerKeys.joinToString { "?" }})"
+            params += issuerKeys.map { it.toBase58String() }
+        }
+        if (withIssuerRefs != null) {
+            query += " AND ccs.issuer_ref IN (${withIssuerRefs.joinToString { "?" }})"
+            params += withIssuerRefs.map { it.bytes.toHexString() }
+        }
+        log.debug(query)
+        configuration.jdbcSession().prepareStatement(query).use { statement ->
+            params.forEachIndexed { i, param -> statement.setString(i + 1, param) }
+            statement.executeQuery().use { rs ->
+                while (totalPennies < amount.quantity && rs.next()) {
+                    val stateRef = StateRef(SecureHash.parse(rs.getString(1)), rs.getInt(2))
+                    if (coinSelectionIndex.isClaimedByOther(stateRef, lockId)) continue
+                    stateRefs += stateRef
+                    totalPennies += rs.getLong(3)
+                }
+            }
+        }
+        return Pair(stateRefs, totalPennies)
+    }
+
+    // The index claims for lockId made in the current database transaction are released if it's rolled back, as the
+    // soft lock reservations they stand for are.
+    private fun releaseClaimsOnRollback(lockId: UUID, stateRefs: List<StateRef>) {
+        if (stateRefs.isEmpty()) return
+        val dbTxId = DatabaseTransactionManager.transactionId
+        DatabaseTransactionManager.transactionBoundaries.filter { it.txId == dbTxId }.first().subscribe {
+            if (!it.committed) coinSelectionIndex.release(lockId, stateRefs)
+        }
+    }
+
+    private fun loadUnconsumedCash(): List<Pair<StateAndRef<Cash.State>, UUID?>> {
+        return session.withTransaction(TransactionIsolation.REPEATABLE_READ) {
+            select(VaultSchema.VaultStates::class)
+                    .where(VaultSchema.VaultStates::stateStatus eq Vault.StateStatus.UNCONSUMED)
+                    .and(VaultSchema.VaultStates::contractStateClassName eq Cash.State::class.java.name)
+                    .get()
+                    .map {
+                        val stateRef = StateRef(SecureHash.parse(it.txId), it.index)
+                        val state = it.contractState.deserialize<TransactionState<Cash.State>>(context = STORAGE_CONTEXT)
+                        StateAndRef(state, stateRef) to it.lockId?.let { UUID.fromString(it) }
+                    }
+        }
+    }
+
     override fun <T : ContractState> softLockedStates(lockId: UUID?): List<StateAndRef<T>> {
         val stateAndRefs =
                 session.withTransaction(TransactionIsolation.REPEATABLE_READ) {
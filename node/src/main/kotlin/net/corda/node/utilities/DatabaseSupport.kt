@@ -49,6 +49,18 @@ fun Table.instant(name: String) = this.registerColumn<Instant>(name, InstantColu
 fun Table.stateRef(txIdColumnName: String, indexColumnName: String) = StateRefColumns(this.secureHash(txIdColumnName), this.integer(indexColumnName))
 fun Table.txnNote(txIdColumnName: String, txnNoteColumnName: String) = TxnNoteColumns(this.secureHash(txIdColumnName), this.text(txnNoteColumnName))
 
+/**
+ * Drops the table in the current transaction, such as one left by an earlier version whose contents have been migrated.
+ */
+fun Table.dropTable() {
+    val statement = DatabaseTransactionManager.current().connection.createStatement()
+    try {
+        statement.execute("DROP TABLE $tableName")
+    } finally {
+        statement.close()
+    }
+}
+
 /**
  * [ColumnType] for marshalling to/from database on behalf of [X509CertificateHolder].
  */
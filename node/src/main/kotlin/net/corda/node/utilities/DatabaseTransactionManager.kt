@@ -23,21 +23,26 @@ class DatabaseTransaction(isolation: Int, val threadLocal: ThreadLocal<DatabaseT
 
     val outerTransaction: DatabaseTransaction? = threadLocal.get()
 
+    // Whether the transaction was last committed rather than rolled back, as reported by its boundary.
+    private var committed = false
+
     fun commit() {
         connection.commit()
+        committed = true
     }
 
     fun rollback() {
         if (!connection.isClosed) {
             connection.rollback()
         }
+        committed = false
     }
 
     fun close() {
         connection.close()
         threadLocal.set(outerTransaction)
         if (outerTransaction == null) {
-            transactionBoundaries.onNext(DatabaseTransactionManager.Boundary(id))
+            transactionBoundaries.onNext(DatabaseTransactionManager.Boundary(id, committed))
         }
     }
 }
@@ -81,7 +86,8 @@ class DatabaseTransactionManager(initDataSource: CordaPersistence) {
         fun newTransaction(isolation: Int) = manager.newTransaction(isolation)
     }
 
-    data class Boundary(val txId: UUID)
+    /** The end of the top level transaction [txId], which [committed] if its changes were committed. */
+    data class Boundary(val txId: UUID, val committed: Boolean)
 
     private val _transactionBoundaries = PublishSubject.create<Boundary>().toSerialized()
 
@@ -390,6 +390,19 @@ abstract class AbstractJDBCHashMap<K : Any, V : Any, out T : JDBCHashedTable>(va
         return oldValue
     }
 
+    /**
+     * Adds entries whose keys are known not to be in the map, without loading their buckets to look for existing
+     * entries first. This is meant for bulk loading, for example into a map which has just been cleared, and the map
+     * is left with duplicate keys if the assumption doesn't hold.
+     */
+    fun putAllAbsent(entries: Map<out K, V>) {
+        for ((key, value) in entries) {
+            val seqNo = addRecord(key, value, null)
+            // Buckets which aren't in memory will pick the new record up when they're next loaded.
+            buckets[key.hashCode()]?.add(NotReallyMutableEntry(key, value, seqNo))
+        }
+    }
+
     override fun containsValue(value: V): Boolean {
         for (storedValue in values) {
             if (storedValue == value) {
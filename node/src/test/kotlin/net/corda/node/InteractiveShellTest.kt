@@ -86,6 +86,10 @@ class InteractiveShellTest {
             throw UnsupportedOperationException("not implemented")
         }
 
+        override fun <V> waitForFuture(request: () -> ListenableFuture<V>): V {
+            throw UnsupportedOperationException("not implemented")
+        }
+
         override val serviceHub: ServiceHub
             get() = throw UnsupportedOperationException()
         override val logger: Logger
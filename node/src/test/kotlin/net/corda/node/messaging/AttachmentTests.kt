@@ -4,6 +4,8 @@ import net.corda.core.contracts.Attachment
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.sha256
 import net.corda.core.getOrThrow
+import net.corda.core.internal.div
+import net.corda.core.internal.write
 import net.corda.core.messaging.SingleMessageRecipient
 import net.corda.core.node.services.ServiceInfo
 import net.corda.core.flows.FetchAttachmentsFlow
@@ -11,7 +13,6 @@ import net.corda.core.flows.FetchDataFlow
 import net.corda.node.services.config.NodeConfiguration
 import net.corda.node.services.database.RequeryConfiguration
 import net.corda.node.services.network.NetworkMapService
-import net.corda.node.services.persistence.schemas.requery.AttachmentEntity
 import net.corda.node.services.transactions.SimpleNotaryService
 import net.corda.testing.node.MockNetwork
 import net.corda.testing.node.makeTestDataSourceProperties
@@ -22,6 +23,7 @@ import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.math.BigInteger
 import java.security.KeyPair
+import java.util.*
 import java.util.jar.JarOutputStream
 import java.util.zip.ZipEntry
 import kotlin.test.assertEquals
@@ -43,11 +45,13 @@ class AttachmentTests {
         mockNet.stopNodes()
     }
 
-    fun fakeAttachment(): ByteArray {
+    fun fakeAttachment(): ByteArray = fakeAttachment("file1.txt", "Some useful content".toByteArray())
+
+    fun fakeAttachment(name: String, content: ByteArray): ByteArray {
         val bs = ByteArrayOutputStream()
         val js = JarOutputStream(bs)
-        js.putNextEntry(ZipEntry("file1.txt"))
-        js.writer().apply { append("Some useful content"); flush() }
+        js.putNextEntry(ZipEntry(name))
+        js.write(content)
         js.closeEntry()
         js.close()
         return bs.toByteArray()
@@ -84,6 +88,55 @@ class AttachmentTests {
         assertEquals(attachment, response.fromDisk[0])
     }
 
+    @Test
+    fun `download several attachments spanning chunks`() {
+        val nodes = mockNet.createSomeNodes(2)
+        val n0 = nodes.partyNodes[0]
+        val n1 = nodes.partyNodes[1]
+
+        // A large attachment which has to be split across chunks, between small ones which can share a chunk.
+        val large = fakeAttachment("large.bin", ByteArray(FetchDataFlow.MAX_CHUNK_SIZE * 2 + 1).also { Random(0).nextBytes(it) })
+        val attachments = listOf(fakeAttachment(), large, fakeAttachment("file2.txt", "Other content".toByteArray()))
+        val ids = n0.database.transaction {
+            attachments.map { n0.attachments.importAttachment(ByteArrayInputStream(it)) }
+        }
+
+        mockNet.runNetwork()
+        val f1 = n1.services.startFlow(FetchAttachmentsFlow(ids.toSet(), n0.info.legalIdentity))
+        mockNet.runNetwork()
+        assertEquals(ids, f1.resultFuture.getOrThrow().downloaded.map { it.id })
+
+        n1.database.transaction {
+            ids.forEach { assertEquals(it, n1.attachments.openAttachment(it)!!.open().readBytes().sha256()) }
+        }
+    }
+
+    @Test
+    fun `download from a node on an earlier platform version`() {
+        // A node which only answers the requests of earlier versions, one item per message.
+        val n0 = mockNet.createNode(null, -1, object : MockNetwork.Factory {
+            override fun create(config: NodeConfiguration, network: MockNetwork, networkMapAddr: SingleMessageRecipient?,
+                                advertisedServices: Set<ServiceInfo>, id: Int,
+                                overrideServices: Map<ServiceInfo, KeyPair>?,
+                                entropyRoot: BigInteger): MockNetwork.MockNode {
+                return object : MockNetwork.MockNode(config, network, networkMapAddr, advertisedServices, id, overrideServices, entropyRoot) {
+                    override val platformVersion: Int get() = FetchDataFlow.STREAMING_PLATFORM_VERSION - 1
+                }
+            }
+        }, true, null, null, ServiceInfo(NetworkMapService.type), ServiceInfo(SimpleNotaryService.type))
+        val n1 = mockNet.createNode(n0.network.myAddress)
+
+        val attachments = listOf(fakeAttachment(), fakeAttachment("file2.txt", "Other content".toByteArray()))
+        val ids = n0.database.transaction {
+            attachments.map { n0.attachments.importAttachment(ByteArrayInputStream(it)) }
+        }
+
+        mockNet.runNetwork()
+        val f1 = n1.services.startFlow(FetchAttachmentsFlow(ids.toSet(), n0.info.legalIdentity))
+        mockNet.runNetwork()
+        assertEquals(ids, f1.resultFuture.getOrThrow().downloaded.map { it.id })
+    }
+
     @Test
     fun `missing`() {
         val nodes = mockNet.createSomeNodes(2)
@@ -127,13 +180,7 @@ class AttachmentTests {
         // Corrupt its store.
         val corruptBytes = "arggghhhh".toByteArray()
         System.arraycopy(corruptBytes, 0, attachment, 0, corruptBytes.size)
-
-        val corruptAttachment = AttachmentEntity()
-        corruptAttachment.attId = id
-        corruptAttachment.content = attachment
-        n0.database.transaction {
-            n0.attachments.session.update(corruptAttachment)
-        }
+        (n0.attachments.storePath / id.toString()).write { it.write(attachment) }
 
 
         // Get n1 to fetch the attachment. Should receive corrupted bytes.
@@ -1,6 +1,7 @@
 package net.corda.node.messaging
 
 import co.paralleluniverse.fibers.Suspendable
+import com.codahale.metrics.MetricRegistry
 import net.corda.contracts.CommercialPaper
 import net.corda.contracts.asset.CASH
 import net.corda.contracts.asset.Cash
@@ -25,7 +26,9 @@ import net.corda.core.messaging.SingleMessageRecipient
 import net.corda.core.messaging.StateMachineTransactionMapping
 import net.corda.core.node.NodeInfo
 import net.corda.core.node.services.ServiceInfo
+import net.corda.core.node.services.TransactionStorage
 import net.corda.core.node.services.Vault
+import net.corda.core.node.services.vault.PageSpecification
 import net.corda.core.rootCause
 import net.corda.core.serialization.serialize
 import net.corda.core.toFuture
@@ -303,8 +306,8 @@ class TwoPartyTradeFlowTests {
                                 entropyRoot: BigInteger): MockNetwork.MockNode {
                 return object : MockNetwork.MockNode(config, network, networkMapAddr, advertisedServices, id, overrideServices, entropyRoot) {
                     // That constructs a recording tx storage
-                    override fun makeTransactionStorage(): WritableTransactionStorage {
-                        return RecordingTransactionStorage(database, super.makeTransactionStorage())
+                    override fun makeTransactionStorage(metrics: MetricRegistry): WritableTransactionStorage {
+                        return RecordingTransactionStorage(database, super.makeTransactionStorage(metrics))
                     }
                 }
             }
@@ -706,6 +709,18 @@ class TwoPartyTradeFlowTests {
             }
         }
 
+        override fun queryBy(paging: PageSpecification, since: SecureHash?, upTo: Long?): TransactionStorage.Page {
+            return database.transaction {
+                delegate.queryBy(paging, since, upTo)
+            }
+        }
+
+        override fun trackBy(paging: PageSpecification, since: SecureHash?): DataFeed<TransactionStorage.Page, SignedTransaction> {
+            return database.transaction {
+                delegate.trackBy(paging, since)
+            }
+        }
+
         val records: MutableList<TxRecord> = Collections.synchronizedList(ArrayList<TxRecord>())
         override val updates: Observable<SignedTransaction>
             get() = delegate.updates
@@ -0,0 +1,49 @@
+package net.corda.node.services.keys
+
+import net.corda.core.crypto.DigitalSignature
+import net.corda.core.crypto.generateKeyPair
+import net.corda.core.getOrThrow
+import net.corda.core.node.services.KeyManagementService.SigningRequest
+import net.corda.testing.node.MockServices
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Test
+import java.security.KeyPair
+import java.util.concurrent.ConcurrentHashMap
+
+class SigningWorkersTest {
+    private val keys = (1..3).map { generateKeyPair() }
+    private val signingThreads: MutableSet<Thread> = ConcurrentHashMap.newKeySet()
+    private val backend = object : SigningBackend {
+        override fun sign(keyPair: KeyPair, bytes: ByteArray): DigitalSignature.WithKey {
+            signingThreads += Thread.currentThread()
+            return InProcessSigningBackend.sign(keyPair, bytes)
+        }
+    }
+    private val workers = SigningWorkers.pool(2, backend)
+    private val kms = E2ETestKeyManagementService(MockServices().identityService, keys.toSet(), workers)
+
+    @After
+    fun cleanUp() {
+        workers.close()
+    }
+
+    @Test
+    fun `batch is signed on the workers in the order of the requests`() {
+        val requests = (0..9).map { SigningRequest("message $it".toByteArray(), keys[it % keys.size].public) }
+        val signatures = kms.signAsync(requests).getOrThrow()
+        assertThat(signatures).hasSameSizeAs(requests)
+        requests.zip(signatures).forEach { (request, signature) ->
+            assertThat(signature.by).isEqualTo(request.publicKey)
+            signature.verify(request.bytes)
+        }
+        assertThat(signingThreads).doesNotContain(Thread.currentThread())
+    }
+
+    @Test
+    fun `synchronous signing is done on the calling thread by the backend`() {
+        val bytes = "message".toByteArray()
+        kms.sign(bytes, keys[0].public).verify(bytes)
+        assertThat(signingThreads).containsOnly(Thread.currentThread())
+    }
+}
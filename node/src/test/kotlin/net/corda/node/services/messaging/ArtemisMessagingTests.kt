@@ -4,6 +4,7 @@ import com.codahale.metrics.MetricRegistry
 import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.SettableFuture
+import com.nhaarman.mockito_kotlin.whenever
 import net.corda.core.crypto.generateKeyPair
 import net.corda.core.messaging.RPCOps
 import net.corda.core.utilities.NetworkHostAndPort
@@ -32,6 +33,7 @@ import org.junit.rules.TemporaryFolder
 import java.net.ServerSocket
 import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
 import kotlin.concurrent.thread
 import kotlin.test.assertEquals
 import kotlin.test.assertNull
@@ -189,6 +191,49 @@ class ArtemisMessagingTests : TestDependencyInjectionBase() {
         assertNull(receivedMessages.poll(200, MILLISECONDS))
     }
 
+    @Test
+    fun `client should deliver batched messages in order and only once`() {
+        whenever(config.messageBatchSize).thenReturn(10)
+        whenever(config.messageBatchTimeoutMillis).thenReturn(50L)
+        val iterations = 25
+
+        val receivedMessages = LinkedBlockingQueue<Message>()
+
+        val messagingClient = createAndStartClientAndServer(receivedMessages)
+        for (iter in 1..iterations) {
+            val message = messagingClient.createMessage(topic, DEFAULT_SESSION_ID, "msg $iter".toByteArray())
+            messagingClient.send(message, messagingClient.myAddress)
+        }
+
+        for (iter in 1..iterations) {
+            val actual: Message = receivedMessages.take()
+            assertThat(String(actual.data)).isEqualTo("msg $iter")
+        }
+        assertNull(receivedMessages.poll(200, MILLISECONDS))
+    }
+
+    @Test
+    fun `client should deliver a batch when its timeout expires while no more messages are waiting`() {
+        // The batch can't fill up, and draining the messages sent takes it past its deadline.
+        whenever(config.messageBatchSize).thenReturn(100)
+        whenever(config.messageBatchTimeoutMillis).thenReturn(1L)
+        val iterations = 50
+
+        val receivedMessages = LinkedBlockingQueue<Message>()
+
+        val messagingClient = createAndStartClientAndServer(receivedMessages)
+        for (iter in 1..iterations) {
+            val message = messagingClient.createMessage(topic, DEFAULT_SESSION_ID, "msg $iter".toByteArray())
+            messagingClient.send(message, messagingClient.myAddress)
+        }
+
+        for (iter in 1..iterations) {
+            val actual = receivedMessages.poll(5, SECONDS)
+            assertThat(actual).isNotNull()
+            assertThat(String(actual!!.data)).isEqualTo("msg $iter")
+        }
+    }
+
     private fun startNodeMessagingClient() {
         messagingClient!!.start(rpcOps, userService)
     }
@@ -0,0 +1,118 @@
+package net.corda.node.services.messaging
+
+import net.corda.core.utilities.minutes
+import net.corda.node.utilities.*
+import net.corda.testing.TestDependencyInjectionBase
+import net.corda.testing.node.TestClock
+import net.corda.testing.node.makeTestDataSourceProperties
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.insert
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.time.Clock
+import java.util.*
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ProcessedMessageStoreTest : TestDependencyInjectionBase() {
+    private val retention = 10.minutes
+    private val realClock: Clock = Clock.systemUTC()
+    private val testClock = TestClock(Clock.fixed(realClock.instant(), realClock.zone))
+
+    lateinit var database: CordaPersistence
+
+    @Before
+    fun setUp() {
+        database = configureDatabase(makeTestDataSourceProperties())
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    private fun newStore(recentWindowSize: Int = 100) = database.transaction {
+        ProcessedMessageStore(retention, recentWindowSize, testClock)
+    }
+
+    @Test
+    fun `recorded IDs are reported as processed`() {
+        val store = newStore()
+        val id = UUID.randomUUID()
+        database.transaction {
+            assertFalse(id in store)
+            store.add(id)
+            assertTrue(id in store)
+            assertFalse(UUID.randomUUID() in store)
+        }
+    }
+
+    @Test
+    fun `IDs which have dropped out of the recent window are still found`() {
+        val store = newStore(recentWindowSize = 1)
+        val ids = (1..10).map { UUID.randomUUID() }
+        database.transaction {
+            ids.forEach { store.add(it) }
+            ids.forEach { assertTrue(it in store) }
+        }
+    }
+
+    @Test
+    fun `IDs recorded in a transaction which is rolled back are not reported as processed`() {
+        val store = newStore()
+        val id = UUID.randomUUID()
+        assertFailsWith<IllegalStateException> {
+            database.transaction {
+                store.add(id)
+                throw IllegalStateException("Rolled back")
+            }
+        }
+        database.transaction { assertFalse(id in store) }
+    }
+
+    private object LegacyTable : JDBCHashedTable("${NODE_DATABASE_PREFIX}message_ids") {
+        val messageId = uuidString("message_id")
+    }
+
+    @Test
+    fun `IDs recorded in the legacy table are migrated`() {
+        val id = UUID.randomUUID()
+        database.transaction {
+            SchemaUtils.create(LegacyTable)
+            LegacyTable.insert {
+                it[keyHash] = id.hashCode()
+                it[messageId] = id
+            }
+        }
+        val store = newStore()
+        database.transaction {
+            assertTrue(id in store)
+            assertFalse(LegacyTable.exists())
+        }
+    }
+
+    @Test
+    fun `IDs recorded before a restart are remembered`() {
+        val id = UUID.randomUUID()
+        val store = newStore()
+        database.transaction { store.add(id) }
+        val restarted = newStore()
+        database.transaction { assertTrue(id in restarted) }
+    }
+
+    @Test
+    fun `IDs are forgotten once they are older than the retention period`() {
+        val store = newStore(recentWindowSize = 1)
+        val old = UUID.randomUUID()
+        database.transaction { store.add(old) }
+        testClock.advanceBy(retention)
+        // Rotates the generation containing the old ID into the previous generation.
+        database.transaction { store.add(UUID.randomUUID()) }
+        database.transaction { assertTrue(old in store) }
+        testClock.advanceBy(retention)
+        database.transaction { store.add(UUID.randomUUID()) }
+        database.transaction { assertFalse(old in store) }
+    }
+}
@@ -1,17 +1,20 @@
 package net.corda.node.services.persistence
 
 import com.google.common.primitives.Ints
+import net.corda.core.serialization.SerializationDefaults.CHECKPOINT_CONTEXT
 import net.corda.core.serialization.SerializedBytes
+import net.corda.core.serialization.serialize
 import net.corda.node.services.api.Checkpoint
 import net.corda.node.services.api.CheckpointStorage
 import net.corda.node.services.transactions.PersistentUniquenessProvider
-import net.corda.node.utilities.CordaPersistence
-import net.corda.node.utilities.configureDatabase
+import net.corda.node.utilities.*
 import net.corda.testing.LogHelper
 import net.corda.testing.TestDependencyInjectionBase
 import net.corda.testing.node.makeTestDataSourceProperties
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.assertThatExceptionOfType
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.insert
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
@@ -146,6 +149,63 @@ class DBCheckpointStorageTests : TestDependencyInjectionBase() {
         }
     }
 
+    @Test
+    fun `replace checkpoint`() {
+        val previous = newCheckpoint()
+        val other = newCheckpoint()
+        database.transaction {
+            checkpointStorage.addCheckpoint(previous)
+            checkpointStorage.addCheckpoint(other)
+        }
+        val replacement = newCheckpoint()
+        database.transaction {
+            checkpointStorage.replaceCheckpoint(previous, replacement)
+        }
+        newCheckpointStorage()
+        database.transaction {
+            assertThat(checkpointStorage.checkpoints()).containsOnly(other, replacement)
+            assertThat(checkpointStorage.getCheckpoint(replacement.id)).isEqualTo(replacement)
+            assertThat(checkpointStorage.getCheckpoint(previous.id)).isNull()
+        }
+    }
+
+    @Test
+    fun `replace unknown checkpoint`() {
+        database.transaction {
+            assertThatExceptionOfType(IllegalArgumentException::class.java).isThrownBy {
+                checkpointStorage.replaceCheckpoint(newCheckpoint(), newCheckpoint())
+            }
+        }
+    }
+
+    @Test
+    fun `checkpoints in the legacy table are migrated`() {
+        val checkpoints = listOf(newCheckpoint(), newCheckpoint())
+        database.transaction {
+            SchemaUtils.create(LegacyCheckpoints)
+            for (checkpoint in checkpoints) {
+                val finalizables = mutableListOf<() -> Unit>()
+                LegacyCheckpoints.insert {
+                    it[LegacyCheckpoints.keyHash] = checkpoint.id.hashCode()
+                    it[LegacyCheckpoints.checkpointId] = checkpoint.id
+                    it[LegacyCheckpoints.checkpoint] = bytesToBlob(checkpoint.serialize(context = CHECKPOINT_CONTEXT), finalizables)
+                }
+                finalizables.forEach { it() }
+            }
+        }
+        newCheckpointStorage()
+        database.transaction {
+            assertThat(checkpointStorage.checkpoints()).containsOnly(checkpoints[0], checkpoints[1])
+            assertThat(LegacyCheckpoints.exists()).isFalse()
+        }
+    }
+
+    // The table checkpoints were kept in before DBCheckpointStorage had its own.
+    private object LegacyCheckpoints : JDBCHashedTable("${NODE_DATABASE_PREFIX}checkpoints") {
+        val checkpointId = secureHash("checkpoint_id")
+        val checkpoint = blob("checkpoint")
+    }
+
     private fun newCheckpointStorage() {
         database.transaction {
             checkpointStorage = DBCheckpointStorage()
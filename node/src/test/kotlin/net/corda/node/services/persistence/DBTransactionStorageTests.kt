@@ -1,10 +1,12 @@
 package net.corda.node.services.persistence
 
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.contracts.StateRef
 import net.corda.core.contracts.TransactionType
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.testing.NullPublicKey
+import net.corda.core.node.services.vault.PageSpecification
 import net.corda.core.toFuture
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.transactions.WireTransaction
@@ -16,6 +18,7 @@ import net.corda.testing.LogHelper
 import net.corda.testing.TestDependencyInjectionBase
 import net.corda.testing.node.makeTestDataSourceProperties
 import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
@@ -118,6 +121,49 @@ class DBTransactionStorageTests : TestDependencyInjectionBase() {
         }
     }
 
+    @Test
+    fun `transaction read back before being rolled back is not retained`() {
+        val transaction = newTransaction()
+        database.transaction {
+            transactionStorage.addTransaction(transaction)
+            assertThat(transactionStorage.getTransaction(transaction.id)).isEqualTo(transaction)
+            rollback()
+        }
+        database.transaction {
+            assertThat(transactionStorage.getTransaction(transaction.id)).isNull()
+        }
+    }
+
+    @Test
+    fun `duplicate is not recorded`() {
+        val transaction = newTransaction()
+        database.transaction {
+            assertThat(transactionStorage.addTransaction(transaction)).isTrue()
+            assertThat(transactionStorage.addTransaction(transaction)).isFalse()
+        }
+        database.transaction {
+            assertThat(transactionStorage.addTransaction(transaction)).isFalse()
+        }
+        newTransactionStorage()
+        database.transaction {
+            assertThat(transactionStorage.addTransaction(transaction)).isFalse()
+            assertThat(transactionStorage.transactions).containsExactly(transaction)
+        }
+    }
+
+    @Test
+    fun `reads are cached`() {
+        val metrics = MetricRegistry()
+        val transaction = newTransaction()
+        database.transaction {
+            transactionStorage = DBTransactionStorage(metrics)
+            transactionStorage.addTransaction(transaction)
+        }
+        repeat(4) { assertTransactionIsRetrievable(transaction) }
+        assertThat(metrics.timers["TransactionStorage.LoadDuration"]!!.count).isEqualTo(1)
+        assertThat(metrics.gauges["TransactionStorage.CacheHitRate"]!!.value).isEqualTo(0.75)
+    }
+
     @Test
     fun `updates are fired`() {
         val future = transactionStorage.updates.toFuture()
@@ -129,6 +175,74 @@ class DBTransactionStorageTests : TestDependencyInjectionBase() {
         assertEquals(expected, actual)
     }
 
+    @Test
+    fun `transactions are paged in the order they were recorded`() {
+        val transactions = (1..5).map { newTransaction() }
+        database.transaction {
+            transactions.forEach { transactionStorage.addTransaction(it) }
+        }
+        database.transaction {
+            val firstPage = transactionStorage.queryBy(PageSpecification(1, 2))
+            assertThat(firstPage.transactions).containsExactlyElementsOf(transactions.subList(0, 2))
+            assertThat(firstPage.totalTransactionsAvailable).isEqualTo(5L)
+            assertThat(transactionStorage.queryBy(PageSpecification(3, 2)).transactions).containsExactly(transactions[4])
+            assertThat(transactionStorage.queryBy(PageSpecification(4, 2)).transactions).isEmpty()
+        }
+    }
+
+    @Test
+    fun `transactions are paged since a given transaction`() {
+        val transactions = (1..5).map { newTransaction() }
+        database.transaction {
+            transactions.forEach { transactionStorage.addTransaction(it) }
+        }
+        database.transaction {
+            val page = transactionStorage.queryBy(PageSpecification(1, 2), since = transactions[1].id)
+            assertThat(page.transactions).containsExactlyElementsOf(transactions.subList(2, 4))
+            assertThat(page.totalTransactionsAvailable).isEqualTo(3L)
+            assertThatThrownBy { transactionStorage.queryBy(PageSpecification(1, 2), since = newTransaction().id) }
+                    .isInstanceOf(IllegalArgumentException::class.java)
+            assertThatThrownBy { transactionStorage.queryBy(PageSpecification(0, 2)) }
+                    .isInstanceOf(IllegalArgumentException::class.java)
+        }
+    }
+
+    @Test
+    fun `transactions are paged up to those recorded when an earlier page was read`() {
+        val transactions = (1..3).map { newTransaction() }
+        database.transaction {
+            transactions.take(2).forEach { transactionStorage.addTransaction(it) }
+        }
+        val firstPage = database.transaction {
+            transactionStorage.queryBy(PageSpecification(1, 1))
+        }
+        database.transaction {
+            transactionStorage.addTransaction(transactions[2])
+        }
+        database.transaction {
+            val page = transactionStorage.queryBy(PageSpecification(1, 10), since = transactions[0].id, upTo = firstPage.recordedUpTo)
+            assertThat(page.transactions).containsExactly(transactions[1])
+        }
+    }
+
+    @Test
+    fun `paged feed includes transactions recorded afterwards in the updates`() {
+        val first = newTransaction()
+        database.transaction {
+            transactionStorage.addTransaction(first)
+        }
+        val (page, updates) = database.transaction {
+            transactionStorage.trackBy(PageSpecification(1, 10))
+        }
+        val future = updates.toFuture()
+        val second = newTransaction()
+        database.transaction {
+            transactionStorage.addTransaction(second)
+        }
+        assertThat(page.transactions).containsExactly(first)
+        assertEquals(second, future.get(1, TimeUnit.SECONDS))
+    }
+
     private fun newTransactionStorage() {
         database.transaction {
             transactionStorage = DBTransactionStorage()
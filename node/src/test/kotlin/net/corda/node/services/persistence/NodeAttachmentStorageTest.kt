@@ -5,15 +5,13 @@ import com.google.common.jimfs.Configuration
 import com.google.common.jimfs.Jimfs
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.sha256
-import net.corda.core.internal.read
-import net.corda.core.internal.readAll
+import net.corda.core.internal.*
 import net.corda.testing.LogHelper
-import net.corda.core.internal.write
-import net.corda.core.internal.writeLines
 import net.corda.node.services.database.RequeryConfiguration
 import net.corda.node.services.persistence.schemas.requery.AttachmentEntity
 import net.corda.node.services.transactions.PersistentUniquenessProvider
 import net.corda.node.utilities.CordaPersistence
+import net.corda.node.utilities.DatabaseTransactionManager
 import net.corda.node.utilities.configureDatabase
 import net.corda.testing.node.makeTestDataSourceProperties
 import org.junit.After
@@ -26,6 +24,7 @@ import java.nio.file.Path
 import java.util.*
 import java.util.jar.JarEntry
 import java.util.jar.JarOutputStream
+import kotlin.streams.toList
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
 import kotlin.test.assertNull
@@ -108,10 +107,7 @@ class NodeAttachmentStorageTest {
             val bytes = testJar.readAll()
             val corruptBytes = "arggghhhh".toByteArray()
             System.arraycopy(corruptBytes, 0, bytes, 0, corruptBytes.size)
-            val corruptAttachment = AttachmentEntity()
-            corruptAttachment.attId = id
-            corruptAttachment.content = bytes
-            storage.session.update(corruptAttachment)
+            (storage.storePath / id.toString()).write { it.write(bytes) }
 
             val e = assertFailsWith<NodeAttachmentService.HashMismatchException> {
                 storage.openAttachment(id)!!.open().use { it.readBytes() }
@@ -126,10 +122,29 @@ class NodeAttachmentStorageTest {
         }
     }
 
+    @Test
+    fun `attachment is stored as a file named by its hash`() {
+        val testJar = makeTestJar()
+        database.transaction {
+            val storePath = fs.getPath("/store").createDirectory()
+            val storage = NodeAttachmentService(storePath, dataSourceProperties, MetricRegistry())
+            val id = testJar.read { storage.importAttachment(it) }
+
+            // Nothing is left behind from the import, and the store holds the JAR as is.
+            assertEquals(listOf(storePath / id.toString()), storePath.list { it.toList() })
+            assertEquals(testJar.readAll().toList(), (storePath / id.toString()).readAll().toList())
+            val entity = storage.session.withTransaction {
+                storage.session.select(AttachmentEntity::class).where(AttachmentEntity.ATT_ID.eq(id)).get().single()
+            }
+            assertEquals(testJar.size, entity.size)
+        }
+    }
+
     @Test
     fun `non jar rejected`() {
         database.transaction {
-            val storage = NodeAttachmentService(fs.getPath("/"), dataSourceProperties, MetricRegistry())
+            val storePath = fs.getPath("/store").createDirectory()
+            val storage = NodeAttachmentService(storePath, dataSourceProperties, MetricRegistry())
             val path = fs.getPath("notajar")
             path.writeLines(listOf("Hey", "there!"))
             path.read {
@@ -137,6 +152,33 @@ class NodeAttachmentStorageTest {
                     storage.importAttachment(it)
                 }
             }
+            // The rejected stream isn't left in the store.
+            assertEquals(0L, storePath.list { it.count() })
+        }
+    }
+
+    @Test
+    fun `attachments stored in the database by earlier versions are moved to the store`() {
+        val testJar = makeTestJar()
+        val id = testJar.readAll().sha256()
+        database.transaction {
+            val connection = DatabaseTransactionManager.current().connection
+            connection.createStatement().use { it.execute("CREATE TABLE attachments (att_id VARCHAR(64) NOT NULL PRIMARY KEY, content BLOB NOT NULL)") }
+            connection.prepareStatement("INSERT INTO attachments (att_id, content) VALUES (?, ?)").use {
+                it.setString(1, id.toString())
+                it.setBytes(2, testJar.readAll())
+                it.executeUpdate()
+            }
+        }
+        database.transaction {
+            val storePath = fs.getPath("/store").createDirectory()
+            val storage = NodeAttachmentService(storePath, dataSourceProperties, MetricRegistry())
+            assertEquals(testJar.readAll().toList(), (storePath / id.toString()).readAll().toList())
+            assertEquals(testJar.readAll().toList(), storage.openAttachment(id)!!.open().use { it.readBytes() }.toList())
+            val entity = storage.session.withTransaction {
+                storage.session.select(AttachmentEntity::class).where(AttachmentEntity.ATT_ID.eq(id)).get().single()
+            }
+            assertEquals(testJar.size, entity.size)
         }
     }
 
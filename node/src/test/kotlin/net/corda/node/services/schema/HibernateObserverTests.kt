@@ -1,5 +1,6 @@
 package net.corda.node.services.schema
 
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.contracts.*
 import net.corda.core.crypto.SecureHash
 import net.corda.core.identity.AbstractParty
@@ -116,4 +117,38 @@ class HibernateObserverTests {
             assertEquals(2, childrenRows, "Expected two children")
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testStatesProducedTogetherArePersistedInOneBatch() {
+        val testSchema = object : MappedSchema(SchemaFamily::class.java, 1, setOf(Parent::class.java, Child::class.java)) {}
+        val rawUpdatesPublisher = PublishSubject.create<Vault.Update>()
+        val schemaService = object : SchemaService {
+            override val schemaOptions: Map<MappedSchema, SchemaService.SchemaOptions> = emptyMap()
+
+            override fun selectSchemas(state: ContractState): Iterable<MappedSchema> = setOf(testSchema)
+
+            override fun generateMappedObject(state: ContractState, schema: MappedSchema): PersistentState {
+                val parent = Parent()
+                parent.children.add(Child())
+                return parent
+            }
+        }
+        val metrics = MetricRegistry()
+
+        @Suppress("UNUSED_VARIABLE")
+        val observer = HibernateObserver(rawUpdatesPublisher, HibernateConfiguration(schemaService), metrics)
+        val stateCount = HibernateConfiguration.JDBC_BATCH_SIZE * 2 + 1
+        database.transaction {
+            val produced = (0 until stateCount).map { StateAndRef(TransactionState(TestState(), MEGA_CORP), StateRef(SecureHash.sha256("dummy"), it)) }
+            rawUpdatesPublisher.onNext(Vault.Update(emptySet(), produced.toSet()))
+            val parentRowCountResult = TransactionManager.current().connection.prepareStatement("select count(*) from Parents").executeQuery()
+            parentRowCountResult.next()
+            val parentRows = parentRowCountResult.getInt(1)
+            parentRowCountResult.close()
+            assertEquals(stateCount, parentRows)
+        }
+        val batchSizes = metrics.histogram("MappedSchemas.PersistBatchSize")
+        assertEquals(1L, batchSizes.count)
+        assertEquals(stateCount.toLong(), batchSizes.snapshot.max)
+    }
+}
@@ -0,0 +1,22 @@
+package net.corda.node.services.statemachine
+
+import net.corda.core.serialization.SerializedBytes
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CheckpointEncodingTest {
+    private val serialized = SerializedBytes<Any>(("corda\u0000\u0000\u0001" + "fiber stack ".repeat(1000)).toByteArray())
+
+    @Test
+    fun `unencoded checkpoint is stored as is`() {
+        assertThat(CheckpointEncoding.None.encode(serialized)).isSameAs(serialized)
+        assertThat(CheckpointEncoding.decode(serialized)).isSameAs(serialized)
+    }
+
+    @Test
+    fun `deflated checkpoint is smaller and decodes to the original`() {
+        val encoded = CheckpointEncoding.Deflate.encode(serialized)
+        assertThat(encoded.size).isLessThan(serialized.size)
+        assertThat(CheckpointEncoding.decode(encoded)).isEqualTo(serialized)
+    }
+}
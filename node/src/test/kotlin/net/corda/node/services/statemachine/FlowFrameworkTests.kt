@@ -2,6 +2,7 @@ package net.corda.node.services.statemachine
 
 import co.paralleluniverse.fibers.Fiber
 import co.paralleluniverse.fibers.Suspendable
+import com.nhaarman.mockito_kotlin.whenever
 import com.google.common.util.concurrent.ListenableFuture
 import net.corda.contracts.asset.Cash
 import net.corda.core.contracts.ContractState
@@ -49,6 +50,7 @@ import org.junit.Before
 import org.junit.Test
 import rx.Notification
 import rx.Observable
+import java.time.Duration
 import java.time.Instant
 import java.util.*
 import kotlin.reflect.KClass
@@ -580,6 +582,35 @@ class FlowFrameworkTests {
         assertThat(waiterStx.getOrThrow()).isEqualTo(committerFiber.getOrThrow().resultFuture.getOrThrow())
     }
 
+    @Test
+    fun `evicted flow is rehydrated by a session message`() {
+        val node3 = createEvictingNode()
+        node2.registerFlowFactory(SendAndReceiveFlow::class) { SendFlow("Hello", it) }
+        val result = node3.services.startFlow(SendAndReceiveFlow(node2.info.legalIdentity, "Hi")).resultFuture
+        node3.smm.executor.flush()
+        assertThat(node3.smm.evictIdleFlows(Duration.ZERO)).isEqualTo(1)
+        assertThat(node3.smm.allStateMachines).isEmpty()
+        mockNet.runNetwork()
+        assertThat(result.getOrThrow()).isEqualTo("Hello")
+        assertThat(node3.checkpointStorage.checkpoints()).isEmpty()
+    }
+
+    @Test
+    fun `evicted flow is rehydrated by a ledger commit`() {
+        val node3 = createEvictingNode()
+        val ptx = TransactionBuilder(notary = notary1.info.notaryIdentity)
+        ptx.addOutputState(DummyState())
+        val stx = node1.services.signInitialTransaction(ptx)
+
+        node1.registerFlowFactory(WaitingFlows.Waiter::class) { WaitingFlows.Committer(it) }
+        val waiterStx = node3.services.startFlow(WaitingFlows.Waiter(stx, node1.info.legalIdentity)).resultFuture
+        node3.smm.executor.flush()
+        assertThat(node3.smm.evictIdleFlows(Duration.ZERO)).isEqualTo(1)
+        mockNet.runNetwork()
+        assertThat(waiterStx.getOrThrow().id).isEqualTo(stx.id)
+        assertThat(node3.checkpointStorage.checkpoints()).isEmpty()
+    }
+
     @Test
     fun `committer throws exception before calling the finality flow`() {
         val ptx = TransactionBuilder(notary = notary1.info.notaryIdentity)
@@ -704,6 +735,18 @@ class FlowFrameworkTests {
         return observable.toFuture()
     }
 
+    private fun createEvictingNode(): MockNode {
+        val node = mockNet.createNode(node1.network.myAddress, configOverrides = {
+            whenever(it.flowEvictionIdleSeconds).thenReturn(3600)
+        })
+        mockNet.runNetwork()
+        listOf(node1, node2, notary1, notary2).forEach {
+            it.services.identityService.registerIdentity(node.services.myInfo.legalIdentityAndCert)
+            node.services.identityService.registerIdentity(it.services.myInfo.legalIdentityAndCert)
+        }
+        return node
+    }
+
     private fun sessionInit(clientFlowClass: KClass<out FlowLogic<*>>, flowVersion: Int = 1, payload: Any? = null): SessionInit {
         return SessionInit(0, clientFlowClass.java, flowVersion, payload)
     }
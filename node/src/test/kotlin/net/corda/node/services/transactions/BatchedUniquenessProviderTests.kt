@@ -0,0 +1,108 @@
+package net.corda.node.services.transactions
+
+import net.corda.core.crypto.SecureHash
+import net.corda.core.getOrThrow
+import net.corda.core.node.services.UniquenessException
+import net.corda.node.utilities.CordaPersistence
+import net.corda.node.utilities.configureDatabase
+import net.corda.testing.LogHelper
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.TestDependencyInjectionBase
+import net.corda.testing.generateStateRef
+import net.corda.testing.node.makeTestDataSourceProperties
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class BatchedUniquenessProviderTests : TestDependencyInjectionBase() {
+    val identity = MEGA_CORP
+    val txID = SecureHash.randomSHA256()
+
+    lateinit var database: CordaPersistence
+    lateinit var provider: BatchedUniquenessProvider
+
+    @Before
+    fun setUp() {
+        LogHelper.setLevel(BatchedUniquenessProvider::class)
+        database = configureDatabase(makeTestDataSourceProperties())
+        provider = BatchedUniquenessProvider(database)
+    }
+
+    @After
+    fun tearDown() {
+        provider.stop()
+        database.close()
+        LogHelper.reset(BatchedUniquenessProvider::class)
+    }
+
+    @Test fun `should commit a transaction with unused inputs without exception`() {
+        provider.commit(listOf(generateStateRef()), txID, identity)
+    }
+
+    @Test fun `should report a conflict for a transaction with previously used inputs`() {
+        val inputState = generateStateRef()
+        val inputs = listOf(generateStateRef(), inputState)
+        provider.commit(inputs, txID, identity)
+
+        val ex = assertFailsWith<UniquenessException> { provider.commit(listOf(inputState), SecureHash.randomSHA256(), identity) }
+
+        val consumingTx = ex.error.stateHistory[inputState]!!
+        assertEquals(consumingTx.id, txID)
+        assertEquals(consumingTx.inputIndex, inputs.indexOf(inputState))
+        assertEquals(consumingTx.requestingParty, identity)
+    }
+
+    @Test fun `should report a conflict for inputs committed by the persistent uniqueness provider`() {
+        val inputState = generateStateRef()
+        database.transaction {
+            PersistentUniquenessProvider().commit(listOf(inputState), txID, identity)
+        }
+
+        val ex = assertFailsWith<UniquenessException> { provider.commit(listOf(inputState), SecureHash.randomSHA256(), identity) }
+        assertEquals(ex.error.stateHistory[inputState]!!.id, txID)
+    }
+
+    @Test fun `should refuse to commit once stopped`() {
+        provider.stop()
+        assertFailsWith<IllegalStateException> { provider.commit(listOf(generateStateRef()), txID, identity) }
+    }
+
+    @Test fun `only one of several concurrent transactions with the same input is committed`() {
+        val inputState = generateStateRef()
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = (1..8).map {
+                executor.submit(Callable {
+                    try {
+                        provider.commit(listOf(generateStateRef(), inputState), SecureHash.randomSHA256(), identity)
+                        true
+                    } catch (e: UniquenessException) {
+                        false
+                    }
+                })
+            }.map { it.get() }
+            assertEquals(1, results.count { it })
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test fun `only one of several requests with the same input made without waiting is committed`() {
+        val inputState = generateStateRef()
+        // The later requests wait for the first to be committed, without holding up this thread.
+        val futures = (1..8).map { provider.commitAsync(listOf(generateStateRef(), inputState), SecureHash.randomSHA256(), identity) }
+        val results = futures.map {
+            try {
+                it.getOrThrow()
+                true
+            } catch (e: UniquenessException) {
+                false
+            }
+        }
+        assertEquals(1, results.count { it })
+    }
+}
@@ -21,6 +21,7 @@ import org.junit.Before
 import org.junit.Test
 import java.util.concurrent.CompletableFuture
 import kotlin.test.assertEquals
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
 class DistributedImmutableMapTests : TestDependencyInjectionBase() {
@@ -77,6 +78,39 @@ class DistributedImmutableMapTests : TestDependencyInjectionBase() {
         assertTrue { conflict == entries }
     }
 
+    @Test
+    fun `stores batched entries independently of each other`() {
+        val client = cluster.last().client
+
+        val committed = mapOf("key1" to "value1")
+        assertTrue { client.submit(DistributedImmutableMap.Commands.PutAll(committed)).getOrThrow().isEmpty() }
+
+        val batches = listOf(
+                mapOf("key2" to "value2"),
+                mapOf("key1" to "other", "key3" to "value3"),
+                mapOf("key2" to "other"),
+                mapOf("key4" to "value4"))
+        val conflicts = client.submit(DistributedImmutableMap.Commands.PutAllBatch(batches)).getOrThrow()
+
+        assertEquals(mapOf(1 to mapOf("key1" to "value1"), 2 to mapOf("key2" to "value2")), conflicts)
+        assertEquals("value2", client.submit(DistributedImmutableMap.Commands.Get<String, String>("key2")).getOrThrow())
+        assertNull(client.submit(DistributedImmutableMap.Commands.Get<String, String>("key3")).getOrThrow())
+        assertEquals("value4", client.submit(DistributedImmutableMap.Commands.Get<String, String>("key4")).getOrThrow())
+    }
+
+    @Test
+    fun `migrates the keys of entries written by earlier versions`() {
+        val client = cluster.last().client
+
+        // Keys of the earlier type are numbers, which the replicas migrate by prefixing them with "key".
+        val conflict = client.submit(DistributedImmutableMap.Commands.PutAll(mapOf(1 to "value1"))).getOrThrow()
+        assertTrue { conflict.isEmpty() }
+
+        assertEquals("value1", client.submit(DistributedImmutableMap.Commands.Get<String, String>("key1")).getOrThrow())
+        val conflicts = client.submit(DistributedImmutableMap.Commands.PutAll(mapOf("key1" to "other"))).getOrThrow()
+        assertEquals(mapOf("key1" to "value1"), conflicts)
+    }
+
     private fun setUpCluster(nodeCount: Int = 3): List<Member> {
         val clusterAddress = freeLocalHostAndPort()
         val cluster = mutableListOf(createReplica(clusterAddress))
@@ -84,11 +118,13 @@ class DistributedImmutableMapTests : TestDependencyInjectionBase() {
         return cluster.map { it.getOrThrow() }
     }
 
+    private fun migrateKey(key: Any): String = if (key is Int) "key$key" else key as String
+
     private fun createReplica(myAddress: NetworkHostAndPort, clusterAddress: NetworkHostAndPort? = null): CompletableFuture<Member> {
         val storage = Storage.builder().withStorageLevel(StorageLevel.MEMORY).build()
         val address = Address(myAddress.host, myAddress.port)
 
-        val stateMachineFactory = { DistributedImmutableMap<String, ByteArray>(database, "commited_states_${myAddress.port}") }
+        val stateMachineFactory = { DistributedImmutableMap<String, ByteArray>(database, "commited_states_${myAddress.port}") { migrateKey(it) } }
 
         val server = CopycatServer.builder(address)
                 .withStateMachine(stateMachineFactory)
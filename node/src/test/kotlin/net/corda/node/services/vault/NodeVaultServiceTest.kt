@@ -27,9 +27,11 @@ import org.junit.Before
 import org.junit.Test
 import rx.observers.TestSubscriber
 import java.util.*
+import java.util.concurrent.Callable
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.Executors
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 import kotlin.test.assertFalse
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
@@ -370,6 +372,46 @@ class NodeVaultServiceTest : TestDependencyInjectionBase() {
         }
     }
 
+    @Test
+    fun `unconsumedStatesForSpending selects different states for concurrent requests`() {
+        database.transaction {
+            services.fillWithSomeTestCash(100.DOLLARS, DUMMY_NOTARY, 10, 10, Random(0L))
+        }
+
+        val executor = Executors.newFixedThreadPool(5)
+        val selections = (1..10).map {
+            executor.submit(Callable {
+                database.transaction {
+                    vaultSvc.unconsumedStatesForSpending<Cash.State>(Amount(1, USD), lockId = UUID.randomUUID())
+                }
+            })
+        }.map { it.get() }
+        executor.shutdown()
+
+        selections.forEach { assertThat(it).hasSize(1) }
+        assertThat(selections.map { it.single().ref }.toSet()).hasSize(10)
+        database.transaction {
+            assertThat(vaultSvc.softLockedStates<Cash.State>()).hasSize(10)
+        }
+    }
+
+    @Test
+    fun `unconsumedStatesForSpending selects states claimed by a rolled back transaction`() {
+        database.transaction {
+            services.fillWithSomeTestCash(100.DOLLARS, DUMMY_NOTARY, 1, 1, Random(0L))
+        }
+        assertFailsWith<IllegalStateException> {
+            database.transaction {
+                assertThat(vaultSvc.unconsumedStatesForSpending<Cash.State>(100.DOLLARS, lockId = UUID.randomUUID())).hasSize(1)
+                throw IllegalStateException("Roll back the soft lock reservation")
+            }
+        }
+        database.transaction {
+            assertThat(vaultSvc.unconsumedStatesForSpending<Cash.State>(100.DOLLARS, lockId = UUID.randomUUID())).hasSize(1)
+            assertThat(vaultSvc.softLockedStates<Cash.State>()).hasSize(1)
+        }
+    }
+
     @Test
     fun `states soft locking query granularity`() {
         database.transaction {
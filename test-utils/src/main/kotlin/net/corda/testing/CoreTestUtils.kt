@@ -18,6 +18,7 @@ import net.corda.node.services.config.NodeConfiguration
 import net.corda.node.services.config.VerifierType
 import net.corda.node.services.config.configureDevKeyAndTrustStores
 import net.corda.node.services.identity.InMemoryIdentityService
+import net.corda.node.services.statemachine.CheckpointEncoding
 import net.corda.nodeapi.config.SSLConfiguration
 import net.corda.testing.node.MockServices
 import net.corda.testing.node.makeTestDataSourceProperties
@@ -170,6 +171,13 @@ fun testNodeConfiguration(
     whenever(nc.certificateChainCheckPolicies).thenReturn(emptyList())
     whenever(nc.verifierType).thenReturn(VerifierType.InMemory)
     whenever(nc.messageRedeliveryDelaySeconds).thenReturn(5)
+    whenever(nc.messageBatchSize).thenReturn(1)
+    whenever(nc.messageBatchTimeoutMillis).thenReturn(0L)
+    whenever(nc.flowShardCount).thenReturn(1)
+    whenever(nc.flowEvictionIdleSeconds).thenReturn(0)
+    whenever(nc.signingThreadCount).thenReturn(0)
+    whenever(nc.checkpointEncoding).thenReturn(CheckpointEncoding.None)
+    whenever(nc.notaryCommitBatchSize).thenReturn(1)
     return nc
 }
 
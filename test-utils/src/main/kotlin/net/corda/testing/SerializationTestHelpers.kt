@@ -5,6 +5,7 @@ import net.corda.core.serialization.*
 import net.corda.core.utilities.ByteSequence
 import net.corda.node.serialization.KryoServerSerializationScheme
 import net.corda.nodeapi.serialization.*
+import java.io.OutputStream
 
 fun <T> withTestSerialization(block: () -> T): T {
     initialiseTestSerialization()
@@ -97,6 +98,10 @@ class TestSerializationFactory : SerializationFactory {
     override fun <T : Any> serialize(obj: T, context: SerializationContext): SerializedBytes<T> {
         return delegate!!.serialize(obj, context)
     }
+
+    override fun <T : Any> serializeTo(obj: T, sink: OutputStream, context: SerializationContext) {
+        delegate!!.serializeTo(obj, sink, context)
+    }
 }
 
 class TestSerializationContext : SerializationContext {
@@ -28,6 +28,7 @@ import rx.subjects.PublishSubject
 import java.time.Duration
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.Executor
 import java.util.concurrent.LinkedBlockingQueue
 import javax.annotation.concurrent.ThreadSafe
 import kotlin.concurrent.schedule
@@ -362,6 +363,16 @@ class InMemoryMessagingNetwork(
             state.locked { check(handlers.remove(registration as Handler)) }
         }
 
+        override fun processAsync(message: ReceivedMessage, executor: Executor, process: () -> Unit) {
+            executor.execute {
+                try {
+                    database.transaction { process() }
+                } catch(e: Exception) {
+                    log.error("Caught exception processing $this/${message.topicSession}", e)
+                }
+            }
+        }
+
         override fun send(message: Message, target: MessageRecipients, retryId: Long?) {
             check(running)
             msgSend(this, message, target)
@@ -9,6 +9,9 @@ import net.corda.core.messaging.DataFeed
 import net.corda.core.node.NodeInfo
 import net.corda.core.node.ServiceHub
 import net.corda.core.node.services.*
+import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
+import net.corda.core.node.services.vault.PageSpecification
+import net.corda.core.serialization.AttachmentsClassLoaderCache
 import net.corda.core.serialization.SerializeAsToken
 import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.transactions.SignedTransaction
@@ -126,6 +129,8 @@ class MockKeyManagementService(val identityService: IdentityService,
 class MockAttachmentStorage : AttachmentStorage, SingletonSerializeAsToken() {
     val files = HashMap<SecureHash, ByteArray>()
 
+    override val classLoaderCache = AttachmentsClassLoaderCache(this)
+
     override fun openAttachment(id: SecureHash): Attachment? {
         val f = files[id] ?: return null
         return object : Attachment {
@@ -161,7 +166,22 @@ open class MockTransactionStorage : WritableTransactionStorage, SingletonSeriali
         return DataFeed(txns.values.toList(), _updatesPublisher)
     }
 
-    private val txns = HashMap<SecureHash, SignedTransaction>()
+    override fun queryBy(paging: PageSpecification, since: SecureHash?, upTo: Long?): TransactionStorage.Page {
+        // A transaction's position is one more than its index in the order of recording.
+        val recorded = txns.values.toList()
+        val sinceIndex = since?.let { id -> recorded.indexOfFirst { it.id == id } } ?: -1
+        require(since == null || sinceIndex >= 0) { "Unknown transaction $since" }
+        val available = recorded.take(upTo?.toInt() ?: recorded.size).drop(sinceIndex + 1)
+        val pageNumber = if (paging.isDefault) DEFAULT_PAGE_NUM else paging.pageNumber
+        val page = available.drop((pageNumber - 1) * paging.pageSize).take(paging.pageSize)
+        return TransactionStorage.Page(page, available.size.toLong(), recorded.size.toLong())
+    }
+
+    override fun trackBy(paging: PageSpecification, since: SecureHash?): DataFeed<TransactionStorage.Page, SignedTransaction> {
+        return DataFeed(queryBy(paging, since), _updatesPublisher)
+    }
+
+    private val txns = LinkedHashMap<SecureHash, SignedTransaction>()
 
     private val _updatesPublisher = PublishSubject.create<SignedTransaction>()
 
@@ -4,6 +4,7 @@ import com.typesafe.config.ConfigFactory
 import com.typesafe.config.ConfigParseOptions
 import net.corda.loadtest.tests.StabilityTest
 import net.corda.loadtest.tests.crossCashTest
+import net.corda.loadtest.tests.dummyNotarisationTest
 import net.corda.loadtest.tests.selfIssueTest
 import net.corda.nodeapi.config.parseAs
 import java.io.File
@@ -127,6 +128,14 @@ private fun runLoadTest(loadTestConfiguration: LoadTestConfiguration) {
                                     )
                             )
                     )
+            ),
+            dummyNotarisationTest to LoadTest.RunParameters(
+                    parallelism = 10,
+                    generateCount = 5000,
+                    clearDatabaseBeforeRun = false,
+                    executionFrequency = null,
+                    gatherFrequency = 100,
+                    disruptionPatterns = listOf(listOf()) // no disruptions
             )
     ))
 }
@@ -1,5 +1,6 @@
 package net.corda.loadtest.tests
 
+import com.codahale.metrics.Timer
 import net.corda.client.mock.Generator
 import net.corda.client.mock.int
 import net.corda.client.mock.pickOne
@@ -18,6 +19,8 @@ import net.corda.testing.node.MockServices
 import org.slf4j.LoggerFactory
 
 private val log = LoggerFactory.getLogger("NotaryTest")
+// How long it takes to finalise, and so notarise, the move transactions.
+private val notarisationTimer = Timer()
 
 data class NotariseCommand(val issueTx: SignedTransaction, val moveTx: SignedTransaction, val node: NodeConnection)
 
@@ -43,11 +46,19 @@ val dummyNotarisationTest = LoadTest<NotariseCommand, Unit>(
                 val proxy = node.proxy
                 val issueFlow = proxy.startFlow(::FinalityFlow, issueTx)
                 issueFlow.returnValue.thenMatch({
+                    val timerContext = notarisationTimer.time()
                     val moveFlow = proxy.startFlow(::FinalityFlow, moveTx)
+                    moveFlow.returnValue.thenMatch({ timerContext.stop() }, { log.error("Failure", it) })
                 }, {})
             } catch (e: FlowException) {
                 log.error("Failure", e)
             }
         },
-        gatherRemoteState = {}
+        gatherRemoteState = {
+            val snapshot = notarisationTimer.snapshot
+            fun Double.toMillis() = this / 1000000
+            log.info("Notarised ${notarisationTimer.count} transactions at ${"%.1f".format(notarisationTimer.oneMinuteRate)}/s, " +
+                    "latency mean ${"%.1f".format(snapshot.mean.toMillis())}ms, " +
+                    "99th percentile ${"%.1f".format(snapshot.get99thPercentile().toMillis())}ms")
+        }
 )